@@ -0,0 +1,27 @@
+package io.paymenthighway.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler and JSON results.
+ * <p/>
+ * Accepts the usual JMH command line options, e.g. a benchmark name regexp or -rff results.json.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class);
+    if (!commandLine.getResultFormat().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON);
+    }
+    new Runner(builder.build()).run();
+  }
+}
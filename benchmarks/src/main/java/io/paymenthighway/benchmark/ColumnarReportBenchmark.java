@@ -0,0 +1,67 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.reconciliation.ColumnarReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a generated month of reconciliation transactions into response objects and into columns, and summing
+ * the approved amounts by currency over each. The columns keep about a sixth of the heap of the objects, and the
+ * sum should not allocate per row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ColumnarReportBenchmark {
+
+  @Param({"10000", "200000"})
+  int rows;
+
+  String json;
+  ReconciliationReportResponse objects;
+  ColumnarReport columns;
+
+  @Setup
+  public void setUp() throws IOException {
+    json = Fixtures.reconciliationReport(rows);
+    objects = new JsonParser().mapResponse(json, ReconciliationReportResponse.class);
+    columns = ColumnarReport.parse(json);
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse parseObjects() {
+    return new JsonParser().mapResponse(json, ReconciliationReportResponse.class);
+  }
+
+  @Benchmark
+  public ColumnarReport parseColumns() throws IOException {
+    return ColumnarReport.parse(json);
+  }
+
+  @Benchmark
+  public Map<String, Long> sumObjects() {
+    Map<String, Long> sums = new HashMap<>();
+    for (ReconciliationSettlement settlement : objects.getReconciliationSettlements()) {
+      for (ReconciliationTransaction transaction : settlement.getTransactions()) {
+        if ("ok".equals(transaction.getStatus().getState())) {
+          Long sum = sums.get(transaction.getCurrency());
+          sums.put(transaction.getCurrency(), (sum != null ? sum : 0) + Long.parseLong(transaction.getAmount()));
+        }
+      }
+    }
+    return sums;
+  }
+
+  @Benchmark
+  public Map<String, Long> sumColumns() {
+    return columns.scan().state("ok").sumBy(ColumnarReport.Dimension.CURRENCY, ColumnarReport.Measure.AMOUNT);
+  }
+}
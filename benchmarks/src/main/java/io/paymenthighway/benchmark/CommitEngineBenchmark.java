@@ -0,0 +1,74 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.batch.BatchStatistics;
+import io.paymenthighway.batch.CommitEngine;
+import io.paymenthighway.emulator.LatencyDistribution;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batch commits against the emulator with a fixed 20 ms latency at increasing concurrency. Commits of already
+ * committed transactions are answered like the first one, so every invocation commits the same authorizations.
+ * Throughput should grow linearly with the concurrency until the client runs out of CPU.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(CommitEngineBenchmark.BATCH_SIZE)
+@State(Scope.Benchmark)
+public class CommitEngineBenchmark {
+
+  static final int BATCH_SIZE = 128;
+
+  @Param({"1", "4", "16", "32"})
+  int concurrency;
+
+  PaymentHighwayEmulator emulator;
+  PaymentAPI paymentAPI;
+  List<UUID> transactionIds = new ArrayList<>();
+
+  @Setup
+  public void setUp() throws IOException {
+    emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret")
+        .setLatency(LatencyDistribution.fixed(20, TimeUnit.MILLISECONDS))
+        .build();
+    paymentAPI = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+    paymentAPI.setMaxConnections(concurrency);
+    TransactionRequest request = TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 1990, "EUR")
+        .setCommit(false)
+        .build();
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      UUID transactionId = paymentAPI.initTransaction().getId();
+      paymentAPI.debitTransaction(transactionId, request);
+      transactionIds.add(transactionId);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    paymentAPI.close();
+    emulator.close();
+  }
+
+  @Benchmark
+  public BatchStatistics commitBatch() throws IOException {
+    CommitEngine engine = new CommitEngine.Builder(paymentAPI).setConcurrency(concurrency).build();
+    for (UUID transactionId : transactionIds) {
+      engine.submit(transactionId, "1990", "EUR");
+    }
+    engine.close();
+    BatchStatistics statistics = engine.getStatistics();
+    if (statistics.getSucceeded() != BATCH_SIZE) {
+      throw new IllegalStateException("Commits failed: " + statistics);
+    }
+    return statistics;
+  }
+}
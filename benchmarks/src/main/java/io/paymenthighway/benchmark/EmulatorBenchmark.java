@@ -0,0 +1,74 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent load against the stateful emulator: every operation runs a full init, debit and status flow
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class EmulatorBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Emulator {
+
+    PaymentHighwayEmulator emulator;
+    UUID cardToken;
+
+    @Setup
+    public void setUp() throws IOException {
+      emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+      UUID tokenizationId = emulator.tokenize(new Card("4153013999700024", "2023", "11", "024"));
+      try (PaymentAPI paymentAPI = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId")) {
+        cardToken = paymentAPI.tokenize(tokenizationId).getCardToken();
+      }
+    }
+
+    @TearDown
+    public void tearDown() {
+      emulator.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Client {
+
+    PaymentAPI paymentAPI;
+    TransactionRequest debitRequest;
+
+    @Setup
+    public void setUp(Emulator emulator) {
+      paymentAPI = new PaymentAPI(emulator.emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+      debitRequest = TransactionRequest.Builder(new Token(emulator.cardToken), 1990, "EUR")
+          .setOrder("1000123A")
+          .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      paymentAPI.close();
+    }
+  }
+
+  @Benchmark
+  public TransactionStatusResponse debitFlow(Client client) throws IOException {
+    UUID transactionId = client.paymentAPI.initTransaction().getId();
+    TransactionResponse debit = client.paymentAPI.debitTransaction(transactionId, client.debitRequest);
+    if (!"100".equals(debit.getResult().getCode())) {
+      throw new IllegalStateException("Debit failed: " + debit.getResult().getMessage());
+    }
+    return client.paymentAPI.transactionStatus(transactionId);
+  }
+}
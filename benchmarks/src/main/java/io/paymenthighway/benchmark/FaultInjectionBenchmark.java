@@ -0,0 +1,121 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.fault.Fault;
+import io.paymenthighway.fault.FaultInjectingHttpClient;
+import io.paymenthighway.fault.FaultSchedule;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction status calls against the emulator under each fault profile.
+ *
+ * The auxiliary counters report, per second, the calls that failed and the faults injected; failures divided by
+ * faults is the error amplification of the profile. Anything above 1.0 means a fault broke more than its own call,
+ * for example by poisoning a pooled connection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class FaultInjectionBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Emulator {
+
+    @Param({"none", "slow_read", "drop_before_send", "drop_after_send", "truncated_body", "wrong_signature",
+        "unauthorized", "server_error_burst"})
+    String profile;
+
+    PaymentHighwayEmulator emulator;
+    UUID transactionId;
+
+    @Setup
+    public void setUp() throws IOException {
+      emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+      try (PaymentAPI paymentAPI = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId")) {
+        transactionId = paymentAPI.initTransaction().getId();
+      }
+    }
+
+    @TearDown
+    public void tearDown() {
+      emulator.close();
+    }
+
+    FaultSchedule schedule(long seed) {
+      switch (profile) {
+        case "none":
+          return FaultSchedule.none();
+        case "slow_read":
+          return FaultSchedule.probabilistic(seed).with(Fault.slowRead(5, TimeUnit.MILLISECONDS), 0.1);
+        case "drop_before_send":
+          return FaultSchedule.probabilistic(seed).with(Fault.dropBeforeSend(), 0.1);
+        case "drop_after_send":
+          return FaultSchedule.probabilistic(seed).with(Fault.dropAfterSend(), 0.1);
+        case "truncated_body":
+          return FaultSchedule.probabilistic(seed).with(Fault.truncatedBody(), 0.1);
+        case "wrong_signature":
+          return FaultSchedule.probabilistic(seed).with(Fault.wrongSignature(), 0.1);
+        case "unauthorized":
+          return FaultSchedule.probabilistic(seed).with(Fault.status(401), 0.1);
+        case "server_error_burst":
+          return FaultSchedule.burst(Fault.status(503), 100, 10);
+        default:
+          throw new IllegalArgumentException("Unknown fault profile " + profile);
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Client {
+
+    PaymentAPI paymentAPI;
+    FaultInjectingHttpClient httpClient;
+
+    @Setup
+    public void setUp(Emulator emulator) {
+      paymentAPI = new PaymentAPI(emulator.emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+      httpClient = new FaultInjectingHttpClient(HttpClients.createDefault(),
+          emulator.schedule(Thread.currentThread().getId()));
+      paymentAPI.setHttpClient(httpClient);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      paymentAPI.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcomes {
+
+    public long failures;
+    public long faults;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      failures = 0;
+      faults = 0;
+    }
+  }
+
+  @Benchmark
+  public TransactionStatusResponse transactionStatus(Emulator emulator, Client client, Outcomes outcomes) {
+    long passed = client.httpClient.getInjected(Fault.Type.NONE);
+    try {
+      return client.paymentAPI.transactionStatus(emulator.transactionId);
+    } catch (IOException e) {
+      outcomes.failures++;
+      return null;
+    } finally {
+      outcomes.faults += 1 - (client.httpClient.getInjected(Fault.Type.NONE) - passed);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.model.response.*;
+import io.paymenthighway.model.response.transaction.DebitTransactionResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Response bodies used by the benchmarks, read from the fixtures resource directory
+ */
+public final class Fixtures {
+
+  /** Fixture name to the response class it deserializes to */
+  public static final Map<String, Class<?>> RESPONSE_TYPES = new LinkedHashMap<>();
+
+  static {
+    RESPONSE_TYPES.put("init", InitTransactionResponse.class);
+    RESPONSE_TYPES.put("debit", DebitTransactionResponse.class);
+    RESPONSE_TYPES.put("transaction", TransactionResponse.class);
+    RESPONSE_TYPES.put("commit", CommitTransactionResponse.class);
+    RESPONSE_TYPES.put("status", TransactionStatusResponse.class);
+    RESPONSE_TYPES.put("order_search", OrderSearchResponse.class);
+    RESPONSE_TYPES.put("tokenization", TokenizationResponse.class);
+    RESPONSE_TYPES.put("report", ReportResponse.class);
+    RESPONSE_TYPES.put("reconciliation_report", ReconciliationReportResponse.class);
+  }
+
+  private static final String[] CURRENCIES = {"EUR", "SEK", "USD"};
+
+  private Fixtures() {
+  }
+
+  /**
+   * @param rows
+   * @return String a reconciliation report of one settlement with the given number of random transactions
+   */
+  public static String reconciliationReport(int rows) {
+    Random random = new Random(42);
+    StringBuilder builder = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":[")
+        .append("{\"batch\":\"000001\",\"acquirer\":{\"id\":\"nets\",\"name\":\"Nets\"},\"transactions\":[");
+    for (int i = 0; i < rows; i++) {
+      String currency = CURRENCIES[random.nextInt(CURRENCIES.length)];
+      long amount = 100 + random.nextInt(100000);
+      builder.append(i > 0 ? "," : "").append("{\"id\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+          .append("\",\"timestamp\":\"2016-03-").append(String.format("%02dT%02d:%02d:00Z", 1 + i % 28, i % 24,
+          i % 60)).append("\",\"type\":\"debit\",\"partial_pan\":\"0024\",\"amount\":\"").append(amount)
+          .append("\",\"currency\":\"").append(currency).append("\",\"filing_code\":\"1603")
+          .append(String.format("%08d", i)).append("\",\"authorization_code\":\"894463\",\"status\":{\"state\":\"")
+          .append(random.nextInt(20) == 0 ? "failed" : "ok")
+          .append("\",\"code\":4000},\"merchant\":{\"id\":\"test_merchantId\",\"name\":\"Test user\"},")
+          .append("\"acquirer_amount_presented\":\"").append(amount)
+          .append("\",\"acquirer_amount_presented_currency\":\"").append(currency)
+          .append("\",\"acquirer_exchange_rate\":\"1.0\",\"acquirer_commission\":\"2\",")
+          .append("\"acquirer_commission_currency\":\"").append(currency).append("\"}");
+    }
+    return builder.append("]}]}").toString();
+  }
+
+  /**
+   * @param name Fixture name without the .json suffix
+   * @return String the fixture content
+   */
+  public static String load(String name) {
+    try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".json")) {
+      if (in == null) {
+        throw new IllegalArgumentException("No fixture " + name);
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
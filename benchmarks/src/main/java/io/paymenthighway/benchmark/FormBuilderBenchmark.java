@@ -0,0 +1,71 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.FormBuilder;
+import io.paymenthighway.FormContainer;
+import io.paymenthighway.FormTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating the form parameters, and rendering them from precompiled templates
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FormBuilderBenchmark {
+
+  private static final String SUCCESS_URL = "https://example.com/success";
+  private static final String FAILURE_URL = "https://example.com/failure";
+  private static final String CANCEL_URL = "https://example.com/cancel";
+  private static final String LANGUAGE = "EN";
+  private static final UUID TOKEN = UUID.fromString("71435029-fbb6-4506-aa86-8529efb640b0");
+
+  private FormBuilder formBuilder;
+  private FormTemplate paymentTemplate;
+  private FormTemplate tokenTemplate;
+
+  @Setup
+  public void setUp() {
+    formBuilder = new FormBuilder("POST", "testKey", "testSecret", "test", "test_merchantId",
+        "https://v1-hub-staging.sph-test-solinor.com");
+    paymentTemplate = new FormTemplate.Builder(formBuilder, FormTemplate.Type.PAYMENT, SUCCESS_URL, FAILURE_URL,
+        CANCEL_URL, LANGUAGE).setCurrency("EUR").build();
+    tokenTemplate = new FormTemplate.Builder(formBuilder, FormTemplate.Type.PAY_WITH_TOKEN_AND_CVC, SUCCESS_URL,
+        FAILURE_URL, CANCEL_URL, LANGUAGE).setCurrency("EUR").build();
+  }
+
+  @Benchmark
+  public FormContainer generateAddCardParameters() {
+    return formBuilder.generateAddCardParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL, LANGUAGE);
+  }
+
+  @Benchmark
+  public FormContainer generatePaymentParameters() {
+    return formBuilder.generatePaymentParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL, LANGUAGE, "1990", "EUR",
+        "1000123A", "A Box of Dreams. 19,90€");
+  }
+
+  @Benchmark
+  public FormContainer generateAddCardAndPaymentParameters() {
+    return formBuilder.generateAddCardAndPaymentParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL, LANGUAGE, "1990",
+        "EUR", "1000123A", "A Box of Dreams. 19,90€");
+  }
+
+  @Benchmark
+  public FormContainer generatePayWithTokenAndCvcParameters() {
+    return formBuilder.generatePayWithTokenAndCvcParameters(TOKEN, SUCCESS_URL, FAILURE_URL, CANCEL_URL, LANGUAGE,
+        "1990", "EUR", "1000123A", "A Box of Dreams. 19,90€");
+  }
+
+  @Benchmark
+  public FormContainer renderPaymentTemplate() {
+    return paymentTemplate.render("1990", "1000123A", "A Box of Dreams. 19,90€");
+  }
+
+  @Benchmark
+  public FormContainer renderPayWithTokenAndCvcTemplate() {
+    return tokenTemplate.render(TOKEN, "1990", "1000123A", "A Box of Dreams. 19,90€");
+  }
+}
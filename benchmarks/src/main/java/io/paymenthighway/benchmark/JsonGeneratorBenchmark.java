@@ -0,0 +1,55 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonGenerator;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing each request type
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonGeneratorBenchmark {
+
+  @Param({"token_debit", "card_debit", "commit", "revert"})
+  public String request;
+
+  private JsonGenerator generator;
+  private Request value;
+
+  @Setup
+  public void setUp() {
+    generator = new JsonGenerator();
+    switch (request) {
+      case "token_debit":
+        value = TransactionRequest.Builder(new Token(UUID.fromString("71435029-fbb6-4506-aa86-8529efb640b0")), 1990, "EUR")
+            .setOrder("1000123A")
+            .setCustomer(new Customer("83.145.208.186"))
+            .build();
+        break;
+      case "card_debit":
+        value = TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 1990, "EUR")
+            .setOrder("1000123A")
+            .build();
+        break;
+      case "commit":
+        value = new CommitTransactionRequest("1990", "EUR");
+        break;
+      case "revert":
+        value = new RevertTransactionRequest("1990");
+        break;
+      default:
+        throw new IllegalArgumentException(request);
+    }
+  }
+
+  @Benchmark
+  public String createTransactionJson() {
+    return generator.createTransactionJson(value);
+  }
+}
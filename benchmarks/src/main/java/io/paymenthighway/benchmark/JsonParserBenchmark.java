@@ -0,0 +1,35 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializing each response type
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonParserBenchmark {
+
+  @Param({"init", "debit", "transaction", "commit", "status", "order_search", "tokenization", "report",
+      "reconciliation_report"})
+  public String response;
+
+  private JsonParser parser;
+  private String json;
+  private Class<?> type;
+
+  @Setup
+  public void setUp() {
+    parser = new JsonParser();
+    json = Fixtures.load(response);
+    type = Fixtures.RESPONSE_TYPES.get(response);
+  }
+
+  @Benchmark
+  public Object mapResponse() {
+    return parser.mapResponse(json, type);
+  }
+}
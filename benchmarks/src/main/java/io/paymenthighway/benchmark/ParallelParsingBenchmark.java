@@ -0,0 +1,54 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.json.ParallelReportParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializing a generated reconciliation report on the calling thread and on fork/join pools of increasing
+ * parallelism. Parallelism above the number of available cores only measures the overhead of splitting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParallelParsingBenchmark {
+
+  @Param({"200000"})
+  int rows;
+
+  @Param({"1", "2", "4", "8"})
+  int parallelism;
+
+  String json;
+  JsonParser sequential;
+  ForkJoinPool pool;
+  ParallelReportParser parallel;
+
+  @Setup
+  public void setUp() {
+    json = Fixtures.reconciliationReport(rows);
+    sequential = new JsonParser();
+    pool = new ForkJoinPool(parallelism);
+    parallel = new ParallelReportParser(pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse parseSequential() {
+    return sequential.mapResponse(json, ReconciliationReportResponse.class);
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse parseParallel() throws IOException {
+    return parallel.mapReconciliationReport(json);
+  }
+}
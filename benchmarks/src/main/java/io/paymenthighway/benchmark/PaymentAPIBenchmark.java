@@ -0,0 +1,66 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full Payment API calls against a local stub server: signing, HTTP, validation and parsing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PaymentAPIBenchmark {
+
+  private static final UUID TRANSACTION_ID = UUID.fromString("f9a48e02-4301-49ff-a4f1-65749435924a");
+
+  private StubPaymentServer server;
+  private PaymentAPI paymentAPI;
+  private TransactionRequest debitRequest;
+
+  @Setup
+  public void setUp() throws IOException {
+    server = new StubPaymentServer("testKey", "testSecret");
+    paymentAPI = new PaymentAPI(server.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+    debitRequest = TransactionRequest.Builder(new Token(UUID.fromString("71435029-fbb6-4506-aa86-8529efb640b0")), 1990, "EUR")
+        .setOrder("1000123A")
+        .build();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    paymentAPI.close();
+    server.close();
+  }
+
+  @Benchmark
+  public InitTransactionResponse initTransaction() throws IOException {
+    return paymentAPI.initTransaction();
+  }
+
+  @Benchmark
+  public TransactionResponse debitTransaction() throws IOException {
+    return paymentAPI.debitTransaction(TRANSACTION_ID, debitRequest);
+  }
+
+  @Benchmark
+  public CommitTransactionResponse commitTransaction() throws IOException {
+    return paymentAPI.commitTransaction(TRANSACTION_ID, "1990", "EUR");
+  }
+
+  @Benchmark
+  public TransactionStatusResponse transactionStatus() throws IOException {
+    return paymentAPI.transactionStatus(TRANSACTION_ID);
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse fetchReconciliationReport() throws IOException {
+    return paymentAPI.fetchReconciliationReport("20150320");
+  }
+}
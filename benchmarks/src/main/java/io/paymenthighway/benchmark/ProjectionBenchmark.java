@@ -0,0 +1,43 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.json.Projection;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializing a generated reconciliation report in full and with only the transaction id, amount, currency and
+ * status code projected. Run with -prof gc to compare the allocation per report.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ProjectionBenchmark {
+
+  private static final Projection PROJECTION = Projection.of("result.code", "settlements.transactions.id",
+      "settlements.transactions.amount", "settlements.transactions.currency", "settlements.transactions.status.code");
+
+  @Param({"10000", "200000"})
+  int rows;
+
+  String json;
+  JsonParser parser;
+
+  @Setup
+  public void setUp() {
+    json = Fixtures.reconciliationReport(rows);
+    parser = new JsonParser();
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse parseAll() {
+    return parser.mapResponse(json, ReconciliationReportResponse.class);
+  }
+
+  @Benchmark
+  public ReconciliationReportResponse parseProjected() {
+    return parser.mapResponse(json, ReconciliationReportResponse.class, PROJECTION);
+  }
+}
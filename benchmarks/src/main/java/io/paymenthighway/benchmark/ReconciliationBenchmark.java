@@ -0,0 +1,72 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.reconciliation.LedgerEntry;
+import io.paymenthighway.reconciliation.ReconciliationEngine;
+import io.paymenthighway.reconciliation.ReconciliationResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconciliation of a generated month against its ledger, one in twenty rows missing on either side or with a
+ * different amount, on one worker and on all cores. The nested loop it replaces is quadratic; the engine should
+ * scale with the rows and, given the cores, with the parallelism.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ReconciliationBenchmark {
+
+  @Param({"10000", "200000"})
+  int rows;
+
+  @Param({"1", "0"})
+  int parallelism;
+
+  ReconciliationReportResponse report;
+  List<LedgerEntry> ledger = new ArrayList<>();
+  ForkJoinPool pool;
+  ReconciliationEngine engine;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    StringBuilder json = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":[")
+        .append("{\"batch\":\"000001\",\"currency\":\"EUR\",\"transactions\":[");
+    boolean first = true;
+    for (int i = 0; i < rows; i++) {
+      UUID id = new UUID(random.nextLong(), random.nextLong());
+      long amount = 100 + random.nextInt(100000);
+      int kind = random.nextInt(20);
+      if (kind != 1) {
+        json.append(first ? "" : ",").append("{\"id\":\"").append(id).append("\",\"type\":\"debit\",\"amount\":\"")
+            .append(amount).append("\",\"currency\":\"EUR\"}");
+        first = false;
+      }
+      if (kind != 0) {
+        ledger.add(new LedgerEntry(id, kind == 2 ? amount + 1 : amount, "EUR"));
+      }
+    }
+    json.append("]}]}");
+    report = new JsonParser().mapResponse(json.toString(), ReconciliationReportResponse.class);
+    pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    engine = new ReconciliationEngine(pool);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public ReconciliationResult reconcile() {
+    return engine.reconcile(report, ledger.stream());
+  }
+}
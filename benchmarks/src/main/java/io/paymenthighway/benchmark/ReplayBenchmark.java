@@ -0,0 +1,67 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+import io.paymenthighway.replay.ExchangeFile;
+import io.paymenthighway.replay.RecordingHttpClient;
+import io.paymenthighway.replay.ReplayHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payment API calls replayed from a recording without network traffic, measuring only library overhead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+
+  private PaymentAPI paymentAPI;
+  private UUID transactionId;
+  private TransactionRequest debitRequest;
+
+  @Setup
+  public void setUp() throws IOException {
+    File recording = File.createTempFile("paymenthighway", ".phx");
+    recording.deleteOnExit();
+    debitRequest = TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 1990, "EUR")
+        .setOrder("1000123A")
+        .build();
+
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret")
+        .build();
+         PaymentAPI recorder = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId")) {
+      recorder.setHttpClient(new RecordingHttpClient(HttpClients.createDefault(), new ExchangeFile(recording)));
+      transactionId = recorder.initTransaction().getId();
+      recorder.debitTransaction(transactionId, debitRequest);
+      recorder.transactionStatus(transactionId);
+    }
+
+    paymentAPI = new PaymentAPI("http://127.0.0.1:1", "testKey", "testSecret", "test", "test_merchantId");
+    paymentAPI.setHttpClient(new ReplayHttpClient(ExchangeFile.read(recording), 0));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    paymentAPI.close();
+  }
+
+  @Benchmark
+  public TransactionResponse debitTransaction() throws IOException {
+    return paymentAPI.debitTransaction(transactionId, debitRequest);
+  }
+
+  @Benchmark
+  public TransactionStatusResponse transactionStatus() throws IOException {
+    return paymentAPI.transactionStatus(transactionId);
+  }
+}
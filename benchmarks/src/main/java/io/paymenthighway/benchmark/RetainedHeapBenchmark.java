@@ -0,0 +1,57 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The heap retained by a deserialized reconciliation report, measured as the used heap after a full collection with
+ * and without the report reachable. The retainedBytes counter is the result; the time includes the collections and
+ * only shows that the measurement ran.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RetainedHeapBenchmark {
+
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  @Param({"200000"})
+  int rows;
+
+  String json;
+  JsonParser parser;
+  ReconciliationReportResponse report;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Heap {
+
+    public long retainedBytes;
+  }
+
+  @Setup
+  public void setUp() {
+    json = Fixtures.reconciliationReport(rows);
+    parser = new JsonParser();
+  }
+
+  @Benchmark
+  public void parseReport(Heap heap) {
+    long before = usedHeap();
+    report = parser.mapResponse(json, ReconciliationReportResponse.class);
+    heap.retainedBytes = usedHeap() - before;
+    report = null;
+  }
+
+  private static long usedHeap() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return MEMORY.getHeapMemoryUsage().getUsed();
+  }
+}
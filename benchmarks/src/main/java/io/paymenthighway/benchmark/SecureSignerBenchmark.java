@@ -0,0 +1,51 @@
+package io.paymenthighway.benchmark;
+
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing and validating a Payment API message
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecureSignerBenchmark {
+
+  private SecureSigner signer;
+  private List<NameValuePair> headers;
+  private List<NameValuePair> signedHeaders;
+  private String body;
+
+  @Setup
+  public void setUp() {
+    signer = new SecureSigner("testKey", "testSecret");
+    body = Fixtures.load("status");
+
+    headers = new ArrayList<>();
+    headers.add(new BasicNameValuePair("sph-api-version", "20160307"));
+    headers.add(new BasicNameValuePair("sph-account", "test"));
+    headers.add(new BasicNameValuePair("sph-merchant", "test_merchantId"));
+    headers.add(new BasicNameValuePair("sph-timestamp", "2015-03-20T13:09:36Z"));
+    headers.add(new BasicNameValuePair("sph-request-id", "f47ac10b-58cc-4372-a567-0e02b2c3d479"));
+    headers.add(new BasicNameValuePair("Content-Type", "application/json; charset=utf-8"));
+
+    signedHeaders = new ArrayList<>(headers);
+    signedHeaders.add(new BasicNameValuePair("signature", signer.createSignature("GET", "/transaction/f9a48e02-4301-49ff-a4f1-65749435924a", headers, body)));
+  }
+
+  @Benchmark
+  public String createSignature() {
+    return signer.createSignature("GET", "/transaction/f9a48e02-4301-49ff-a4f1-65749435924a", headers, body);
+  }
+
+  @Benchmark
+  public boolean validateSignature() {
+    return signer.validateSignature("GET", "/transaction/f9a48e02-4301-49ff-a4f1-65749435924a", signedHeaders, body);
+  }
+}
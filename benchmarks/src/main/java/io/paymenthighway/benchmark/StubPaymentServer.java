@@ -0,0 +1,137 @@
+package io.paymenthighway.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.paymenthighway.PaymentHighwayUtility;
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server answering Payment API requests with fixed, correctly signed fixture responses
+ */
+public class StubPaymentServer implements Closeable {
+
+  static {
+    // Without TCP_NODELAY the separately written headers and body wait for delayed ACKs
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final SecureSigner signer;
+
+  private final String init = Fixtures.load("init");
+  private final String debit = Fixtures.load("debit");
+  private final String transaction = Fixtures.load("transaction");
+  private final String commit = Fixtures.load("commit");
+  private final String status = Fixtures.load("status");
+  private final String orderSearch = Fixtures.load("order_search");
+  private final String tokenization = Fixtures.load("tokenization");
+  private final String report = Fixtures.load("report");
+  private final String reconciliationReport = Fixtures.load("reconciliation_report");
+
+  public StubPaymentServer(String signatureKeyId, String signatureSecret) throws IOException {
+    signer = new SecureSigner(signatureKeyId, signatureSecret);
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange);
+      }
+    });
+    server.start();
+  }
+
+  public String getServiceUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  private String route(String method, String path) {
+    if (method.equals("POST")) {
+      if (path.equals("/transaction")) {
+        return init;
+      } else if (path.endsWith("/debit")) {
+        return debit;
+      } else if (path.endsWith("/commit")) {
+        return commit;
+      } else if (path.endsWith("/credit") || path.endsWith("/revert")) {
+        return transaction;
+      }
+    } else if (path.startsWith("/transaction/")) {
+      return status;
+    } else if (path.startsWith("/transactions/")) {
+      return orderSearch;
+    } else if (path.startsWith("/tokenization/")) {
+      return tokenization;
+    } else if (path.startsWith("/report/batch/")) {
+      return report;
+    } else if (path.startsWith("/report/reconciliation/")) {
+      return reconciliationReport;
+    }
+    return null;
+  }
+
+  private void respond(HttpExchange exchange) throws IOException {
+    try (InputStream in = exchange.getRequestBody()) {
+      byte[] buffer = new byte[4096];
+      while (in.read(buffer) != -1) {
+        // drain the request body
+      }
+    }
+
+    String method = exchange.getRequestMethod();
+    String uri = exchange.getRequestURI().getRawPath();
+    if (exchange.getRequestURI().getRawQuery() != null) {
+      uri += "?" + exchange.getRequestURI().getRawQuery();
+    }
+
+    String body = route(method, exchange.getRequestURI().getRawPath());
+    if (body == null) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+
+    List<NameValuePair> headers = new ArrayList<>();
+    headers.add(new BasicNameValuePair("sph-account", exchange.getRequestHeaders().getFirst("sph-account")));
+    headers.add(new BasicNameValuePair("sph-merchant", exchange.getRequestHeaders().getFirst("sph-merchant")));
+    headers.add(new BasicNameValuePair("sph-request-id", exchange.getRequestHeaders().getFirst("sph-request-id")));
+    headers.add(new BasicNameValuePair("sph-response-id", PaymentHighwayUtility.createRequestId()));
+    headers.add(new BasicNameValuePair("sph-timestamp", PaymentHighwayUtility.getUtcTimestamp()));
+
+    Headers responseHeaders = exchange.getResponseHeaders();
+    for (NameValuePair header : headers) {
+      responseHeaders.set(header.getName(), header.getValue());
+    }
+    responseHeaders.set("signature", signer.createSignature(method, uri, headers, body));
+    responseHeaders.set("Content-Type", "application/json; charset=utf-8");
+
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
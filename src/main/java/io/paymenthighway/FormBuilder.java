@@ -17,26 +17,26 @@ import java.util.UUID;
 public class FormBuilder {
 
   private final static String METHOD_POST = "POST";
-  private final static String SPH_API_VERSION = "sph-api-version";
-  private final static String SPH_ACCEPT_CVC_REQUIRED = "sph-accept-cvc-required";
-  private final static String SPH_ACCOUNT = "sph-account";
-  private final static String SPH_MERCHANT = "sph-merchant";
-  private final static String SPH_AMOUNT = "sph-amount";
-  private final static String SPH_CURRENCY = "sph-currency";
-  private final static String SPH_ORDER = "sph-order";
-  private final static String SPH_SUCCESS_URL = "sph-success-url";
-  private final static String SPH_FAILURE_URL = "sph-failure-url";
-  private final static String SPH_CANCEL_URL = "sph-cancel-url";
-  private final static String SPH_REQUEST_ID = "sph-request-id";
-  private final static String SPH_TIMESTAMP = "sph-timestamp";
-  private final static String SPH_TOKEN = "sph-token";
-  private final static String SPH_SKIP_FORM_NOTIFICATIONS = "sph-skip-form-notifications";
-  private final static String SPH_EXIT_IFRAME_ON_RESULT = "sph-exit-iframe-on-result";
-  private final static String SPH_EXIT_IFRAME_ON_THREE_D_SECURE = "sph-exit-iframe-on-three-d-secure";
-  private final static String SPH_USE_THREE_D_SECURE = "sph-use-three-d-secure";
-  private final static String LANGUAGE = "language";
-  private final static String DESCRIPTION = "description";
-  private final static String SIGNATURE = "signature";
+  final static String SPH_API_VERSION = "sph-api-version";
+  final static String SPH_ACCEPT_CVC_REQUIRED = "sph-accept-cvc-required";
+  final static String SPH_ACCOUNT = "sph-account";
+  final static String SPH_MERCHANT = "sph-merchant";
+  final static String SPH_AMOUNT = "sph-amount";
+  final static String SPH_CURRENCY = "sph-currency";
+  final static String SPH_ORDER = "sph-order";
+  final static String SPH_SUCCESS_URL = "sph-success-url";
+  final static String SPH_FAILURE_URL = "sph-failure-url";
+  final static String SPH_CANCEL_URL = "sph-cancel-url";
+  final static String SPH_REQUEST_ID = "sph-request-id";
+  final static String SPH_TIMESTAMP = "sph-timestamp";
+  final static String SPH_TOKEN = "sph-token";
+  final static String SPH_SKIP_FORM_NOTIFICATIONS = "sph-skip-form-notifications";
+  final static String SPH_EXIT_IFRAME_ON_RESULT = "sph-exit-iframe-on-result";
+  final static String SPH_EXIT_IFRAME_ON_THREE_D_SECURE = "sph-exit-iframe-on-three-d-secure";
+  final static String SPH_USE_THREE_D_SECURE = "sph-use-three-d-secure";
+  final static String LANGUAGE = "language";
+  final static String DESCRIPTION = "description";
+  final static String SIGNATURE = "signature";
 
   private String method = METHOD_POST;
   private String baseUrl = null;
@@ -44,6 +44,7 @@ public class FormBuilder {
   private String signatureSecret = null;
   private String account = null;
   private String merchant = null;
+  private final SecureSigner signer;
 
   public FormBuilder(String method, String signatureKeyId,
                      String signatureSecret, String account, String merchant,
@@ -54,6 +55,7 @@ public class FormBuilder {
     this.account = account;
     this.merchant = merchant;
     this.baseUrl = baseUrl;
+    this.signer = new SecureSigner(signatureKeyId, signatureSecret);
   }
 
   /**
@@ -650,9 +652,27 @@ public class FormBuilder {
     return nameValuePairs;
   }
 
-  private String createSignature(String uri, List<NameValuePair> nameValuePairs) {
+  String getMethod() {
+    return method;
+  }
+
+  String getBaseUrl() {
+    return baseUrl;
+  }
+
+  String getAccount() {
+    return account;
+  }
 
-    SecureSigner ss = new SecureSigner(this.signatureKeyId, this.signatureSecret);
-    return ss.createSignature(this.method, uri, nameValuePairs, "");
+  String getMerchant() {
+    return merchant;
+  }
+
+  SecureSigner getSigner() {
+    return signer;
+  }
+
+  private String createSignature(String uri, List<NameValuePair> nameValuePairs) {
+    return signer.createSignature(this.method, uri, nameValuePairs, "");
   }
 }
@@ -0,0 +1,329 @@
+package io.paymenthighway;
+
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A form of one type with fixed URLs, language and options, precompiled from a FormBuilder.
+ *
+ * The constant fields and their part of the signed string are prepared once, sorted as the signature requires, so
+ * rendering only merges the timestamp, request ID, amount, order, token and description and computes the HMAC.
+ * Templates are immutable and may be shared by any number of threads.
+ */
+public final class FormTemplate {
+
+  /**
+   * The form types and their URIs
+   */
+  public enum Type {
+    ADD_CARD("/form/view/add_card"),
+    PAYMENT("/form/view/pay_with_card"),
+    ADD_CARD_AND_PAYMENT("/form/view/add_and_pay_with_card"),
+    PAY_WITH_TOKEN_AND_CVC("/form/view/pay_with_token_and_cvc");
+
+    private final String uri;
+
+    Type(String uri) {
+      this.uri = uri;
+    }
+
+    public String getUri() {
+      return uri;
+    }
+
+    boolean isPayment() {
+      return this != ADD_CARD;
+    }
+  }
+
+  private static final String API_VERSION = "20151028";
+  private static final DateTimeFormatter TIMESTAMP =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+  private static final int TIMESTAMP_SLOT = 0;
+  private static final int REQUEST_ID_SLOT = 1;
+  private static final int AMOUNT_SLOT = 2;
+  private static final int ORDER_SLOT = 3;
+  private static final int TOKEN_SLOT = 4;
+  private static final int DESCRIPTION_SLOT = 5;
+  private static final int CONSTANT = -1;
+
+  private final Type type;
+  private final String method;
+  private final String baseUrl;
+  private final SecureSigner signer;
+
+  // the form fields in FormBuilder's order, with null values in place of the rendered ones
+  private final NameValuePair[] fields;
+  private final int[] fieldSlots;
+
+  // the sorted "sph-" lines to sign, split around the rendered values
+  private final String[] signedSegments;
+  private final int[] signedSlots;
+
+  private FormTemplate(Builder builder) {
+    FormBuilder formBuilder = builder.formBuilder;
+    this.type = builder.type;
+    this.method = formBuilder.getMethod();
+    this.baseUrl = formBuilder.getBaseUrl();
+    this.signer = formBuilder.getSigner();
+
+    List<NameValuePair> pairs = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    add(pairs, slots, FormBuilder.SPH_API_VERSION, API_VERSION, CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_ACCOUNT, formBuilder.getAccount(), CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_MERCHANT, formBuilder.getMerchant(), CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_TIMESTAMP, null, TIMESTAMP_SLOT);
+    add(pairs, slots, FormBuilder.SPH_CANCEL_URL, builder.cancelUrl, CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_FAILURE_URL, builder.failureUrl, CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_SUCCESS_URL, builder.successUrl, CONSTANT);
+    add(pairs, slots, FormBuilder.SPH_REQUEST_ID, null, REQUEST_ID_SLOT);
+    add(pairs, slots, FormBuilder.LANGUAGE, builder.language, CONSTANT);
+    if (type.isPayment()) {
+      add(pairs, slots, FormBuilder.SPH_AMOUNT, null, AMOUNT_SLOT);
+      add(pairs, slots, FormBuilder.SPH_CURRENCY, builder.currency, CONSTANT);
+      add(pairs, slots, FormBuilder.SPH_ORDER, null, ORDER_SLOT);
+      if (type == Type.PAY_WITH_TOKEN_AND_CVC) {
+        add(pairs, slots, FormBuilder.SPH_TOKEN, null, TOKEN_SLOT);
+      }
+      add(pairs, slots, FormBuilder.DESCRIPTION, null, DESCRIPTION_SLOT);
+    }
+    addFlag(pairs, slots, FormBuilder.SPH_ACCEPT_CVC_REQUIRED, builder.acceptCvcRequired);
+    addFlag(pairs, slots, FormBuilder.SPH_SKIP_FORM_NOTIFICATIONS, builder.skipFormNotifications);
+    addFlag(pairs, slots, FormBuilder.SPH_EXIT_IFRAME_ON_RESULT, builder.exitIframeOnResult);
+    addFlag(pairs, slots, FormBuilder.SPH_EXIT_IFRAME_ON_THREE_D_SECURE, builder.exitIframeOn3ds);
+    addFlag(pairs, slots, FormBuilder.SPH_USE_THREE_D_SECURE, builder.use3ds);
+
+    this.fields = new NameValuePair[pairs.size()];
+    this.fieldSlots = new int[pairs.size()];
+    Map<String, Integer> signed = new TreeMap<>();
+    for (int i = 0; i < fields.length; i++) {
+      fields[i] = pairs.get(i);
+      fieldSlots[i] = slots.get(i);
+      if (pairs.get(i).getName().startsWith("sph-")) {
+        signed.put(pairs.get(i).getName(), i);
+      }
+    }
+
+    List<String> segments = new ArrayList<>();
+    List<Integer> segmentSlots = new ArrayList<>();
+    StringBuilder segment = new StringBuilder();
+    boolean first = true;
+    for (Map.Entry<String, Integer> entry : signed.entrySet()) {
+      if (!first) {
+        segment.append('\n');
+      }
+      first = false;
+      segment.append(entry.getKey()).append(':');
+      int field = entry.getValue();
+      if (fieldSlots[field] == CONSTANT) {
+        segment.append(fields[field].getValue());
+      } else {
+        segments.add(segment.toString());
+        segmentSlots.add(fieldSlots[field]);
+        segment.setLength(0);
+      }
+    }
+    segments.add(segment.toString());
+    this.signedSegments = segments.toArray(new String[segments.size()]);
+    this.signedSlots = new int[segmentSlots.size()];
+    for (int i = 0; i < signedSlots.length; i++) {
+      signedSlots[i] = segmentSlots.get(i);
+    }
+  }
+
+  private static void add(List<NameValuePair> pairs, List<Integer> slots, String name, String value, int slot) {
+    pairs.add(new BasicNameValuePair(name, value));
+    slots.add(slot);
+  }
+
+  private static void addFlag(List<NameValuePair> pairs, List<Integer> slots, String name, Boolean value) {
+    if (value != null) {
+      add(pairs, slots, name, value.toString(), CONSTANT);
+    }
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Render an Add Card form
+   *
+   * @return FormContainer
+   */
+  public FormContainer render() {
+    requireType(Type.ADD_CARD);
+    return merge(null, null, null, null);
+  }
+
+  /**
+   * Render a Payment or an Add Card and Pay form
+   *
+   * @param amount The amount to pay.
+   * @param orderId A generated order ID, may for example be always unique or used multiple times for recurring transactions.
+   * @param description Description of the payment shown in the form.
+   * @return FormContainer
+   */
+  public FormContainer render(String amount, String orderId, String description) {
+    if (type != Type.PAYMENT) {
+      requireType(Type.ADD_CARD_AND_PAYMENT);
+    }
+    return merge(null, amount, orderId, description);
+  }
+
+  /**
+   * Render a Pay with Token and CVC form
+   *
+   * @param token The card token to charge from.
+   * @param amount The amount to pay.
+   * @param orderId A generated order ID, may for example be always unique or used multiple times for recurring transactions.
+   * @param description Description of the payment shown in the form.
+   * @return FormContainer
+   */
+  public FormContainer render(UUID token, String amount, String orderId, String description) {
+    requireType(Type.PAY_WITH_TOKEN_AND_CVC);
+    return merge(token.toString(), amount, orderId, description);
+  }
+
+  private void requireType(Type expected) {
+    if (type != expected) {
+      throw new IllegalStateException("Template is for " + type + " forms, not " + expected);
+    }
+  }
+
+  private FormContainer merge(String token, String amount, String orderId, String description) {
+    String requestId = PaymentHighwayUtility.createRequestId();
+    String[] values = {TIMESTAMP.format(Instant.now()), requestId, amount, orderId, token, description};
+
+    StringBuilder signed = new StringBuilder(256);
+    for (int i = 0; i < signedSlots.length; i++) {
+      signed.append(signedSegments[i]).append(values[signedSlots[i]]);
+    }
+    signed.append(signedSegments[signedSlots.length]);
+
+    List<NameValuePair> nameValuePairs = new ArrayList<>(fields.length + 1);
+    for (int i = 0; i < fields.length; i++) {
+      nameValuePairs.add(fieldSlots[i] == CONSTANT ? fields[i]
+          : new BasicNameValuePair(fields[i].getName(), values[fieldSlots[i]]));
+    }
+    String uri = type.getUri();
+    String signature = signer.createPresortedSignature(method, uri, signed.toString(), "");
+    nameValuePairs.add(new BasicNameValuePair(FormBuilder.SIGNATURE, signature));
+
+    return new FormContainer(method, baseUrl, uri, nameValuePairs, requestId);
+  }
+
+  /**
+   * Builds templates of one form type
+   */
+  public static class Builder {
+
+    private final FormBuilder formBuilder;
+    private final Type type;
+    private final String successUrl;
+    private final String failureUrl;
+    private final String cancelUrl;
+    private final String language;
+    private String currency = null;
+    private Boolean acceptCvcRequired = null;
+    private Boolean skipFormNotifications = null;
+    private Boolean exitIframeOnResult = null;
+    private Boolean exitIframeOn3ds = null;
+    private Boolean use3ds = null;
+
+    /**
+     * Constructor
+     *
+     * @param formBuilder The builder whose account, merchant, service URL and signature key are used.
+     * @param type The form type.
+     * @param successUrl The URL the user is redirected after the transaction is handled. The payment itself may still be rejected.
+     * @param failureUrl The URL the user is redirected after a failure such as an authentication or connectivity error.
+     * @param cancelUrl The URL the user is redirected after cancelling the transaction (clicking on the cancel button).
+     * @param language The language the form is displayed in.
+     */
+    public Builder(FormBuilder formBuilder, Type type, String successUrl, String failureUrl, String cancelUrl,
+                   String language) {
+      this.formBuilder = formBuilder;
+      this.type = type;
+      this.successUrl = successUrl;
+      this.failureUrl = failureUrl;
+      this.cancelUrl = cancelUrl;
+      this.language = language;
+    }
+
+    /**
+     * @param currency In which currency is the amount, e.g. "EUR". Required for payment forms.
+     */
+    public Builder setCurrency(String currency) {
+      this.currency = currency;
+      return this;
+    }
+
+    /**
+     * @param acceptCvcRequired Accept a payment card token even if the card requires CVC for payments. Add Card only.
+     */
+    public Builder setAcceptCvcRequired(Boolean acceptCvcRequired) {
+      this.acceptCvcRequired = acceptCvcRequired;
+      return this;
+    }
+
+    /**
+     * @param skipFormNotifications Skip notifications displayed on the Payment Highway form.
+     */
+    public Builder setSkipFormNotifications(Boolean skipFormNotifications) {
+      this.skipFormNotifications = skipFormNotifications;
+      return this;
+    }
+
+    /**
+     * @param exitIframeOnResult Exit from iframe after a result.
+     */
+    public Builder setExitIframeOnResult(Boolean exitIframeOnResult) {
+      this.exitIframeOnResult = exitIframeOnResult;
+      return this;
+    }
+
+    /**
+     * @param exitIframeOn3ds Exit from iframe when redirecting the user to 3DS.
+     */
+    public Builder setExitIframeOn3ds(Boolean exitIframeOn3ds) {
+      this.exitIframeOn3ds = exitIframeOn3ds;
+      return this;
+    }
+
+    /**
+     * @param use3ds Force enable/disable 3ds.
+     */
+    public Builder setUse3ds(Boolean use3ds) {
+      this.use3ds = use3ds;
+      return this;
+    }
+
+    public FormTemplate build() {
+      if (formBuilder == null || type == null) {
+        throw new IllegalArgumentException("Form builder and type are required");
+      }
+      if (type.isPayment() && currency == null) {
+        throw new IllegalArgumentException(type + " forms require a currency");
+      }
+      if (!type.isPayment() && currency != null) {
+        throw new IllegalArgumentException("Add card forms have no currency");
+      }
+      if (type.isPayment() && acceptCvcRequired != null) {
+        throw new IllegalArgumentException("Only add card forms accept cards that require CVC");
+      }
+      return new FormTemplate(this);
+    }
+  }
+}
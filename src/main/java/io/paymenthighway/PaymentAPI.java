@@ -2,16 +2,28 @@ package io.paymenthighway;
 
 import io.paymenthighway.connect.PaymentAPIConnection;
 import io.paymenthighway.exception.AuthenticationException;
+import io.paymenthighway.export.ReportExport;
+import io.paymenthighway.journal.TransactionJournal;
+import io.paymenthighway.json.ParallelReportParser;
 import io.paymenthighway.model.request.CommitTransactionRequest;
 import io.paymenthighway.model.request.RevertTransactionRequest;
 import io.paymenthighway.model.request.TransactionRequest;
 import io.paymenthighway.model.response.*;
+import io.paymenthighway.reconciliation.ColumnarReport;
+import io.paymenthighway.reconciliation.SettlementStore;
+import io.paymenthighway.state.OrderIndex;
+import io.paymenthighway.state.TokenizationCache;
+import io.paymenthighway.state.TransactionStateStore;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Payment Highway Payment API Service.
@@ -22,16 +34,117 @@ public class PaymentAPI implements Closeable {
    * These need to be defined
    */
   private PaymentAPIConnection paymentApi = null;
+  private final String account;
+  private final String merchant;
+
+  private volatile TransactionStateStore stateStore = null;
+  private volatile OrderIndex orderIndex = null;
+  private volatile TokenizationCache tokenizationCache = null;
+  private volatile SettlementStore settlementStore = null;
+  private final AtomicLong settlementStoreFailures = new AtomicLong();
 
   public PaymentAPI(String serviceUrl, String signatureKeyId, String signatureSecret, String account, String merchant) {
 
     paymentApi = new PaymentAPIConnection(serviceUrl, signatureKeyId, signatureSecret, account, merchant);
+    this.account = account;
+    this.merchant = merchant;
+  }
+
+  public String getAccount() {
+    return account;
+  }
+
+  public String getMerchant() {
+    return merchant;
   }
 
   public void setHttpClient(CloseableHttpClient httpClient) {
     this.paymentApi.setHttpClient(httpClient);
   }
 
+  /**
+   * Sets the number of pooled connections, which limits how many requests can run concurrently. Call before the
+   * first request.
+   *
+   * @param maxConnections
+   */
+  public void setMaxConnections(int maxConnections) {
+    this.paymentApi.setMaxConnections(maxConnections);
+  }
+
+  /**
+   * Journals debits, commits and reverts before they are sent, so that operations interrupted by a crash can be
+   * resolved with TransactionJournal.recover. The journal is not closed by this PaymentAPI.
+   *
+   * @param journal null to stop journaling
+   */
+  public void setJournal(TransactionJournal journal) {
+    this.paymentApi.setJournal(journal);
+  }
+
+  /**
+   * Deserializes daily and reconciliation reports on a fork/join pool, splitting their transactions into chunks once
+   * the signature of the whole body is validated. Worth it for reports of many megabytes.
+   *
+   * @param reportParser null to deserialize reports on the calling thread
+   */
+  public void setReportParser(ParallelReportParser reportParser) {
+    this.paymentApi.setReportParser(reportParser);
+  }
+
+  /**
+   * Records the state of every transaction this PaymentAPI inits, debits, commits, reverts or gets the status of,
+   * so that it can be looked up from the store without a request
+   *
+   * @param stateStore null to stop recording
+   */
+  public void setStateStore(TransactionStateStore stateStore) {
+    this.stateStore = stateStore;
+  }
+
+  /**
+   * @return TransactionStateStore null if none is set
+   */
+  public TransactionStateStore getStateStore() {
+    return stateStore;
+  }
+
+  /**
+   * Indexes the transactions of orders this PaymentAPI debits or searches, so that searchOrders can be answered
+   * without a request while the order is fresh
+   *
+   * @param orderIndex null to stop indexing
+   */
+  public void setOrderIndex(OrderIndex orderIndex) {
+    this.orderIndex = orderIndex;
+  }
+
+  /**
+   * Caches tokenization results, so that tokenize is requested once per tokenization id
+   *
+   * @param tokenizationCache null to stop caching. Not closed by this PaymentAPI.
+   */
+  public void setTokenizationCache(TokenizationCache tokenizationCache) {
+    this.tokenizationCache = tokenizationCache;
+  }
+
+  /**
+   * Keeps the settlements of every daily and reconciliation report this PaymentAPI fetches
+   *
+   * @param settlementStore null to stop keeping them. Not closed by this PaymentAPI.
+   */
+  public void setSettlementStore(SettlementStore settlementStore) {
+    this.settlementStore = settlementStore;
+  }
+
+  /**
+   * @return long number of fetched reports that could not be added to the settlement store. The reports were
+   * returned all the same; add them to the store again to keep their settlements.
+   */
+  public long getSettlementStoreFailureCount() {
+    return settlementStoreFailures.get();
+  }
+
   /**
    * Payment Highway Init Transaction
    *
@@ -42,7 +155,12 @@ public class PaymentAPI implements Closeable {
    */
   public InitTransactionResponse initTransaction() throws IOException {
 
-    return paymentApi.initTransactionHandle();
+    InitTransactionResponse response = paymentApi.initTransactionHandle();
+    TransactionStateStore store = this.stateStore;
+    if (store != null && response != null && response.getId() != null) {
+      store.recordInit(response.getId());
+    }
+    return response;
   }
 
   /**
@@ -57,7 +175,32 @@ public class PaymentAPI implements Closeable {
    */
   public TransactionResponse debitTransaction(UUID transactionId, TransactionRequest request) throws IOException {
 
-    return paymentApi.debitTransaction(transactionId, request);
+    TransactionResponse response = paymentApi.debitTransaction(transactionId, request);
+    TransactionStateStore store = this.stateStore;
+    if (store != null) {
+      store.recordDebit(transactionId, request.getAmount(), request.getCurrency(),
+          !Boolean.FALSE.equals(request.getCommit()), response);
+    }
+    OrderIndex index = this.orderIndex;
+    if (index != null) {
+      index.recordDebit(transactionId, request.getOrder(), response);
+    }
+    return response;
+  }
+
+  /**
+   * Payment Highway Credit Transaction
+   *
+   * @param transactionId
+   * @param request
+   * @return TransactionResponse
+   * @throws HttpResponseException
+   * @throws AuthenticationException
+   * @throws IOException
+   */
+  public TransactionResponse creditTransaction(UUID transactionId, TransactionRequest request) throws IOException {
+
+    return paymentApi.creditTransaction(transactionId, request);
   }
 
   /**
@@ -73,7 +216,7 @@ public class PaymentAPI implements Closeable {
 
     RevertTransactionRequest revertRequest = new RevertTransactionRequest();
 
-    return paymentApi.revertTransaction(transactionId, revertRequest);
+    return revertTransaction(transactionId, revertRequest);
   }
 
   /**
@@ -90,7 +233,22 @@ public class PaymentAPI implements Closeable {
 
     RevertTransactionRequest revertRequest = new RevertTransactionRequest(amount);
 
-    return paymentApi.revertTransaction(transactionId, revertRequest);
+    return revertTransaction(transactionId, revertRequest);
+  }
+
+  private TransactionResponse revertTransaction(UUID transactionId, RevertTransactionRequest revertRequest)
+      throws IOException {
+
+    TransactionResponse response = paymentApi.revertTransaction(transactionId, revertRequest);
+    TransactionStateStore store = this.stateStore;
+    if (store != null) {
+      store.recordRevert(transactionId, revertRequest.getAmount(), response);
+    }
+    OrderIndex index = this.orderIndex;
+    if (index != null) {
+      index.recordChange(transactionId);
+    }
+    return response;
   }
 
   /**
@@ -104,19 +262,65 @@ public class PaymentAPI implements Closeable {
    */
   public TransactionStatusResponse transactionStatus(UUID transactionId) throws IOException {
 
-    return paymentApi.transactionStatus(transactionId);
+    TransactionStatusResponse response = paymentApi.transactionStatus(transactionId);
+    TransactionStateStore store = this.stateStore;
+    if (store != null && response != null) {
+      store.recordStatus(response);
+    }
+    OrderIndex index = this.orderIndex;
+    if (index != null) {
+      index.recordStatus(response);
+    }
+    return response;
   }
 
   /**
    * Payment Highway Order Status Request
    *
+   * Answered from the order index when one is set and it knows the current status of the order's transactions
+   *
    * @param order The ID of the order whose transactions should be searched for
    * @return OrderSearchResponse
    * @throws IOException
    */
   public OrderSearchResponse searchOrders(String order) throws IOException {
 
-    return paymentApi.searchOrders(order);
+    OrderIndex index = this.orderIndex;
+    if (index != null) {
+      OrderSearchResponse indexed = index.getSearchResponse(order);
+      if (indexed != null) {
+        return indexed;
+      }
+    }
+    OrderSearchResponse response = paymentApi.searchOrders(order);
+    if (index != null) {
+      index.recordSearch(order, response);
+    }
+    return response;
+  }
+
+  /**
+   * Finds the transactions of an order, from the order index when it has the order, else with searchOrders
+   *
+   * @param order
+   * @return List of transaction ids, empty if the order has none
+   * @throws IOException
+   */
+  public List<UUID> findOrderTransactionIds(String order) throws IOException {
+
+    OrderIndex index = this.orderIndex;
+    List<UUID> indexed = index != null ? index.getTransactionIds(order) : null;
+    if (indexed != null) {
+      return indexed;
+    }
+    List<UUID> transactionIds = new ArrayList<>();
+    OrderSearchResponse response = searchOrders(order);
+    if (response != null && response.getTransactions() != null) {
+      for (TransactionStatus transaction : response.getTransactions()) {
+        transactionIds.add(transaction.getId());
+      }
+    }
+    return transactionIds;
   }
 
   /**
@@ -132,7 +336,16 @@ public class PaymentAPI implements Closeable {
 
     CommitTransactionRequest commitRequest = new CommitTransactionRequest(amount, currency);
 
-    return paymentApi.commitTransaction(transactionId, commitRequest);
+    CommitTransactionResponse response = paymentApi.commitTransaction(transactionId, commitRequest);
+    TransactionStateStore store = this.stateStore;
+    if (store != null) {
+      store.recordCommit(transactionId, amount, currency, response);
+    }
+    OrderIndex index = this.orderIndex;
+    if (index != null) {
+      index.recordChange(transactionId);
+    }
+    return response;
   }
 
   /**
@@ -145,7 +358,17 @@ public class PaymentAPI implements Closeable {
    */
   public TokenizationResponse tokenize(UUID tokenizationId) throws IOException {
 
-    return paymentApi.tokenization(tokenizationId);
+    TokenizationCache cache = this.tokenizationCache;
+    if (cache == null) {
+      return paymentApi.tokenization(tokenizationId);
+    }
+    TokenizationResponse cached = cache.get(tokenizationId);
+    if (cached != null) {
+      return cached;
+    }
+    TokenizationResponse response = paymentApi.tokenization(tokenizationId);
+    cache.put(tokenizationId, response);
+    return response;
   }
 
   /**
@@ -158,7 +381,16 @@ public class PaymentAPI implements Closeable {
    */
   public ReportResponse fetchDailyReport(String date) throws IOException {
 
-    return paymentApi.fetchReport(date);
+    ReportResponse response = paymentApi.fetchReport(date);
+    SettlementStore store = this.settlementStore;
+    if (store != null) {
+      try {
+        store.add(response);
+      } catch (IOException | RuntimeException e) {
+        settlementStoreFailures.incrementAndGet();
+      }
+    }
+    return response;
   }
 
   /**
@@ -172,7 +404,7 @@ public class PaymentAPI implements Closeable {
    */
   public ReconciliationReportResponse fetchReconciliationReport(String date) throws IOException {
 
-    return paymentApi.fetchReconciliationReport(date);
+    return keepSettlements(paymentApi.fetchReconciliationReport(date));
   }
 
   /**
@@ -189,7 +421,65 @@ public class PaymentAPI implements Closeable {
    */
   @Deprecated
   public ReconciliationReportResponse fetchReconciliationReport(String date, Boolean useDateProcessed) throws IOException {
-    return paymentApi.fetchReconciliationReport(date, useDateProcessed);
+    return keepSettlements(paymentApi.fetchReconciliationReport(date, useDateProcessed));
+  }
+
+  private ReconciliationReportResponse keepSettlements(ReconciliationReportResponse response) {
+    SettlementStore store = this.settlementStore;
+    if (store != null) {
+      try {
+        store.add(response);
+      } catch (IOException | RuntimeException e) {
+        settlementStoreFailures.incrementAndGet();
+      }
+    }
+    return response;
+  }
+
+  /**
+   * Payment Highway Reconciliation Report Request, read into columns instead of response objects
+   *
+   * @param date The date to fetch the reconciliation report for. Must be today - 1 day or earlier.
+   * @return ColumnarReport
+   * @throws HttpResponseException
+   * @throws AuthenticationException
+   * @throws IOException
+   */
+  public ColumnarReport fetchColumnarReconciliationReport(String date) throws IOException {
+    return paymentApi.fetchColumnarReconciliationReport(date);
+  }
+
+  /**
+   * Payment Highway Daily Report Request, written to a channel as CSV or NDJSON without mapping the response to
+   * objects. The report is not added to the settlement store.
+   *
+   * @param date
+   * @param export the format and columns
+   * @param channel left open
+   * @return long the number of rows written
+   * @throws HttpResponseException
+   * @throws AuthenticationException
+   * @throws IOException
+   */
+  public long exportDailyReport(String date, ReportExport export, WritableByteChannel channel) throws IOException {
+    return paymentApi.exportReport(date, export, channel);
+  }
+
+  /**
+   * Payment Highway Reconciliation Report Request, written to a channel as CSV or NDJSON without mapping the
+   * response to objects. The report is not added to the settlement store.
+   *
+   * @param date The date to fetch the reconciliation report for. Must be today - 1 day or earlier.
+   * @param export the format and columns
+   * @param channel left open
+   * @return long the number of rows written
+   * @throws HttpResponseException
+   * @throws AuthenticationException
+   * @throws IOException
+   */
+  public long exportReconciliationReport(String date, ReportExport export, WritableByteChannel channel)
+      throws IOException {
+    return paymentApi.exportReconciliationReport(date, export, channel);
   }
 
   @Override
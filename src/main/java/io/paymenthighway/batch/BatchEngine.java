@@ -0,0 +1,476 @@
+package io.paymenthighway.batch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs one Payment API operation per submitted item on a pool of worker threads.
+ *
+ * The number of items waiting or running is bounded, so submit blocks when the workers fall behind. Every attempt
+ * waits for its rate limiter slot and every failed attempt for its backoff delay without holding a worker, so one slow
+ * item does not hold up the rest. Items that finish with a result code are recorded in the optional checkpoint file,
+ * and submitting them again after a restart skips them.
+ *
+ * Throughput grows with the concurrency as long as the PaymentAPI has as many pooled connections, see
+ * PaymentAPI.setMaxConnections.
+ *
+ * @param <T> the item type
+ * @param <R> the response type
+ */
+public abstract class BatchEngine<T, R> implements Closeable {
+
+  private static final AtomicInteger ENGINES = new AtomicInteger();
+
+  private final ThreadPoolExecutor workers;
+  private final ScheduledExecutorService retryScheduler;
+  private final RateLimiter rateLimiter;
+  private final RetryPolicy retryPolicy;
+  private final CheckpointFile checkpoint;
+  private final BatchListener<T, R> listener;
+  private final Semaphore capacity;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+  private final LongAdder succeeded = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+
+  /* Guarded by this */
+  private long pending = 0;
+  private long firstSubmitNanos = 0;
+  private long lastCompletionNanos = 0;
+  private boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param builder
+   * @throws IOException if the checkpoint file cannot be opened
+   */
+  protected BatchEngine(Builder<T, R, ?> builder) throws IOException {
+    this.rateLimiter = builder.rateLimiter;
+    this.retryPolicy = builder.retryPolicy;
+    this.listener = builder.listener;
+    this.capacity = new Semaphore(builder.queueCapacity);
+    this.checkpoint = builder.checkpoint != null ? new CheckpointFile(builder.checkpoint) : null;
+
+    final String name = getClass().getSimpleName() + "-" + ENGINES.incrementAndGet();
+    ThreadFactory threads = new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    this.workers = new ThreadPoolExecutor(builder.concurrency, builder.concurrency, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), threads);
+    this.retryScheduler = Executors.newSingleThreadScheduledExecutor(threads);
+
+    if (builder.progressListener != null) {
+      final BatchProgressListener progressListener = builder.progressListener;
+      retryScheduler.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            progressListener.progress(getStatistics());
+          } catch (RuntimeException e) {
+            // Keep reporting
+          }
+        }
+      }, builder.progressIntervalNanos, builder.progressIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * @param item
+   * @return UUID the key the item is recorded under in the checkpoint, normally the transaction it operates on
+   */
+  protected abstract UUID keyOf(T item);
+
+  /**
+   * Makes one attempt of the item's operation
+   *
+   * @param item
+   * @return R the response
+   * @throws IOException
+   */
+  protected abstract R execute(T item) throws IOException;
+
+  /**
+   * @param response
+   * @return String the result code of the response, "100" for success
+   */
+  protected abstract String resultCodeOf(R response);
+
+  /**
+   * Decides whether a response that is not a success is tried again later. By default results are final.
+   *
+   * @param item
+   * @param response
+   * @return long nanoseconds to wait before the next attempt, negative to finish the item with the response
+   */
+  protected long retryDelayNanos(T item, R response) {
+    return -1;
+  }
+
+  /**
+   * Called once per item with its final outcome, before the listener
+   *
+   * @param result
+   */
+  protected void finished(BatchResult<T, R> result) {
+  }
+
+  /**
+   * @param item
+   * @return RateLimiter the attempts of the item wait for, by default the engine's
+   */
+  protected RateLimiter rateLimiterOf(T item) {
+    return rateLimiter;
+  }
+
+  /**
+   * Queues an item, waiting while the queue is full
+   *
+   * @param item
+   * @return boolean false if the checkpoint has the item as finished and it was skipped
+   * @throws InterruptedIOException if interrupted while waiting
+   * @throws IllegalStateException if the engine has been closed
+   */
+  public boolean submit(T item) throws InterruptedIOException {
+    if (checkpoint != null && checkpoint.contains(keyOf(item))) {
+      skipped.increment();
+      return false;
+    }
+    try {
+      capacity.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    synchronized (this) {
+      if (closed) {
+        capacity.release();
+        throw new IllegalStateException("Engine is closed");
+      }
+      if (firstSubmitNanos == 0) {
+        firstSubmitNanos = System.nanoTime();
+      }
+      pending++;
+    }
+    submitted.increment();
+    workers.execute(new Attempt(item));
+    return true;
+  }
+
+  /**
+   * Queues the items one by one, waiting whenever the queue is full. The items are read lazily, so the source can
+   * be larger than the memory.
+   *
+   * @param items
+   * @return int the number of items queued, not counting skipped ones
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public int submitAll(Iterable<? extends T> items) throws InterruptedIOException {
+    int queued = 0;
+    for (T item : items) {
+      if (submit(item)) {
+        queued++;
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Waits until every submitted item has a final outcome
+   *
+   * @param timeout
+   * @param unit
+   * @return boolean false if the timeout elapsed first
+   * @throws InterruptedIOException
+   */
+  public synchronized boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedIOException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    try {
+      while (pending > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * @return BatchStatistics of the items submitted so far
+   */
+  public BatchStatistics getStatistics() {
+    long elapsedNanos;
+    synchronized (this) {
+      if (firstSubmitNanos == 0) {
+        elapsedNanos = 0;
+      } else {
+        elapsedNanos = (pending > 0 ? System.nanoTime() : lastCompletionNanos) - firstSubmitNanos;
+      }
+    }
+    return new BatchStatistics(submitted.sum(), skipped.sum(), succeeded.sum(), rejected.sum(), failed.sum(),
+        retries.sum(), elapsedNanos, totalLatencyNanos.sum());
+  }
+
+  /**
+   * Stops accepting items, waits for the submitted ones to finish and closes the checkpoint file
+   *
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    try {
+      awaitCompletion(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } finally {
+      workers.shutdown();
+      retryScheduler.shutdown();
+      if (checkpoint != null) {
+        checkpoint.close();
+      }
+    }
+  }
+
+  private void finish(Attempt attempt, BatchResult.Outcome outcome, R response, IOException error) {
+    long now = System.nanoTime();
+    BatchResult<T, R> result = new BatchResult<>(attempt.item, outcome, response, error, attempt.attempts,
+        now - attempt.startNanos);
+    switch (outcome) {
+      case SUCCEEDED:
+        succeeded.increment();
+        break;
+      case REJECTED:
+        rejected.increment();
+        break;
+      default:
+        failed.increment();
+        break;
+    }
+    totalLatencyNanos.add(result.getLatencyNanos());
+    try {
+      finished(result);
+      if (listener != null) {
+        listener.completed(result);
+      }
+    } catch (RuntimeException e) {
+      // A failing listener must not stall the batch
+    } finally {
+      capacity.release();
+      synchronized (this) {
+        lastCompletionNanos = now;
+        if (--pending == 0) {
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * One item with its attempt count, rescheduled on the workers for every retry
+   */
+  private final class Attempt implements Runnable {
+
+    final T item;
+    final long startNanos = System.nanoTime();
+    int attempts = 0;
+    boolean slotReserved = false;
+
+    Attempt(T item) {
+      this.item = item;
+    }
+
+    @Override
+    public void run() {
+      if (!slotReserved) {
+        // Wait for the rate limiter off the workers, so that items under other limits can run meanwhile
+        long waitNanos = rateLimiterOf(item).reserve();
+        if (waitNanos > 0) {
+          slotReserved = true;
+          schedule(waitNanos);
+          return;
+        }
+      }
+      slotReserved = false;
+
+      R response;
+      try {
+        attempts++;
+        response = execute(item);
+      } catch (IOException e) {
+        retryOrFail(e);
+        return;
+      } catch (RuntimeException e) {
+        finish(this, BatchResult.Outcome.FAILED, null, new IOException(e));
+        return;
+      }
+
+      String code = resultCodeOf(response);
+      if (!"100".equals(code)) {
+        long delayNanos = retryDelayNanos(item, response);
+        if (delayNanos >= 0) {
+          retryLater(delayNanos);
+          return;
+        }
+      }
+      if (checkpoint != null && code != null) {
+        try {
+          checkpoint.record(keyOf(item), code);
+        } catch (IOException e) {
+          // The item is sent again after a restart, which Payment Highway answers without repeating it
+        }
+      }
+      finish(this, "100".equals(code) ? BatchResult.Outcome.SUCCEEDED : BatchResult.Outcome.REJECTED, response,
+          null);
+    }
+
+    private void retryOrFail(IOException error) {
+      if (error instanceof InterruptedIOException || !retryPolicy.shouldRetry(attempts, error)) {
+        finish(this, BatchResult.Outcome.FAILED, null, error);
+        return;
+      }
+      retryLater(retryPolicy.delayNanos(attempts));
+    }
+
+    private void retryLater(long delayNanos) {
+      retries.increment();
+      schedule(delayNanos);
+    }
+
+    private void schedule(long delayNanos) {
+      retryScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          workers.execute(Attempt.this);
+        }
+      }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Settings shared by the batch engines
+   *
+   * @param <T> the item type
+   * @param <R> the response type
+   * @param <B> the concrete builder
+   */
+  public abstract static class Builder<T, R, B extends Builder<T, R, B>> {
+
+    private int concurrency = 4;
+    private int queueCapacity = 10000;
+    private RateLimiter rateLimiter = RateLimiter.unlimited();
+    private RetryPolicy retryPolicy = new RetryPolicy(5, 200, 10000, TimeUnit.MILLISECONDS);
+    private File checkpoint;
+    private BatchListener<T, R> listener;
+    private BatchProgressListener progressListener;
+    private long progressIntervalNanos;
+
+    protected abstract B self();
+
+    /**
+     * @param concurrency number of worker threads, 4 by default
+     * @return Builder
+     */
+    public B setConcurrency(int concurrency) {
+      if (concurrency < 1) {
+        throw new IllegalArgumentException("concurrency must be positive");
+      }
+      this.concurrency = concurrency;
+      return self();
+    }
+
+    /**
+     * @param queueCapacity maximum number of items waiting or running, 10000 by default
+     * @return Builder
+     */
+    public B setQueueCapacity(int queueCapacity) {
+      if (queueCapacity < 1) {
+        throw new IllegalArgumentException("queueCapacity must be positive");
+      }
+      this.queueCapacity = queueCapacity;
+      return self();
+    }
+
+    /**
+     * @param requestsPerSecond maximum rate of attempts, retries included. Unlimited by default.
+     * @return Builder
+     */
+    public B setRateLimit(double requestsPerSecond) {
+      this.rateLimiter = new RateLimiter(requestsPerSecond);
+      return self();
+    }
+
+    /**
+     * @param retryPolicy by default five attempts with a backoff from 200 ms up to 10 s
+     * @return Builder
+     */
+    public B setRetryPolicy(RetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return self();
+    }
+
+    /**
+     * @param checkpoint file of finished transactions, created if missing. None by default.
+     * @return Builder
+     */
+    public B setCheckpoint(File checkpoint) {
+      this.checkpoint = checkpoint;
+      return self();
+    }
+
+    /**
+     * @param listener receives every final outcome
+     * @return Builder
+     */
+    public B setListener(BatchListener<T, R> listener) {
+      this.listener = listener;
+      return self();
+    }
+
+    /**
+     * @param progressListener receives the statistics periodically while the engine runs
+     * @param interval
+     * @param unit
+     * @return Builder
+     */
+    public B setProgressListener(BatchProgressListener progressListener, long interval, TimeUnit unit) {
+      if (interval <= 0) {
+        throw new IllegalArgumentException("interval must be positive");
+      }
+      this.progressListener = progressListener;
+      this.progressIntervalNanos = unit.toNanos(interval);
+      return self();
+    }
+  }
+}
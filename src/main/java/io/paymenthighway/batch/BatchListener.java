@@ -0,0 +1,13 @@
+package io.paymenthighway.batch;
+
+/**
+ * Receives the outcome of every batch item as soon as it is final. Called from the worker threads, so
+ * implementations must be thread safe and should return quickly.
+ *
+ * @param <T> the item type
+ * @param <R> the response type
+ */
+public interface BatchListener<T, R> {
+
+  void completed(BatchResult<T, R> result);
+}
@@ -0,0 +1,9 @@
+package io.paymenthighway.batch;
+
+/**
+ * Receives the statistics of a running batch engine at a fixed interval
+ */
+public interface BatchProgressListener {
+
+  void progress(BatchStatistics statistics);
+}
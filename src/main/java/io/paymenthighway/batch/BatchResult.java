@@ -0,0 +1,75 @@
+package io.paymenthighway.batch;
+
+import java.io.IOException;
+
+/**
+ * Final outcome of one batch item
+ *
+ * @param <T> the item type
+ * @param <R> the response type
+ */
+public class BatchResult<T, R> {
+
+  public enum Outcome {
+    /** Result code 100 */
+    SUCCEEDED,
+    /** Any other result code */
+    REJECTED,
+    /** No result code after the retries or a 4xx response, the item is not recorded in the checkpoint */
+    FAILED
+  }
+
+  private final T item;
+  private final Outcome outcome;
+  private final R response;
+  private final IOException error;
+  private final int attempts;
+  private final long latencyNanos;
+
+  BatchResult(T item, Outcome outcome, R response, IOException error, int attempts, long latencyNanos) {
+    this.item = item;
+    this.outcome = outcome;
+    this.response = response;
+    this.error = error;
+    this.attempts = attempts;
+    this.latencyNanos = latencyNanos;
+  }
+
+  public T getItem() {
+    return item;
+  }
+
+  public Outcome getOutcome() {
+    return outcome;
+  }
+
+  /**
+   * @return R the response, null if the last attempt failed with an error
+   */
+  public R getResponse() {
+    return response;
+  }
+
+  /**
+   * @return IOException the error of the last attempt, null if a response was received
+   */
+  public IOException getError() {
+    return error;
+  }
+
+  public int getAttempts() {
+    return attempts;
+  }
+
+  /**
+   * @return long nanoseconds from the first attempt to the outcome, including retry delays
+   */
+  public long getLatencyNanos() {
+    return latencyNanos;
+  }
+
+  @Override
+  public String toString() {
+    return item + ": " + outcome + " after " + attempts + " attempt(s)";
+  }
+}
@@ -0,0 +1,114 @@
+package io.paymenthighway.batch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the progress of a batch engine
+ */
+public class BatchStatistics {
+
+  private final long submitted;
+  private final long skipped;
+  private final long succeeded;
+  private final long rejected;
+  private final long failed;
+  private final long retries;
+  private final long elapsedNanos;
+  private final long totalLatencyNanos;
+
+  BatchStatistics(long submitted, long skipped, long succeeded, long rejected, long failed, long retries,
+                  long elapsedNanos, long totalLatencyNanos) {
+    this.submitted = submitted;
+    this.skipped = skipped;
+    this.succeeded = succeeded;
+    this.rejected = rejected;
+    this.failed = failed;
+    this.retries = retries;
+    this.elapsedNanos = elapsedNanos;
+    this.totalLatencyNanos = totalLatencyNanos;
+  }
+
+  /**
+   * @return long items accepted for processing, not counting skipped ones
+   */
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  /**
+   * @return long items not processed because the checkpoint had them as finished
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  public long getSucceeded() {
+    return succeeded;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * @return long items with a final outcome
+   */
+  public long getCompleted() {
+    return succeeded + rejected + failed;
+  }
+
+  /**
+   * @return long items submitted but not yet completed
+   */
+  public long getPending() {
+    return submitted - getCompleted();
+  }
+
+  /**
+   * @return long attempts made after a failed one
+   */
+  public long getRetries() {
+    return retries;
+  }
+
+  /**
+   * @return long nanoseconds since the first item was submitted
+   */
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * @return double completed items per second
+   */
+  public double getThroughput() {
+    return elapsedNanos > 0 ? getCompleted() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+  }
+
+  /**
+   * @return double succeeded items out of those that got a result code, 0.0 - 1.0
+   */
+  public double getApprovalRate() {
+    long answered = succeeded + rejected;
+    return answered > 0 ? succeeded / (double) answered : 0;
+  }
+
+  /**
+   * @return long mean nanoseconds from the first attempt of an item to its outcome
+   */
+  public long getMeanLatencyNanos() {
+    long completed = getCompleted();
+    return completed > 0 ? totalLatencyNanos / completed : 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("submitted=%d skipped=%d succeeded=%d rejected=%d failed=%d retries=%d "
+            + "approvalRate=%.3f throughput=%.1f/s meanLatency=%.1fms", submitted, skipped, succeeded, rejected, failed,
+        retries, getApprovalRate(), getThroughput(), getMeanLatencyNanos() / 1e6);
+  }
+}
@@ -0,0 +1,122 @@
+package io.paymenthighway.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only record of the transactions a batch has finished, so that a restarted batch skips them.
+ *
+ * Each line holds a transaction id and the result code it finished with. Lines are written with a single write
+ * and forced to disk on close; a line cut short by a crash is dropped when the file is opened. Losing the last
+ * lines only means the operations are sent again, which Payment Highway answers without repeating them.
+ */
+public class CheckpointFile implements Closeable {
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final Map<UUID, String> completed = new ConcurrentHashMap<>();
+
+  /**
+   * Opens or creates a checkpoint file
+   *
+   * @param file
+   * @throws IOException
+   */
+  public CheckpointFile(File file) throws IOException {
+    long validLength = file.exists() ? load(file) : 0;
+    this.file = new RandomAccessFile(file, "rw");
+    this.file.setLength(validLength);
+    this.channel = this.file.getChannel();
+    this.channel.position(validLength);
+  }
+
+  /**
+   * @return long the length of the file up to the end of the last complete line
+   */
+  private long load(File source) throws IOException {
+    long validLength = 0;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = reader.read()) != -1) {
+        if (c != '\n') {
+          line.append((char) c);
+          continue;
+        }
+        int space = line.indexOf(" ");
+        if (space < 0) {
+          break;
+        }
+        try {
+          completed.put(UUID.fromString(line.substring(0, space)), line.substring(space + 1));
+        } catch (IllegalArgumentException e) {
+          break;
+        }
+        validLength += line.length() + 1;
+        line.setLength(0);
+      }
+    }
+    return validLength;
+  }
+
+  /**
+   * @param transactionId
+   * @return boolean true if the transaction has been recorded as finished
+   */
+  public boolean contains(UUID transactionId) {
+    return completed.containsKey(transactionId);
+  }
+
+  /**
+   * @param transactionId
+   * @return String the result code the transaction finished with, null if not finished
+   */
+  public String getResultCode(UUID transactionId) {
+    return completed.get(transactionId);
+  }
+
+  /**
+   * @return int number of finished transactions
+   */
+  public int size() {
+    return completed.size();
+  }
+
+  /**
+   * Records a transaction as finished
+   *
+   * @param transactionId
+   * @param resultCode
+   * @throws IOException
+   */
+  public void record(UUID transactionId, String resultCode) throws IOException {
+    ByteBuffer line = ByteBuffer.wrap((transactionId + " " + resultCode + "\n").getBytes(StandardCharsets.UTF_8));
+    synchronized (this) {
+      while (line.hasRemaining()) {
+        channel.write(line);
+      }
+    }
+    completed.put(transactionId, resultCode);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      channel.force(false);
+    } finally {
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.response.CommitTransactionResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+
+/**
+ * Commits authorized transactions in the background.
+ *
+ * <pre>
+ * paymentApi.setMaxConnections(16);
+ * try (CommitEngine engine = new CommitEngine.Builder(paymentApi)
+ *     .setConcurrency(16)
+ *     .setRateLimit(200)
+ *     .setCheckpoint(new File("commits-20160101.chk"))
+ *     .build()) {
+ *   for (Order order : orders) {
+ *     engine.submit(order.getTransactionId(), order.getAmount(), "EUR");
+ *   }
+ * }
+ * </pre>
+ */
+public class CommitEngine extends BatchEngine<CommitEngine.Commit, CommitTransactionResponse> {
+
+  private final PaymentAPI paymentApi;
+
+  private CommitEngine(Builder builder) throws IOException {
+    super(builder);
+    this.paymentApi = builder.paymentApi;
+  }
+
+  /**
+   * Queues a commit, waiting while the queue is full
+   *
+   * @param transactionId
+   * @param amount
+   * @param currency
+   * @return boolean false if the checkpoint has the transaction as finished and it was skipped
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public boolean submit(UUID transactionId, String amount, String currency) throws InterruptedIOException {
+    return submit(new Commit(transactionId, amount, currency));
+  }
+
+  @Override
+  protected UUID keyOf(Commit commit) {
+    return commit.getTransactionId();
+  }
+
+  @Override
+  protected CommitTransactionResponse execute(Commit commit) throws IOException {
+    return paymentApi.commitTransaction(commit.getTransactionId(), commit.getAmount(), commit.getCurrency());
+  }
+
+  @Override
+  protected String resultCodeOf(CommitTransactionResponse response) {
+    return response != null && response.getResult() != null ? response.getResult().getCode() : null;
+  }
+
+  /**
+   * A queued commit
+   */
+  public static final class Commit {
+
+    private final UUID transactionId;
+    private final String amount;
+    private final String currency;
+
+    public Commit(UUID transactionId, String amount, String currency) {
+      this.transactionId = transactionId;
+      this.amount = amount;
+      this.currency = currency;
+    }
+
+    public UUID getTransactionId() {
+      return transactionId;
+    }
+
+    public String getAmount() {
+      return amount;
+    }
+
+    public String getCurrency() {
+      return currency;
+    }
+
+    @Override
+    public String toString() {
+      return "commit " + transactionId + " " + amount + " " + currency;
+    }
+  }
+
+  public static class Builder extends BatchEngine.Builder<Commit, CommitTransactionResponse, Builder> {
+
+    private final PaymentAPI paymentApi;
+
+    /**
+     * Constructor
+     *
+     * @param paymentApi the API the commits are sent with, not closed by the engine
+     */
+    public Builder(PaymentAPI paymentApi) {
+      this.paymentApi = paymentApi;
+    }
+
+    @Override
+    protected Builder self() {
+      return this;
+    }
+
+    /**
+     * Starts the workers
+     *
+     * @return CommitEngine
+     * @throws IOException if the checkpoint file cannot be opened
+     */
+    public CommitEngine build() throws IOException {
+      return new CommitEngine(this);
+    }
+  }
+}
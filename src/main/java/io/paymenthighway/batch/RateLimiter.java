@@ -0,0 +1,66 @@
+package io.paymenthighway.batch;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces operations evenly to a maximum rate. Callers reserve the next free time slot under the lock and wait for
+ * it outside of it, so waiting threads do not hold each other up.
+ */
+public class RateLimiter {
+
+  private final long intervalNanos;
+
+  /* Guarded by this */
+  private long nextFreeNanos = System.nanoTime();
+
+  /**
+   * Constructor
+   *
+   * @param permitsPerSecond maximum rate, zero or less for no limit
+   */
+  public RateLimiter(double permitsPerSecond) {
+    this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+  }
+
+  /**
+   * @return RateLimiter that never waits
+   */
+  public static RateLimiter unlimited() {
+    return new RateLimiter(0);
+  }
+
+  /**
+   * Reserves the next free time slot without waiting for it
+   *
+   * @return long nanoseconds until the slot, zero if the operation may start now
+   */
+  public long reserve() {
+    if (intervalNanos == 0) {
+      return 0;
+    }
+    synchronized (this) {
+      long now = System.nanoTime();
+      long slot = Math.max(now, nextFreeNanos);
+      nextFreeNanos = slot + intervalNanos;
+      return slot - now;
+    }
+  }
+
+  /**
+   * Waits until the next operation may start
+   *
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public void acquire() throws InterruptedIOException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+}
@@ -0,0 +1,339 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.Revert;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.TransactionStatus;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reverts transactions in bulk, e.g. to refund every order affected by an incident.
+ *
+ * Reverts are not idempotent: a partial revert sent twice refunds twice, and a full revert sent twice is
+ * rejected the second time. When an attempt fails after the request may have reached Payment Highway, the next
+ * attempt first looks for a matching revert made since the first attempt in the transaction status, and
+ * reports the refund as succeeded if it finds one that no other refund of the engine accounts for.
+ *
+ * A transaction may be refunded several times. The checkpoint records every refund under its own key: the id the
+ * caller gave it, or else one derived from the transaction, the amount and how many refunds of the same transaction
+ * and amount were submitted before it, so a resubmitted stream must list the refunds in the same order.
+ *
+ * <pre>
+ * paymentApi.setMaxConnections(32);
+ * try (RefundEngine engine = new RefundEngine.Builder(paymentApi)
+ *     .setConcurrency(32)
+ *     .setRateLimit(300)
+ *     .setCheckpoint(new File("incident-42.chk"))
+ *     .setListener(listener)
+ *     .build()) {
+ *   engine.submitAll(refunds);
+ * }
+ * </pre>
+ */
+public class RefundEngine extends BatchEngine<RefundEngine.Refund, TransactionResponse> {
+
+  /** Allowed difference between the local clock and Payment Highway's when matching earlier reverts */
+  private static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  private final PaymentAPI paymentApi;
+
+  /* Guarded by itself: refunds of a transaction that are queued, or idle for less than the clock skew */
+  private final Map<UUID, TransactionRefunds> transactions = new HashMap<>();
+  private final ArrayDeque<TransactionRefunds> idle = new ArrayDeque<>();
+  /* Guarded by transactions: submitted refunds without an id per transaction and amount */
+  private final Map<String, Integer> occurrences = new HashMap<>();
+
+  private RefundEngine(Builder builder) throws IOException {
+    super(builder);
+    this.paymentApi = builder.paymentApi;
+  }
+
+  /**
+   * Queues a revert, waiting while the queue is full
+   *
+   * @param transactionId
+   * @param amount amount to revert, null for the whole remaining amount
+   * @return boolean false if the checkpoint has the refund as finished and it was skipped
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public boolean submit(UUID transactionId, String amount) throws InterruptedIOException {
+    return submit(new Refund(transactionId, amount));
+  }
+
+  @Override
+  public boolean submit(Refund refund) throws InterruptedIOException {
+    TransactionRefunds refunds;
+    synchronized (transactions) {
+      if (refund.key == null) {
+        refund.key = refund.refundId != null ? refund.refundId : derivedKey(refund);
+      }
+      expireIdle(System.currentTimeMillis());
+      refunds = transactions.get(refund.getTransactionId());
+      if (refunds == null) {
+        refunds = new TransactionRefunds(refund.getTransactionId());
+        transactions.put(refund.getTransactionId(), refunds);
+      }
+      refunds.active++;
+    }
+    boolean queued = false;
+    try {
+      queued = super.submit(refund);
+      return queued;
+    } finally {
+      if (!queued) {
+        release(refund, refunds);
+      }
+    }
+  }
+
+  /* Guarded by transactions */
+  private UUID derivedKey(Refund refund) {
+    String group = refund.getTransactionId() + "/" + refund.getAmount();
+    Integer sequence = occurrences.get(group);
+    sequence = sequence == null ? 0 : sequence;
+    occurrences.put(group, sequence + 1);
+    return UUID.nameUUIDFromBytes((group + "/" + sequence).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /* Guarded by transactions */
+  private void expireIdle(long now) {
+    TransactionRefunds refunds;
+    while ((refunds = idle.peek()) != null && now - refunds.idleSinceMillis >= CLOCK_SKEW_MILLIS) {
+      idle.poll();
+      if (refunds.active == 0 && transactions.get(refunds.transactionId) == refunds) {
+        transactions.remove(refunds.transactionId);
+      }
+    }
+  }
+
+  private void release(Refund refund, TransactionRefunds refunds) {
+    synchronized (transactions) {
+      if (--refunds.active == 0) {
+        refunds.idleSinceMillis = System.currentTimeMillis();
+        idle.add(refunds);
+      }
+    }
+  }
+
+  @Override
+  protected UUID keyOf(Refund refund) {
+    return refund.key;
+  }
+
+  @Override
+  protected void finished(BatchResult<Refund, TransactionResponse> result) {
+    Refund refund = result.getItem();
+    synchronized (transactions) {
+      TransactionRefunds refunds = transactions.get(refund.getTransactionId());
+      if (result.getOutcome() == BatchResult.Outcome.SUCCEEDED) {
+        refund.appliedMillis = System.currentTimeMillis();
+        refunds.applied.add(refund);
+      }
+      release(refund, refunds);
+    }
+  }
+
+  @Override
+  protected TransactionResponse execute(Refund refund) throws IOException {
+    if (refund.firstAttemptMillis == 0) {
+      refund.firstAttemptMillis = System.currentTimeMillis();
+    } else if (refund.maybeApplied && revertedSinceFirstAttempt(refund)) {
+      return new JsonParser().mapResponse("{\"result\":{\"code\":\"100\",\"message\":\"OK\"}}",
+          TransactionResponse.class);
+    }
+
+    refund.maybeApplied = true;
+    try {
+      TransactionResponse response = refund.getAmount() == null
+          ? paymentApi.revertTransaction(refund.getTransactionId())
+          : paymentApi.revertTransaction(refund.getTransactionId(), refund.getAmount());
+      refund.maybeApplied = false;
+      return response;
+    } catch (ConnectException e) {
+      // Never reached Payment Highway
+      refund.maybeApplied = false;
+      throw e;
+    } catch (HttpResponseException e) {
+      // Refused by Payment Highway, while a 5xx may follow a revert that was applied
+      if (e.getStatusCode() >= 400 && e.getStatusCode() < 500) {
+        refund.maybeApplied = false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  protected String resultCodeOf(TransactionResponse response) {
+    return response != null && response.getResult() != null ? response.getResult().getCode() : null;
+  }
+
+  /**
+   * @return boolean true if the transaction has more successful reverts of the refund's amount, or of any amount
+   * for a full revert, timestamped after the first attempt than other refunds of the engine applied since then
+   */
+  private boolean revertedSinceFirstAttempt(Refund refund) throws IOException {
+    TransactionStatusResponse response = paymentApi.transactionStatus(refund.getTransactionId());
+    TransactionStatus status = response != null ? response.getTransaction() : null;
+    if (status == null || status.getReverts() == null) {
+      return false;
+    }
+    long windowStart = refund.firstAttemptMillis - CLOCK_SKEW_MILLIS;
+    int appliedByOthers = 0;
+    synchronized (transactions) {
+      for (Refund other : transactions.get(refund.getTransactionId()).applied) {
+        if (other.appliedMillis >= windowStart && (refund.getAmount() == null
+            || refund.getAmount().equals(other.getAmount()))) {
+          appliedByOthers++;
+        }
+      }
+    }
+
+    int matching = 0;
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    format.setTimeZone(new SimpleTimeZone(SimpleTimeZone.UTC_TIME, "UTC"));
+    for (Revert revert : status.getReverts()) {
+      if (revert.getTimestamp() == null || (revert.getStatus() != null && !"ok".equals(revert.getStatus().getState()))) {
+        continue;
+      }
+      if (refund.getAmount() != null && !refund.getAmount().equals(revert.getAmount())) {
+        continue;
+      }
+      try {
+        Date timestamp = format.parse(revert.getTimestamp());
+        if (timestamp.getTime() >= windowStart) {
+          matching++;
+        }
+      } catch (ParseException e) {
+        // Not comparable, keep looking
+      }
+    }
+    return matching > appliedByOthers;
+  }
+
+  /**
+   * A queued revert
+   */
+  public static final class Refund {
+
+    private final UUID refundId;
+    private final UUID transactionId;
+    private final String amount;
+
+    /* Set on submit, guarded by the engine's transactions */
+    private UUID key;
+    private long appliedMillis;
+
+    /* Attempts of one item never overlap, but may run on different workers */
+    private volatile long firstAttemptMillis = 0;
+    private volatile boolean maybeApplied = false;
+
+    /**
+     * Constructor
+     *
+     * @param transactionId
+     * @param amount amount to revert, null for the whole remaining amount
+     */
+    public Refund(UUID transactionId, String amount) {
+      this(null, transactionId, amount);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param refundId unique id of the refund, its key in the checkpoint
+     * @param transactionId
+     * @param amount amount to revert, null for the whole remaining amount
+     */
+    public Refund(UUID refundId, UUID transactionId, String amount) {
+      this.refundId = refundId;
+      this.transactionId = transactionId;
+      this.amount = amount;
+    }
+
+    /**
+     * @return UUID the id given to the refund, null if its checkpoint key is derived
+     */
+    public UUID getRefundId() {
+      return refundId;
+    }
+
+    public UUID getTransactionId() {
+      return transactionId;
+    }
+
+    /**
+     * @return String amount to revert, null for the whole remaining amount
+     */
+    public String getAmount() {
+      return amount;
+    }
+
+    @Override
+    public String toString() {
+      return "revert " + transactionId + " " + (amount != null ? amount : "all");
+    }
+  }
+
+  /**
+   * The refunds of one transaction, kept while any is queued and for the clock skew after, so that an attempt in
+   * doubt can tell the reverts of the others apart from its own
+   */
+  private static final class TransactionRefunds {
+
+    final UUID transactionId;
+    final List<Refund> applied = new ArrayList<>();
+    int active = 0;
+    long idleSinceMillis = 0;
+
+    TransactionRefunds(UUID transactionId) {
+      this.transactionId = transactionId;
+    }
+  }
+
+  public static class Builder extends BatchEngine.Builder<Refund, TransactionResponse, Builder> {
+
+    private final PaymentAPI paymentApi;
+
+    /**
+     * Constructor
+     *
+     * @param paymentApi the API the reverts are sent with, not closed by the engine
+     */
+    public Builder(PaymentAPI paymentApi) {
+      this.paymentApi = paymentApi;
+    }
+
+    @Override
+    protected Builder self() {
+      return this;
+    }
+
+    /**
+     * Starts the workers
+     *
+     * @return RefundEngine
+     * @throws IOException if the checkpoint file cannot be opened
+     */
+    public RefundEngine build() throws IOException {
+      return new RefundEngine(this);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package io.paymenthighway.batch;
+
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter for failed requests.
+ *
+ * Connection failures, timeouts and 5xx or 429 responses are retried. Other 4xx responses are final, as are
+ * responses with a result code, which are Payment Highway's answer to the request.
+ */
+public class RetryPolicy {
+
+  private final int maxAttempts;
+  private final long initialDelayNanos;
+  private final long maxDelayNanos;
+
+  /**
+   * Constructor
+   *
+   * @param maxAttempts attempts including the first one
+   * @param initialDelay upper bound of the delay before the first retry, doubled for every retry after it
+   * @param maxDelay upper bound of any delay
+   * @param unit
+   */
+  public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, TimeUnit unit) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be positive");
+    }
+    this.maxAttempts = maxAttempts;
+    this.initialDelayNanos = unit.toNanos(initialDelay);
+    this.maxDelayNanos = Math.max(unit.toNanos(maxDelay), initialDelayNanos);
+  }
+
+  /**
+   * @return RetryPolicy that never retries
+   */
+  public static RetryPolicy none() {
+    return new RetryPolicy(1, 0, 0, TimeUnit.MILLISECONDS);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param attempts attempts made so far
+   * @param error the error of the last attempt
+   * @return boolean true if another attempt should be made
+   */
+  public boolean shouldRetry(int attempts, IOException error) {
+    if (attempts >= maxAttempts) {
+      return false;
+    }
+    if (error instanceof HttpResponseException) {
+      int status = ((HttpResponseException) error).getStatusCode();
+      return status >= 500 || status == 429;
+    }
+    return true;
+  }
+
+  /**
+   * @param attempts attempts made so far
+   * @return long random delay in nanoseconds before the next attempt
+   */
+  public long delayNanos(int attempts) {
+    long bound = initialDelayNanos << Math.min(attempts - 1, 30);
+    if (bound <= 0 || bound > maxDelayNanos) {
+      bound = maxDelayNanos;
+    }
+    return bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+  }
+}
@@ -0,0 +1,412 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.InitTransactionResponse;
+import io.paymenthighway.model.response.TransactionResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Charges saved cards, e.g. for recurring subscription billing.
+ *
+ * Every charge needs a new transaction and a debit. The engine runs the two steps as a pipeline: for every
+ * merchant, init threads keep a small buffer of fresh transaction ids filled while the workers debit, so the init
+ * of the next charge overlaps with the debit of the current one. A worker inits inline only when the buffer is
+ * empty. Both steps wait for the merchant's own rate limiter.
+ *
+ * Soft declines, by default result code 200, are charged again on a new transaction after each delay of the soft
+ * decline schedule. A debit that failed without a result is retried on the same transaction, which Payment
+ * Highway debits only once.
+ *
+ * <pre>
+ * try (TokenChargeEngine engine = new TokenChargeEngine.Builder()
+ *     .addMerchant("shop", paymentApi, 100)
+ *     .setConcurrency(16)
+ *     .setSoftDeclineSchedule(TimeUnit.HOURS, 6, 24, 72)
+ *     .setProgressListener(progressListener, 10, TimeUnit.SECONDS)
+ *     .setCheckpoint(new File("billing-201602.chk"))
+ *     .build()) {
+ *   engine.submitAll(charges);
+ * }
+ * </pre>
+ */
+public class TokenChargeEngine extends BatchEngine<TokenChargeEngine.Charge, TransactionResponse> {
+
+  private final Map<String, Merchant> merchants;
+  private final long[] softDeclineDelaysNanos;
+  private final Set<String> softDeclineCodes;
+
+  private TokenChargeEngine(Builder builder) throws IOException {
+    super(builder);
+    this.softDeclineDelaysNanos = builder.softDeclineDelaysNanos;
+    this.softDeclineCodes = builder.softDeclineCodes;
+    Map<String, Merchant> merchants = new LinkedHashMap<>();
+    for (Map.Entry<String, MerchantSettings> entry : builder.merchants.entrySet()) {
+      MerchantSettings settings = entry.getValue();
+      merchants.put(entry.getKey(), new Merchant(entry.getKey(), settings.paymentApi,
+          new RateLimiter(settings.requestsPerSecond), builder.prefetch));
+    }
+    this.merchants = Collections.unmodifiableMap(merchants);
+    for (Merchant merchant : merchants.values()) {
+      merchant.start(builder.initThreads);
+    }
+  }
+
+  /**
+   * Queues a charge, waiting while the queue is full
+   *
+   * @param charge
+   * @return boolean false if the checkpoint has the charge as finished and it was skipped
+   * @throws InterruptedIOException if interrupted while waiting
+   * @throws IllegalArgumentException if the charge's merchant has not been added
+   */
+  @Override
+  public boolean submit(Charge charge) throws InterruptedIOException {
+    if (!merchants.containsKey(charge.getMerchant())) {
+      throw new IllegalArgumentException("Unknown merchant " + charge.getMerchant());
+    }
+    return super.submit(charge);
+  }
+
+  /**
+   * @param merchant
+   * @return long charges that had to init inline because no prefetched transaction was ready
+   */
+  public long getPipelineStalls(String merchant) {
+    return merchants.get(merchant).stalls.sum();
+  }
+
+  @Override
+  protected UUID keyOf(Charge charge) {
+    return charge.getKey();
+  }
+
+  @Override
+  protected RateLimiter rateLimiterOf(Charge charge) {
+    return merchants.get(charge.getMerchant()).rateLimiter;
+  }
+
+  @Override
+  protected TransactionResponse execute(Charge charge) throws IOException {
+    Merchant merchant = merchants.get(charge.getMerchant());
+    if (charge.transactionId == null) {
+      charge.transactionId = merchant.nextTransactionId();
+    }
+    TransactionRequest request = new TransactionRequest.Builder(charge.getToken(), charge.getAmount(),
+        charge.getCurrency())
+        .setOrder(charge.getOrder())
+        .build();
+    // On an error the transaction is kept, so that a retry cannot debit twice
+    TransactionResponse response = merchant.paymentApi.debitTransaction(charge.transactionId, request);
+    charge.lastTransactionId = charge.transactionId;
+    charge.transactionId = null;
+    return response;
+  }
+
+  @Override
+  protected String resultCodeOf(TransactionResponse response) {
+    return response != null && response.getResult() != null ? response.getResult().getCode() : null;
+  }
+
+  @Override
+  protected long retryDelayNanos(Charge charge, TransactionResponse response) {
+    String code = resultCodeOf(response);
+    if (code == null || !softDeclineCodes.contains(code) || charge.softDeclines >= softDeclineDelaysNanos.length) {
+      return -1;
+    }
+    return softDeclineDelaysNanos[charge.softDeclines++];
+  }
+
+  /**
+   * Waits for the charges, then stops the init threads
+   *
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      for (Merchant merchant : merchants.values()) {
+        merchant.stop();
+      }
+    }
+  }
+
+  /**
+   * One merchant's API, rate limiter and buffer of prefetched transaction ids
+   */
+  private static final class Merchant {
+
+    final String name;
+    final PaymentAPI paymentApi;
+    final RateLimiter rateLimiter;
+    final BlockingQueue<UUID> prefetched;
+    final List<Thread> initThreads = new ArrayList<>();
+    final LongAdder stalls = new LongAdder();
+    volatile boolean stopped = false;
+
+    Merchant(String name, PaymentAPI paymentApi, RateLimiter rateLimiter, int prefetch) {
+      this.name = name;
+      this.paymentApi = paymentApi;
+      this.rateLimiter = rateLimiter;
+      this.prefetched = new ArrayBlockingQueue<>(prefetch);
+    }
+
+    void start(int threads) {
+      for (int i = 0; i < threads; i++) {
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            prefetch();
+          }
+        }, "TokenChargeEngine-init-" + name + "-" + (i + 1));
+        thread.setDaemon(true);
+        initThreads.add(thread);
+        thread.start();
+      }
+    }
+
+    void stop() {
+      stopped = true;
+      for (Thread thread : initThreads) {
+        thread.interrupt();
+      }
+    }
+
+    /**
+     * Keeps the buffer full until stopped. Failed inits back off, the workers init inline meanwhile. A failure while
+     * stopping, e.g. from a connection pool that is already shut down, ends the thread quietly.
+     */
+    private void prefetch() {
+      long backoffMillis = 0;
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          if (backoffMillis > 0) {
+            Thread.sleep(backoffMillis);
+          }
+          UUID transactionId;
+          try {
+            rateLimiter.acquire();
+            transactionId = init();
+          } catch (InterruptedIOException e) {
+            return;
+          } catch (IOException | RuntimeException e) {
+            if (stopped) {
+              return;
+            }
+            backoffMillis = Math.min(Math.max(2 * backoffMillis, 100), 5000);
+            continue;
+          }
+          backoffMillis = 0;
+          prefetched.put(transactionId);
+        }
+      } catch (InterruptedException e) {
+        // Stopped
+      }
+    }
+
+    private UUID init() throws IOException {
+      InitTransactionResponse response = paymentApi.initTransaction();
+      if (response == null || response.getId() == null) {
+        throw new IOException("Init transaction failed"
+            + (response != null && response.getResult() != null ? ": " + response.getResult().getMessage() : ""));
+      }
+      return response.getId();
+    }
+
+    UUID nextTransactionId() throws IOException {
+      UUID transactionId = prefetched.poll();
+      if (transactionId != null) {
+        return transactionId;
+      }
+      stalls.increment();
+      rateLimiter.acquire();
+      return init();
+    }
+  }
+
+  /**
+   * A saved card charge
+   */
+  public static final class Charge {
+
+    private final String merchant;
+    private final String order;
+    private final Token token;
+    private final long amount;
+    private final String currency;
+    private final UUID key;
+
+    /* Attempts of one charge never overlap, but may run on different workers */
+    private volatile UUID transactionId;
+    private volatile UUID lastTransactionId;
+    private volatile int softDeclines = 0;
+
+    /**
+     * Constructor
+     *
+     * @param merchant name the merchant was added with
+     * @param order unique order id of the charge, e.g. subscription and billing period. Identifies the charge
+     *              in the checkpoint.
+     * @param token saved card
+     * @param amount
+     * @param currency
+     */
+    public Charge(String merchant, String order, Token token, long amount, String currency) {
+      this.merchant = merchant;
+      this.order = order;
+      this.token = token;
+      this.amount = amount;
+      this.currency = currency;
+      this.key = UUID.nameUUIDFromBytes((merchant + "\n" + order).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getMerchant() {
+      return merchant;
+    }
+
+    public String getOrder() {
+      return order;
+    }
+
+    public Token getToken() {
+      return token;
+    }
+
+    public long getAmount() {
+      return amount;
+    }
+
+    public String getCurrency() {
+      return currency;
+    }
+
+    /**
+     * @return UUID the checkpoint key, derived from the merchant and order
+     */
+    public UUID getKey() {
+      return key;
+    }
+
+    /**
+     * @return UUID the transaction of the last debit that got a response, null if none did
+     */
+    public UUID getTransactionId() {
+      return lastTransactionId;
+    }
+
+    /**
+     * @return int soft declines retried so far
+     */
+    public int getSoftDeclines() {
+      return softDeclines;
+    }
+
+    @Override
+    public String toString() {
+      return "charge " + merchant + "/" + order + " " + amount + " " + currency;
+    }
+  }
+
+  private static final class MerchantSettings {
+    final PaymentAPI paymentApi;
+    final double requestsPerSecond;
+
+    MerchantSettings(PaymentAPI paymentApi, double requestsPerSecond) {
+      this.paymentApi = paymentApi;
+      this.requestsPerSecond = requestsPerSecond;
+    }
+  }
+
+  public static class Builder extends BatchEngine.Builder<Charge, TransactionResponse, Builder> {
+
+    private final Map<String, MerchantSettings> merchants = new LinkedHashMap<>();
+    private int initThreads = 1;
+    private int prefetch = 8;
+    private long[] softDeclineDelaysNanos = new long[0];
+    private Set<String> softDeclineCodes = new HashSet<>(Arrays.asList("200"));
+
+    @Override
+    protected Builder self() {
+      return this;
+    }
+
+    /**
+     * @param name the name charges refer to the merchant with
+     * @param paymentApi the API of the merchant's account, not closed by the engine
+     * @param requestsPerSecond maximum rate of init and debit requests, zero or less for no limit
+     * @return Builder
+     */
+    public Builder addMerchant(String name, PaymentAPI paymentApi, double requestsPerSecond) {
+      merchants.put(name, new MerchantSettings(paymentApi, requestsPerSecond));
+      return this;
+    }
+
+    /**
+     * @param initThreads threads per merchant that init transactions ahead of the debits, 1 by default
+     * @param prefetch transaction ids per merchant kept ready, 8 by default
+     * @return Builder
+     */
+    public Builder setPipeline(int initThreads, int prefetch) {
+      if (initThreads < 1 || prefetch < 1) {
+        throw new IllegalArgumentException("initThreads and prefetch must be positive");
+      }
+      this.initThreads = initThreads;
+      this.prefetch = prefetch;
+      return this;
+    }
+
+    /**
+     * @param unit
+     * @param delays delay before each new charge of a soft declined one. None by default.
+     * @return Builder
+     */
+    public Builder setSoftDeclineSchedule(TimeUnit unit, long... delays) {
+      softDeclineDelaysNanos = new long[delays.length];
+      for (int i = 0; i < delays.length; i++) {
+        softDeclineDelaysNanos[i] = unit.toNanos(delays[i]);
+      }
+      return this;
+    }
+
+    /**
+     * @param codes result codes that are retried on the soft decline schedule, "200" by default
+     * @return Builder
+     */
+    public Builder setSoftDeclineCodes(String... codes) {
+      softDeclineCodes = new HashSet<>(Arrays.asList(codes));
+      return this;
+    }
+
+    /**
+     * Starts the workers and init threads
+     *
+     * @return TokenChargeEngine
+     * @throws IOException if the checkpoint file cannot be opened
+     */
+    public TokenChargeEngine build() throws IOException {
+      if (merchants.isEmpty()) {
+        throw new IllegalStateException("No merchants added");
+      }
+      return new TokenChargeEngine(this);
+    }
+  }
+}
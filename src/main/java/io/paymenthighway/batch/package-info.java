@@ -0,0 +1,5 @@
+/**
+ * Background engines that run large numbers of Payment API operations with bounded concurrency, rate limiting,
+ * retries and resumable checkpoints
+ */
+package io.paymenthighway.batch;
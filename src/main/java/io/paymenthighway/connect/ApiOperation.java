@@ -0,0 +1,30 @@
+package io.paymenthighway.connect;
+
+/**
+ * Payment API operations, used to label metrics and recordings
+ */
+public enum ApiOperation {
+  INIT("init"),
+  DEBIT("debit"),
+  CREDIT("credit"),
+  REVERT("revert"),
+  COMMIT("commit"),
+  STATUS("status"),
+  ORDER_SEARCH("order_search"),
+  TOKENIZATION("tokenization"),
+  REPORT("report"),
+  RECONCILIATION_REPORT("reconciliation_report");
+
+  private final String label;
+
+  ApiOperation(String label) {
+    this.label = label;
+  }
+
+  /**
+   * @return String lower case name of the operation, e.g. "order_search"
+   */
+  public String getLabel() {
+    return label;
+  }
+}
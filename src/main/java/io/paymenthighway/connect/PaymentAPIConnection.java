@@ -2,11 +2,19 @@ package io.paymenthighway.connect;
 
 import io.paymenthighway.PaymentHighwayUtility;
 import io.paymenthighway.exception.AuthenticationException;
+import io.paymenthighway.export.ReportExport;
+import io.paymenthighway.jfr.ApiCallRecording;
+import io.paymenthighway.jfr.JfrSupport;
+import io.paymenthighway.journal.TransactionJournal;
 import io.paymenthighway.json.JsonGenerator;
 import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.json.ParallelReportParser;
+import io.paymenthighway.metrics.ConnectionMetrics;
+import io.paymenthighway.metrics.MetricsRegistry;
 import io.paymenthighway.model.request.*;
 import io.paymenthighway.model.response.*;
 import io.paymenthighway.model.response.transaction.DebitTransactionResponse;
+import io.paymenthighway.reconciliation.ColumnarReport;
 import io.paymenthighway.security.SecureSigner;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpResponseException;
@@ -17,11 +25,13 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -43,7 +53,13 @@ public class PaymentAPIConnection implements Closeable {
   private String account = null;
   private String merchant = null;
 
-  private CloseableHttpClient httpclient;
+  private volatile CloseableHttpClient httpclient;
+  private int maxConnections = 0;
+
+  private final ConnectionMetrics metrics;
+
+  private volatile TransactionJournal journal;
+  private volatile ParallelReportParser reportParser;
 
   /**
    * Constructor
@@ -61,20 +77,65 @@ public class PaymentAPIConnection implements Closeable {
     this.signatureSecret = signatureSecret;
     this.account = account;
     this.merchant = merchant;
+
+    this.metrics = new ConnectionMetrics(account, merchant);
+    MetricsRegistry.getDefault().register(this.metrics);
   }
 
+  /**
+   * Sets the HTTP client used for the requests. The pool statistics are not
+   * available in the metrics for clients set here.
+   *
+   * @param httpClient
+   */
   public void setHttpClient(CloseableHttpClient httpClient) {
     this.httpclient = httpClient;
+    this.metrics.setConnectionPool(null);
+  }
+
+  /**
+   * Sets the size of the connection pool created for the requests, by default two connections. Has no effect once
+   * the first request has been made or a client has been set with setHttpClient.
+   *
+   * @param maxConnections maximum number of concurrent requests
+   */
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("maxConnections must be positive");
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Sets the journal that records debits, credits, commits and reverts before they are sent
+   *
+   * @param journal null to stop journaling
+   */
+  public void setJournal(TransactionJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Sets the parser that deserializes daily and reconciliation reports in parallel once their signature is validated
+   *
+   * @param reportParser null to deserialize reports on the calling thread
+   */
+  public void setReportParser(ParallelReportParser reportParser) {
+    this.reportParser = reportParser;
+  }
+
+  /**
+   * @return ConnectionMetrics of this connection
+   */
+  public ConnectionMetrics getMetrics() {
+    return metrics;
   }
 
   public InitTransactionResponse initTransactionHandle() throws IOException {
 
     final String paymentUri = "/transaction";
 
-    String response = executePost(paymentUri, createNameValuePairs());
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, InitTransactionResponse.class);
+    return executePost(ApiOperation.INIT, paymentUri, null, InitTransactionResponse.class);
   }
 
   public DebitTransactionResponse debitTransaction(UUID transactionId, TransactionRequest request) throws IOException {
@@ -83,10 +144,7 @@ public class PaymentAPIConnection implements Closeable {
     final String actionUri = "/debit";
     String debitUri = paymentUri + transactionId + actionUri;
 
-    String response = executePost(debitUri, createNameValuePairs(), request);
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, DebitTransactionResponse.class);
+    return executePost(ApiOperation.DEBIT, transactionId, debitUri, request, DebitTransactionResponse.class);
   }
 
   public TransactionResponse creditTransaction(UUID transactionId, TransactionRequest request) throws IOException {
@@ -95,10 +153,7 @@ public class PaymentAPIConnection implements Closeable {
     final String actionUri = "/credit";
     String creditUri = paymentUri + transactionId + actionUri;
 
-    String response = executePost(creditUri, createNameValuePairs(), request);
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, TransactionResponse.class);
+    return executePost(ApiOperation.CREDIT, transactionId, creditUri, request, TransactionResponse.class);
   }
 
   public TransactionResponse revertTransaction(UUID transactionId, RevertTransactionRequest request) throws IOException {
@@ -107,10 +162,7 @@ public class PaymentAPIConnection implements Closeable {
     final String actionUri = "/revert";
     String revertUri = paymentUri + transactionId + actionUri;
 
-    String response = executePost(revertUri, createNameValuePairs(), request);
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, TransactionResponse.class);
+    return executePost(ApiOperation.REVERT, transactionId, revertUri, request, TransactionResponse.class);
   }
 
   public CommitTransactionResponse commitTransaction(UUID transactionId, CommitTransactionRequest request) throws IOException {
@@ -119,10 +171,7 @@ public class PaymentAPIConnection implements Closeable {
     final String actionUri = "/commit";
     String commitUri = paymentUri + transactionId + actionUri;
 
-    String response = executePost(commitUri, createNameValuePairs(), request);
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, CommitTransactionResponse.class);
+    return executePost(ApiOperation.COMMIT, transactionId, commitUri, request, CommitTransactionResponse.class);
   }
 
   public TransactionStatusResponse transactionStatus(UUID transactionId) throws IOException {
@@ -131,10 +180,7 @@ public class PaymentAPIConnection implements Closeable {
 
     String statusUri = paymentUri + transactionId;
 
-    String response = executeGet(statusUri, createNameValuePairs());
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, TransactionStatusResponse.class);
+    return executeGet(ApiOperation.STATUS, statusUri, TransactionStatusResponse.class);
   }
 
   public OrderSearchResponse searchOrders(String order) throws IOException {
@@ -143,10 +189,7 @@ public class PaymentAPIConnection implements Closeable {
 
     String searchUri = paymentUri + order;
 
-    String response = executeGet(searchUri, createNameValuePairs());
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, OrderSearchResponse.class);
+    return executeGet(ApiOperation.ORDER_SEARCH, searchUri, OrderSearchResponse.class);
   }
 
   public TokenizationResponse tokenization(UUID tokenizationId) throws IOException {
@@ -155,10 +198,7 @@ public class PaymentAPIConnection implements Closeable {
 
     String tokenUri = paymentUri + tokenizationId;
 
-    String response = executeGet(tokenUri, createNameValuePairs());
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, TokenizationResponse.class);
+    return executeGet(ApiOperation.TOKENIZATION, tokenUri, TokenizationResponse.class);
   }
 
   public ReportResponse fetchReport(String date) throws IOException {
@@ -167,10 +207,16 @@ public class PaymentAPIConnection implements Closeable {
 
     String fetchUri = reportUri + date;
 
-    String response = executeGet(fetchUri, createNameValuePairs());
-
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, ReportResponse.class);
+    final ParallelReportParser parser = this.reportParser;
+    if (parser == null) {
+      return executeGet(ApiOperation.REPORT, fetchUri, ReportResponse.class);
+    }
+    return execute(ApiOperation.REPORT, null, METHOD_GET, fetchUri, null, new ResponseMapper<ReportResponse>() {
+      @Override
+      public ReportResponse map(String json) throws IOException {
+        return parser.mapReport(json);
+      }
+    });
   }
 
   public ReconciliationReportResponse fetchReconciliationReport(String date) throws IOException {
@@ -184,52 +230,230 @@ public class PaymentAPIConnection implements Closeable {
 
     String fetchUri = reportUri + date + queryString;
 
-    String response = executeGet(fetchUri, createNameValuePairs());
+    final ParallelReportParser parser = this.reportParser;
+    if (parser == null) {
+      return executeGet(ApiOperation.RECONCILIATION_REPORT, fetchUri, ReconciliationReportResponse.class);
+    }
+    return execute(ApiOperation.RECONCILIATION_REPORT, null, METHOD_GET, fetchUri, null,
+        new ResponseMapper<ReconciliationReportResponse>() {
+          @Override
+          public ReconciliationReportResponse map(String json) throws IOException {
+            return parser.mapReconciliationReport(json);
+          }
+        });
+  }
+
+  public ColumnarReport fetchColumnarReconciliationReport(String date) throws IOException {
+    final String reportUri = "/report/reconciliation/";
+
+    String fetchUri = reportUri + date + "?use-date-processed=false";
+
+    return execute(ApiOperation.RECONCILIATION_REPORT, null, METHOD_GET, fetchUri, null,
+        new ResponseMapper<ColumnarReport>() {
+          @Override
+          public ColumnarReport map(String json) throws IOException {
+            return ColumnarReport.parse(json);
+          }
+        });
+  }
+
+  /**
+   * Writes the rows of a daily report to the channel, straight from the validated response body
+   *
+   * @return long the number of rows written
+   */
+  public long exportReport(String date, ReportExport export, WritableByteChannel channel) throws IOException {
+    return export(ApiOperation.REPORT, "/report/batch/" + date, export, channel);
+  }
+
+  /**
+   * Writes the rows of a reconciliation report to the channel, straight from the validated response body
+   *
+   * @return long the number of rows written
+   */
+  public long exportReconciliationReport(String date, ReportExport export, WritableByteChannel channel)
+      throws IOException {
+    return export(ApiOperation.RECONCILIATION_REPORT, "/report/reconciliation/" + date + "?use-date-processed=false",
+        export, channel);
+  }
 
-    JsonParser jpar = new JsonParser();
-    return jpar.mapResponse(response, ReconciliationReportResponse.class);
+  private long export(ApiOperation operation, String requestUri, final ReportExport export,
+                      final WritableByteChannel channel) throws IOException {
+    return execute(operation, null, METHOD_GET, requestUri, null, new ResponseMapper<Long>() {
+      @Override
+      public Long map(String json) throws IOException {
+        return export.write(json, channel);
+      }
+    });
+  }
+
+  private <T> T executeGet(ApiOperation operation, String requestUri, Class<T> responseType) throws IOException {
+    return execute(operation, null, METHOD_GET, requestUri, null, responseType);
+  }
+
+  private <T> T executePost(ApiOperation operation, String requestUri, Request requestBody, Class<T> responseType)
+      throws IOException {
+    return execute(operation, null, METHOD_POST, requestUri, requestBody, responseType);
+  }
+
+  /**
+   * Posts a money-moving request, journaled when a journal is set
+   */
+  private <T> T executePost(ApiOperation operation, UUID transactionId, String requestUri, Request requestBody,
+                            Class<T> responseType) throws IOException {
+    return execute(operation, transactionId, METHOD_POST, requestUri, requestBody, responseType);
+  }
+
+  private <T> T execute(ApiOperation operation, UUID transactionId, String method, String requestUri,
+                        Request requestBody, final Class<T> responseType) throws IOException {
+    return execute(operation, transactionId, method, requestUri, requestBody, new ResponseMapper<T>() {
+      @Override
+      public T map(String json) {
+        return new JsonParser().mapResponse(json, responseType);
+      }
+    });
+  }
+
+  private <T> T execute(ApiOperation operation, UUID transactionId, String method, String requestUri,
+                        Request requestBody, ResponseMapper<T> mapper) throws IOException {
+
+    ApiCallRecording recording = JfrSupport.beginApiCall(method, requestUri);
+    long start = System.nanoTime();
+    metrics.requestStarted();
+    TransactionJournal journal = transactionId != null ? this.journal : null;
+    long intent = 0;
+    try {
+      List<NameValuePair> nameValuePairs = createNameValuePairs();
+      if (journal != null) {
+        intent = journal.appendIntent(operation, transactionId, amountOf(requestBody),
+            findValue(nameValuePairs, "sph-request-id"));
+      }
+
+      String response = METHOD_GET.equals(method)
+          ? executeGet(requestUri, nameValuePairs, recording)
+          : executePost(requestUri, nameValuePairs, requestBody, recording);
+
+      T result = mapper.map(response);
+      recording.parsed();
+      if (journal != null) {
+        appendOutcome(journal, intent, "result:" + resultCode(result));
+      }
+      metrics.requestCompleted(operation, System.nanoTime() - start);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      if (journal != null && intent != 0 && isRejected(e)) {
+        appendOutcome(journal, intent, "http:" + ((HttpResponseException) e).getStatusCode());
+      }
+      metrics.requestFailed(operation, System.nanoTime() - start, e);
+      recording.failed(e);
+      throw e;
+    } finally {
+      recording.end();
+    }
+  }
+
+  /**
+   * The request is answered whether or not its outcome can be journaled. An outcome that fails to be appended is
+   * counted by the journal and leaves the intent in doubt, which recover resolves from the transaction status.
+   */
+  private static void appendOutcome(TransactionJournal journal, long intent, String outcome) {
+    try {
+      journal.appendOutcome(intent, outcome);
+    } catch (IOException | RuntimeException e) {
+      // Counted in TransactionJournal.getOutcomeFailureCount
+    }
+  }
+
+  /**
+   * Reads a response body
+   */
+  private interface ResponseMapper<T> {
+    T map(String json) throws IOException;
+  }
+
+  /**
+   * A 4xx response means the request was refused and no money moved. Anything else leaves the operation in doubt.
+   */
+  private static boolean isRejected(Exception e) {
+    if (!(e instanceof HttpResponseException)) {
+      return false;
+    }
+    int status = ((HttpResponseException) e).getStatusCode();
+    return status >= 400 && status < 500;
+  }
+
+  private static String amountOf(Request request) {
+    if (request instanceof TransactionRequest) {
+      return ((TransactionRequest) request).getAmount();
+    } else if (request instanceof CommitTransactionRequest) {
+      return ((CommitTransactionRequest) request).getAmount();
+    } else if (request instanceof RevertTransactionRequest) {
+      return ((RevertTransactionRequest) request).getAmount();
+    }
+    return null;
+  }
+
+  private static String resultCode(Object response) {
+    if (response instanceof Response && ((Response) response).getResult() != null) {
+      return ((Response) response).getResult().getCode();
+    }
+    return "unknown";
   }
 
   protected String executeGet(String requestUri, List<NameValuePair> nameValuePairs) throws IOException {
+    return executeGet(requestUri, nameValuePairs, ApiCallRecording.NOOP);
+  }
+
+  private String executeGet(String requestUri, List<NameValuePair> nameValuePairs, ApiCallRecording recording)
+      throws IOException {
     CloseableHttpClient httpclient = returnHttpClients();
 
     SecureSigner ss = new SecureSigner(this.signatureKeyId, this.signatureSecret);
 
     HttpRequestBase httpRequest = new HttpGet(this.serviceUrl + requestUri);
 
-    String signature = this.createSignature(ss, METHOD_GET, requestUri, nameValuePairs, null);
+    String signature = ss.createSignature(METHOD_GET, requestUri, nameValuePairs, "");
     nameValuePairs.add(new BasicNameValuePair("signature", signature));
 
     this.addHeaders(httpRequest, nameValuePairs);
 
-    ResponseHandler<String> responseHandler = new PaymentHighwayResponseHandler(ss, METHOD_GET, requestUri);
+    recording.signed(findValue(nameValuePairs, "sph-request-id"), 0);
+
+    ResponseHandler<String> responseHandler = new PaymentHighwayResponseHandler(ss, METHOD_GET, requestUri, recording);
 
     return httpclient.execute(httpRequest, responseHandler);
   }
 
   protected String executePost(String requestUri, List<NameValuePair> nameValuePairs, Request requestBody) throws IOException {
+    return executePost(requestUri, nameValuePairs, requestBody, ApiCallRecording.NOOP);
+  }
+
+  private String executePost(String requestUri, List<NameValuePair> nameValuePairs, Request requestBody,
+                             ApiCallRecording recording) throws IOException {
     CloseableHttpClient httpclient = returnHttpClients();
 
     SecureSigner ss = new SecureSigner(this.signatureKeyId, this.signatureSecret);
 
     HttpPost httpRequest = new HttpPost(this.serviceUrl + requestUri);
 
-    String signature = this.createSignature(ss, METHOD_POST, requestUri, nameValuePairs, requestBody);
+    String json = createJson(requestBody);
+    String signature = ss.createSignature(METHOD_POST, requestUri, nameValuePairs, json);
     nameValuePairs.add(new BasicNameValuePair("signature", signature));
 
     this.addHeaders(httpRequest, nameValuePairs);
 
+    long bytesOut = 0;
     if (requestBody != null) {
-      this.addBody(httpRequest, requestBody);
+      StringEntity requestEntity = new StringEntity(json, "utf-8");
+      httpRequest.setEntity(requestEntity);
+      bytesOut = requestEntity.getContentLength();
     }
 
-    ResponseHandler<String> responseHandler = new PaymentHighwayResponseHandler(ss, METHOD_POST, requestUri);
+    recording.signed(findValue(nameValuePairs, "sph-request-id"), bytesOut);
 
-    return httpclient.execute(httpRequest, responseHandler);
-  }
+    ResponseHandler<String> responseHandler = new PaymentHighwayResponseHandler(ss, METHOD_POST, requestUri, recording);
 
-  private String executePost(String requestUri, List<NameValuePair> nameValuePairs) throws IOException {
-    return executePost(requestUri, nameValuePairs, null);
+    return httpclient.execute(httpRequest, responseHandler);
   }
 
   protected void addHeaders(HttpRequestBase httpPost, List<NameValuePair> nameValuePairs) {
@@ -242,22 +466,21 @@ public class PaymentAPIConnection implements Closeable {
     }
   }
 
-  private void addBody(HttpPost httpPost, Request request) {
-    JsonGenerator jsonGen = new JsonGenerator();
-    String requestBody = jsonGen.createTransactionJson(request);
-    StringEntity requestEntity = new StringEntity(requestBody, "utf-8");
-
-    httpPost.setEntity(requestEntity);
+  private String createJson(Request request) {
+    if (request == null) {
+      return "";
+    }
+    JsonGenerator jsonGenerator = new JsonGenerator();
+    return jsonGenerator.createTransactionJson(request);
   }
 
-  private String createSignature(SecureSigner ss, String method, String uri, List<NameValuePair> nameValuePairs, Request request) {
-
-    String json = "";
-    if (request != null) {
-      JsonGenerator jsonGenerator = new JsonGenerator();
-      json = jsonGenerator.createTransactionJson(request);
+  private static String findValue(List<NameValuePair> nameValuePairs, String name) {
+    for (NameValuePair pair : nameValuePairs) {
+      if (pair.getName().equals(name)) {
+        return pair.getValue();
+      }
     }
-    return ss.createSignature(method, uri, nameValuePairs, json);
+    return null;
   }
 
   /**
@@ -276,14 +499,27 @@ public class PaymentAPIConnection implements Closeable {
   }
 
   private CloseableHttpClient returnHttpClients() {
-    if (httpclient == null) {
-      httpclient = HttpClients.createDefault();
+    CloseableHttpClient client = httpclient;
+    if (client != null) {
+      return client;
+    }
+    synchronized (this) {
+      if (httpclient == null) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        if (maxConnections > 0) {
+          connectionManager.setMaxTotal(Math.max(maxConnections, connectionManager.getMaxTotal()));
+          connectionManager.setDefaultMaxPerRoute(maxConnections);
+        }
+        metrics.setConnectionPool(connectionManager);
+        httpclient = HttpClients.custom().setConnectionManager(connectionManager).build();
+      }
+      return httpclient;
     }
-    return httpclient;
   }
 
   @Override
   public void close() throws IOException {
+    MetricsRegistry.getDefault().unregister(metrics);
     if (httpclient != null) {
       httpclient.close();
     }
@@ -1,6 +1,7 @@
 package io.paymenthighway.connect;
 
 import io.paymenthighway.exception.AuthenticationException;
+import io.paymenthighway.jfr.ApiCallRecording;
 import io.paymenthighway.security.SecureSigner;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -18,6 +19,7 @@ public class PaymentHighwayResponseHandler implements ResponseHandler<String> {
   private SecureSigner ss = null;
   private String method = null;
   private String uri = null;
+  private ApiCallRecording recording = ApiCallRecording.NOOP;
 
   public PaymentHighwayResponseHandler(SecureSigner ss, String method, String uri) {
     this.ss = ss;
@@ -25,14 +27,21 @@ public class PaymentHighwayResponseHandler implements ResponseHandler<String> {
     this.uri = uri;
   }
 
+  public PaymentHighwayResponseHandler(SecureSigner ss, String method, String uri, ApiCallRecording recording) {
+    this(ss, method, uri);
+    this.recording = recording;
+  }
+
   @Override
   public String handleResponse(final HttpResponse response) throws IOException {
 
     String content = EntityUtils.toString(response.getEntity());
     int status = response.getStatusLine().getStatusCode();
+    recording.responseReceived(status, content);
 
     if (status >= 200 && status < 300) {
       boolean authenticated = ss.validateSignature(this.method, this.uri, response, content);
+      recording.validated();
       if (!authenticated) {
         System.err.println("Message authentication failed, status:" + status + ", reason:" + response.getStatusLine().getReasonPhrase() + ":" + content);
         throw new AuthenticationException(
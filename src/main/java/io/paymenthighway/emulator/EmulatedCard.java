@@ -0,0 +1,41 @@
+package io.paymenthighway.emulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A card known to the emulator, identified by its card token
+ */
+final class EmulatedCard {
+
+  final UUID token;
+  final String type;
+  final String partialPan;
+  final String bin;
+  final String expireYear;
+  final String expireMonth;
+
+  EmulatedCard(UUID token, String pan, String expireYear, String expireMonth) {
+    this.token = token;
+    this.type = pan.startsWith("4") ? "Visa" : pan.startsWith("5") ? "MasterCard" : "Unknown";
+    this.partialPan = pan.substring(Math.max(0, pan.length() - 4));
+    this.bin = pan.substring(0, Math.min(6, pan.length()));
+    this.expireYear = expireYear;
+    this.expireMonth = expireMonth;
+  }
+
+  Map<String, Object> toJson() {
+    Map<String, Object> card = new LinkedHashMap<>();
+    card.put("type", type);
+    card.put("partial_pan", partialPan);
+    card.put("expire_year", expireYear);
+    card.put("expire_month", expireMonth);
+    card.put("cvc_required", "no");
+    card.put("bin", bin);
+    card.put("funding", "debit");
+    card.put("category", "unknown");
+    card.put("country_code", "FI");
+    return card;
+  }
+}
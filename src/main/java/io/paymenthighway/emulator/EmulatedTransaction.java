@@ -0,0 +1,104 @@
+package io.paymenthighway.emulator;
+
+import io.paymenthighway.PaymentHighwayUtility;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory state of a single transaction. Callers synchronize on the instance.
+ */
+final class EmulatedTransaction {
+
+  static final String INITIALIZED = "initialized";
+
+  final UUID id;
+  final String filingCode;
+
+  String type = INITIALIZED;
+  long amount;
+  long currentAmount;
+  String currency;
+  String order;
+  String timestamp;
+  String modified;
+  String authorizationCode;
+  EmulatedCard card;
+  boolean committed;
+  String state;
+  int statusCode;
+  Map<String, Object> customer;
+  Map<String, Object> lastResponse;
+  final List<Map<String, Object>> reverts = new ArrayList<>();
+
+  EmulatedTransaction(UUID id, String filingCode) {
+    this.id = id;
+    this.filingCode = filingCode;
+    this.timestamp = PaymentHighwayUtility.getUtcTimestamp();
+    this.modified = timestamp;
+  }
+
+  boolean isProcessed() {
+    return !INITIALIZED.equals(type);
+  }
+
+  /**
+   * @return String the transaction date as yyyyMMdd
+   */
+  String date() {
+    return timestamp.substring(0, 4) + timestamp.substring(5, 7) + timestamp.substring(8, 10);
+  }
+
+  Map<String, Object> status() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state);
+    status.put("code", statusCode);
+    return status;
+  }
+
+  Map<String, Object> toJson() {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("id", id.toString());
+    json.put("acquirer", PaymentHighwayEmulator.acquirer());
+    json.put("type", type);
+    json.put("amount", amount);
+    json.put("current_amount", currentAmount);
+    json.put("currency", currency);
+    json.put("timestamp", timestamp);
+    json.put("modified", modified);
+    json.put("filing_code", filingCode);
+    json.put("authorization_code", authorizationCode);
+    if (card != null) {
+      json.put("token", card.token.toString());
+      json.put("card", card.toJson());
+    }
+    json.put("status", status());
+    json.put("reverts", new ArrayList<>(reverts));
+    if (customer != null) {
+      json.put("customer", customer);
+    }
+    json.put("cardholder_authentication", "no");
+    json.put("order", order);
+    json.put("committed", committed);
+    return json;
+  }
+
+  Map<String, Object> toReportJson() {
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("id", id.toString());
+    json.put("timestamp", timestamp);
+    json.put("type", type);
+    json.put("partial_pan", card != null ? card.partialPan : null);
+    json.put("amount", currentAmount);
+    json.put("currency", currency);
+    json.put("filing_code", filingCode);
+    json.put("authorization_code", authorizationCode);
+    json.put("status", status());
+    json.put("cardholder_authentication", "no");
+    json.put("order", order);
+    return json;
+  }
+}
@@ -0,0 +1,261 @@
+package io.paymenthighway.emulator;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP/1.1 server of the emulator.
+ *
+ * Every accepted connection gets TCP_NODELAY and a thread of its own, and every response goes out in a single
+ * write, so a small response never waits for the delayed ACK of its headers. Only what PaymentAPI sends is
+ * supported: requests with a Content-Length body, on connections kept alive until either side closes them.
+ */
+final class EmulatorHttpServer implements Closeable {
+
+  private static final int MAX_LINE_LENGTH = 8192;
+
+  /**
+   * Answers one request, an exception closes the connection without a response
+   */
+  interface Handler {
+    Response handle(Request request) throws IOException;
+  }
+
+  static final class Request {
+    final String method;
+    final String uri;
+    /* Names in lower case */
+    final List<NameValuePair> headers;
+    final String body;
+
+    Request(String method, String uri, List<NameValuePair> headers, String body) {
+      this.method = method;
+      this.uri = uri;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  static final class Response {
+    final int status;
+    final List<NameValuePair> headers;
+    final byte[] body;
+
+    Response(int status, List<NameValuePair> headers, byte[] body) {
+      this.status = status;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  private final ServerSocket serverSocket;
+  private final Handler handler;
+  private final ExecutorService threads = Executors.newCachedThreadPool();
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed;
+
+  EmulatorHttpServer(InetSocketAddress address, int backlog, Handler handler) throws IOException {
+    this.handler = handler;
+    this.serverSocket = new ServerSocket();
+    serverSocket.bind(address, backlog);
+    threads.execute(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    });
+  }
+
+  InetSocketAddress getAddress() {
+    return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+  }
+
+  private void accept() {
+    while (!closed) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        return;
+      }
+      connections.add(socket);
+      if (closed) {
+        closeQuietly(socket);
+        return;
+      }
+      threads.execute(new Runnable() {
+        @Override
+        public void run() {
+          serve(socket);
+        }
+      });
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+      boolean keepAlive = true;
+      while (keepAlive) {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+          return;
+        }
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+          throw new IOException("Malformed request line: " + requestLine);
+        }
+        List<NameValuePair> headers = readHeaders(in);
+        Request request = new Request(parts[0], parts[1], headers, readBody(in, headers));
+        String connection = findValue(headers, "connection");
+        keepAlive = parts[2].equals("HTTP/1.1")
+            ? !"close".equalsIgnoreCase(connection)
+            : "keep-alive".equalsIgnoreCase(connection);
+        write(out, handler.handle(request), keepAlive);
+      }
+    } catch (IOException | RuntimeException e) {
+      // closing the connection is all a client sees of a failed request
+    } finally {
+      connections.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  private static List<NameValuePair> readHeaders(InputStream in) throws IOException {
+    List<NameValuePair> headers = new ArrayList<>();
+    String line;
+    while (!(line = readRequiredLine(in)).isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new IOException("Malformed header: " + line);
+      }
+      headers.add(new BasicNameValuePair(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+          line.substring(colon + 1).trim()));
+    }
+    return headers;
+  }
+
+  private static String readBody(InputStream in, List<NameValuePair> headers) throws IOException {
+    if (findValue(headers, "transfer-encoding") != null) {
+      throw new IOException("Only Content-Length request bodies are supported");
+    }
+    String contentLength = findValue(headers, "content-length");
+    if (contentLength == null) {
+      return "";
+    }
+    byte[] body;
+    try {
+      body = new byte[Integer.parseInt(contentLength)];
+    } catch (NumberFormatException | NegativeArraySizeException e) {
+      throw new IOException("Invalid Content-Length: " + contentLength);
+    }
+    int offset = 0;
+    while (offset < body.length) {
+      int read = in.read(body, offset, body.length - offset);
+      if (read == -1) {
+        throw new EOFException("Request body ended after " + offset + " of " + body.length + " bytes");
+      }
+      offset += read;
+    }
+    return new String(body, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return String the line without its line break, null if the stream ended before it started
+   */
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b == -1) {
+        if (line.length() == 0) {
+          return null;
+        }
+        throw new EOFException("Request ended in the middle of a line");
+      }
+      if (line.length() == MAX_LINE_LENGTH) {
+        throw new IOException("Request line or header longer than " + MAX_LINE_LENGTH + " bytes");
+      }
+      line.append((char) b);
+    }
+    int length = line.length();
+    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+  }
+
+  private static String readRequiredLine(InputStream in) throws IOException {
+    String line = readLine(in);
+    if (line == null) {
+      throw new EOFException("Request ended before its headers");
+    }
+    return line;
+  }
+
+  private static void write(OutputStream out, Response response, boolean keepAlive) throws IOException {
+    String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(response.status, Locale.ENGLISH);
+    StringBuilder head = new StringBuilder("HTTP/1.1 ").append(response.status).append(' ')
+        .append(reason == null ? "" : reason).append("\r\n");
+    for (NameValuePair header : response.headers) {
+      head.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    head.append("Content-Length: ").append(response.body.length).append("\r\n");
+    if (!keepAlive) {
+      head.append("Connection: close\r\n");
+    }
+    head.append("\r\n");
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(head.length() + response.body.length);
+    buffer.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    buffer.write(response.body);
+    buffer.writeTo(out);
+    out.flush();
+  }
+
+  static String findValue(List<NameValuePair> nameValuePairs, String name) {
+    for (NameValuePair nameValuePair : nameValuePairs) {
+      if (nameValuePair.getName().equals(name)) {
+        return nameValuePair.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // nothing left to do with it
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    closeQuietly(serverSocket);
+    for (Socket socket : connections) {
+      closeQuietly(socket);
+    }
+    threads.shutdownNow();
+  }
+}
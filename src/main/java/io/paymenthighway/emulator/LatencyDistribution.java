@@ -0,0 +1,81 @@
+package io.paymenthighway.emulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response latency added by the emulator
+ */
+public abstract class LatencyDistribution {
+
+  /**
+   * @param random
+   * @return long latency in nanoseconds
+   */
+  public abstract long sampleNanos(Random random);
+
+  /**
+   * @return LatencyDistribution that responds immediately
+   */
+  public static LatencyDistribution none() {
+    return fixed(0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param latency
+   * @param unit
+   * @return LatencyDistribution that always adds the given latency
+   */
+  public static LatencyDistribution fixed(long latency, TimeUnit unit) {
+    final long nanos = unit.toNanos(latency);
+    return new LatencyDistribution() {
+      @Override
+      public long sampleNanos(Random random) {
+        return nanos;
+      }
+    };
+  }
+
+  /**
+   * @param min
+   * @param max
+   * @param unit
+   * @return LatencyDistribution uniformly distributed between min and max
+   */
+  public static LatencyDistribution uniform(long min, long max, TimeUnit unit) {
+    final long minNanos = unit.toNanos(min);
+    final long rangeNanos = unit.toNanos(max) - minNanos;
+    if (rangeNanos < 0) {
+      throw new IllegalArgumentException("max must not be less than min");
+    }
+    return new LatencyDistribution() {
+      @Override
+      public long sampleNanos(Random random) {
+        return minNanos + (long) (random.nextDouble() * rangeNanos);
+      }
+    };
+  }
+
+  /**
+   * Log-normal distribution, the usual shape of service response times.
+   *
+   * @param median
+   * @param p99 The 99th percentile, must be greater than the median
+   * @param unit
+   * @return LatencyDistribution
+   */
+  public static LatencyDistribution logNormal(long median, long p99, TimeUnit unit) {
+    if (median <= 0 || p99 <= median) {
+      throw new IllegalArgumentException("p99 must be greater than a positive median");
+    }
+    final double mu = Math.log(unit.toNanos(median));
+    // 2.326 is the 99th percentile of the standard normal distribution
+    final double sigma = (Math.log(unit.toNanos(p99)) - mu) / 2.326;
+    return new LatencyDistribution() {
+      @Override
+      public long sampleNanos(Random random) {
+        return (long) Math.exp(mu + sigma * random.nextGaussian());
+      }
+    };
+  }
+}
@@ -0,0 +1,671 @@
+package io.paymenthighway.emulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.paymenthighway.PaymentHighwayUtility;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable local emulator of the Payment API.
+ *
+ * Requests must be signed with the configured key; responses are signed the same way
+ * the real service signs them, so PaymentAPI can be pointed at {@link #getServiceUrl()}
+ * unchanged. Transactions, card tokens and tokenizations live in memory for the lifetime
+ * of the emulator.
+ *
+ * Result codes used by the emulator: 100 OK, 200 authorization failed (see
+ * {@link Builder#setDeclineRate(double)}), 211 revert amount exceeds the remaining amount,
+ * 900 invalid request and 920 transaction not found.
+ */
+public class PaymentHighwayEmulator implements Closeable {
+
+  public static final int RESULT_OK = 100;
+  public static final int RESULT_DECLINED = 200;
+  public static final int RESULT_INSUFFICIENT_AMOUNT = 211;
+  public static final int RESULT_INVALID = 900;
+  public static final int RESULT_NOT_FOUND = 920;
+
+  private static final String METHOD_POST = "POST";
+  private static final String METHOD_GET = "GET";
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final EmulatorHttpServer server;
+  private final Semaphore handling;
+  private final SecureSigner signer;
+  private final LatencyDistribution latency;
+  private final double errorRate;
+  private final int errorStatus;
+  private final double declineRate;
+
+  private final ConcurrentMap<UUID, EmulatedTransaction> transactions = new ConcurrentHashMap<>();
+  private final ConcurrentMap<UUID, EmulatedCard> cards = new ConcurrentHashMap<>();
+  private final ConcurrentMap<UUID, UUID> tokenizations = new ConcurrentHashMap<>();
+  private final AtomicLong filingCodes = new AtomicLong();
+  private final AtomicLong requests = new AtomicLong();
+
+  private PaymentHighwayEmulator(Builder builder) throws IOException {
+    this.signer = new SecureSigner(builder.signatureKeyId, builder.signatureSecret);
+    this.latency = builder.latency;
+    this.errorRate = builder.errorRate;
+    this.errorStatus = builder.errorStatus;
+    this.declineRate = builder.declineRate;
+    this.handling = new Semaphore(builder.threads);
+    this.server = new EmulatorHttpServer(builder.address, 1024, new EmulatorHttpServer.Handler() {
+      @Override
+      public EmulatorHttpServer.Response handle(EmulatorHttpServer.Request request) throws IOException {
+        return respond(request);
+      }
+    });
+  }
+
+  /**
+   * @return String the service URL to pass to PaymentAPI
+   */
+  public String getServiceUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+  }
+
+  /**
+   * @return int the port the emulator listens on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @return long the number of requests received, including rejected ones
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Registers a card the same way a tokenizing payment form would.
+   *
+   * @param card the card to tokenize
+   * @return UUID the tokenization id to pass to PaymentAPI.tokenize
+   */
+  public UUID tokenize(Card card) {
+    EmulatedCard emulatedCard = registerCard(card.getPan(), card.getExpiryYear(), card.getExpiryMonth());
+    UUID tokenizationId = UUID.randomUUID();
+    tokenizations.put(tokenizationId, emulatedCard.token);
+    return tokenizationId;
+  }
+
+  static Map<String, Object> acquirer() {
+    Map<String, Object> acquirer = new LinkedHashMap<>();
+    acquirer.put("id", "emulator");
+    acquirer.put("name", "Payment Highway Emulator");
+    return acquirer;
+  }
+
+  private EmulatedCard registerCard(String pan, String expiryYear, String expiryMonth) {
+    UUID token = UUID.nameUUIDFromBytes((pan + "/" + expiryYear + "/" + expiryMonth).getBytes(StandardCharsets.UTF_8));
+    EmulatedCard card = cards.get(token);
+    if (card == null) {
+      EmulatedCard created = new EmulatedCard(token, pan, expiryYear, expiryMonth);
+      card = cards.putIfAbsent(token, created);
+      if (card == null) {
+        card = created;
+      }
+    }
+    return card;
+  }
+
+  private EmulatorHttpServer.Response respond(EmulatorHttpServer.Request request) throws IOException {
+    requests.incrementAndGet();
+
+    String method = request.method;
+    String uri = request.uri;
+    int queryStart = uri.indexOf('?');
+    String path = queryStart == -1 ? uri : uri.substring(0, queryStart);
+    String query = queryStart == -1 ? null : uri.substring(queryStart + 1);
+
+    Random random = ThreadLocalRandom.current();
+    int status;
+    String responseBody;
+    handling.acquireUninterruptibly();
+    try {
+      if (!signer.validateSignature(method, uri, request.headers, request.body)) {
+        status = 401;
+        responseBody = "";
+      } else if (errorRate > 0 && random.nextDouble() < errorRate) {
+        status = errorStatus;
+        responseBody = "";
+      } else {
+        Map<String, Object> response = route(method, path, query, request.body, request.headers);
+        status = response == null ? 404 : 200;
+        responseBody = response == null ? "" : mapper.writeValueAsString(response);
+      }
+    } finally {
+      handling.release();
+    }
+
+    long delay = latency.sampleNanos(random);
+    if (delay > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    return signedResponse(method, uri, request.headers, status, responseBody);
+  }
+
+  private EmulatorHttpServer.Response signedResponse(String method, String uri, List<NameValuePair> requestHeaders,
+                                                    int status, String body) {
+    List<NameValuePair> headers = new ArrayList<>();
+    headers.add(new BasicNameValuePair("sph-account", findValue(requestHeaders, "sph-account")));
+    headers.add(new BasicNameValuePair("sph-merchant", findValue(requestHeaders, "sph-merchant")));
+    headers.add(new BasicNameValuePair("sph-request-id", findValue(requestHeaders, "sph-request-id")));
+    headers.add(new BasicNameValuePair("sph-response-id", PaymentHighwayUtility.createRequestId()));
+    headers.add(new BasicNameValuePair("sph-timestamp", PaymentHighwayUtility.getUtcTimestamp()));
+
+    List<NameValuePair> responseHeaders = new ArrayList<>();
+    for (NameValuePair header : headers) {
+      if (header.getValue() != null) {
+        responseHeaders.add(header);
+      }
+    }
+    responseHeaders.add(new BasicNameValuePair("signature", signer.createSignature(method, uri, headers, body)));
+    responseHeaders.add(new BasicNameValuePair("Content-Type", "application/json; charset=utf-8"));
+    return new EmulatorHttpServer.Response(status, responseHeaders, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String findValue(List<NameValuePair> nameValuePairs, String name) {
+    return EmulatorHttpServer.findValue(nameValuePairs, name);
+  }
+
+  private Map<String, Object> route(String method, String path, String query, String body, List<NameValuePair> headers)
+      throws IOException {
+    String[] segments = path.substring(1).split("/");
+
+    if (method.equals(METHOD_POST) && segments[0].equals("transaction")) {
+      if (segments.length == 1) {
+        return initTransaction();
+      }
+      UUID id = parseUuid(segments[1]);
+      if (segments.length != 3 || id == null) {
+        return null;
+      }
+      JsonNode request = body.isEmpty() ? mapper.createObjectNode() : mapper.readTree(body);
+      switch (segments[2]) {
+        case "debit":
+          return charge(id, "debit", request);
+        case "credit":
+          return charge(id, "credit", request);
+        case "revert":
+          return revert(id, request);
+        case "commit":
+          return commit(id, request);
+        default:
+          return null;
+      }
+    }
+
+    if (method.equals(METHOD_GET)) {
+      if (segments[0].equals("transaction") && segments.length == 2) {
+        return transactionStatus(parseUuid(segments[1]));
+      } else if (segments[0].equals("transactions") && query != null && query.startsWith("order=")) {
+        return searchOrders(query.substring("order=".length()));
+      } else if (segments[0].equals("tokenization") && segments.length == 2) {
+        return tokenization(parseUuid(segments[1]));
+      } else if (segments[0].equals("report") && segments.length == 3 && segments[1].equals("batch")) {
+        return report(segments[2], findValue(headers, "sph-merchant"));
+      } else if (segments[0].equals("report") && segments.length == 3 && segments[1].equals("reconciliation")) {
+        boolean useDateProcessed = query != null && query.contains("use-date-processed=true");
+        return reconciliationReport(segments[2], findValue(headers, "sph-merchant"), useDateProcessed);
+      }
+    }
+    return null;
+  }
+
+  private static UUID parseUuid(String value) {
+    try {
+      return UUID.fromString(value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static Map<String, Object> result(int code, String message) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("code", code);
+    result.put("message", message);
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("result", result);
+    return response;
+  }
+
+  private static Map<String, Object> ok() {
+    return result(RESULT_OK, "OK");
+  }
+
+  private static Map<String, Object> notFound() {
+    return result(RESULT_NOT_FOUND, "Transaction not found");
+  }
+
+  private static Map<String, Object> invalid(String message) {
+    return result(RESULT_INVALID, message);
+  }
+
+  private String nextFilingCode() {
+    return String.format("%012d", filingCodes.incrementAndGet());
+  }
+
+  private Map<String, Object> initTransaction() {
+    UUID id = UUID.randomUUID();
+    transactions.put(id, new EmulatedTransaction(id, nextFilingCode()));
+    Map<String, Object> response = ok();
+    response.put("id", id.toString());
+    return response;
+  }
+
+  private Map<String, Object> charge(UUID id, String type, JsonNode request) {
+    EmulatedTransaction transaction = transactions.get(id);
+    if (transaction == null) {
+      return notFound();
+    }
+
+    synchronized (transaction) {
+      if (transaction.isProcessed()) {
+        // A repeated debit returns the original outcome instead of charging twice
+        return transaction.lastResponse;
+      }
+
+      EmulatedCard card;
+      JsonNode cardNode = request.path("card");
+      JsonNode tokenNode = request.path("token");
+      if (cardNode.hasNonNull("pan")) {
+        card = registerCard(cardNode.path("pan").asText(), cardNode.path("expiry_year").asText(),
+            cardNode.path("expiry_month").asText());
+      } else if (tokenNode.hasNonNull("id")) {
+        UUID token = parseUuid(tokenNode.path("id").asText());
+        card = token == null ? null : cards.get(token);
+        if (card == null) {
+          return invalid("Unknown card token");
+        }
+      } else {
+        return invalid("Card or token required");
+      }
+      if (!request.hasNonNull("amount") || !request.hasNonNull("currency")) {
+        return invalid("Amount and currency required");
+      }
+
+      transaction.type = type;
+      transaction.card = card;
+      transaction.amount = request.path("amount").asLong();
+      transaction.currentAmount = transaction.amount;
+      transaction.currency = request.path("currency").asText();
+      transaction.order = request.hasNonNull("order") ? request.path("order").asText() : null;
+      transaction.committed = request.path("commit").asBoolean(true);
+      transaction.modified = PaymentHighwayUtility.getUtcTimestamp();
+      if (request.hasNonNull("customer")) {
+        Map<String, Object> customer = new LinkedHashMap<>();
+        customer.put("network_address", request.path("customer").path("network_address").asText());
+        customer.put("country_code", "FI");
+        transaction.customer = customer;
+      }
+
+      Map<String, Object> response;
+      if (declineRate > 0 && ThreadLocalRandom.current().nextDouble() < declineRate) {
+        transaction.state = "failed";
+        transaction.statusCode = 7000;
+        transaction.currentAmount = 0;
+        response = result(RESULT_DECLINED, "Authorization failed");
+      } else {
+        transaction.state = "ok";
+        transaction.statusCode = 4000;
+        transaction.authorizationCode = String.format("%06d", ThreadLocalRandom.current().nextInt(1000000));
+        response = ok();
+      }
+      response.put("filing_code", transaction.filingCode);
+      transaction.lastResponse = response;
+      return response;
+    }
+  }
+
+  private Map<String, Object> revert(UUID id, JsonNode request) {
+    EmulatedTransaction transaction = transactions.get(id);
+    if (transaction == null) {
+      return notFound();
+    }
+
+    synchronized (transaction) {
+      if (!transaction.isProcessed() || !"ok".equals(transaction.state)) {
+        return invalid("Transaction cannot be reverted");
+      }
+      long amount = request.hasNonNull("amount") ? request.path("amount").asLong() : transaction.currentAmount;
+      if (amount <= 0 || amount > transaction.currentAmount) {
+        return result(RESULT_INSUFFICIENT_AMOUNT, "Revert amount exceeds the remaining amount");
+      }
+
+      String timestamp = PaymentHighwayUtility.getUtcTimestamp();
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("state", "ok");
+      status.put("code", 4000);
+      Map<String, Object> revert = new LinkedHashMap<>();
+      revert.put("type", transaction.committed ? "refund" : "cancel");
+      revert.put("status", status);
+      revert.put("amount", amount);
+      revert.put("timestamp", timestamp);
+      revert.put("modified", timestamp);
+      revert.put("filing_code", nextFilingCode());
+
+      transaction.reverts.add(revert);
+      transaction.currentAmount -= amount;
+      transaction.modified = timestamp;
+      return ok();
+    }
+  }
+
+  private Map<String, Object> commit(UUID id, JsonNode request) {
+    EmulatedTransaction transaction = transactions.get(id);
+    if (transaction == null) {
+      return notFound();
+    }
+
+    synchronized (transaction) {
+      if (!transaction.isProcessed() || !"ok".equals(transaction.state)) {
+        return invalid("Transaction cannot be committed");
+      }
+      if (!transaction.committed) {
+        long amount = request.hasNonNull("amount") ? request.path("amount").asLong() : transaction.amount;
+        if (amount <= 0 || amount > transaction.amount) {
+          return invalid("Commit amount exceeds the authorized amount");
+        }
+        transaction.committed = true;
+        transaction.amount = amount;
+        transaction.currentAmount = amount;
+        transaction.modified = PaymentHighwayUtility.getUtcTimestamp();
+      }
+
+      Map<String, Object> response = ok();
+      response.put("card_token", transaction.card.token.toString());
+      response.put("card", transaction.card.toJson());
+      if (transaction.customer != null) {
+        response.put("customer", transaction.customer);
+      }
+      response.put("cardholder_authentication", "no");
+      response.put("filing_code", transaction.filingCode);
+      return response;
+    }
+  }
+
+  private Map<String, Object> transactionStatus(UUID id) {
+    EmulatedTransaction transaction = id == null ? null : transactions.get(id);
+    if (transaction == null) {
+      return notFound();
+    }
+    Map<String, Object> response = ok();
+    synchronized (transaction) {
+      response.put("transaction", transaction.toJson());
+    }
+    return response;
+  }
+
+  private Map<String, Object> searchOrders(String order) {
+    List<Map<String, Object>> found = new ArrayList<>();
+    for (EmulatedTransaction transaction : transactions.values()) {
+      synchronized (transaction) {
+        if (order.equals(transaction.order)) {
+          found.add(transaction.toJson());
+        }
+      }
+    }
+    Map<String, Object> response = ok();
+    response.put("transactions", found);
+    return response;
+  }
+
+  private Map<String, Object> tokenization(UUID tokenizationId) {
+    UUID token = tokenizationId == null ? null : tokenizations.get(tokenizationId);
+    if (token == null) {
+      return invalid("Unknown tokenization id");
+    }
+    EmulatedCard card = cards.get(token);
+    Map<String, Object> response = ok();
+    response.put("card_token", token.toString());
+    response.put("card", card.toJson());
+    response.put("cardholder_authentication", "no");
+    return response;
+  }
+
+  /**
+   * Groups the committed, successful debits of the given yyyyMMdd date by currency
+   */
+  private Map<String, List<EmulatedTransaction>> settle(String date) {
+    Map<String, List<EmulatedTransaction>> byCurrency = new TreeMap<>();
+    for (EmulatedTransaction transaction : transactions.values()) {
+      synchronized (transaction) {
+        if (transaction.committed && "ok".equals(transaction.state) && date.equals(transaction.date())) {
+          List<EmulatedTransaction> settled = byCurrency.get(transaction.currency);
+          if (settled == null) {
+            settled = new ArrayList<>();
+            byCurrency.put(transaction.currency, settled);
+          }
+          settled.add(transaction);
+        }
+      }
+    }
+    return byCurrency;
+  }
+
+  private static Map<String, Object> merchant(String merchantId) {
+    Map<String, Object> merchant = new LinkedHashMap<>();
+    merchant.put("id", merchantId);
+    merchant.put("name", merchantId);
+    merchant.put("acquirer_merchant_id", "12345");
+    return merchant;
+  }
+
+  private static Map<String, Object> okStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", "ok");
+    status.put("code", 4000);
+    return status;
+  }
+
+  private Map<String, Object> report(String date, String merchantId) {
+    List<Map<String, Object>> settlements = new ArrayList<>();
+    int batch = 0;
+    for (Map.Entry<String, List<EmulatedTransaction>> entry : settle(date).entrySet()) {
+      List<Map<String, Object>> settled = new ArrayList<>();
+      long net = 0;
+      for (EmulatedTransaction transaction : entry.getValue()) {
+        synchronized (transaction) {
+          settled.add(transaction.toReportJson());
+          net += transaction.currentAmount;
+        }
+      }
+      Map<String, Object> settlement = new LinkedHashMap<>();
+      settlement.put("status", okStatus());
+      settlement.put("id", UUID.nameUUIDFromBytes((date + entry.getKey()).getBytes(StandardCharsets.UTF_8)).toString());
+      settlement.put("batch", String.format("%06d", batch));
+      settlement.put("timestamp", PaymentHighwayUtility.getUtcTimestamp());
+      settlement.put("reference", date + String.format("%06d", batch++));
+      settlement.put("merchant", merchant(merchantId));
+      settlement.put("acquirer", acquirer());
+      settlement.put("transaction_count", settled.size());
+      settlement.put("net_amount", net);
+      settlement.put("currency", entry.getKey());
+      settlement.put("transactions", settled);
+      settlements.add(settlement);
+    }
+    Map<String, Object> response = ok();
+    response.put("settlements", settlements);
+    return response;
+  }
+
+  private Map<String, Object> reconciliationReport(String date, String merchantId, boolean useDateProcessed) {
+    // Settlements are processed on the day they are made, so the date interpretation makes no difference here
+    List<Map<String, Object>> settlements = new ArrayList<>();
+    int batch = 0;
+    String dateProcessed = date.length() == 8
+        ? date.substring(0, 4) + "-" + date.substring(4, 6) + "-" + date.substring(6, 8)
+        : date;
+    for (Map.Entry<String, List<EmulatedTransaction>> entry : settle(date.replace("-", "")).entrySet()) {
+      List<Map<String, Object>> settled = new ArrayList<>();
+      long net = 0;
+      for (EmulatedTransaction transaction : entry.getValue()) {
+        synchronized (transaction) {
+          Map<String, Object> json = transaction.toReportJson();
+          json.put("merchant", merchant(merchantId));
+          json.put("acquirer_amount_presented", transaction.currentAmount);
+          json.put("acquirer_amount_presented_currency", transaction.currency);
+          json.put("acquirer_estimated_settlement_value", transaction.currentAmount);
+          json.put("acquirer_estimated_settlement_value_currency", transaction.currency);
+          json.put("acquirer_exchange_rate", "1.0");
+          json.put("acquirer_discount_rate", "0.0");
+          json.put("acquirer_transaction_fee", 0);
+          json.put("acquirer_transaction_fee_currency", transaction.currency);
+          json.put("acquirer_commission", 0);
+          json.put("acquirer_commission_currency", transaction.currency);
+          settled.add(json);
+          net += transaction.currentAmount;
+        }
+      }
+      Map<String, Object> settlement = new LinkedHashMap<>();
+      settlement.put("acquirer_batch_id", String.format("%010d", batch));
+      settlement.put("status", okStatus());
+      settlement.put("batch", String.format("%06d", batch));
+      settlement.put("date_processed", dateProcessed);
+      settlement.put("reference", date.replace("-", "") + String.format("%06d", batch++));
+      settlement.put("acquirer", acquirer());
+      settlement.put("transaction_count", settled.size());
+      settlement.put("net_amount", net);
+      settlement.put("currency", entry.getKey());
+      settlement.put("transactions", settled);
+      settlement.put("main_acquirer_merchant_id", "12345");
+      settlement.put("unallocated_transactions_count", 0);
+      settlement.put("unallocated_transactions", Collections.emptyList());
+      settlements.add(settlement);
+    }
+    Map<String, Object> response = ok();
+    response.put("settlements", settlements);
+    response.put("commission_settlements", Collections.emptyList());
+    return response;
+  }
+
+  @Override
+  public void close() {
+    server.close();
+  }
+
+  /**
+   * Builder for PaymentHighwayEmulator
+   */
+  public static class Builder {
+
+    private final String signatureKeyId;
+    private final String signatureSecret;
+    private InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+    private int threads = Runtime.getRuntime().availableProcessors() * 2;
+    private LatencyDistribution latency = LatencyDistribution.none();
+    private double errorRate = 0;
+    private int errorStatus = 503;
+    private double declineRate = 0;
+
+    /**
+     * @param signatureKeyId the key id requests are signed with
+     * @param signatureSecret the secret requests are signed with
+     */
+    public Builder(String signatureKeyId, String signatureSecret) {
+      this.signatureKeyId = signatureKeyId;
+      this.signatureSecret = signatureSecret;
+    }
+
+    /**
+     * @param address the address to listen on, port 0 picks a free port (default 127.0.0.1:0)
+     */
+    public Builder setAddress(InetSocketAddress address) {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * @param threads number of requests handled at once, each connection is served by a thread of its own and
+     *                injected latency does not count
+     */
+    public Builder setThreads(int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException("threads must be positive");
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param latency added to every response before it is sent
+     */
+    public Builder setLatency(LatencyDistribution latency) {
+      this.latency = latency;
+      return this;
+    }
+
+    /**
+     * @param errorRate fraction of requests, 0.0 - 1.0, answered with the error status
+     */
+    public Builder setErrorRate(double errorRate) {
+      if (errorRate < 0 || errorRate > 1) {
+        throw new IllegalArgumentException("errorRate must be between 0 and 1");
+      }
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    /**
+     * @param errorStatus HTTP status of injected errors (default 503)
+     */
+    public Builder setErrorStatus(int errorStatus) {
+      this.errorStatus = errorStatus;
+      return this;
+    }
+
+    /**
+     * @param declineRate fraction of debits, 0.0 - 1.0, declined with result code 200
+     */
+    public Builder setDeclineRate(double declineRate) {
+      if (declineRate < 0 || declineRate > 1) {
+        throw new IllegalArgumentException("declineRate must be between 0 and 1");
+      }
+      this.declineRate = declineRate;
+      return this;
+    }
+
+    /**
+     * Starts the emulator
+     *
+     * @return PaymentHighwayEmulator listening on the configured address
+     * @throws IOException if the server socket cannot be bound
+     */
+    public PaymentHighwayEmulator build() throws IOException {
+      return new PaymentHighwayEmulator(this);
+    }
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * Embeddable local emulator of the Payment API for tests and load tests
+ */
+package io.paymenthighway.emulator;
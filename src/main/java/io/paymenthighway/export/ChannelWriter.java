@@ -0,0 +1,95 @@
+package io.paymenthighway.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes characters as UTF-8 into a fixed buffer, writing it to a channel whenever it fills. A surrogate pair may
+ * be written one char at a time.
+ */
+final class ChannelWriter {
+
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private char highSurrogate;
+
+  ChannelWriter(WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 16));
+  }
+
+  void write(char c) throws IOException {
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        writeCodePoint(Character.toCodePoint(high, c));
+        return;
+      }
+      writeUnit(high);
+    }
+    if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else {
+      writeUnit(c);
+    }
+  }
+
+  void write(char[] chars, int offset, int length) throws IOException {
+    for (int i = offset; i < offset + length; i++) {
+      write(chars[i]);
+    }
+  }
+
+  void write(String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      write(text.charAt(i));
+    }
+  }
+
+  private void writeUnit(char c) throws IOException {
+    if (buffer.remaining() < 3) {
+      drain();
+    }
+    if (c < 0x80) {
+      buffer.put((byte) c);
+    } else if (c < 0x800) {
+      buffer.put((byte) (0xc0 | (c >> 6)));
+      buffer.put((byte) (0x80 | (c & 0x3f)));
+    } else {
+      buffer.put((byte) (0xe0 | (c >> 12)));
+      buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+      buffer.put((byte) (0x80 | (c & 0x3f)));
+    }
+  }
+
+  private void writeCodePoint(int codePoint) throws IOException {
+    if (buffer.remaining() < 4) {
+      drain();
+    }
+    buffer.put((byte) (0xf0 | (codePoint >> 18)));
+    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+    buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Writes what is buffered to the channel
+   */
+  void flush() throws IOException {
+    if (highSurrogate != 0) {
+      writeUnit(highSurrogate);
+      highSurrogate = 0;
+    }
+    drain();
+  }
+}
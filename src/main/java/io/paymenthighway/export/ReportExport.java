@@ -0,0 +1,462 @@
+package io.paymenthighway.export;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the settlements or transactions of a daily or reconciliation report as CSV or newline-delimited JSON,
+ * reading the report JSON with a streaming parser instead of mapping it to response objects.
+ *
+ * Columns are JSON field names of the rows, with a dot for fields of nested objects, e.g. "amount" or
+ * "status.state"; transaction rows take fields of their settlement with a "settlement." prefix, e.g.
+ * "settlement.reference". Each value is copied from the parser's buffer into a reused buffer of its column and
+ * written through a fixed-size output buffer, so memory use does not grow with the report. A settlement's fields may
+ * follow its transactions in the JSON; the settlement is read first and its transactions are read again from their
+ * position in the body.
+ *
+ * Missing values are empty in CSV and null in NDJSON, where numbers stay numbers and other values are strings. An
+ * instance holds no state between exports and can be shared.
+ *
+ * <pre>
+ * ReportExport export = new ReportExport.Builder(ReportExport.Format.CSV, ReportExport.Rows.TRANSACTIONS)
+ *     .setColumns("settlement.reference", "id", "timestamp", "amount", "currency", "status.state")
+ *     .build();
+ * paymentApi.exportReconciliationReport("20160301", export, channel);
+ * </pre>
+ */
+public final class ReportExport {
+
+  /**
+   * Output format
+   */
+  public enum Format {
+    /**
+     * RFC 4180 CSV with a header line, CRLF line endings
+     */
+    CSV,
+    /**
+     * One JSON object per line keyed by the column names
+     */
+    NDJSON
+  }
+
+  /**
+   * What one output row is
+   */
+  public enum Rows {
+    SETTLEMENTS,
+    TRANSACTIONS
+  }
+
+  private static final String SETTLEMENT_PREFIX = "settlement.";
+  private static final String SUCCESS = "100";
+
+  private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+  private static final List<String> DEFAULT_SETTLEMENT_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+      "batch", "reference", "acquirer_batch_id", "date_processed", "timestamp", "acquirer.id", "net_amount",
+      "currency", "transaction_count", "status.state"));
+  private static final List<String> DEFAULT_TRANSACTION_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+      "settlement.batch", "settlement.reference", "id", "timestamp", "type", "partial_pan", "amount", "currency",
+      "filing_code", "authorization_code", "status.state", "status.code"));
+
+  private final Format format;
+  private final Rows rows;
+  private final String[] columns;
+  private final char[][] names;
+  private final boolean header;
+  private final int bufferSize;
+  private final Fields settlementFields = new Fields();
+  private final Fields transactionFields = new Fields();
+  private final boolean[] transactionColumn;
+
+  private ReportExport(Builder builder) {
+    this.format = builder.format;
+    this.rows = builder.rows;
+    this.columns = builder.columns != null ? builder.columns.clone() : (rows == Rows.SETTLEMENTS
+        ? DEFAULT_SETTLEMENT_COLUMNS : DEFAULT_TRANSACTION_COLUMNS).toArray(new String[0]);
+    this.names = new char[columns.length][];
+    for (int i = 0; i < columns.length; i++) {
+      names[i] = columns[i].toCharArray();
+    }
+    this.header = builder.header;
+    this.bufferSize = builder.bufferSize;
+    this.transactionColumn = new boolean[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      if (rows == Rows.SETTLEMENTS) {
+        settlementFields.add(columns[i], i);
+      } else if (columns[i].startsWith(SETTLEMENT_PREFIX)) {
+        settlementFields.add(columns[i].substring(SETTLEMENT_PREFIX.length()), i);
+      } else {
+        transactionFields.add(columns[i], i);
+        transactionColumn[i] = true;
+      }
+    }
+  }
+
+  /**
+   * @return List the column names
+   */
+  public List<String> getColumns() {
+    return Collections.unmodifiableList(Arrays.asList(columns));
+  }
+
+  /**
+   * Writes the rows of a report to the channel, which is left open
+   *
+   * @param json a daily or reconciliation report response body
+   * @param channel
+   * @return long the number of rows written
+   * @throws IOException if the channel fails, the JSON is malformed, or the report's result code is not 100, in
+   * which case the rows before it have been written
+   */
+  public long write(String json, WritableByteChannel channel) throws IOException {
+    Export export = new Export(json, new ChannelWriter(channel, bufferSize));
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      export.read(parser);
+    }
+    export.out.flush();
+    if (export.resultCode != null && !export.resultCode.equals(SUCCESS)) {
+      throw new IOException("Report failed: " + export.resultCode + " " + export.resultMessage);
+    }
+    return export.count;
+  }
+
+  /**
+   * Column indices by field name, one level of nested objects deep
+   */
+  private static final class Fields {
+
+    final Map<String, Integer> fields = new HashMap<>();
+    final Map<String, Map<String, Integer>> nested = new HashMap<>();
+
+    void add(String column, int index) {
+      int dot = column.indexOf('.');
+      if (dot < 0) {
+        fields.put(column, index);
+        return;
+      }
+      if (column.indexOf('.', dot + 1) >= 0) {
+        throw new IllegalArgumentException("Column nested more than one level deep: " + column);
+      }
+      Map<String, Integer> children = nested.get(column.substring(0, dot));
+      if (children == null) {
+        children = new HashMap<>();
+        nested.put(column.substring(0, dot), children);
+      }
+      children.put(column.substring(dot + 1), index);
+    }
+  }
+
+  /**
+   * The state of one export: the body, the output and the values of the current row
+   */
+  private final class Export {
+
+    static final byte MISSING = 0;
+    static final byte STRING = 1;
+    static final byte LITERAL = 2;
+
+    final String json;
+    final ChannelWriter out;
+    final char[][] values = new char[columns.length][];
+    final int[] lengths = new int[columns.length];
+    final byte[] kinds = new byte[columns.length];
+    String resultCode;
+    String resultMessage;
+    long count;
+
+    Export(String json, ChannelWriter out) {
+      this.json = json;
+      this.out = out;
+      for (int i = 0; i < columns.length; i++) {
+        values[i] = new char[32];
+      }
+    }
+
+    void read(JsonParser parser) throws IOException {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Not a report");
+      }
+      if (header && format == Format.CSV) {
+        for (int i = 0; i < columns.length; i++) {
+          if (i > 0) {
+            out.write(',');
+          }
+          writeCsv(names[i], 0, names[i].length);
+        }
+        out.write("\r\n");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (field.equals("result") && token == JsonToken.START_OBJECT) {
+          readResult(parser);
+        } else if (field.equals("settlements") && token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+              readSettlement(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    private void readResult(JsonParser parser) throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token.isScalarValue() && token != JsonToken.VALUE_NULL && field.equals("code")) {
+          resultCode = parser.getText();
+        } else if (token.isScalarValue() && token != JsonToken.VALUE_NULL && field.equals("message")) {
+          resultMessage = parser.getText();
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    private void readSettlement(JsonParser parser) throws IOException {
+      Arrays.fill(kinds, MISSING);
+      long transactions = -1;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY && rows == Rows.TRANSACTIONS && field.equals("transactions")) {
+          // The location of a value is that of its field name, so the array starts at the first bracket after it
+          transactions = json.indexOf('[', (int) parser.getTokenLocation().getCharOffset());
+          parser.skipChildren();
+        } else {
+          readField(parser, field, settlementFields);
+        }
+      }
+      if (rows == Rows.SETTLEMENTS) {
+        writeRow();
+      } else if (transactions >= 0) {
+        readTransactions(transactions);
+      }
+    }
+
+    private void readTransactions(long offset) throws IOException {
+      StringReader reader = new StringReader(json);
+      if (reader.skip(offset) != offset) {
+        throw new IOException("Transactions not found at " + offset);
+      }
+      try (JsonParser parser = FACTORY.createParser(reader)) {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+          throw new IOException("Transactions not found at " + offset);
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            continue;
+          }
+          for (int i = 0; i < columns.length; i++) {
+            if (transactionColumn[i]) {
+              kinds[i] = MISSING;
+            }
+          }
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            readField(parser, field, transactionFields);
+          }
+          writeRow();
+        }
+      }
+    }
+
+    private void readField(JsonParser parser, String field, Fields fields) throws IOException {
+      JsonToken token = parser.getCurrentToken();
+      if (token == JsonToken.START_OBJECT) {
+        Map<String, Integer> children = fields.nested.get(field);
+        if (children == null) {
+          parser.skipChildren();
+          return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          Integer column = children.get(parser.getCurrentName());
+          parser.nextToken();
+          if (column != null) {
+            store(parser, column);
+          } else {
+            parser.skipChildren();
+          }
+        }
+        return;
+      }
+      Integer column = fields.fields.get(field);
+      if (column != null) {
+        store(parser, column);
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    private void store(JsonParser parser, int column) throws IOException {
+      JsonToken token = parser.getCurrentToken();
+      if (!token.isScalarValue() || token == JsonToken.VALUE_NULL) {
+        parser.skipChildren();
+        kinds[column] = MISSING;
+        return;
+      }
+      int length = parser.getTextLength();
+      if (values[column].length < length) {
+        values[column] = new char[Math.max(length, values[column].length * 2)];
+      }
+      System.arraycopy(parser.getTextCharacters(), parser.getTextOffset(), values[column], 0, length);
+      lengths[column] = length;
+      kinds[column] = token == JsonToken.VALUE_STRING ? STRING : LITERAL;
+    }
+
+    private void writeRow() throws IOException {
+      if (format == Format.CSV) {
+        for (int i = 0; i < columns.length; i++) {
+          if (i > 0) {
+            out.write(',');
+          }
+          if (kinds[i] != MISSING) {
+            writeCsv(values[i], 0, lengths[i]);
+          }
+        }
+        out.write("\r\n");
+      } else {
+        out.write('{');
+        for (int i = 0; i < columns.length; i++) {
+          if (i > 0) {
+            out.write(',');
+          }
+          writeJsonString(names[i], 0, names[i].length);
+          out.write(':');
+          if (kinds[i] == MISSING) {
+            out.write("null");
+          } else if (kinds[i] == LITERAL) {
+            out.write(values[i], 0, lengths[i]);
+          } else {
+            writeJsonString(values[i], 0, lengths[i]);
+          }
+        }
+        out.write("}\n");
+      }
+      count++;
+    }
+
+    private void writeCsv(char[] chars, int offset, int length) throws IOException {
+      boolean quote = false;
+      for (int i = offset; i < offset + length && !quote; i++) {
+        char c = chars[i];
+        quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+      }
+      if (!quote) {
+        out.write(chars, offset, length);
+        return;
+      }
+      out.write('"');
+      for (int i = offset; i < offset + length; i++) {
+        if (chars[i] == '"') {
+          out.write('"');
+        }
+        out.write(chars[i]);
+      }
+      out.write('"');
+    }
+
+    private void writeJsonString(char[] chars, int offset, int length) throws IOException {
+      out.write('"');
+      int start = offset;
+      for (int i = offset; i < offset + length; i++) {
+        char c = chars[i];
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          continue;
+        }
+        out.write(chars, start, i - start);
+        start = i + 1;
+        out.write('\\');
+        switch (c) {
+          case '"':
+          case '\\':
+            out.write(c);
+            break;
+          case '\n':
+            out.write('n');
+            break;
+          case '\r':
+            out.write('r');
+            break;
+          case '\t':
+            out.write('t');
+            break;
+          default:
+            out.write("u00");
+            out.write(Character.forDigit(c >> 4, 16));
+            out.write(Character.forDigit(c & 0xf, 16));
+        }
+      }
+      out.write(chars, start, offset + length - start);
+      out.write('"');
+    }
+  }
+
+  /**
+   * Builder for ReportExport
+   */
+  public static class Builder {
+
+    private final Format format;
+    private final Rows rows;
+    private String[] columns;
+    private boolean header = true;
+    private int bufferSize = 64 * 1024;
+
+    /**
+     * @param format
+     * @param rows
+     */
+    public Builder(Format format, Rows rows) {
+      this.format = format;
+      this.rows = rows;
+    }
+
+    /**
+     * @param columns the columns in output order (default: the main fields of the rows)
+     */
+    public Builder setColumns(String... columns) {
+      this.columns = columns.clone();
+      return this;
+    }
+
+    /**
+     * @param header false to leave out the CSV header line (default true)
+     */
+    public Builder setHeader(boolean header) {
+      this.header = header;
+      return this;
+    }
+
+    /**
+     * @param bufferSize bytes buffered before each write to the channel (default 64 kB)
+     */
+    public Builder setBufferSize(int bufferSize) {
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public ReportExport build() {
+      return new ReportExport(this);
+    }
+  }
+}
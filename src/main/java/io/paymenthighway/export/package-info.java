@@ -0,0 +1,4 @@
+/**
+ * Streaming export of daily and reconciliation reports to CSV and newline-delimited JSON
+ */
+package io.paymenthighway.export;
@@ -0,0 +1,113 @@
+package io.paymenthighway.fault;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single failure injected into one HTTP exchange
+ */
+public final class Fault {
+
+  /**
+   * Kinds of faults
+   */
+  public enum Type {
+    /** The exchange is passed through unchanged */
+    NONE,
+    /** The response body arrives only after a delay, or the read times out */
+    SLOW_READ,
+    /** The connection fails before the request is sent */
+    DROP_BEFORE_SEND,
+    /** The request reaches the server but the connection drops before the response */
+    DROP_AFTER_SEND,
+    /** The connection closes half way through the response body */
+    TRUNCATED_BODY,
+    /** The response signature does not match, raising AuthenticationException */
+    WRONG_SIGNATURE,
+    /** The request is answered with an HTTP error status without reaching the server */
+    STATUS,
+    /** The request reaches the server but its response is replaced by an HTTP error status */
+    STATUS_AFTER_SEND
+  }
+
+  private static final Fault NONE = new Fault(Type.NONE, 0, 0);
+
+  private final Type type;
+  private final long delayNanos;
+  private final int status;
+
+  private Fault(Type type, long delayNanos, int status) {
+    this.type = type;
+    this.delayNanos = delayNanos;
+    this.status = status;
+  }
+
+  public static Fault none() {
+    return NONE;
+  }
+
+  /**
+   * @param delay
+   * @param unit
+   * @return Fault delaying the response body, or timing out if the request's socket timeout is shorter
+   */
+  public static Fault slowRead(long delay, TimeUnit unit) {
+    return new Fault(Type.SLOW_READ, unit.toNanos(delay), 0);
+  }
+
+  public static Fault dropBeforeSend() {
+    return new Fault(Type.DROP_BEFORE_SEND, 0, 0);
+  }
+
+  public static Fault dropAfterSend() {
+    return new Fault(Type.DROP_AFTER_SEND, 0, 0);
+  }
+
+  public static Fault truncatedBody() {
+    return new Fault(Type.TRUNCATED_BODY, 0, 0);
+  }
+
+  public static Fault wrongSignature() {
+    return new Fault(Type.WRONG_SIGNATURE, 0, 0);
+  }
+
+  /**
+   * @param status HTTP status code, e.g. 401 or 503
+   * @return Fault answering with the status
+   */
+  public static Fault status(int status) {
+    return new Fault(Type.STATUS, 0, status);
+  }
+
+  /**
+   * @param status HTTP status code, e.g. 502
+   * @return Fault answering with the status after the server has handled the request
+   */
+  public static Fault statusAfterSend(int status) {
+    return new Fault(Type.STATUS_AFTER_SEND, 0, status);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public long getDelayNanos() {
+    return delayNanos;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  @Override
+  public String toString() {
+    switch (type) {
+      case SLOW_READ:
+        return "SLOW_READ(" + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms)";
+      case STATUS:
+      case STATUS_AFTER_SEND:
+        return type.name() + "(" + status + ")";
+      default:
+        return type.name();
+    }
+  }
+}
@@ -0,0 +1,289 @@
+package io.paymenthighway.fault;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wraps the HTTP client of a PaymentAPI and injects faults to the exchanges chosen by a FaultSchedule.
+ *
+ * <pre>
+ * CloseableHttpClient client = new FaultInjectingHttpClient(HttpClients.createDefault(),
+ *     FaultSchedule.probabilistic(42).with(Fault.status(503), 0.05).with(Fault.truncatedBody(), 0.01));
+ * paymentApi.setHttpClient(client);
+ * </pre>
+ */
+public class FaultInjectingHttpClient extends CloseableHttpClient {
+
+  private final CloseableHttpClient delegate;
+  private final FaultSchedule schedule;
+  private final AtomicLongArray injected = new AtomicLongArray(Fault.Type.values().length);
+
+  /**
+   * Constructor
+   *
+   * @param delegate the client that executes the requests
+   * @param schedule decides the fault of each request
+   */
+  public FaultInjectingHttpClient(CloseableHttpClient delegate, FaultSchedule schedule) {
+    this.delegate = delegate;
+    this.schedule = schedule;
+  }
+
+  /**
+   * @param type
+   * @return long the number of requests the given fault type was injected to
+   */
+  public long getInjected(Fault.Type type) {
+    return injected.get(type.ordinal());
+  }
+
+  @Override
+  protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+      throws IOException, ClientProtocolException {
+
+    Fault fault = schedule.next(request);
+    injected.incrementAndGet(fault.getType().ordinal());
+
+    switch (fault.getType()) {
+      case DROP_BEFORE_SEND:
+        throw new ConnectException("Connection refused (injected)");
+      case STATUS:
+        return new SyntheticResponse(fault.getStatus());
+      default:
+        break;
+    }
+
+    CloseableHttpResponse response = delegate.execute(target, request, context);
+    HttpEntity entity = response.getEntity();
+
+    switch (fault.getType()) {
+      case DROP_AFTER_SEND:
+        EntityUtils.consumeQuietly(entity);
+        response.close();
+        throw new NoHttpResponseException(target + " failed to respond (injected)");
+      case STATUS_AFTER_SEND:
+        EntityUtils.consumeQuietly(entity);
+        response.close();
+        return new SyntheticResponse(fault.getStatus());
+      case SLOW_READ:
+        if (entity != null) {
+          response.setEntity(new SlowEntity(entity, fault.getDelayNanos(), socketTimeout(request)));
+        }
+        break;
+      case TRUNCATED_BODY:
+        if (entity != null) {
+          response.setEntity(new TruncatedEntity(entity));
+        }
+        break;
+      case WRONG_SIGNATURE:
+        for (Header header : response.getAllHeaders()) {
+          if (header.getName().equalsIgnoreCase("signature")) {
+            response.setHeader(header.getName(), tamper(header.getValue()));
+          }
+        }
+        break;
+      default:
+        break;
+    }
+    return response;
+  }
+
+  private static int socketTimeout(HttpRequest request) {
+    if (request instanceof Configurable) {
+      RequestConfig config = ((Configurable) request).getConfig();
+      if (config != null) {
+        return config.getSocketTimeout();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Flips the last character of the signature so it still looks valid but never matches
+   */
+  private static String tamper(String signature) {
+    if (signature.isEmpty()) {
+      return "0";
+    }
+    char last = signature.charAt(signature.length() - 1);
+    return signature.substring(0, signature.length() - 1) + (last == '0' ? '1' : '0');
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  @Override
+  @Deprecated
+  public HttpParams getParams() {
+    return delegate.getParams();
+  }
+
+  @Override
+  @Deprecated
+  public ClientConnectionManager getConnectionManager() {
+    return delegate.getConnectionManager();
+  }
+
+  /**
+   * Entity whose writeTo goes through the faulty content stream as well
+   */
+  private abstract static class FaultyEntity extends HttpEntityWrapper {
+
+    FaultyEntity(HttpEntity entity) {
+      super(entity);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      try (InputStream in = getContent()) {
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+  }
+
+  /**
+   * Holds back the first byte of the body by the delay, or fails like a socket read timeout
+   */
+  private static class SlowEntity extends FaultyEntity {
+
+    private final long delayNanos;
+    private final int socketTimeoutMillis;
+
+    SlowEntity(HttpEntity entity, long delayNanos, int socketTimeoutMillis) {
+      super(entity);
+      this.delayNanos = delayNanos;
+      this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      return new FilterInputStream(super.getContent()) {
+        private boolean delayed = false;
+
+        private void delay() throws IOException {
+          if (delayed) {
+            return;
+          }
+          delayed = true;
+          long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(socketTimeoutMillis);
+          boolean timesOut = socketTimeoutMillis > 0 && timeoutNanos < delayNanos;
+          try {
+            TimeUnit.NANOSECONDS.sleep(timesOut ? timeoutNanos : delayNanos);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+          if (timesOut) {
+            throw new SocketTimeoutException("Read timed out (injected)");
+          }
+        }
+
+        @Override
+        public int read() throws IOException {
+          delay();
+          return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          delay();
+          return super.read(b, off, len);
+        }
+      };
+    }
+  }
+
+  /**
+   * Ends the body half way through like a connection closed by the peer
+   */
+  private static class TruncatedEntity extends FaultyEntity {
+
+    TruncatedEntity(HttpEntity entity) {
+      super(entity);
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      long length = getContentLength();
+      final long limit = length > 0 ? length / 2 : 0;
+      return new FilterInputStream(super.getContent()) {
+        private long remaining = limit;
+
+        @Override
+        public int read() throws IOException {
+          if (remaining <= 0) {
+            throw prematureEnd();
+          }
+          remaining--;
+          return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          if (remaining <= 0) {
+            throw prematureEnd();
+          }
+          int read = super.read(b, off, (int) Math.min(len, remaining));
+          if (read > 0) {
+            remaining -= read;
+          }
+          return read;
+        }
+      };
+    }
+
+    private static ConnectionClosedException prematureEnd() {
+      return new ConnectionClosedException("Premature end of Content-Length delimited message body (injected)");
+    }
+  }
+
+  /**
+   * Error response produced without contacting the server
+   */
+  private static class SyntheticResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+    SyntheticResponse(int status) {
+      super(HttpVersion.HTTP_1_1, status, EnglishReasonPhraseCatalog.INSTANCE.getReason(status, Locale.ENGLISH));
+      setEntity(new StringEntity("", "utf-8"));
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package io.paymenthighway.fault;
+
+import org.apache.http.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which fault, if any, is injected into each request. Implementations must be thread safe.
+ */
+public abstract class FaultSchedule {
+
+  /**
+   * @param request the request about to be executed
+   * @return Fault to inject, Fault.none() to pass the request through
+   */
+  public abstract Fault next(HttpRequest request);
+
+  /**
+   * @return FaultSchedule that never injects faults
+   */
+  public static FaultSchedule none() {
+    return new FaultSchedule() {
+      @Override
+      public Fault next(HttpRequest request) {
+        return Fault.none();
+      }
+    };
+  }
+
+  /**
+   * Injects the given faults to consecutive requests.
+   *
+   * @param repeat true to start over after the last fault, false to pass requests through after it
+   * @param faults
+   * @return FaultSchedule
+   */
+  public static FaultSchedule scripted(final boolean repeat, Fault... faults) {
+    final Fault[] script = Arrays.copyOf(faults, faults.length);
+    final AtomicLong counter = new AtomicLong();
+    return new FaultSchedule() {
+      @Override
+      public Fault next(HttpRequest request) {
+        long index = counter.getAndIncrement();
+        if (script.length == 0 || (!repeat && index >= script.length)) {
+          return Fault.none();
+        }
+        return script[(int) (index % script.length)];
+      }
+    };
+  }
+
+  /**
+   * Injects the fault to `length` consecutive requests out of every `period` requests, starting with the first.
+   *
+   * @param fault
+   * @param period
+   * @param length
+   * @return FaultSchedule
+   */
+  public static FaultSchedule burst(final Fault fault, final int period, final int length) {
+    if (period < 1 || length < 0 || length > period) {
+      throw new IllegalArgumentException("length must be between 0 and period");
+    }
+    final AtomicLong counter = new AtomicLong();
+    return new FaultSchedule() {
+      @Override
+      public Fault next(HttpRequest request) {
+        return counter.getAndIncrement() % period < length ? fault : Fault.none();
+      }
+    };
+  }
+
+  /**
+   * @param seed seed for reproducible schedules
+   * @return Probabilistic schedule, faults are added with Probabilistic.with
+   */
+  public static Probabilistic probabilistic(long seed) {
+    return new Probabilistic(new Random(seed));
+  }
+
+  /**
+   * Injects each added fault independently with its probability
+   */
+  public static final class Probabilistic extends FaultSchedule {
+
+    private final Random random;
+    private final List<Fault> faults = new ArrayList<>();
+    private final List<Double> thresholds = new ArrayList<>();
+    private double total = 0;
+
+    private Probabilistic(Random random) {
+      this.random = random;
+    }
+
+    /**
+     * @param fault
+     * @param probability of the fault per request, the probabilities must add up to 1.0 or less
+     * @return this schedule
+     */
+    public Probabilistic with(Fault fault, double probability) {
+      if (probability < 0 || total + probability > 1.0 + 1e-9) {
+        throw new IllegalArgumentException("Fault probabilities must add up to 1.0 or less");
+      }
+      total += probability;
+      faults.add(fault);
+      thresholds.add(total);
+      return this;
+    }
+
+    @Override
+    public Fault next(HttpRequest request) {
+      double sample;
+      synchronized (random) {
+        sample = random.nextDouble();
+      }
+      for (int i = 0; i < faults.size(); i++) {
+        if (sample < thresholds.get(i)) {
+          return faults.get(i);
+        }
+      }
+      return Fault.none();
+    }
+  }
+}
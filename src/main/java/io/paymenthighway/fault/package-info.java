@@ -0,0 +1,4 @@
+/**
+ * Fault-injecting HTTP client for resilience tests of the Payment API integration
+ */
+package io.paymenthighway.fault;
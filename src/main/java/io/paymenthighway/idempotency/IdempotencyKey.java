@@ -0,0 +1,74 @@
+package io.paymenthighway.idempotency;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 128-bit digest of a caller supplied idempotency key
+ */
+public final class IdempotencyKey {
+
+  private final long high;
+  private final long low;
+
+  private IdempotencyKey(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  /**
+   * @param key any string identifying one logical submission, e.g. a checkout id
+   * @return IdempotencyKey
+   */
+  public static IdempotencyKey of(String key) {
+    if (key == null || key.isEmpty()) {
+      throw new IllegalArgumentException("Idempotency key must not be empty");
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      ByteBuffer buffer = ByteBuffer.wrap(digest);
+      return new IdempotencyKey(buffer.getLong(), buffer.getLong());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param order merchant's order id
+   * @param amount
+   * @param currency
+   * @return IdempotencyKey shared by all submissions of the same order and amount
+   */
+  public static IdempotencyKey ofOrder(String order, String amount, String currency) {
+    return of("order:" + order + ":" + amount + ":" + currency);
+  }
+
+  long getHigh() {
+    return high;
+  }
+
+  long getLow() {
+    return low;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof IdempotencyKey)) {
+      return false;
+    }
+    IdempotencyKey other = (IdempotencyKey) o;
+    return high == other.high && low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (low ^ (low >>> 32));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
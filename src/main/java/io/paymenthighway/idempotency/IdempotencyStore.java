@@ -0,0 +1,313 @@
+package io.paymenthighway.idempotency;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hash table of idempotency keys in a memory-mapped file.
+ *
+ * Entries are fixed size slots outside the Java heap, so millions of keys cost no garbage collection work and
+ * survive restarts of the JVM. The table is split into independently locked segments using linear probing over
+ * a short window. Entries expire after the TTL; when a window is full the entry closest to expiry is evicted.
+ * In-flight entries are never evicted before they expire.
+ *
+ * Slot layout, 128 bytes: state, filing code length, message length, result code, key, expiry time, transaction
+ * id, filing code (32 bytes) and result message (48 bytes).
+ */
+public class IdempotencyStore implements Closeable {
+
+  static final byte EMPTY = 0;
+  static final byte IN_FLIGHT = 1;
+  static final byte COMPLETED = 2;
+
+  private static final int MAGIC = 0x50484931; // "PHI1"
+  private static final int HEADER_SIZE = 4096;
+  private static final int SLOT_SIZE = 128;
+  private static final int MAX_PROBE = 32;
+  private static final int MAX_SEGMENTS = 64;
+  private static final int FILING_CODE_SIZE = 32;
+  private static final int MESSAGE_SIZE = 48;
+
+  private static final int STATE = 0;
+  private static final int FILING_CODE_LENGTH = 1;
+  private static final int MESSAGE_LENGTH = 2;
+  private static final int RESULT_CODE = 4;
+  private static final int KEY_HIGH = 8;
+  private static final int KEY_LOW = 16;
+  private static final int EXPIRES = 24;
+  private static final int TRANSACTION_HIGH = 32;
+  private static final int TRANSACTION_LOW = 40;
+  private static final int FILING_CODE = 48;
+  private static final int MESSAGE = FILING_CODE + FILING_CODE_SIZE;
+
+  private final RandomAccessFile file;
+  private final Segment[] segments;
+  private final long ttlMillis;
+
+  /**
+   * Opens or creates a store
+   *
+   * @param file
+   * @param capacity maximum number of keys, rounded up to a power of two. Must match an existing file.
+   * @param ttl how long keys are remembered
+   * @param unit
+   * @throws IOException if the file cannot be mapped or was created with another capacity
+   */
+  public IdempotencyStore(File file, int capacity, long ttl, TimeUnit unit) throws IOException {
+    int slots = Integer.highestOneBit(Math.max(capacity, MAX_PROBE) - 1) << 1;
+    int segmentCount = Math.min(MAX_SEGMENTS, slots / MAX_PROBE);
+    int segmentSlots = slots / segmentCount;
+    this.ttlMillis = unit.toMillis(ttl);
+
+    this.file = new RandomAccessFile(file, "rw");
+    FileChannel channel = this.file.getChannel();
+    MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    if (header.getInt(0) == MAGIC) {
+      if (header.getInt(4) != slots) {
+        this.file.close();
+        throw new IOException("Idempotency store " + file + " was created with capacity " + header.getInt(4));
+      }
+    } else {
+      this.file.setLength(HEADER_SIZE + (long) slots * SLOT_SIZE);
+      header.putInt(4, slots);
+      header.putInt(0, MAGIC);
+      header.force();
+    }
+
+    segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      long offset = HEADER_SIZE + (long) i * segmentSlots * SLOT_SIZE;
+      segments[i] = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, offset, (long) segmentSlots * SLOT_SIZE),
+          segmentSlots);
+    }
+  }
+
+  /**
+   * Snapshot of a stored entry
+   */
+  static final class Entry {
+    final byte state;
+    final UUID transactionId;
+    final int resultCode;
+    final String resultMessage;
+    final String filingCode;
+
+    Entry(byte state, UUID transactionId, int resultCode, String resultMessage, String filingCode) {
+      this.state = state;
+      this.transactionId = transactionId;
+      this.resultCode = resultCode;
+      this.resultMessage = resultMessage;
+      this.filingCode = filingCode;
+    }
+  }
+
+  private Segment segmentOf(IdempotencyKey key) {
+    return segments[(int) ((key.getHigh() >>> 32) & (segments.length - 1))];
+  }
+
+  /**
+   * Claims a key for a new submission unless it is already known
+   *
+   * @param key
+   * @param transactionId the transaction the submission will debit
+   * @return Entry the live entry of the key, or null if the key was free and is now in flight
+   * @throws IOException if every slot the key may use holds an unexpired in-flight entry
+   */
+  Entry claim(IdempotencyKey key, UUID transactionId) throws IOException {
+    long now = System.currentTimeMillis();
+    Segment segment = segmentOf(key);
+    synchronized (segment) {
+      int slot = segment.find(key, now);
+      if (slot >= 0) {
+        return segment.read(slot);
+      }
+      slot = segment.freeSlot(key, now);
+      if (slot < 0) {
+        throw new IOException("Idempotency store is full");
+      }
+      ByteBuffer buffer = segment.buffer;
+      int base = slot * SLOT_SIZE;
+      buffer.putLong(base + KEY_HIGH, key.getHigh());
+      buffer.putLong(base + KEY_LOW, key.getLow());
+      buffer.putLong(base + EXPIRES, now + ttlMillis);
+      buffer.putLong(base + TRANSACTION_HIGH, transactionId.getMostSignificantBits());
+      buffer.putLong(base + TRANSACTION_LOW, transactionId.getLeastSignificantBits());
+      buffer.putInt(base + RESULT_CODE, 0);
+      buffer.put(base + FILING_CODE_LENGTH, (byte) 0);
+      buffer.put(base + MESSAGE_LENGTH, (byte) 0);
+      buffer.put(base + STATE, IN_FLIGHT);
+      return null;
+    }
+  }
+
+  /**
+   * Stores the result of a claimed key
+   *
+   * @param key
+   * @param resultCode
+   * @param resultMessage truncated to 48 bytes
+   * @param filingCode truncated to 32 bytes
+   */
+  void complete(IdempotencyKey key, int resultCode, String resultMessage, String filingCode) {
+    long now = System.currentTimeMillis();
+    Segment segment = segmentOf(key);
+    synchronized (segment) {
+      int slot = segment.find(key, now);
+      if (slot < 0) {
+        return;
+      }
+      ByteBuffer buffer = segment.buffer;
+      int base = slot * SLOT_SIZE;
+      buffer.putInt(base + RESULT_CODE, resultCode);
+      buffer.put(base + FILING_CODE_LENGTH, (byte) putString(buffer, base + FILING_CODE, FILING_CODE_SIZE, filingCode));
+      buffer.put(base + MESSAGE_LENGTH, (byte) putString(buffer, base + MESSAGE, MESSAGE_SIZE, resultMessage));
+      buffer.putLong(base + EXPIRES, now + ttlMillis);
+      buffer.put(base + STATE, COMPLETED);
+    }
+  }
+
+  /**
+   * @param key
+   * @return boolean true if the key is stored and not expired
+   */
+  public boolean contains(IdempotencyKey key) {
+    Segment segment = segmentOf(key);
+    synchronized (segment) {
+      return segment.find(key, System.currentTimeMillis()) >= 0;
+    }
+  }
+
+  /**
+   * @return int number of slots
+   */
+  public int getCapacity() {
+    return segments.length * segments[0].slots;
+  }
+
+  /**
+   * Flushes the table to disk
+   */
+  public void flush() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.buffer.force();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    file.close();
+  }
+
+  private static int putString(ByteBuffer buffer, int offset, int size, String value) {
+    if (value == null) {
+      return 0;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    int length = Math.min(bytes.length, size);
+    for (int i = 0; i < length; i++) {
+      buffer.put(offset + i, bytes[i]);
+    }
+    return length;
+  }
+
+  private static String getString(ByteBuffer buffer, int offset, int length) {
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Independently locked part of the table, callers synchronize on the segment
+   */
+  private static final class Segment {
+    final MappedByteBuffer buffer;
+    final int slots;
+
+    Segment(MappedByteBuffer buffer, int slots) {
+      this.buffer = buffer;
+      this.slots = slots;
+    }
+
+    private int start(IdempotencyKey key) {
+      return (int) (key.getLow() & (slots - 1));
+    }
+
+    /**
+     * @return int slot of the live entry of the key, -1 if none
+     */
+    int find(IdempotencyKey key, long now) {
+      int start = start(key);
+      for (int i = 0; i < MAX_PROBE; i++) {
+        int base = ((start + i) & (slots - 1)) * SLOT_SIZE;
+        byte state = buffer.get(base + STATE);
+        if (state == EMPTY) {
+          return -1;
+        }
+        if (buffer.getLong(base + KEY_HIGH) == key.getHigh() && buffer.getLong(base + KEY_LOW) == key.getLow()) {
+          return buffer.getLong(base + EXPIRES) > now ? (start + i) & (slots - 1) : -1;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Picks the slot for a new key: its own expired slot, an empty or expired one, or else the completed entry
+     * closest to expiry. Lookups stop at empty slots, so expired slots are reused instead of being emptied.
+     *
+     * @return int slot, -1 if the window holds only unexpired in-flight entries
+     */
+    int freeSlot(IdempotencyKey key, long now) {
+      int start = start(key);
+      int candidate = -1;
+      long candidateExpires = Long.MAX_VALUE;
+      for (int i = 0; i < MAX_PROBE; i++) {
+        int slot = (start + i) & (slots - 1);
+        int base = slot * SLOT_SIZE;
+        byte state = buffer.get(base + STATE);
+        if (state == EMPTY) {
+          return candidate >= 0 && candidateExpires <= now ? candidate : slot;
+        }
+        long expires = buffer.getLong(base + EXPIRES);
+        if (buffer.getLong(base + KEY_HIGH) == key.getHigh() && buffer.getLong(base + KEY_LOW) == key.getLow()) {
+          return slot;
+        }
+        if (expires <= now) {
+          if (candidateExpires > now) {
+            candidate = slot;
+            candidateExpires = expires;
+          }
+        } else if (state == COMPLETED && candidateExpires > now && expires < candidateExpires) {
+          candidate = slot;
+          candidateExpires = expires;
+        }
+      }
+      return candidate;
+    }
+
+    Entry read(int slot) {
+      int base = slot * SLOT_SIZE;
+      return new Entry(
+          buffer.get(base + STATE),
+          new UUID(buffer.getLong(base + TRANSACTION_HIGH), buffer.getLong(base + TRANSACTION_LOW)),
+          buffer.getInt(base + RESULT_CODE),
+          getString(buffer, base + MESSAGE, buffer.get(base + MESSAGE_LENGTH) & 0xff),
+          getString(buffer, base + FILING_CODE, buffer.get(base + FILING_CODE_LENGTH) & 0xff));
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package io.paymenthighway.idempotency;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.Result;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.transaction.DebitTransactionResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Debits that are sent at most once per idempotency key.
+ *
+ * A duplicate of a submission still in flight waits for its result, and a duplicate of a completed submission
+ * gets the stored response back without contacting Payment Highway. A key left in flight by a failed call or a
+ * crashed process is retried against the transaction id it was first claimed with, which Payment Highway
+ * debits only once. The store must not be shared by several processes at the same time.
+ *
+ * <pre>
+ * IdempotencyStore store = new IdempotencyStore(new File("debits.idx"), 1 &lt;&lt; 20, 24, TimeUnit.HOURS);
+ * IdempotentDebits debits = new IdempotentDebits(paymentApi, store);
+ * DebitTransactionResponse response = debits.debit(checkoutId, transactionId, request);
+ * </pre>
+ */
+public class IdempotentDebits {
+
+  private static final JsonParser PARSER = new JsonParser();
+
+  private final PaymentAPI paymentApi;
+  private final IdempotencyStore store;
+  private final ConcurrentMap<IdempotencyKey, CompletableFuture<DebitTransactionResponse>> inFlight =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param paymentApi
+   * @param store
+   */
+  public IdempotentDebits(PaymentAPI paymentApi, IdempotencyStore store) {
+    this.paymentApi = paymentApi;
+    this.store = store;
+  }
+
+  /**
+   * Debits the transaction unless a submission with the same key was already made
+   *
+   * @param key caller supplied idempotency key
+   * @param transactionId
+   * @param request
+   * @return DebitTransactionResponse the response of the first submission
+   * @throws IOException
+   */
+  public DebitTransactionResponse debit(String key, UUID transactionId, TransactionRequest request)
+      throws IOException {
+    return debit(IdempotencyKey.of(key), transactionId, request);
+  }
+
+  /**
+   * Debits the transaction unless the same order was already debited with the same amount
+   *
+   * @param transactionId
+   * @param request a request with an order id
+   * @return DebitTransactionResponse the response of the first submission
+   * @throws IOException
+   */
+  public DebitTransactionResponse debitOrder(UUID transactionId, TransactionRequest request) throws IOException {
+    if (request.getOrder() == null) {
+      throw new IllegalArgumentException("Request has no order id");
+    }
+    return debit(IdempotencyKey.ofOrder(request.getOrder(), request.getAmount(), request.getCurrency()),
+        transactionId, request);
+  }
+
+  /**
+   * Debits the transaction unless a submission with the same key was already made
+   *
+   * @param key
+   * @param transactionId
+   * @param request
+   * @return DebitTransactionResponse the response of the first submission
+   * @throws IOException
+   */
+  public DebitTransactionResponse debit(IdempotencyKey key, UUID transactionId, TransactionRequest request)
+      throws IOException {
+
+    CompletableFuture<DebitTransactionResponse> own = new CompletableFuture<>();
+    CompletableFuture<DebitTransactionResponse> existing = inFlight.putIfAbsent(key, own);
+    if (existing != null) {
+      return await(existing);
+    }
+
+    try {
+      IdempotencyStore.Entry entry = store.claim(key, transactionId);
+      DebitTransactionResponse response;
+      if (entry != null && entry.state == IdempotencyStore.COMPLETED) {
+        response = storedResponse(entry);
+      } else {
+        UUID target = entry == null ? transactionId : entry.transactionId;
+        response = debitResponse(paymentApi.debitTransaction(target, request));
+        if (response != null && response.getResult() != null) {
+          store.complete(key, Integer.parseInt(response.getResult().getCode()), response.getResult().getMessage(),
+              response.getFilingCode());
+        }
+      }
+      own.complete(response);
+      return response;
+    } catch (IOException | RuntimeException e) {
+      own.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, own);
+    }
+  }
+
+  private static DebitTransactionResponse await(CompletableFuture<DebitTransactionResponse> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static DebitTransactionResponse storedResponse(IdempotencyStore.Entry entry) {
+    return debitResponse(String.valueOf(entry.resultCode), entry.resultMessage, entry.filingCode);
+  }
+
+  /**
+   * PaymentAPI declares only a TransactionResponse, so a response of another type is copied without a filing code
+   */
+  private static DebitTransactionResponse debitResponse(TransactionResponse response) {
+    if (response == null || response instanceof DebitTransactionResponse) {
+      return (DebitTransactionResponse) response;
+    }
+    Result result = response.getResult();
+    return result == null ? debitResponse(null, null, null)
+        : debitResponse(result.getCode(), result.getMessage(), null);
+  }
+
+  private static DebitTransactionResponse debitResponse(String code, String message, String filingCode) {
+    ObjectNode json = JsonNodeFactory.instance.objectNode();
+    if (code != null) {
+      ObjectNode result = json.putObject("result");
+      result.put("code", code);
+      if (message != null) {
+        result.put("message", message);
+      }
+    }
+    if (filingCode != null) {
+      json.put("filing_code", filingCode);
+    }
+    return PARSER.mapResponse(json, DebitTransactionResponse.class);
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * Deduplication of repeated debit submissions through a persistent idempotency key store
+ */
+package io.paymenthighway.idempotency;
@@ -0,0 +1,62 @@
+package io.paymenthighway.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event of a single Payment API call
+ */
+@Name("io.paymenthighway.ApiCall")
+@Label("Payment API Call")
+@Category("Payment Highway")
+@Description("A request to the Payment Highway Payment API")
+@StackTrace(false)
+class ApiCallEvent extends Event {
+
+  @Label("Method")
+  String method;
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Request ID")
+  @Description("The sph-request-id header of the request")
+  String requestId;
+
+  @Label("HTTP Status")
+  int status;
+
+  @Label("Bytes Out")
+  @DataAmount
+  long bytesOut;
+
+  @Label("Bytes In")
+  @DataAmount
+  long bytesIn;
+
+  @Label("Sign Duration")
+  @Timespan
+  long signDuration;
+
+  @Label("HTTP Duration")
+  @Description("Time from sending the request until the response body was read")
+  @Timespan
+  long httpDuration;
+
+  @Label("Validate Duration")
+  @Timespan
+  long validateDuration;
+
+  @Label("Parse Duration")
+  @Timespan
+  long parseDuration;
+
+  @Label("Error")
+  String error;
+}
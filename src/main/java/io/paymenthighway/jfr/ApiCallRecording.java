@@ -0,0 +1,61 @@
+package io.paymenthighway.jfr;
+
+/**
+ * Collects the phases of a single Payment API call.
+ * <p/>
+ * The phases are marked in order: signed, response received, validated and parsed.
+ */
+public interface ApiCallRecording {
+
+  /**
+   * Recording used when the JVM has no Flight Recorder or the event is disabled
+   */
+  ApiCallRecording NOOP = new ApiCallRecording() {
+    @Override
+    public void signed(String requestId, long bytesOut) {
+    }
+
+    @Override
+    public void responseReceived(int status, String content) {
+    }
+
+    @Override
+    public void validated() {
+    }
+
+    @Override
+    public void parsed() {
+    }
+
+    @Override
+    public void failed(Throwable cause) {
+    }
+
+    @Override
+    public void end() {
+    }
+  };
+
+  /**
+   * @param requestId The sph-request-id of the call
+   * @param bytesOut Size of the request body in bytes
+   */
+  void signed(String requestId, long bytesOut);
+
+  /**
+   * @param status HTTP status code
+   * @param content The response body
+   */
+  void responseReceived(int status, String content);
+
+  void validated();
+
+  void parsed();
+
+  void failed(Throwable cause);
+
+  /**
+   * Commits the recording. Must be called once, also when the call failed.
+   */
+  void end();
+}
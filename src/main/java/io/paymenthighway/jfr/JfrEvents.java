@@ -0,0 +1,133 @@
+package io.paymenthighway.jfr;
+
+import jdk.jfr.EventType;
+
+import java.util.UUID;
+
+/**
+ * Creates the actual Flight Recorder events. Loaded only when jdk.jfr is present.
+ */
+final class JfrEvents {
+
+  private static EventType apiCallType;
+  private static EventType signatureType;
+
+  private JfrEvents() {
+  }
+
+  static boolean register() {
+    apiCallType = EventType.getEventType(ApiCallEvent.class);
+    signatureType = EventType.getEventType(SignatureEvent.class);
+    return true;
+  }
+
+  static ApiCallRecording beginApiCall(String method, String uri) {
+    if (!apiCallType.isEnabled()) {
+      return ApiCallRecording.NOOP;
+    }
+    return new Api(method, uri);
+  }
+
+  static SignatureRecording beginSignature(String operation, String method, String uri) {
+    if (!signatureType.isEnabled()) {
+      return SignatureRecording.NOOP;
+    }
+    return new Signature(operation, method, uri);
+  }
+
+  /**
+   * Number of bytes in the UTF-8 encoding of the given string
+   */
+  static long utf8Length(String s) {
+    if (s == null) {
+      return 0;
+    }
+    long length = 0;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  private static final class Api implements ApiCallRecording {
+
+    private final ApiCallEvent event = new ApiCallEvent();
+    private long mark;
+
+    Api(String method, String uri) {
+      event.method = method;
+      event.endpoint = uri;
+      event.begin();
+      mark = System.nanoTime();
+    }
+
+    private long lap() {
+      long now = System.nanoTime();
+      long elapsed = now - mark;
+      mark = now;
+      return elapsed;
+    }
+
+    @Override
+    public void signed(String requestId, long bytesOut) {
+      event.signDuration = lap();
+      event.requestId = requestId;
+      event.bytesOut = bytesOut;
+    }
+
+    @Override
+    public void responseReceived(int status, String content) {
+      event.httpDuration = lap();
+      event.status = status;
+      event.bytesIn = utf8Length(content);
+    }
+
+    @Override
+    public void validated() {
+      event.validateDuration = lap();
+    }
+
+    @Override
+    public void parsed() {
+      event.parseDuration = lap();
+    }
+
+    @Override
+    public void failed(Throwable cause) {
+      event.error = cause.getClass().getName();
+    }
+
+    @Override
+    public void end() {
+      event.commit();
+    }
+  }
+
+  private static final class Signature implements SignatureRecording {
+
+    private final SignatureEvent event = new SignatureEvent();
+
+    Signature(String operation, String method, String uri) {
+      event.operation = operation;
+      event.method = method;
+      event.uri = uri;
+      event.begin();
+    }
+
+    @Override
+    public void end(boolean valid) {
+      event.valid = valid;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package io.paymenthighway.jfr;
+
+/**
+ * Entry point for the Flight Recorder events.
+ * <p/>
+ * Returns no-op recordings when the JVM has no jdk.jfr module or when the events
+ * are not enabled in any running recording, so the calls cost nothing in that case.
+ */
+public final class JfrSupport {
+
+  private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+  private JfrSupport() {
+  }
+
+  /**
+   * @return true if the running JVM supports Flight Recorder events
+   */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  /**
+   * Starts recording a Payment API call
+   *
+   * @param method HTTP method
+   * @param uri The request URI
+   * @return ApiCallRecording
+   */
+  public static ApiCallRecording beginApiCall(String method, String uri) {
+    if (!AVAILABLE) {
+      return ApiCallRecording.NOOP;
+    }
+    return JfrEvents.beginApiCall(method, uri);
+  }
+
+  /**
+   * Starts recording a signature operation
+   *
+   * @param operation SignatureRecording.CREATE or SignatureRecording.VALIDATE
+   * @param method HTTP method
+   * @param uri The request URI
+   * @return SignatureRecording
+   */
+  public static SignatureRecording beginSignature(String operation, String method, String uri) {
+    if (!AVAILABLE) {
+      return SignatureRecording.NOOP;
+    }
+    return JfrEvents.beginSignature(operation, method, uri);
+  }
+
+  private static boolean isFlightRecorderAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+      // Registers the event types, fails if the JVM was started without JFR support
+      return JfrEvents.register();
+    } catch (ClassNotFoundException | LinkageError | SecurityException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package io.paymenthighway.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a signature creation or validation
+ */
+@Name("io.paymenthighway.Signature")
+@Label("Signature")
+@Category("Payment Highway")
+@StackTrace(false)
+class SignatureEvent extends Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Method")
+  String method;
+
+  @Label("URI")
+  String uri;
+
+  @Label("Valid")
+  boolean valid;
+}
@@ -0,0 +1,26 @@
+package io.paymenthighway.jfr;
+
+/**
+ * Times a single signature creation or validation
+ */
+public interface SignatureRecording {
+
+  String CREATE = "create";
+  String VALIDATE = "validate";
+
+  /**
+   * Recording used when the JVM has no Flight Recorder or the event is disabled
+   */
+  SignatureRecording NOOP = new SignatureRecording() {
+    @Override
+    public void end(boolean valid) {
+    }
+  };
+
+  /**
+   * Commits the recording
+   *
+   * @param valid Outcome of a validation, always true for created signatures
+   */
+  void end(boolean valid);
+}
@@ -0,0 +1,5 @@
+/**
+ * JDK Flight Recorder events. Only the classes in this package refer to jdk.jfr,
+ * and they are loaded only when the running JVM provides it.
+ */
+package io.paymenthighway.jfr;
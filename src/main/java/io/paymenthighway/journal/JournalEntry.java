@@ -0,0 +1,67 @@
+package io.paymenthighway.journal;
+
+import io.paymenthighway.connect.ApiOperation;
+
+import java.util.UUID;
+
+/**
+ * Intent of a money-moving operation, as written to the journal before the request was sent
+ */
+public final class JournalEntry {
+
+  private final long sequence;
+  private final long timestamp;
+  private final ApiOperation operation;
+  private final UUID transactionId;
+  private final String amount;
+  private final String requestId;
+
+  /**
+   * Constructor
+   *
+   * @param sequence position of the intent in the journal
+   * @param timestamp milliseconds since the epoch
+   * @param operation
+   * @param transactionId
+   * @param amount requested amount, null for a full revert or commit
+   * @param requestId sph-request-id of the request
+   */
+  public JournalEntry(long sequence, long timestamp, ApiOperation operation, UUID transactionId, String amount,
+                      String requestId) {
+    this.sequence = sequence;
+    this.timestamp = timestamp;
+    this.operation = operation;
+    this.transactionId = transactionId;
+    this.amount = amount;
+    this.requestId = requestId;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public ApiOperation getOperation() {
+    return operation;
+  }
+
+  public UUID getTransactionId() {
+    return transactionId;
+  }
+
+  public String getAmount() {
+    return amount;
+  }
+
+  public String getRequestId() {
+    return requestId;
+  }
+
+  @Override
+  public String toString() {
+    return operation.getLabel() + " " + transactionId + " amount=" + amount + " sph-request-id=" + requestId;
+  }
+}
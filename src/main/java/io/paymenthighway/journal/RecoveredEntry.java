@@ -0,0 +1,34 @@
+package io.paymenthighway.journal;
+
+import io.paymenthighway.model.response.TransactionStatus;
+
+/**
+ * An in-doubt journal entry and the transaction status Payment Highway reported for it during recovery
+ */
+public final class RecoveredEntry {
+
+  private final JournalEntry entry;
+  private final TransactionStatus status;
+
+  /**
+   * Constructor
+   *
+   * @param entry
+   * @param status null if Payment Highway does not know the transaction
+   */
+  public RecoveredEntry(JournalEntry entry, TransactionStatus status) {
+    this.entry = entry;
+    this.status = status;
+  }
+
+  public JournalEntry getEntry() {
+    return entry;
+  }
+
+  /**
+   * @return TransactionStatus after the operation, null if Payment Highway does not know the transaction
+   */
+  public TransactionStatus getStatus() {
+    return status;
+  }
+}
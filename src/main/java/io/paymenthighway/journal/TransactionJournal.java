@@ -0,0 +1,467 @@
+package io.paymenthighway.journal;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.connect.ApiOperation;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of debits, credits, commits and reverts.
+ *
+ * An intent record is made durable before the request is sent and an outcome record is appended once the result
+ * is known. Intents without an outcome are in doubt: the JVM died, or the connection failed, after the request
+ * may have reached Payment Highway. {@link #recover(PaymentAPI)} resolves them through transactionStatus.
+ *
+ * The journal is a memory-mapped append-only file. Concurrent intents share one force of the mapping (group
+ * commit): the first writer to need durability forces everything appended so far while the others wait for it.
+ * Outcomes are not forced on their own, as a lost outcome only makes an entry in doubt again. The file starts
+ * over, under a new epoch, whenever it is opened or closed with nothing in doubt, and when it fills up while
+ * running: in place if nothing is in doubt, otherwise by writing only the intents in doubt to a new file that
+ * atomically replaces the journal. It grows only when the intents in doubt take half of it.
+ *
+ * Record frame: length, payload, CRC32 of the payload. Payload: epoch, type, sequence, timestamp, then for an
+ * intent the operation, transaction id, amount and sph-request-id, and for an outcome a short description.
+ */
+public class TransactionJournal implements Closeable {
+
+  private static final int MAGIC = 0x50484a31; // "PHJ1"
+  private static final int HEADER_SIZE = 12;
+  private static final int DEFAULT_SIZE = 1 << 20;
+
+  private static final byte INTENT = 1;
+  private static final byte OUTCOME = 2;
+
+  private final File path;
+  private final Map<Long, JournalEntry> inDoubt = new ConcurrentHashMap<>();
+
+  /* Guarded by this */
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private long epoch;
+  private long nextSequence = 1;
+  private int position;
+  // bytes written to the journal before its current epoch, so that positions in the log only grow
+  private long base = 0;
+  private long outcomeFailures = 0;
+
+  /* Guarded by syncLock */
+  private final Object syncLock = new Object();
+  private boolean syncing = false;
+  private long durable = 0;
+  private long syncs = 0;
+
+  /**
+   * Opens or creates a journal, loading the entries left in doubt by a previous run
+   *
+   * @param file
+   * @throws IOException
+   */
+  public TransactionJournal(File file) throws IOException {
+    this(file, DEFAULT_SIZE);
+  }
+
+  /**
+   * Opens or creates a journal, loading the entries left in doubt by a previous run
+   *
+   * @param file
+   * @param initialSize bytes mapped at first, the file grows as needed
+   * @throws IOException
+   */
+  public TransactionJournal(File file, int initialSize) throws IOException {
+    this.path = file;
+    this.file = new RandomAccessFile(file, "rw");
+    this.channel = this.file.getChannel();
+    int size = (int) Math.max(Math.max(initialSize, HEADER_SIZE + 256), this.file.length());
+    this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+    if (buffer.getInt(0) == MAGIC) {
+      epoch = buffer.getLong(4);
+      position = scan();
+    } else {
+      epoch = 0;
+    }
+    if (inDoubt.isEmpty()) {
+      reset();
+    }
+  }
+
+  /**
+   * Reads the records of the current epoch and collects the intents without outcome
+   *
+   * @return int position after the last complete record
+   */
+  private int scan() {
+    int offset = HEADER_SIZE;
+    CRC32 crc = new CRC32();
+    while (offset + 8 <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + 8 + length > buffer.capacity()) {
+        break;
+      }
+      byte[] payload = new byte[length];
+      ByteBuffer source = buffer.duplicate();
+      source.position(offset + 4);
+      source.get(payload);
+      crc.reset();
+      crc.update(payload, 0, length);
+      if ((int) crc.getValue() != buffer.getInt(offset + 4 + length)) {
+        break;
+      }
+
+      ByteBuffer record = ByteBuffer.wrap(payload);
+      if (record.getLong() != epoch) {
+        break;
+      }
+      byte type = record.get();
+      long sequence = record.getLong();
+      long timestamp = record.getLong();
+      if (type == INTENT) {
+        ApiOperation operation = ApiOperation.values()[record.get()];
+        UUID transactionId = new UUID(record.getLong(), record.getLong());
+        String amount = getString(record);
+        String requestId = getString(record);
+        inDoubt.put(sequence, new JournalEntry(sequence, timestamp, operation, transactionId, amount, requestId));
+        nextSequence = Math.max(nextSequence, sequence + 1);
+      } else if (type == OUTCOME) {
+        inDoubt.remove(sequence);
+      }
+      offset += 8 + length;
+    }
+    return offset;
+  }
+
+  /**
+   * Starts a new epoch at the beginning of the file, making all previous records obsolete
+   */
+  private synchronized void reset() throws IOException {
+    epoch++;
+    buffer.putInt(0, MAGIC);
+    buffer.putLong(4, epoch);
+    buffer.putInt(HEADER_SIZE, 0);
+    base += position;
+    position = HEADER_SIZE;
+    buffer.force();
+    markDurable(base + position);
+  }
+
+  /**
+   * Writes the intents in doubt under a new epoch to a new file and moves it over the journal, so that a crash
+   * leaves either the old or the new journal complete
+   */
+  private void compact() throws IOException {
+    long newEpoch = epoch + 1;
+    File temp = new File(path.getPath() + ".compact");
+    RandomAccessFile newFile = new RandomAccessFile(temp, "rw");
+    boolean replaced = false;
+    try {
+      newFile.setLength(0);
+      FileChannel newChannel = newFile.getChannel();
+      MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, buffer.capacity());
+      int newPosition = HEADER_SIZE;
+      newBuffer.putInt(newPosition, 0);
+      for (JournalEntry entry : getInDoubt()) {
+        newPosition = writeFrame(newBuffer, newPosition, intentRecord(newEpoch, entry));
+      }
+      newBuffer.putLong(4, newEpoch);
+      newBuffer.putInt(0, MAGIC);
+      newBuffer.force();
+      Files.move(temp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      replaced = true;
+
+      file.close();
+      file = newFile;
+      channel = newChannel;
+      buffer = newBuffer;
+      epoch = newEpoch;
+      base += position;
+      position = newPosition;
+      markDurable(base + position);
+    } finally {
+      if (!replaced) {
+        newFile.close();
+        Files.deleteIfExists(temp.toPath());
+      }
+    }
+  }
+
+  private void markDurable(long end) {
+    synchronized (syncLock) {
+      durable = Math.max(durable, end);
+      syncLock.notifyAll();
+    }
+  }
+
+  /**
+   * Appends an intent and waits until it is durable. Call before sending the request.
+   *
+   * @param operation
+   * @param transactionId
+   * @param amount requested amount, null for a full revert or commit
+   * @param requestId sph-request-id of the request
+   * @return long sequence of the intent, to be passed to appendOutcome
+   * @throws IOException
+   */
+  public long appendIntent(ApiOperation operation, UUID transactionId, String amount, String requestId)
+      throws IOException {
+    long timestamp = System.currentTimeMillis();
+    long end;
+    JournalEntry entry;
+    synchronized (this) {
+      entry = new JournalEntry(nextSequence++, timestamp, operation, transactionId, amount, requestId);
+      end = write(intentRecord(epoch, entry));
+      inDoubt.put(entry.getSequence(), entry);
+    }
+    awaitDurable(end);
+    return entry.getSequence();
+  }
+
+  private static byte[] intentRecord(long epoch, JournalEntry entry) {
+    byte[] amountBytes = bytes(entry.getAmount());
+    byte[] requestIdBytes = bytes(entry.getRequestId());
+    ByteBuffer record = ByteBuffer.allocate(8 + 1 + 8 + 8 + 1 + 16 + sizeOf(amountBytes) + sizeOf(requestIdBytes));
+    record.putLong(epoch).put(INTENT).putLong(entry.getSequence()).putLong(entry.getTimestamp());
+    record.put((byte) entry.getOperation().ordinal());
+    UUID transactionId = entry.getTransactionId();
+    record.putLong(transactionId.getMostSignificantBits()).putLong(transactionId.getLeastSignificantBits());
+    putBytes(record, amountBytes);
+    putBytes(record, requestIdBytes);
+    return record.array();
+  }
+
+  /**
+   * Appends the outcome of an intent. The record is made durable with the next intent or on close.
+   *
+   * @param sequence the intent's sequence
+   * @param outcome short description, e.g. "result:100" or "http:400"
+   * @throws IOException
+   */
+  public void appendOutcome(long sequence, String outcome) throws IOException {
+    byte[] outcomeBytes = bytes(outcome);
+    ByteBuffer record = ByteBuffer.allocate(8 + 1 + 8 + 8 + sizeOf(outcomeBytes));
+    synchronized (this) {
+      try {
+        record.putLong(epoch).put(OUTCOME).putLong(sequence).putLong(System.currentTimeMillis());
+        putBytes(record, outcomeBytes);
+        write(record.array());
+      } catch (IOException | RuntimeException e) {
+        outcomeFailures++;
+        throw e;
+      }
+      inDoubt.remove(sequence);
+    }
+  }
+
+  /**
+   * @return long number of outcomes that could not be appended, their intents stay in doubt until recovered
+   */
+  public synchronized long getOutcomeFailureCount() {
+    return outcomeFailures;
+  }
+
+  /**
+   * Writes one frame at the end of the journal. When the mapping is full the journal starts over if nothing is in
+   * doubt, is compacted if the intents in doubt take less than half of it, and grows otherwise.
+   *
+   * @return long position in the log after the frame
+   */
+  private long write(byte[] payload) throws IOException {
+    int frameLength = 8 + payload.length;
+    if (position + frameLength + 4 > buffer.capacity()) {
+      if (inDoubt.isEmpty()) {
+        reset();
+      } else if (inDoubtSize() < buffer.capacity() / 2) {
+        compact();
+      }
+      // Every payload starts with the epoch, which may just have changed
+      ByteBuffer.wrap(payload).putLong(0, epoch);
+    }
+    if (position + frameLength + 4 > buffer.capacity()) {
+      long size = Math.max(2L * buffer.capacity(), position + frameLength + 4L);
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Transaction journal is full");
+      }
+      file.setLength(size);
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    position = writeFrame(buffer, position, payload);
+    return base + position;
+  }
+
+  /**
+   * @return long bytes the frames of the intents in doubt take
+   */
+  private long inDoubtSize() {
+    long size = HEADER_SIZE + 4;
+    for (JournalEntry entry : inDoubt.values()) {
+      size += 8 + 8 + 1 + 8 + 8 + 1 + 16 + sizeOf(bytes(entry.getAmount())) + sizeOf(bytes(entry.getRequestId()));
+    }
+    return size;
+  }
+
+  private static int writeFrame(MappedByteBuffer buffer, int position, byte[] payload) {
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    ByteBuffer target = buffer.duplicate();
+    target.position(position + 4);
+    target.put(payload);
+    target.putInt((int) crc.getValue());
+    // Terminate the log before publishing the length, so a torn frame never leads to stale bytes
+    target.putInt(0);
+    buffer.putInt(position, payload.length);
+    return position + 8 + payload.length;
+  }
+
+  /**
+   * Blocks until everything up to the given position has been forced to disk
+   */
+  private void awaitDurable(long end) throws IOException {
+    while (true) {
+      synchronized (syncLock) {
+        while (durable < end && syncing) {
+          try {
+            syncLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+        if (durable >= end) {
+          return;
+        }
+        syncing = true;
+      }
+
+      long target;
+      MappedByteBuffer mapping;
+      synchronized (this) {
+        target = base + position;
+        mapping = buffer;
+      }
+      boolean forced = false;
+      try {
+        mapping.force();
+        forced = true;
+      } finally {
+        synchronized (syncLock) {
+          syncing = false;
+          if (forced) {
+            durable = Math.max(durable, target);
+            syncs++;
+          }
+          syncLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return List<JournalEntry> intents without an outcome, oldest first
+   */
+  public List<JournalEntry> getInDoubt() {
+    List<JournalEntry> entries = new ArrayList<>(inDoubt.values());
+    Collections.sort(entries, new Comparator<JournalEntry>() {
+      @Override
+      public int compare(JournalEntry a, JournalEntry b) {
+        return Long.compare(a.getSequence(), b.getSequence());
+      }
+    });
+    return entries;
+  }
+
+  /**
+   * @return long number of times the journal was forced to disk for intents
+   */
+  public long getSyncCount() {
+    synchronized (syncLock) {
+      return syncs;
+    }
+  }
+
+  /**
+   * Resolves the entries in doubt by asking Payment Highway for the status of each transaction. Resolved entries
+   * get an outcome record; an entry stays in doubt if its status cannot be fetched.
+   *
+   * @param paymentApi
+   * @return List<RecoveredEntry> the resolved entries with the status of their transactions
+   * @throws IOException if a status request fails, the entries resolved before it are kept
+   */
+  public List<RecoveredEntry> recover(PaymentAPI paymentApi) throws IOException {
+    List<RecoveredEntry> recovered = new ArrayList<>();
+    for (JournalEntry entry : getInDoubt()) {
+      TransactionStatusResponse response = paymentApi.transactionStatus(entry.getTransactionId());
+      boolean found = response != null && response.getResult() != null
+          && "100".equals(response.getResult().getCode()) && response.getTransaction() != null;
+      recovered.add(new RecoveredEntry(entry, found ? response.getTransaction() : null));
+      appendOutcome(entry.getSequence(), found
+          ? "recovered:" + (response.getTransaction().getStatus() != null
+              ? response.getTransaction().getStatus().getState()
+              : "unknown")
+          : "recovered:not_found");
+    }
+    synchronized (this) {
+      buffer.force();
+    }
+    return recovered;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      if (inDoubt.isEmpty()) {
+        reset();
+      } else {
+        buffer.force();
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int sizeOf(byte[] bytes) {
+    return 4 + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(bytes.length).put(bytes);
+    }
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
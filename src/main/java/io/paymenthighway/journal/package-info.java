@@ -0,0 +1,4 @@
+/**
+ * Write-ahead journal of money-moving Payment API operations and their recovery after a crash
+ */
+package io.paymenthighway.journal;
@@ -1,7 +1,9 @@
 package io.paymenthighway.json;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.paymenthighway.model.response.*;
 
@@ -12,19 +14,28 @@ import java.io.IOException;
  */
 public class JsonParser {
 
+  static final ObjectMapper MAPPER = createMapper();
+
   /**
    * Constructor
    */
   public JsonParser() {
   }
 
-  public <T> T mapResponse(String json, Class<T> clazz) {
+  /**
+   * A mapper is thread safe once configured, and reusing it keeps the deserializers it builds for each type
+   */
+  private static ObjectMapper createMapper() {
     ObjectMapper mapper = new ObjectMapper();
     mapper.setSerializationInclusion(Include.NON_NULL);
     mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return mapper;
+  }
+
+  public <T> T mapResponse(String json, Class<T> clazz) {
     T response = null;
     try {
-      response = mapper.readValue(json, clazz);
+      response = MAPPER.readValue(json, clazz);
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -32,6 +43,44 @@ public class JsonParser {
     return response;
   }
 
+  /**
+   * Maps only the fields of the projection, skipping the rest of the JSON unread
+   *
+   * @param json
+   * @param clazz
+   * @param projection
+   * @return T with the fields outside the projection null
+   */
+  public <T> T mapResponse(String json, Class<T> clazz, Projection projection) {
+    T response = null;
+    try (com.fasterxml.jackson.core.JsonParser parser =
+             new ProjectingParser(MAPPER.getFactory().createParser(json), projection)) {
+      response = MAPPER.readValue(parser, clazz);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    return response;
+  }
+
+  /**
+   * Maps a tree built in memory without printing and reparsing it
+   *
+   * @param json
+   * @param clazz
+   * @return T
+   */
+  public <T> T mapResponse(JsonNode json, Class<T> clazz) {
+    T response = null;
+    try {
+      response = MAPPER.treeToValue(json, clazz);
+    } catch (JsonProcessingException e) {
+      e.printStackTrace();
+    }
+
+    return response;
+  }
+
   @Deprecated
   public InitTransactionResponse mapInitTransactionResponse(String json) {
     return mapResponse(json, InitTransactionResponse.class);
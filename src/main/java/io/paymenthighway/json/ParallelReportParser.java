@@ -0,0 +1,473 @@
+package io.paymenthighway.json;
+
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Settlement;
+import io.paymenthighway.model.response.Transaction;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deserializes large daily and reconciliation reports on a fork/join pool. The body, whose signature has already been
+ * validated as a whole, is scanned once to find the character range of every transaction of every settlement, while
+ * the rest of the document is copied aside. The transactions are then deserialized in parallel in chunks of
+ * consecutive elements, and each settlement and the response are assembled from them in their original order.
+ * A report too small to be worth splitting, or not shaped like a report, is deserialized on the calling thread, and so
+ * is every report when the pool has a single thread, as the scan would only add to the work of that one thread.
+ */
+public final class ParallelReportParser {
+
+  private static final int MIN_PARALLEL_LENGTH = 1 << 18;
+  private static final int THRESHOLD = 1 << 17;
+
+  private final ForkJoinPool pool;
+  private final int minParallelLength;
+  private final int threshold;
+
+  /**
+   * Constructor, using the common pool
+   */
+  public ParallelReportParser() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pool
+   */
+  public ParallelReportParser(ForkJoinPool pool) {
+    this(pool, MIN_PARALLEL_LENGTH, THRESHOLD);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pool
+   * @param minParallelLength reports shorter than this, in characters, are deserialized on the calling thread
+   * @param threshold consecutive transactions up to this many characters are deserialized by one task
+   */
+  ParallelReportParser(ForkJoinPool pool, int minParallelLength, int threshold) {
+    this.pool = pool;
+    this.minParallelLength = minParallelLength;
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param json validated response body
+   * @return ReconciliationReportResponse
+   * @throws IOException if the body is not a valid response
+   */
+  public ReconciliationReportResponse mapReconciliationReport(String json) throws IOException {
+    return map(json, ReconciliationReportResponse.class, ReconciliationSettlement.class,
+        ReconciliationTransaction[].class);
+  }
+
+  /**
+   * @param json validated response body
+   * @return ReportResponse
+   * @throws IOException if the body is not a valid response
+   */
+  public ReportResponse mapReport(String json) throws IOException {
+    return map(json, ReportResponse.class, Settlement.class, Transaction[].class);
+  }
+
+  private <T> T map(String json, Class<T> responseType, Class<?> settlementType, Class<?> transactionsType)
+      throws IOException {
+    Document document = json.length() < minParallelLength || pool.getParallelism() < 2 ? null : Document.scan(json);
+    if (document == null) {
+      return JsonParser.MAPPER.readValue(json, responseType);
+    }
+    Object[][] transactions = new Object[document.settlements.size()][];
+    List<ChunkTask> tasks = new ArrayList<>();
+    for (int i = 0; i < transactions.length; i++) {
+      Part part = document.settlements.get(i);
+      if (part != null && part.count >= 0) {
+        transactions[i] = new Object[part.count];
+        tasks.add(new ChunkTask(document, part.first, part.first + part.count, transactionsType, transactions[i], 0));
+      }
+    }
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    document.root.writeFieldName("settlements");
+    document.root.writeStartArray();
+    for (int i = 0; i < transactions.length; i++) {
+      Part part = document.settlements.get(i);
+      if (part == null) {
+        document.root.writeNull();
+        continue;
+      }
+      if (transactions[i] != null) {
+        part.buffer.writeFieldName("transactions");
+        part.buffer.writeStartArray();
+        for (Object transaction : transactions[i]) {
+          part.buffer.writeObject(transaction);
+        }
+        part.buffer.writeEndArray();
+      }
+      part.buffer.writeEndObject();
+      document.root.writeObject(JsonParser.MAPPER.readValue(part.buffer.asParser(), settlementType));
+    }
+    document.root.writeEndArray();
+    document.root.writeEndObject();
+    return JsonParser.MAPPER.readValue(document.root.asParser(), responseType);
+  }
+
+  /**
+   * The report without its settlements, each settlement without its transactions, and the character range of each
+   * transaction
+   */
+  private static final class Document {
+
+    final String json;
+    final TokenBuffer root = new TokenBuffer(null, false);
+    final List<Part> settlements = new ArrayList<>();
+    int[] starts = new int[1024];
+    int[] ends = new int[1024];
+    int count;
+    int[] arrays = new int[16];
+    int arrayCount;
+
+    private Document(String json) {
+      this.json = json;
+    }
+
+    /**
+     * @param json
+     * @return Document, null if the JSON does not have the settlements array of a report
+     */
+    static Document scan(String json) throws IOException {
+      Document document = new Document(json);
+      String skeleton = document.locate();
+      if (skeleton == null) {
+        return null;
+      }
+      boolean found = false;
+      try (com.fasterxml.jackson.core.JsonParser parser = JsonParser.MAPPER.getFactory().createParser(skeleton)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          return null;
+        }
+        document.root.writeStartObject();
+        for (JsonToken token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+          String name = parser.getCurrentName();
+          if (!"settlements".equals(name)) {
+            document.root.copyCurrentStructure(parser);
+          } else if (found || parser.nextToken() != JsonToken.START_ARRAY || !document.scanSettlements(parser)) {
+            return null;
+          } else {
+            found = true;
+          }
+        }
+      }
+      return found && document.settlementArrays() == document.arrayCount ? document : null;
+    }
+
+    private int settlementArrays() {
+      int found = 0;
+      for (Part part : settlements) {
+        if (part != null && part.count >= 0) {
+          found++;
+        }
+      }
+      return found;
+    }
+
+    /**
+     * Reads the settlements of the skeleton, in which every transactions array located is empty
+     */
+    private boolean scanSettlements(com.fasterxml.jackson.core.JsonParser parser) throws IOException {
+      int array = 0;
+      for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+        if (token == JsonToken.VALUE_NULL) {
+          settlements.add(null);
+          continue;
+        }
+        if (token != JsonToken.START_OBJECT) {
+          return false;
+        }
+        Part part = new Part();
+        part.buffer.writeStartObject();
+        for (token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+          String name = parser.getCurrentName();
+          if (!"transactions".equals(name)) {
+            part.buffer.copyCurrentStructure(parser);
+          } else if (parser.nextToken() == JsonToken.START_ARRAY) {
+            if (part.count >= 0 || array == arrayCount || parser.nextToken() != JsonToken.END_ARRAY) {
+              return false;
+            }
+            part.first = arrays[array];
+            part.count = (array + 1 < arrayCount ? arrays[array + 1] : count) - part.first;
+            array++;
+          } else {
+            part.buffer.writeFieldName(name);
+            part.buffer.copyCurrentStructure(parser);
+          }
+        }
+        settlements.add(part);
+      }
+      return true;
+    }
+
+    /**
+     * Finds the transactions arrays of the settlements with a structural scan of the characters, jumping over strings
+     * with indexOf, and records the range of each transaction. Much faster than tokenizing, and the ranges are
+     * checked by the parsers that deserialize them.
+     *
+     * @return String the JSON with the transactions arrays emptied, null if none were found or one is malformed
+     */
+    private String locate() {
+      StringBuilder skeleton = new StringBuilder();
+      int copied = 0;
+      // containers open and, of those, the ones on the path to a settlement: report, settlements array, settlement
+      int depth = 0;
+      int path = 0;
+      int keyStart = 0;
+      int keyEnd = 0;
+      int length = json.length();
+      for (int i = 0; i < length; i++) {
+        char c = json.charAt(i);
+        if (c == '"') {
+          int end = skipString(i);
+          if (end < 0) {
+            return null;
+          }
+          if (depth == path && (path == 1 || path == 3)) {
+            keyStart = i + 1;
+            keyEnd = end - 1;
+          }
+          i = end - 1;
+        } else if (c == '[' && depth == path && path == 3 && isKey(keyStart, keyEnd, "transactions")) {
+          int end = locateTransactions(i);
+          if (end < 0) {
+            return null;
+          }
+          skeleton.append(json, copied, i).append("[]");
+          copied = end;
+          i = end - 1;
+        } else if (c == '{' || c == '[') {
+          if (depth == path && (path == 0 && c == '{' || path == 1 && c == '[' && isKey(keyStart, keyEnd,
+              "settlements") || path == 2 && c == '{')) {
+            path++;
+          }
+          depth++;
+        } else if (c == '}' || c == ']') {
+          if (depth == path) {
+            path--;
+          }
+          depth--;
+        }
+      }
+      return arrayCount == 0 ? null : skeleton.append(json, copied, length).toString();
+    }
+
+    private boolean isKey(int start, int end, String key) {
+      return end - start == key.length() && json.startsWith(key, start);
+    }
+
+    /**
+     * @param quote
+     * @return int the index after the closing quote, -1 if there is none
+     */
+    private int skipString(int quote) {
+      for (int end = json.indexOf('"', quote + 1); end > 0; end = json.indexOf('"', end + 1)) {
+        int backslash = end - 1;
+        while (json.charAt(backslash) == '\\') {
+          backslash--;
+        }
+        if ((end - 1 - backslash) % 2 == 0) {
+          return end + 1;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @param open
+     * @return int the index after the element, -1 if there is no object at the index
+     */
+    private int skipObject(int open) {
+      int depth = 0;
+      for (int i = open; i < json.length(); i++) {
+        char c = json.charAt(i);
+        if (c == '"') {
+          int end = skipString(i);
+          if (end < 0) {
+            return -1;
+          }
+          i = end - 1;
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if ((c == '}' || c == ']') && --depth == 0) {
+          return i + 1;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Records the range of every object or null of the array
+     *
+     * @param open
+     * @return int the index after the array, -1 if it holds something else or is malformed
+     */
+    private int locateTransactions(int open) {
+      if (arrayCount == arrays.length) {
+        arrays = Arrays.copyOf(arrays, arrayCount * 2);
+      }
+      arrays[arrayCount++] = count;
+      boolean value = true;
+      for (int i = open + 1; i < json.length(); i++) {
+        char c = json.charAt(i);
+        if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+          continue;
+        }
+        if (c == ']' && (!value || count == arrays[arrayCount - 1])) {
+          return i + 1;
+        }
+        if (!value && c == ',') {
+          value = true;
+          continue;
+        }
+        int end = !value ? -1 : c == '{' ? skipObject(i) : json.startsWith("null", i) ? i + 4 : -1;
+        if (end < 0) {
+          return -1;
+        }
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = i;
+        ends[count] = end;
+        count++;
+        value = false;
+        i = end - 1;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * A settlement without its transactions, which are the transaction ranges from first on
+   */
+  private static final class Part {
+
+    final TokenBuffer buffer = new TokenBuffer(null, false);
+    int first;
+    int count = -1;
+  }
+
+  /**
+   * Reads the characters from start to end, which are elements separated by commas, as a JSON array. Jackson reads
+   * through its own recycled buffer, so the range is never copied as a whole.
+   */
+  private static final class ArrayReader extends Reader {
+
+    private final String json;
+    private final int start;
+    private final int end;
+    private int position;
+
+    ArrayReader(String json, int start, int end) {
+      this.json = json;
+      this.start = start;
+      this.end = end;
+      this.position = start - 1;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (position > end) {
+        return -1;
+      }
+      int read = 0;
+      if (position < start && length > 0) {
+        buffer[offset] = '[';
+        position++;
+        read++;
+      }
+      int count = Math.min(end - position, length - read);
+      json.getChars(position, position + count, buffer, offset + read);
+      position += count;
+      read += count;
+      if (position == end && read < length) {
+        buffer[offset + read] = ']';
+        position++;
+        read++;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Deserializes the transactions from index from to to, splitting them in halves by length
+   */
+  private final class ChunkTask extends RecursiveAction {
+
+    private final Document document;
+    private final int from;
+    private final int to;
+    private final Class<?> arrayType;
+    private final Object[] target;
+    private final int offset;
+
+    ChunkTask(Document document, int from, int to, Class<?> arrayType, Object[] target, int offset) {
+      this.document = document;
+      this.from = from;
+      this.to = to;
+      this.arrayType = arrayType;
+      this.target = target;
+      this.offset = offset;
+    }
+
+    @Override
+    protected void compute() {
+      int[] starts = document.starts;
+      int[] ends = document.ends;
+      if (to - from > 1 && ends[to - 1] - starts[from] > threshold) {
+        int half = starts[from] + (ends[to - 1] - starts[from]) / 2;
+        int middle = Arrays.binarySearch(starts, from, to, half);
+        middle = Math.min(Math.max(middle < 0 ? -middle - 1 : middle, from + 1), to - 1);
+        invokeAll(new ChunkTask(document, from, middle, arrayType, target, offset),
+            new ChunkTask(document, middle, to, arrayType, target, offset + middle - from));
+        return;
+      }
+      if (to == from) {
+        return;
+      }
+      try (com.fasterxml.jackson.core.JsonParser parser = JsonParser.MAPPER.getFactory().createParser(
+          new ArrayReader(document.json, starts[from], ends[to - 1]))) {
+        Object[] parsed = (Object[]) JsonParser.MAPPER.readValue(parser, arrayType);
+        if (parsed.length != to - from) {
+          throw new IOException("Expected " + (to - from) + " transactions, parsed " + parsed.length);
+        }
+        System.arraycopy(parsed, 0, target, offset, parsed.length);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package io.paymenthighway.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+
+import java.io.IOException;
+
+/**
+ * Deserializes a low-cardinality string field to its pooled instance, so a report with thousands of transactions
+ * holds one "EUR" instead of thousands. Declared on the model fields with
+ * {@code @JsonDeserialize(using = PooledStringDeserializer.class)}.
+ */
+public class PooledStringDeserializer extends StdScalarDeserializer<String> {
+
+  /**
+   * Constructor
+   */
+  public PooledStringDeserializer() {
+    super(String.class);
+  }
+
+  @Override
+  public String deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+    return text(parser, context);
+  }
+
+  /**
+   * @param parser positioned at the value
+   * @param context
+   * @return String the pooled text of a scalar value, null for a JSON null
+   */
+  static String text(JsonParser parser, DeserializationContext context) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_STRING || token == JsonToken.VALUE_NUMBER_INT
+        || token == JsonToken.VALUE_NUMBER_FLOAT) {
+      return StringPool.get(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token != null && token.isScalarValue()) {
+      return parser.getText();
+    }
+    throw context.mappingException(String.class, token);
+  }
+}
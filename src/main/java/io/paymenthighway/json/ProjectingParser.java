@@ -0,0 +1,70 @@
+package io.paymenthighway.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A parser that hands on only the fields of a projection. The value of any other field is skipped at token level,
+ * without its text being decoded, and the reader never sees its name.
+ */
+final class ProjectingParser extends JsonParserDelegate {
+
+  private final Projection root;
+  private Projection[] projections = new Projection[16];
+  private boolean[] arrays = new boolean[16];
+  private int depth;
+  private Projection field;
+
+  ProjectingParser(JsonParser parser, Projection projection) {
+    super(parser);
+    this.root = projection;
+  }
+
+  @Override
+  public JsonToken nextToken() throws IOException {
+    JsonToken token = delegate.nextToken();
+    while (token == JsonToken.FIELD_NAME) {
+      Projection container = projections[depth - 1];
+      field = container.isWhole() ? container : container.child(delegate.getCurrentName());
+      if (field != null) {
+        return token;
+      }
+      delegate.nextToken();
+      delegate.skipChildren();
+      token = delegate.nextToken();
+    }
+    if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+      Projection value = depth == 0 ? root : arrays[depth - 1] ? projections[depth - 1] : field;
+      if (depth == projections.length) {
+        projections = Arrays.copyOf(projections, depth * 2);
+        arrays = Arrays.copyOf(arrays, depth * 2);
+      }
+      projections[depth] = value;
+      arrays[depth] = token == JsonToken.START_ARRAY;
+      depth++;
+    } else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY) {
+      depth--;
+    }
+    return token;
+  }
+
+  @Override
+  public JsonToken nextValue() throws IOException {
+    JsonToken token = nextToken();
+    return token == JsonToken.FIELD_NAME ? nextToken() : token;
+  }
+
+  @Override
+  public JsonParser skipChildren() throws IOException {
+    JsonToken token = delegate.getCurrentToken();
+    if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+      delegate.skipChildren();
+      depth--;
+    }
+    return this;
+  }
+}
@@ -0,0 +1,90 @@
+package io.paymenthighway.json;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fields of a response to deserialize, given as dotted paths of JSON field names. Arrays are transparent, so
+ * "settlements.transactions.amount" selects the amount of every transaction of every settlement, and a path that
+ * ends at an object selects the whole object. Fields outside the projection are skipped by the parser and left null
+ * in the response objects.
+ *
+ * <pre>
+ * Projection projection = Projection.of("result.code", "settlements.transactions.id",
+ *     "settlements.transactions.amount", "settlements.transactions.currency", "settlements.transactions.status.code");
+ * ReportResponse report = new JsonParser().mapResponse(json, ReportResponse.class, projection);
+ * </pre>
+ *
+ * Projections are immutable and can be shared.
+ */
+public final class Projection {
+
+  private static final Projection WHOLE = new Projection(null);
+
+  private final Map<String, Projection> children;
+
+  private Projection(Map<String, Projection> children) {
+    this.children = children;
+  }
+
+  /**
+   * @param paths dotted paths of JSON field names
+   * @return Projection
+   */
+  public static Projection of(String... paths) {
+    Builder root = new Builder();
+    for (String path : paths) {
+      Builder node = root;
+      for (String field : path.split("\\.")) {
+        if (field.isEmpty()) {
+          throw new IllegalArgumentException("Empty field in path: " + path);
+        }
+        if (node.whole) {
+          break;
+        }
+        Builder child = node.children.get(field);
+        if (child == null) {
+          child = new Builder();
+          node.children.put(field, child);
+        }
+        node = child;
+      }
+      node.whole = true;
+      node.children.clear();
+    }
+    return root.build();
+  }
+
+  /**
+   * @param field
+   * @return Projection of the field's value, null if the field is not selected
+   */
+  Projection child(String field) {
+    return children.get(field);
+  }
+
+  /**
+   * @return boolean true if the whole value is selected
+   */
+  boolean isWhole() {
+    return children == null;
+  }
+
+  private static final class Builder {
+
+    final Map<String, Builder> children = new HashMap<>();
+    boolean whole;
+
+    Projection build() {
+      if (whole) {
+        return WHOLE;
+      }
+      Map<String, Projection> built = new HashMap<>();
+      for (Map.Entry<String, Builder> entry : children.entrySet()) {
+        built.put(entry.getKey(), entry.getValue().build());
+      }
+      return new Projection(Collections.unmodifiableMap(built));
+    }
+  }
+}
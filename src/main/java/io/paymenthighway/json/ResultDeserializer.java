@@ -0,0 +1,63 @@
+package io.paymenthighway.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import io.paymenthighway.model.response.Result;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Deserializes a result to a shared instance, kept like the statuses of {@link StatusDeserializer}
+ */
+public class ResultDeserializer extends StdDeserializer<Result> {
+
+  private static final int SLOTS = 64;
+  private static final Result[] SHARED = new Result[SLOTS];
+
+  /**
+   * Constructor
+   */
+  public ResultDeserializer() {
+    super(Result.class);
+  }
+
+  @Override
+  public Result deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+    String code = null;
+    String message = null;
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+      token = parser.nextToken();
+    }
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("code".equals(name)) {
+        code = PooledStringDeserializer.text(parser, context);
+      } else if ("message".equals(name)) {
+        message = PooledStringDeserializer.text(parser, context);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (token != JsonToken.END_OBJECT) {
+      throw context.mappingException(Result.class, token);
+    }
+    return shared(code, message);
+  }
+
+  private static Result shared(String code, String message) {
+    int hash = 31 * Objects.hashCode(code) + Objects.hashCode(message);
+    int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    Result result = SHARED[slot];
+    if (result != null && Objects.equals(result.getCode(), code) && Objects.equals(result.getMessage(), message)) {
+      return result;
+    }
+    result = new Result(code, message);
+    SHARED[slot] = result;
+    return result;
+  }
+}
@@ -0,0 +1,68 @@
+package io.paymenthighway.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import io.paymenthighway.model.response.Status;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Deserializes a status to a shared instance. Nearly every transaction of a report carries the same few states and
+ * codes, so the statuses are kept in a small direct-mapped table of immutable instances keyed by their pooled fields.
+ */
+public class StatusDeserializer extends StdDeserializer<Status> {
+
+  private static final int SLOTS = 256;
+  private static final Status[] SHARED = new Status[SLOTS];
+
+  /**
+   * Constructor
+   */
+  public StatusDeserializer() {
+    super(Status.class);
+  }
+
+  @Override
+  public Status deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+    String state = null;
+    String code = null;
+    String message = null;
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+      token = parser.nextToken();
+    }
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      if ("state".equals(name)) {
+        state = PooledStringDeserializer.text(parser, context);
+      } else if ("code".equals(name)) {
+        code = PooledStringDeserializer.text(parser, context);
+      } else if ("message".equals(name)) {
+        message = PooledStringDeserializer.text(parser, context);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (token != JsonToken.END_OBJECT) {
+      throw context.mappingException(Status.class, token);
+    }
+    return shared(state, code, message);
+  }
+
+  private static Status shared(String state, String code, String message) {
+    int hash = 31 * (31 * Objects.hashCode(state) + Objects.hashCode(code)) + Objects.hashCode(message);
+    int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    Status status = SHARED[slot];
+    if (status != null && Objects.equals(status.getState(), state) && Objects.equals(status.getCode(), code)
+        && Objects.equals(status.getMessage(), message)) {
+      return status;
+    }
+    status = new Status(state, code, message);
+    SHARED[slot] = status;
+    return status;
+  }
+}
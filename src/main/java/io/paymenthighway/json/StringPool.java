@@ -0,0 +1,57 @@
+package io.paymenthighway.json;
+
+/**
+ * Canonical instances of short strings that repeat across responses, such as currencies, states and acquirer names.
+ * The pool is a fixed direct-mapped table looked up straight from the parser's character buffer, so a pooled value
+ * costs no allocation, and a value that keeps colliding is simply replaced. Slots are written without locking:
+ * strings are immutable, so a racing reader sees either string.
+ */
+final class StringPool {
+
+  /**
+   * Longer values are not worth hashing and are rarely repeated
+   */
+  static final int MAX_LENGTH = 64;
+
+  private static final int SLOTS = 4096;
+  private static final String[] POOL = new String[SLOTS];
+
+  private StringPool() {
+  }
+
+  /**
+   * @param chars
+   * @param offset
+   * @param length
+   * @return String the pooled instance equal to the characters
+   */
+  static String get(char[] chars, int offset, int length) {
+    if (length > MAX_LENGTH) {
+      return new String(chars, offset, length);
+    }
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+    String pooled = POOL[slot];
+    if (pooled != null && matches(pooled, chars, offset, length)) {
+      return pooled;
+    }
+    pooled = new String(chars, offset, length);
+    POOL[slot] = pooled;
+    return pooled;
+  }
+
+  private static boolean matches(String pooled, char[] chars, int offset, int length) {
+    if (pooled.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (pooled.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
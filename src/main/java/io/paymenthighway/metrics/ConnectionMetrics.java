@@ -0,0 +1,104 @@
+package io.paymenthighway.metrics;
+
+import io.paymenthighway.connect.ApiOperation;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters of a single Payment API connection.
+ * <p/>
+ * All counters are LongAdders, so recording from many threads does not contend.
+ */
+public final class ConnectionMetrics {
+
+  private final String account;
+  private final String merchant;
+
+  private final LongAdder inFlight = new LongAdder();
+  // kept by the registry after the connection is gone, so that its totals are not lost
+  final Counters counters = new Counters();
+
+  private volatile ConnPoolControl<HttpRoute> connectionPool;
+
+  /**
+   * Constructor
+   *
+   * @param account
+   * @param merchant
+   */
+  public ConnectionMetrics(String account, String merchant) {
+    this.account = account;
+    this.merchant = merchant;
+  }
+
+  public String getAccount() {
+    return account;
+  }
+
+  public String getMerchant() {
+    return merchant;
+  }
+
+  /**
+   * @param connectionPool The connection pool of the HTTP client, or null if not known
+   */
+  public void setConnectionPool(ConnPoolControl<HttpRoute> connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /**
+   * Marks a call as started
+   */
+  public void requestStarted() {
+    inFlight.increment();
+  }
+
+  /**
+   * Marks a call started with requestStarted as successfully completed
+   *
+   * @param operation
+   * @param nanos Duration of the call
+   */
+  public void requestCompleted(ApiOperation operation, long nanos) {
+    inFlight.decrement();
+    counters.requests[operation.ordinal()].increment();
+    counters.durations[operation.ordinal()].record(nanos);
+  }
+
+  /**
+   * Marks a call started with requestStarted as failed
+   *
+   * @param operation
+   * @param nanos Duration of the call
+   * @param cause The exception thrown by the call
+   */
+  public void requestFailed(ApiOperation operation, long nanos, Throwable cause) {
+    inFlight.decrement();
+    counters.requests[operation.ordinal()].increment();
+    counters.durations[operation.ordinal()].record(nanos);
+    counters.errors[operation.ordinal()][ErrorType.of(cause).ordinal()].increment();
+  }
+
+  public long getInFlight() {
+    return inFlight.sum();
+  }
+
+  public long getRequests(ApiOperation operation) {
+    return counters.requests[operation.ordinal()].sum();
+  }
+
+  public long getErrors(ApiOperation operation, ErrorType type) {
+    return counters.errors[operation.ordinal()][type.ordinal()].sum();
+  }
+
+  /**
+   * @return PoolStats of the connection pool, or null if the pool is not known
+   */
+  public PoolStats getPoolStats() {
+    ConnPoolControl<HttpRoute> pool = connectionPool;
+    return pool != null ? pool.getTotalStats() : null;
+  }
+}
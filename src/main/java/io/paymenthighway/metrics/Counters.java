@@ -0,0 +1,41 @@
+package io.paymenthighway.metrics;
+
+import io.paymenthighway.connect.ApiOperation;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The request, error and duration counters of a connection, or the totals of closed connections
+ */
+final class Counters {
+
+  private static final ApiOperation[] OPERATIONS = ApiOperation.values();
+  private static final ErrorType[] ERROR_TYPES = ErrorType.values();
+
+  final LongAdder[] requests = new LongAdder[OPERATIONS.length];
+  final LongAdder[][] errors = new LongAdder[OPERATIONS.length][ERROR_TYPES.length];
+  final Histogram[] durations = new Histogram[OPERATIONS.length];
+
+  Counters() {
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      requests[i] = new LongAdder();
+      durations[i] = new Histogram();
+      for (int j = 0; j < ERROR_TYPES.length; j++) {
+        errors[i][j] = new LongAdder();
+      }
+    }
+  }
+
+  /**
+   * Adds the current values of other counters to these
+   */
+  void add(Counters other) {
+    for (int i = 0; i < OPERATIONS.length; i++) {
+      requests[i].add(other.requests[i].sum());
+      durations[i].add(other.durations[i]);
+      for (int j = 0; j < ERROR_TYPES.length; j++) {
+        errors[i][j].add(other.errors[i][j].sum());
+      }
+    }
+  }
+}
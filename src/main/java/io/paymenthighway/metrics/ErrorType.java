@@ -0,0 +1,50 @@
+package io.paymenthighway.metrics;
+
+import io.paymenthighway.exception.AuthenticationException;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.IOException;
+
+/**
+ * Classification of failed Payment API calls
+ */
+public enum ErrorType {
+  /** The response signature did not match */
+  AUTHENTICATION("authentication"),
+  /** Payment Highway answered with a 4xx status */
+  HTTP_CLIENT("http_client"),
+  /** Payment Highway answered with a 5xx or other non 2xx status */
+  HTTP_SERVER("http_server"),
+  /** Connection, timeout or other I/O failure */
+  IO("io"),
+  /** Any other exception */
+  UNEXPECTED("unexpected");
+
+  private final String label;
+
+  ErrorType(String label) {
+    this.label = label;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * @param cause The exception thrown by the call
+   * @return ErrorType
+   */
+  public static ErrorType of(Throwable cause) {
+    if (cause instanceof AuthenticationException) {
+      return AUTHENTICATION;
+    }
+    if (cause instanceof HttpResponseException) {
+      int status = ((HttpResponseException) cause).getStatusCode();
+      return status >= 400 && status < 500 ? HTTP_CLIENT : HTTP_SERVER;
+    }
+    if (cause instanceof IOException) {
+      return IO;
+    }
+    return UNEXPECTED;
+  }
+}
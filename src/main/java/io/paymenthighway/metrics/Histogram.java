@@ -0,0 +1,62 @@
+package io.paymenthighway.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with fixed upper bounds. Buckets are not cumulative until rendered.
+ */
+final class Histogram {
+
+  /** Bucket upper bounds in seconds, the Prometheus client defaults */
+  static final double[] BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  private static final long[] BOUNDS_NANOS = new long[BOUNDS.length];
+
+  static {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      BOUNDS_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+    }
+  }
+
+  /* One more than the bounds, the last one is +Inf */
+  private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  Histogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    int i = 0;
+    while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+      i++;
+    }
+    buckets[i].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * Adds the bucket counts into the given array
+   */
+  void addTo(long[] counts) {
+    for (int i = 0; i < buckets.length; i++) {
+      counts[i] += buckets[i].sum();
+    }
+  }
+
+  /**
+   * Adds the current counts of another histogram to this one
+   */
+  void add(Histogram other) {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i].add(other.buckets[i].sum());
+    }
+    sumNanos.add(other.sumNanos.sum());
+  }
+
+  long sumNanos() {
+    return sumNanos.sum();
+  }
+}
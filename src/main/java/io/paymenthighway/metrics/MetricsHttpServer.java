@@ -0,0 +1,72 @@
+package io.paymenthighway.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal HTTP endpoint serving a MetricsRegistry at /metrics for Prometheus to scrape
+ */
+public class MetricsHttpServer implements Closeable {
+
+  private final HttpServer server;
+
+  /**
+   * Starts serving the default registry
+   *
+   * @param port The port to listen on, 0 for any free port
+   * @throws IOException
+   */
+  public MetricsHttpServer(int port) throws IOException {
+    this(new InetSocketAddress(port), MetricsRegistry.getDefault());
+  }
+
+  /**
+   * Starts serving the given registry
+   *
+   * @param address The address to listen on
+   * @param registry
+   * @throws IOException
+   */
+  public MetricsHttpServer(InetSocketAddress address, final MetricsRegistry registry) throws IOException {
+    server = HttpServer.create(address, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+          }
+          byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", MetricsRegistry.CONTENT_TYPE);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * @return int the port the server listens on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+}
@@ -0,0 +1,348 @@
+package io.paymenthighway.metrics;
+
+import io.paymenthighway.connect.ApiOperation;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tracks the metrics of all live Payment API connections and renders them in
+ * Prometheus text exposition format.
+ * <p/>
+ * Connections are held weakly, so a connection that is never closed disappears
+ * from the output once it has been garbage collected. Connections of the same
+ * account and merchant are summed into one series, and the counters keep the
+ * totals of the connections that were closed or collected.
+ */
+public class MetricsRegistry {
+
+  /** Content type of the Prometheus text exposition format */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+  private static final ApiOperation[] OPERATIONS = ApiOperation.values();
+  private static final ErrorType[] ERROR_TYPES = ErrorType.values();
+
+  private final List<Registration> connections = new CopyOnWriteArrayList<>();
+  private final ReferenceQueue<ConnectionMetrics> collected = new ReferenceQueue<>();
+  /* Guarded by this: the counters of the connections gone from each group, so that the totals never go back */
+  private final Map<String, Counters> retired = new LinkedHashMap<>();
+
+  /**
+   * @return MetricsRegistry the registry every PaymentAPIConnection registers to
+   */
+  public static MetricsRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Adds a connection, registering one that is already registered again has no effect
+   *
+   * @param metrics
+   */
+  public void register(ConnectionMetrics metrics) {
+    expungeCollected();
+    synchronized (this) {
+      if (find(metrics) == null) {
+        connections.add(new Registration(metrics, collected));
+      }
+    }
+  }
+
+  /**
+   * Removes a connection, its totals stay in the counters of its account and merchant
+   *
+   * @param metrics
+   */
+  public void unregister(ConnectionMetrics metrics) {
+    expungeCollected();
+    Registration registration = find(metrics);
+    if (registration != null) {
+      retire(registration);
+    }
+  }
+
+  private Registration find(ConnectionMetrics metrics) {
+    for (Registration registration : connections) {
+      if (registration.get() == metrics) {
+        return registration;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves the totals of a connection that is gone into its group's retired counters
+   */
+  private synchronized void retire(Registration registration) {
+    if (connections.remove(registration)) {
+      Counters counters = retired.get(registration.labels);
+      if (counters == null) {
+        counters = new Counters();
+        retired.put(registration.labels, counters);
+      }
+      counters.add(registration.counters);
+    }
+  }
+
+  /**
+   * Retires the connections that were garbage collected without being unregistered
+   */
+  private void expungeCollected() {
+    Reference<? extends ConnectionMetrics> ref;
+    while ((ref = collected.poll()) != null) {
+      retire((Registration) ref);
+    }
+  }
+
+  /**
+   * @return List of the metrics of the live connections
+   */
+  public List<ConnectionMetrics> getConnections() {
+    expungeCollected();
+    List<ConnectionMetrics> live = new ArrayList<>();
+    for (Registration registration : connections) {
+      ConnectionMetrics metrics = registration.get();
+      if (metrics != null) {
+        live.add(metrics);
+      }
+    }
+    return live;
+  }
+
+  /**
+   * @return String the metrics in Prometheus text exposition format
+   */
+  public String scrape() {
+    StringWriter writer = new StringWriter();
+    try {
+      writeTo(writer);
+    } catch (IOException e) {
+      // StringWriter does not throw
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  /**
+   * Writes the metrics in Prometheus text exposition format
+   *
+   * @param writer
+   * @throws IOException
+   */
+  public void writeTo(Writer writer) throws IOException {
+    List<Group> groups = groups();
+
+    header(writer, "paymenthighway_connections", "gauge", "Live Payment API connections");
+    for (Group group : groups) {
+      sample(writer, "paymenthighway_connections", group.labels, group.connections.size());
+    }
+
+    header(writer, "paymenthighway_requests_in_flight", "gauge", "Payment API requests waiting for a response");
+    for (Group group : groups) {
+      long inFlight = 0;
+      for (ConnectionMetrics metrics : group.connections) {
+        inFlight += metrics.getInFlight();
+      }
+      sample(writer, "paymenthighway_requests_in_flight", group.labels, inFlight);
+    }
+
+    header(writer, "paymenthighway_requests_total", "counter", "Payment API requests");
+    for (Group group : groups) {
+      for (ApiOperation operation : OPERATIONS) {
+        long requests = 0;
+        for (Counters counters : group.counters) {
+          requests += counters.requests[operation.ordinal()].sum();
+        }
+        sample(writer, "paymenthighway_requests_total", group.labels + ",operation=\"" + operation.getLabel() + "\"", requests);
+      }
+    }
+
+    header(writer, "paymenthighway_request_errors_total", "counter", "Failed Payment API requests");
+    for (Group group : groups) {
+      for (ApiOperation operation : OPERATIONS) {
+        for (ErrorType type : ERROR_TYPES) {
+          long errors = 0;
+          for (Counters counters : group.counters) {
+            errors += counters.errors[operation.ordinal()][type.ordinal()].sum();
+          }
+          if (errors > 0) {
+            sample(writer, "paymenthighway_request_errors_total",
+                group.labels + ",operation=\"" + operation.getLabel() + "\",type=\"" + type.getLabel() + "\"", errors);
+          }
+        }
+      }
+    }
+
+    writeDurations(writer, groups);
+    writePoolStats(writer, groups);
+  }
+
+  private void writeDurations(Writer writer, List<Group> groups) throws IOException {
+    String name = "paymenthighway_request_duration_seconds";
+    header(writer, name, "histogram", "Payment API request duration including signing and parsing");
+    for (Group group : groups) {
+      for (ApiOperation operation : OPERATIONS) {
+        long[] counts = new long[Histogram.BOUNDS.length + 1];
+        long sumNanos = 0;
+        for (Counters counters : group.counters) {
+          counters.durations[operation.ordinal()].addTo(counts);
+          sumNanos += counters.durations[operation.ordinal()].sumNanos();
+        }
+        String labels = group.labels + ",operation=\"" + operation.getLabel() + "\"";
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BOUNDS.length; i++) {
+          cumulative += counts[i];
+          sample(writer, name + "_bucket", labels + ",le=\"" + Histogram.BOUNDS[i] + "\"", cumulative);
+        }
+        cumulative += counts[Histogram.BOUNDS.length];
+        sample(writer, name + "_bucket", labels + ",le=\"+Inf\"", cumulative);
+        writer.write(name + "_sum{" + labels + "} " + (sumNanos / 1e9) + "\n");
+        sample(writer, name + "_count", labels, cumulative);
+      }
+    }
+  }
+
+  private void writePoolStats(Writer writer, List<Group> groups) throws IOException {
+    String[] names = {
+        "paymenthighway_pool_leased_connections",
+        "paymenthighway_pool_available_connections",
+        "paymenthighway_pool_pending_requests",
+        "paymenthighway_pool_max_connections"
+    };
+    String[] help = {
+        "HTTP connections in use",
+        "Idle HTTP connections kept alive in the pool",
+        "Requests waiting for an HTTP connection",
+        "Maximum number of HTTP connections"
+    };
+    long[][] values = new long[groups.size()][];
+    for (int g = 0; g < groups.size(); g++) {
+      for (ConnectionMetrics metrics : groups.get(g).connections) {
+        PoolStats stats = metrics.getPoolStats();
+        if (stats != null) {
+          if (values[g] == null) {
+            values[g] = new long[names.length];
+          }
+          values[g][0] += stats.getLeased();
+          values[g][1] += stats.getAvailable();
+          values[g][2] += stats.getPending();
+          values[g][3] += stats.getMax();
+        }
+      }
+    }
+    for (int i = 0; i < names.length; i++) {
+      header(writer, names[i], "gauge", help[i]);
+      for (int g = 0; g < groups.size(); g++) {
+        if (values[g] != null) {
+          sample(writer, names[i], groups.get(g).labels, values[g][i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Groups the live connections and the retired counters by account and merchant. Taken under the lock, so that a
+   * connection being retired is counted exactly once.
+   */
+  private synchronized List<Group> groups() {
+    expungeCollected();
+    Map<String, Group> groups = new LinkedHashMap<>();
+    for (Map.Entry<String, Counters> entry : retired.entrySet()) {
+      group(groups, entry.getKey()).counters.add(entry.getValue());
+    }
+    for (Registration registration : connections) {
+      ConnectionMetrics metrics = registration.get();
+      Group group = group(groups, registration.labels);
+      group.counters.add(registration.counters);
+      if (metrics != null) {
+        group.connections.add(metrics);
+      }
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  private static Group group(Map<String, Group> groups, String labels) {
+    Group group = groups.get(labels);
+    if (group == null) {
+      group = new Group(labels);
+      groups.put(labels, group);
+    }
+    return group;
+  }
+
+  private static void header(Writer writer, String name, String type, String help) throws IOException {
+    writer.write("# HELP " + name + " " + help + "\n");
+    writer.write("# TYPE " + name + " " + type + "\n");
+  }
+
+  private static void sample(Writer writer, String name, String labels, long value) throws IOException {
+    writer.write(name + "{" + labels + "} " + value + "\n");
+  }
+
+  /**
+   * Escapes a label value as required by the exposition format
+   */
+  static String escape(String value) {
+    if (value == null) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String labels(ConnectionMetrics metrics) {
+    return "account=\"" + escape(metrics.getAccount()) + "\",merchant=\"" + escape(metrics.getMerchant()) + "\"";
+  }
+
+  private static final class Group {
+    final String labels;
+    final List<ConnectionMetrics> connections = new ArrayList<>();
+    final List<Counters> counters = new ArrayList<>();
+
+    Group(String labels) {
+      this.labels = labels;
+    }
+  }
+
+  /**
+   * A weakly held connection with strong references to its labels and counters, which outlive it
+   */
+  private static final class Registration extends WeakReference<ConnectionMetrics> {
+    final String labels;
+    final Counters counters;
+
+    Registration(ConnectionMetrics metrics, ReferenceQueue<ConnectionMetrics> queue) {
+      super(metrics, queue);
+      this.labels = labels(metrics);
+      this.counters = metrics.counters;
+    }
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * Payment API metrics in Prometheus text exposition format
+ */
+package io.paymenthighway.metrics;
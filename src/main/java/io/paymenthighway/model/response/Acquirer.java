@@ -1,10 +1,15 @@
 package io.paymenthighway.model.response;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
+
 /**
  * Acquirer POJO
  */
 public class Acquirer {
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String id;
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String name;
 
   public Acquirer() {
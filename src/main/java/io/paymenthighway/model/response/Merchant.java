@@ -1,14 +1,19 @@
 package io.paymenthighway.model.response;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
 
 /**
  * Merchant POJO
  */
 public class Merchant {
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String id;
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String name;
   @JsonProperty("acquirer_merchant_id")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerMerchantId;
 
   public Merchant() {
@@ -1,6 +1,8 @@
 package io.paymenthighway.model.response;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
 
 import java.util.UUID;
 
@@ -26,6 +28,7 @@ public class ReconciliationSettlement {
   @JsonProperty("net_amount")
   String netAmount;
   @JsonProperty("currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String currency;
   ReconciliationTransaction[] transactions;
   @JsonProperty("main_acquirer_merchant_id")
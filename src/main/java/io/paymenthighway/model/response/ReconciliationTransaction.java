@@ -1,6 +1,8 @@
 package io.paymenthighway.model.response;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
 
 public class ReconciliationTransaction extends Transaction {
 
@@ -8,10 +10,12 @@ public class ReconciliationTransaction extends Transaction {
   @JsonProperty("acquirer_amount_presented")
   String acquirerAmountPresented;
   @JsonProperty("acquirer_amount_presented_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerAmountPresentedCurrency;
   @JsonProperty("acquirer_estimated_settlement_value")
   String acquirerEstimatedSettlementValue;
   @JsonProperty("acquirer_estimated_settlement_value_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerEstimatedSettlementValueCurrency;
   @JsonProperty("acquirer_exchange_rate")
   String acquirerExchangeRate;
@@ -20,10 +24,12 @@ public class ReconciliationTransaction extends Transaction {
   @JsonProperty("acquirer_transaction_fee")
   String acquirerTransactionFee;
   @JsonProperty("acquirer_transaction_fee_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerTransactionFeeCurrency;
   @JsonProperty("acquirer_commission")
   String acquirerCommission;
   @JsonProperty("acquirer_commission_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerCommissionCurrency;
 
   public Merchant getMerchant() {
@@ -1,8 +1,24 @@
 package io.paymenthighway.model.response;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.ResultDeserializer;
+
+/**
+ * Result POJO, immutable so that parsed responses can share instances
+ */
+@JsonDeserialize(using = ResultDeserializer.class)
 public class Result {
-  String code;
-  String message;
+  final String code;
+  final String message;
+
+  public Result() {
+    this(null, null);
+  }
+
+  public Result(String code, String message) {
+    this.code = code;
+    this.message = message;
+  }
 
   public String getCode() {
     return code;
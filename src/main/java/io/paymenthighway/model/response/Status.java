@@ -1,20 +1,23 @@
 package io.paymenthighway.model.response;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.StatusDeserializer;
+
 /**
- * Status POJO
+ * Status POJO, immutable so that parsed responses can share instances
  */
+@JsonDeserialize(using = StatusDeserializer.class)
 public class Status {
-  String state;
-  String code;
-  String message;
+  final String state;
+  final String code;
+  final String message;
 
   public Status() {
+    this(null, null, null);
   }
 
   public Status(String state, String code) {
-    this.state = state;
-    this.code = code;
-    this.message = null;
+    this(state, code, null);
   }
 
   public Status(String state, String code, String message) {
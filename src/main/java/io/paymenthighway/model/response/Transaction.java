@@ -1,6 +1,8 @@
 package io.paymenthighway.model.response;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
 
 public class Transaction {
 
@@ -9,12 +11,14 @@ public class Transaction {
   @JsonProperty("timestamp")
   String timestamp;
   @JsonProperty("type")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String type;
   @JsonProperty("partial_pan")
   String partialPan;
   @JsonProperty("amount")
   String amount;
   @JsonProperty("currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String currency;
   @JsonProperty("filing_code")
   String filingCode;
@@ -23,6 +27,7 @@ public class Transaction {
   @JsonProperty("status")
   Status status;
   @JsonProperty("cardholder_authentication")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String cardholderAuthentication;
   String order;
 
@@ -33,6 +33,7 @@ public class TransactionStatus {
   @JsonProperty("cardholder_authentication")
   String cardholderAuthentication;
   String order;
+  Boolean committed;
 
   public UUID getId() {
     return id;
@@ -101,4 +102,8 @@ public class TransactionStatus {
   public String getOrder() {
     return order;
   }
+
+  public Boolean getCommitted() {
+    return committed;
+  }
 }
@@ -1,6 +1,8 @@
 package io.paymenthighway.model.response;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import io.paymenthighway.json.PooledStringDeserializer;
 
 public class UnallocatedTransaction {
 
@@ -9,10 +11,12 @@ public class UnallocatedTransaction {
   @JsonProperty("acquirer_amount_presented")
   String acquirerAmountPresented;
   @JsonProperty("acquirer_amount_presented_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerAmountPresentedCurrency;
   @JsonProperty("acquirer_estimated_settlement_value")
   String acquirerEstimatedSettlementValue;
   @JsonProperty("acquirer_estimated_settlement_value_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerEstimatedSettlementValueCurrency;
   @JsonProperty("acquirer_exchange_rate")
   String acquirerExchangeRate;
@@ -21,10 +25,12 @@ public class UnallocatedTransaction {
   @JsonProperty("acquirer_transaction_fee")
   String acquirerTransactionFee;
   @JsonProperty("acquirer_transaction_fee_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerTransactionFeeCurrency;
   @JsonProperty("acquirer_commission")
   String acquirerCommission;
   @JsonProperty("acquirer_commission_currency")
+  @JsonDeserialize(using = PooledStringDeserializer.class)
   String acquirerCommissionCurrency;
   @JsonProperty("partial_pan")
   String partialPan;
@@ -0,0 +1,81 @@
+package io.paymenthighway.reconciliation;
+
+/**
+ * Count, sum, minimum and maximum of the amounts of one group, in minor units. Sums are exact: a sum that does not
+ * fit a long fails the aggregation with an ArithmeticException rather than wrapping.
+ */
+public final class AmountAggregate {
+
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+  private long unparsed;
+
+  AmountAggregate() {
+  }
+
+  void add(long amount) {
+    count++;
+    sum = Math.addExact(sum, amount);
+    if (amount < min) {
+      min = amount;
+    }
+    if (amount > max) {
+      max = amount;
+    }
+  }
+
+  void addUnparsed() {
+    unparsed++;
+  }
+
+  void merge(AmountAggregate other) {
+    count += other.count;
+    sum = Math.addExact(sum, other.sum);
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    unparsed += other.unparsed;
+  }
+
+  /**
+   * @return long the number of amounts in the group
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return long the sum of the amounts in minor units
+   */
+  public long getSum() {
+    return sum;
+  }
+
+  /**
+   * @return long the smallest amount, or ColumnarReport.NO_VALUE if the group has no amounts
+   */
+  public long getMin() {
+    return count > 0 ? min : ColumnarReport.NO_VALUE;
+  }
+
+  /**
+   * @return long the largest amount, or ColumnarReport.NO_VALUE if the group has no amounts
+   */
+  public long getMax() {
+    return count > 0 ? max : ColumnarReport.NO_VALUE;
+  }
+
+  /**
+   * @return long the number of rows in the group whose amount was missing or not an integer
+   */
+  public long getUnparsed() {
+    return unparsed;
+  }
+
+  @Override
+  public String toString() {
+    return "count " + count + ", sum " + sum + ", min " + getMin() + ", max " + getMax()
+        + (unparsed > 0 ? ", unparsed " + unparsed : "");
+  }
+}
@@ -0,0 +1,1130 @@
+package io.paymenthighway.reconciliation;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.paymenthighway.model.response.CommissionSettlement;
+import io.paymenthighway.model.response.UnallocatedTransaction;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A reconciliation report held in columns instead of a ReconciliationTransaction per row: amounts as long minor
+ * units, timestamps as epoch seconds, transaction ids as two longs, and currencies, types, states, merchants and
+ * acquirers as codes into per-report dictionaries. It is read straight from the report JSON without building the
+ * response objects and takes a fraction of their heap, so that months of reports can be kept and scanned.
+ *
+ * Rows are the settled transactions in report order and settlements are numbered in report order. Unallocated
+ * transactions and commission settlements are few and kept as objects. Amounts and timestamps that are missing or
+ * cannot be read are NO_VALUE, rates NaN, status codes -1 and everything else null.
+ */
+public final class ColumnarReport {
+
+  public static final long NO_VALUE = Long.MIN_VALUE;
+
+  private static final int ANY = Integer.MIN_VALUE;
+  private static final int INITIAL_CAPACITY = 256;
+  private static final JsonFactory FACTORY = createFactory();
+
+  /**
+   * Columns rows can be grouped by
+   */
+  public enum Dimension {
+    TYPE, CURRENCY, STATE, MERCHANT, ACQUIRER, CARDHOLDER_AUTHENTICATION
+  }
+
+  /**
+   * Amount columns that can be summed. Each acquirer amount has its own currency column.
+   */
+  public enum Measure {
+    AMOUNT, ACQUIRER_AMOUNT_PRESENTED, ACQUIRER_ESTIMATED_SETTLEMENT_VALUE, ACQUIRER_TRANSACTION_FEE,
+    ACQUIRER_COMMISSION
+  }
+
+  private final Dictionary currencies = new Dictionary();
+  private final Dictionary types = new Dictionary();
+  private final Dictionary states = new Dictionary();
+  private final Dictionary merchants = new Dictionary();
+  private final Dictionary acquirers = new Dictionary();
+  private final Dictionary authentications = new Dictionary();
+
+  private String resultCode;
+  private String resultMessage;
+  private final List<UnallocatedTransaction> unallocatedTransactions = new ArrayList<>();
+  private List<CommissionSettlement> commissionSettlements = Collections.emptyList();
+
+  private int settlementCount;
+  private String[] settlementAcquirerBatchId;
+  private String[] settlementBatch;
+  private String[] settlementReference;
+  private String[] settlementMainAcquirerMerchantId;
+  private long[] settlementDateProcessed;
+  private long[] settlementNetAmount;
+  private int[] settlementCurrency;
+  private int[] settlementAcquirer;
+  private int[] settlementState;
+  private int[] settlementStatusCode;
+
+  private int size;
+  private int[] settlement;
+  private long[] idMostSignificant;
+  private long[] idLeastSignificant;
+  private long[] timestamp;
+  private int[] type;
+  private long[] amount;
+  private int[] currency;
+  private int[] state;
+  private int[] statusCode;
+  private int[] cardholderAuthentication;
+  private int[] merchant;
+  private long[] acquirerAmountPresented;
+  private int[] acquirerAmountPresentedCurrency;
+  private long[] acquirerEstimatedSettlementValue;
+  private int[] acquirerEstimatedSettlementValueCurrency;
+  private double[] acquirerExchangeRate;
+  private double[] acquirerDiscountRate;
+  private long[] acquirerTransactionFee;
+  private int[] acquirerTransactionFeeCurrency;
+  private long[] acquirerCommission;
+  private int[] acquirerCommissionCurrency;
+  private final StringColumn partialPan = new StringColumn(INITIAL_CAPACITY);
+  private final StringColumn filingCode = new StringColumn(INITIAL_CAPACITY);
+  private final StringColumn authorizationCode = new StringColumn(INITIAL_CAPACITY);
+  private final StringColumn order = new StringColumn(INITIAL_CAPACITY);
+
+  private ColumnarReport() {
+    resizeSettlements(16);
+    resize(INITIAL_CAPACITY);
+  }
+
+  private static JsonFactory createFactory() {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return mapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+  }
+
+  /**
+   * @param json reconciliation report response
+   * @return ColumnarReport
+   * @throws IOException if the JSON is malformed or not a report
+   */
+  public static ColumnarReport parse(String json) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(json)) {
+      return read(parser);
+    }
+  }
+
+  /**
+   * @param stream reconciliation report response, read to the end of the report and not closed
+   * @return ColumnarReport
+   * @throws IOException if the stream cannot be read, or the JSON is malformed or not a report
+   */
+  public static ColumnarReport parse(InputStream stream) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(stream)) {
+      return read(parser);
+    }
+  }
+
+  private static ColumnarReport read(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Not a reconciliation report");
+    }
+    ColumnarReport report = new ColumnarReport();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (field.equals("result") && token == JsonToken.START_OBJECT) {
+        report.readResult(parser);
+      } else if (field.equals("settlements") && token == JsonToken.START_ARRAY) {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+            report.readSettlement(parser);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else if (field.equals("commission_settlements") && token == JsonToken.START_ARRAY) {
+        report.commissionSettlements = Collections.unmodifiableList(
+            Arrays.asList(parser.readValueAs(CommissionSettlement[].class)));
+      } else {
+        parser.skipChildren();
+      }
+    }
+    report.resizeSettlements(report.settlementCount);
+    report.resize(report.size);
+    report.partialPan.trim(report.size);
+    report.filingCode.trim(report.size);
+    report.authorizationCode.trim(report.size);
+    report.order.trim(report.size);
+    return report;
+  }
+
+  private void readResult(JsonParser parser) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("code")) {
+        resultCode = text(parser);
+      } else if (field.equals("message")) {
+        resultMessage = text(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readSettlement(JsonParser parser) throws IOException {
+    int index = settlementCount++;
+    if (index == settlementBatch.length) {
+      resizeSettlements(index * 2);
+    }
+    settlementDateProcessed[index] = NO_VALUE;
+    settlementNetAmount[index] = NO_VALUE;
+    settlementCurrency[index] = Dictionary.NULL;
+    settlementAcquirer[index] = Dictionary.NULL;
+    settlementState[index] = Dictionary.NULL;
+    settlementStatusCode[index] = -1;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      switch (field) {
+        case "acquirer_batch_id":
+          settlementAcquirerBatchId[index] = text(parser);
+          break;
+        case "status":
+          readStatus(parser, settlementState, settlementStatusCode, index);
+          break;
+        case "batch":
+          settlementBatch[index] = text(parser);
+          break;
+        case "date_processed":
+          settlementDateProcessed[index] = epochSeconds(parser);
+          break;
+        case "reference":
+          settlementReference[index] = text(parser);
+          break;
+        case "acquirer":
+          settlementAcquirer[index] = id(parser, acquirers);
+          break;
+        case "net_amount":
+          settlementNetAmount[index] = amount(parser);
+          break;
+        case "currency":
+          settlementCurrency[index] = code(parser, currencies);
+          break;
+        case "main_acquirer_merchant_id":
+          settlementMainAcquirerMerchantId[index] = text(parser);
+          break;
+        case "transactions":
+          if (token != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            break;
+          }
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+              readTransaction(parser, index);
+            } else {
+              parser.skipChildren();
+            }
+          }
+          break;
+        case "unallocated_transactions":
+          if (token == JsonToken.START_ARRAY) {
+            unallocatedTransactions.addAll(Arrays.asList(parser.readValueAs(UnallocatedTransaction[].class)));
+          }
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+  }
+
+  private void readTransaction(JsonParser parser, int settlementIndex) throws IOException {
+    int row = size++;
+    if (row == settlement.length) {
+      resize(row * 2);
+    }
+    settlement[row] = settlementIndex;
+    timestamp[row] = NO_VALUE;
+    type[row] = Dictionary.NULL;
+    amount[row] = NO_VALUE;
+    currency[row] = Dictionary.NULL;
+    state[row] = Dictionary.NULL;
+    statusCode[row] = -1;
+    cardholderAuthentication[row] = Dictionary.NULL;
+    merchant[row] = Dictionary.NULL;
+    acquirerAmountPresented[row] = NO_VALUE;
+    acquirerAmountPresentedCurrency[row] = Dictionary.NULL;
+    acquirerEstimatedSettlementValue[row] = NO_VALUE;
+    acquirerEstimatedSettlementValueCurrency[row] = Dictionary.NULL;
+    acquirerExchangeRate[row] = Double.NaN;
+    acquirerDiscountRate[row] = Double.NaN;
+    acquirerTransactionFee[row] = NO_VALUE;
+    acquirerTransactionFeeCurrency[row] = Dictionary.NULL;
+    acquirerCommission[row] = NO_VALUE;
+    acquirerCommissionCurrency[row] = Dictionary.NULL;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "id":
+          readId(parser, row);
+          break;
+        case "timestamp":
+          timestamp[row] = epochSeconds(parser);
+          break;
+        case "type":
+          type[row] = code(parser, types);
+          break;
+        case "partial_pan":
+          readString(parser, partialPan, row);
+          break;
+        case "amount":
+          amount[row] = amount(parser);
+          break;
+        case "currency":
+          currency[row] = code(parser, currencies);
+          break;
+        case "filing_code":
+          readString(parser, filingCode, row);
+          break;
+        case "authorization_code":
+          readString(parser, authorizationCode, row);
+          break;
+        case "status":
+          readStatus(parser, state, statusCode, row);
+          break;
+        case "cardholder_authentication":
+          cardholderAuthentication[row] = code(parser, authentications);
+          break;
+        case "order":
+          readString(parser, order, row);
+          break;
+        case "merchant":
+          merchant[row] = id(parser, merchants);
+          break;
+        case "acquirer_amount_presented":
+          acquirerAmountPresented[row] = amount(parser);
+          break;
+        case "acquirer_amount_presented_currency":
+          acquirerAmountPresentedCurrency[row] = code(parser, currencies);
+          break;
+        case "acquirer_estimated_settlement_value":
+          acquirerEstimatedSettlementValue[row] = amount(parser);
+          break;
+        case "acquirer_estimated_settlement_value_currency":
+          acquirerEstimatedSettlementValueCurrency[row] = code(parser, currencies);
+          break;
+        case "acquirer_exchange_rate":
+          acquirerExchangeRate[row] = rate(parser);
+          break;
+        case "acquirer_discount_rate":
+          acquirerDiscountRate[row] = rate(parser);
+          break;
+        case "acquirer_transaction_fee":
+          acquirerTransactionFee[row] = amount(parser);
+          break;
+        case "acquirer_transaction_fee_currency":
+          acquirerTransactionFeeCurrency[row] = code(parser, currencies);
+          break;
+        case "acquirer_commission":
+          acquirerCommission[row] = amount(parser);
+          break;
+        case "acquirer_commission_currency":
+          acquirerCommissionCurrency[row] = code(parser, currencies);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+  }
+
+  private void readStatus(JsonParser parser, int[] stateColumn, int[] codeColumn, int row) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("state")) {
+        stateColumn[row] = code(parser, states);
+      } else if (field.equals("code")) {
+        long code = amount(parser);
+        codeColumn[row] = code >= 0 && code <= Integer.MAX_VALUE ? (int) code : -1;
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readId(JsonParser parser, int row) throws IOException {
+    idMostSignificant[row] = 0;
+    idLeastSignificant[row] = 0;
+    if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+      return;
+    }
+    char[] chars = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    if (parser.getTextLength() == 36 && chars[offset + 8] == '-' && chars[offset + 13] == '-'
+        && chars[offset + 18] == '-' && chars[offset + 23] == '-') {
+      if (hexDigits(chars, offset)) {
+        idMostSignificant[row] = hex(chars, offset, 8) << 32 | hex(chars, offset + 9, 4) << 16
+            | hex(chars, offset + 14, 4);
+        idLeastSignificant[row] = hex(chars, offset + 19, 4) << 48 | hex(chars, offset + 24, 12);
+      }
+      return;
+    }
+    try {
+      UUID id = UUID.fromString(parser.getText());
+      idMostSignificant[row] = id.getMostSignificantBits();
+      idLeastSignificant[row] = id.getLeastSignificantBits();
+    } catch (IllegalArgumentException e) {
+      // Not an id, the row has none
+    }
+  }
+
+  private static long hex(char[] chars, int offset, int count) {
+    long value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      value = value << 4 | Character.digit(chars[i], 16);
+    }
+    return value;
+  }
+
+  /**
+   * @return boolean true if the 36 chars of a canonical id are hex digits or dashes
+   */
+  private static boolean hexDigits(char[] chars, int offset) {
+    for (int i = offset; i < offset + 36; i++) {
+      if (chars[i] != '-' && Character.digit(chars[i], 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void readString(JsonParser parser, StringColumn column, int row) throws IOException {
+    if (parser.getCurrentToken().isScalarValue() && parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+      column.set(row, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    } else {
+      parser.skipChildren();
+    }
+  }
+
+  private static String text(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token.isScalarValue()) {
+      return token == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+    parser.skipChildren();
+    return null;
+  }
+
+  private static int code(JsonParser parser, Dictionary dictionary) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+      return dictionary.encode(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+    parser.skipChildren();
+    return Dictionary.NULL;
+  }
+
+  /**
+   * @return int the code of the id field of a merchant or acquirer object
+   */
+  private static int id(JsonParser parser, Dictionary dictionary) throws IOException {
+    int id = Dictionary.NULL;
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return id;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if (field.equals("id")) {
+        id = code(parser, dictionary);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return id;
+  }
+
+  /**
+   * @return long an integer amount given as a number or a string, NO_VALUE if it is neither
+   */
+  private static long amount(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+      return parser.getLongValue();
+    }
+    if (token != JsonToken.VALUE_STRING) {
+      parser.skipChildren();
+      return NO_VALUE;
+    }
+    char[] chars = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    int end = offset + parser.getTextLength();
+    boolean negative = offset < end && chars[offset] == '-';
+    int i = negative ? offset + 1 : offset;
+    if (i == end) {
+      return NO_VALUE;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+        return NO_VALUE;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private static double rate(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+      return parser.getDoubleValue();
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      try {
+        return Double.parseDouble(parser.getText());
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      }
+    }
+    parser.skipChildren();
+    return Double.NaN;
+  }
+
+  private static long epochSeconds(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+      parser.skipChildren();
+      return NO_VALUE;
+    }
+    return epochSeconds(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+  }
+
+  /**
+   * Reads an ISO-8601 date, or a date and time with optional fraction and offset, UTC if none
+   *
+   * @return long seconds since the epoch, NO_VALUE if not a valid date or date and time
+   */
+  static long epochSeconds(char[] chars, int offset, int length) {
+    if (length < 10 || chars[offset + 4] != '-' || chars[offset + 7] != '-') {
+      return NO_VALUE;
+    }
+    int year = digits(chars, offset, 4);
+    int month = digits(chars, offset + 5, 2);
+    int day = digits(chars, offset + 8, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+      return NO_VALUE;
+    }
+    long seconds = epochDay(year, month, day) * 86400;
+    if (length == 10) {
+      return seconds;
+    }
+    if (length < 19 || (chars[offset + 10] != 'T' && chars[offset + 10] != ' ') || chars[offset + 13] != ':'
+        || chars[offset + 16] != ':') {
+      return NO_VALUE;
+    }
+    int hour = digits(chars, offset + 11, 2);
+    int minute = digits(chars, offset + 14, 2);
+    int second = digits(chars, offset + 17, 2);
+    if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return NO_VALUE;
+    }
+    seconds += hour * 3600 + minute * 60 + second;
+    int i = offset + 19;
+    int end = offset + length;
+    if (i < end && chars[i] == '.') {
+      do {
+        i++;
+      } while (i < end && chars[i] >= '0' && chars[i] <= '9');
+    }
+    if (i == end || (i + 1 == end && chars[i] == 'Z')) {
+      return seconds;
+    }
+    if ((chars[i] == '+' || chars[i] == '-') && (end - i == 6 && chars[i + 3] == ':' || end - i == 5)) {
+      int offsetHours = digits(chars, i + 1, 2);
+      int offsetMinutes = digits(chars, end - 2, 2);
+      if (offsetHours < 0 || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59) {
+        return NO_VALUE;
+      }
+      int zone = offsetHours * 3600 + offsetMinutes * 60;
+      return chars[i] == '+' ? seconds - zone : seconds + zone;
+    }
+    return NO_VALUE;
+  }
+
+  private static int digits(char[] chars, int offset, int count) {
+    int value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      int digit = chars[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static int lengthOfMonth(int year, int month) {
+    if (month == 2) {
+      return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * Days from 1970-01-01 in the proleptic Gregorian calendar
+   */
+  private static long epochDay(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private void resizeSettlements(int capacity) {
+    settlementAcquirerBatchId = copyOf(settlementAcquirerBatchId, capacity);
+    settlementBatch = copyOf(settlementBatch, capacity);
+    settlementReference = copyOf(settlementReference, capacity);
+    settlementMainAcquirerMerchantId = copyOf(settlementMainAcquirerMerchantId, capacity);
+    settlementDateProcessed = copyOf(settlementDateProcessed, capacity);
+    settlementNetAmount = copyOf(settlementNetAmount, capacity);
+    settlementCurrency = copyOf(settlementCurrency, capacity);
+    settlementAcquirer = copyOf(settlementAcquirer, capacity);
+    settlementState = copyOf(settlementState, capacity);
+    settlementStatusCode = copyOf(settlementStatusCode, capacity);
+  }
+
+  private void resize(int capacity) {
+    settlement = copyOf(settlement, capacity);
+    idMostSignificant = copyOf(idMostSignificant, capacity);
+    idLeastSignificant = copyOf(idLeastSignificant, capacity);
+    timestamp = copyOf(timestamp, capacity);
+    type = copyOf(type, capacity);
+    amount = copyOf(amount, capacity);
+    currency = copyOf(currency, capacity);
+    state = copyOf(state, capacity);
+    statusCode = copyOf(statusCode, capacity);
+    cardholderAuthentication = copyOf(cardholderAuthentication, capacity);
+    merchant = copyOf(merchant, capacity);
+    acquirerAmountPresented = copyOf(acquirerAmountPresented, capacity);
+    acquirerAmountPresentedCurrency = copyOf(acquirerAmountPresentedCurrency, capacity);
+    acquirerEstimatedSettlementValue = copyOf(acquirerEstimatedSettlementValue, capacity);
+    acquirerEstimatedSettlementValueCurrency = copyOf(acquirerEstimatedSettlementValueCurrency, capacity);
+    acquirerExchangeRate = copyOf(acquirerExchangeRate, capacity);
+    acquirerDiscountRate = copyOf(acquirerDiscountRate, capacity);
+    acquirerTransactionFee = copyOf(acquirerTransactionFee, capacity);
+    acquirerTransactionFeeCurrency = copyOf(acquirerTransactionFeeCurrency, capacity);
+    acquirerCommission = copyOf(acquirerCommission, capacity);
+    acquirerCommissionCurrency = copyOf(acquirerCommissionCurrency, capacity);
+  }
+
+  private static String[] copyOf(String[] column, int capacity) {
+    return column != null ? Arrays.copyOf(column, capacity) : new String[capacity];
+  }
+
+  private static long[] copyOf(long[] column, int capacity) {
+    return column != null ? Arrays.copyOf(column, capacity) : new long[capacity];
+  }
+
+  private static int[] copyOf(int[] column, int capacity) {
+    return column != null ? Arrays.copyOf(column, capacity) : new int[capacity];
+  }
+
+  private static double[] copyOf(double[] column, int capacity) {
+    return column != null ? Arrays.copyOf(column, capacity) : new double[capacity];
+  }
+
+  public String getResultCode() {
+    return resultCode;
+  }
+
+  public String getResultMessage() {
+    return resultMessage;
+  }
+
+  /**
+   * @return int number of transaction rows
+   */
+  public int size() {
+    return size;
+  }
+
+  public int getSettlementCount() {
+    return settlementCount;
+  }
+
+  public List<UnallocatedTransaction> getUnallocatedTransactions() {
+    return Collections.unmodifiableList(unallocatedTransactions);
+  }
+
+  public List<CommissionSettlement> getCommissionSettlements() {
+    return commissionSettlements;
+  }
+
+  /**
+   * @param row
+   * @return int the number of the row's settlement
+   */
+  public int getSettlement(int row) {
+    return settlement[checkRow(row)];
+  }
+
+  /**
+   * @param row
+   * @return UUID null if the row has no valid id
+   */
+  public UUID getTransactionId(int row) {
+    checkRow(row);
+    if (idMostSignificant[row] == 0 && idLeastSignificant[row] == 0) {
+      return null;
+    }
+    return new UUID(idMostSignificant[row], idLeastSignificant[row]);
+  }
+
+  /**
+   * @param row
+   * @return long seconds since the epoch
+   */
+  public long getTimestamp(int row) {
+    return timestamp[checkRow(row)];
+  }
+
+  public String getType(int row) {
+    return types.decode(type[checkRow(row)]);
+  }
+
+  public String getPartialPan(int row) {
+    return partialPan.get(checkRow(row));
+  }
+
+  /**
+   * @param row
+   * @return long amount in minor units
+   */
+  public long getAmount(int row) {
+    return amount[checkRow(row)];
+  }
+
+  public String getCurrency(int row) {
+    return currencies.decode(currency[checkRow(row)]);
+  }
+
+  public String getFilingCode(int row) {
+    return filingCode.get(checkRow(row));
+  }
+
+  public String getAuthorizationCode(int row) {
+    return authorizationCode.get(checkRow(row));
+  }
+
+  public String getState(int row) {
+    return states.decode(state[checkRow(row)]);
+  }
+
+  public int getStatusCode(int row) {
+    return statusCode[checkRow(row)];
+  }
+
+  public String getCardholderAuthentication(int row) {
+    return authentications.decode(cardholderAuthentication[checkRow(row)]);
+  }
+
+  public String getOrder(int row) {
+    return order.get(checkRow(row));
+  }
+
+  /**
+   * @param row
+   * @return String the merchant id
+   */
+  public String getMerchant(int row) {
+    return merchants.decode(merchant[checkRow(row)]);
+  }
+
+  public long getAcquirerAmountPresented(int row) {
+    return acquirerAmountPresented[checkRow(row)];
+  }
+
+  public String getAcquirerAmountPresentedCurrency(int row) {
+    return currencies.decode(acquirerAmountPresentedCurrency[checkRow(row)]);
+  }
+
+  public long getAcquirerEstimatedSettlementValue(int row) {
+    return acquirerEstimatedSettlementValue[checkRow(row)];
+  }
+
+  public String getAcquirerEstimatedSettlementValueCurrency(int row) {
+    return currencies.decode(acquirerEstimatedSettlementValueCurrency[checkRow(row)]);
+  }
+
+  public double getAcquirerExchangeRate(int row) {
+    return acquirerExchangeRate[checkRow(row)];
+  }
+
+  public double getAcquirerDiscountRate(int row) {
+    return acquirerDiscountRate[checkRow(row)];
+  }
+
+  public long getAcquirerTransactionFee(int row) {
+    return acquirerTransactionFee[checkRow(row)];
+  }
+
+  public String getAcquirerTransactionFeeCurrency(int row) {
+    return currencies.decode(acquirerTransactionFeeCurrency[checkRow(row)]);
+  }
+
+  public long getAcquirerCommission(int row) {
+    return acquirerCommission[checkRow(row)];
+  }
+
+  public String getAcquirerCommissionCurrency(int row) {
+    return currencies.decode(acquirerCommissionCurrency[checkRow(row)]);
+  }
+
+  public String getSettlementAcquirerBatchId(int settlement) {
+    return settlementAcquirerBatchId[checkSettlement(settlement)];
+  }
+
+  public String getSettlementBatch(int settlement) {
+    return settlementBatch[checkSettlement(settlement)];
+  }
+
+  public String getSettlementReference(int settlement) {
+    return settlementReference[checkSettlement(settlement)];
+  }
+
+  public String getSettlementMainAcquirerMerchantId(int settlement) {
+    return settlementMainAcquirerMerchantId[checkSettlement(settlement)];
+  }
+
+  /**
+   * @param settlement
+   * @return long seconds since the epoch
+   */
+  public long getSettlementDateProcessed(int settlement) {
+    return settlementDateProcessed[checkSettlement(settlement)];
+  }
+
+  public long getSettlementNetAmount(int settlement) {
+    return settlementNetAmount[checkSettlement(settlement)];
+  }
+
+  public String getSettlementCurrency(int settlement) {
+    return currencies.decode(settlementCurrency[checkSettlement(settlement)]);
+  }
+
+  /**
+   * @param settlement
+   * @return String the acquirer id
+   */
+  public String getSettlementAcquirer(int settlement) {
+    return acquirers.decode(settlementAcquirer[checkSettlement(settlement)]);
+  }
+
+  public String getSettlementState(int settlement) {
+    return states.decode(settlementState[checkSettlement(settlement)]);
+  }
+
+  public int getSettlementStatusCode(int settlement) {
+    return settlementStatusCode[checkSettlement(settlement)];
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+    }
+    return row;
+  }
+
+  private int checkSettlement(int index) {
+    if (index < 0 || index >= settlementCount) {
+      throw new IndexOutOfBoundsException("Settlement " + index + " of " + settlementCount);
+    }
+    return index;
+  }
+
+  /**
+   * @return Scan over all rows, narrowed by its filters
+   */
+  public Scan scan() {
+    return new Scan();
+  }
+
+  /**
+   * A filtered pass over the rows. Filters on dictionary columns compare codes, so a scan reads only primitive
+   * arrays; filters are combined with and.
+   */
+  public final class Scan {
+
+    private int typeCode = ANY;
+    private int currencyCode = ANY;
+    private int stateCode = ANY;
+    private int merchantCode = ANY;
+    private int acquirerCode = ANY;
+    private int settlementIndex = ANY;
+    private boolean timed;
+    private long from;
+    private long to;
+    private boolean bounded;
+    private long minAmount;
+    private long maxAmount;
+    private String filingCodeValue;
+    private String orderValue;
+
+    private Scan() {
+    }
+
+    public Scan type(String value) {
+      typeCode = types.find(value);
+      return this;
+    }
+
+    public Scan currency(String value) {
+      currencyCode = currencies.find(value);
+      return this;
+    }
+
+    public Scan state(String value) {
+      stateCode = states.find(value);
+      return this;
+    }
+
+    /**
+     * @param value merchant id
+     * @return Scan
+     */
+    public Scan merchant(String value) {
+      merchantCode = merchants.find(value);
+      return this;
+    }
+
+    /**
+     * @param value acquirer id of the row's settlement
+     * @return Scan
+     */
+    public Scan acquirer(String value) {
+      acquirerCode = acquirers.find(value);
+      return this;
+    }
+
+    /**
+     * @param value number of the settlement
+     * @return Scan
+     */
+    public Scan settlement(int value) {
+      settlementIndex = value;
+      return this;
+    }
+
+    /**
+     * @param fromInclusive seconds since the epoch
+     * @param toExclusive seconds since the epoch
+     * @return Scan rows with a timestamp in the range
+     */
+    public Scan between(long fromInclusive, long toExclusive) {
+      timed = true;
+      from = fromInclusive;
+      to = toExclusive;
+      return this;
+    }
+
+    /**
+     * @param min inclusive
+     * @param max inclusive
+     * @return Scan rows with an amount in the range
+     */
+    public Scan amountBetween(long min, long max) {
+      bounded = true;
+      minAmount = min;
+      maxAmount = max;
+      return this;
+    }
+
+    public Scan filingCode(String value) {
+      filingCodeValue = value;
+      return this;
+    }
+
+    public Scan order(String value) {
+      orderValue = value;
+      return this;
+    }
+
+    private boolean matches(int row) {
+      return (typeCode == ANY || type[row] == typeCode)
+          && (currencyCode == ANY || currency[row] == currencyCode)
+          && (stateCode == ANY || state[row] == stateCode)
+          && (merchantCode == ANY || merchant[row] == merchantCode)
+          && (settlementIndex == ANY || settlement[row] == settlementIndex)
+          && (acquirerCode == ANY || settlementAcquirer[settlement[row]] == acquirerCode)
+          && (!timed || timestamp[row] != NO_VALUE && timestamp[row] >= from && timestamp[row] < to)
+          && (!bounded || amount[row] != NO_VALUE && amount[row] >= minAmount && amount[row] <= maxAmount)
+          && (filingCodeValue == null || filingCode.matches(row, filingCodeValue))
+          && (orderValue == null || order.matches(row, orderValue));
+    }
+
+    /**
+     * @return int number of matching rows
+     */
+    public int count() {
+      int count = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(row)) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * @return int[] matching rows in report order
+     */
+    public int[] rows() {
+      int[] rows = new int[16];
+      int count = 0;
+      for (int row = 0; row < size; row++) {
+        if (matches(row)) {
+          if (count == rows.length) {
+            rows = Arrays.copyOf(rows, count * 2);
+          }
+          rows[count++] = row;
+        }
+      }
+      return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Sums a measure over the matching rows that have it. Amounts in different currencies are added together,
+     * so filter by currency or use sumBy.
+     *
+     * @param measure
+     * @return long sum in minor units
+     * @throws ArithmeticException if the sum overflows
+     */
+    public long sum(Measure measure) {
+      long[] values = column(measure);
+      long sum = 0;
+      for (int row = 0; row < size; row++) {
+        if (values[row] != NO_VALUE && matches(row)) {
+          sum = Math.addExact(sum, values[row]);
+        }
+      }
+      return sum;
+    }
+
+    /**
+     * @param dimension
+     * @return Map number of matching rows by value, null for rows without one
+     */
+    public Map<String, Long> countBy(Dimension dimension) {
+      long[] counts = new long[dictionary(dimension).size() + 1];
+      for (int row = 0; row < size; row++) {
+        if (matches(row)) {
+          counts[code(dimension, row) + 1]++;
+        }
+      }
+      return groups(dimension, counts, counts);
+    }
+
+    /**
+     * Sums a measure over the matching rows that have it, grouped by a dimension. CURRENCY groups by the
+     * transaction currency; acquirer amounts are summed in their own currencies.
+     *
+     * @param dimension
+     * @param measure
+     * @return Map sum in minor units by value, null for rows without one
+     * @throws ArithmeticException if a sum overflows
+     */
+    public Map<String, Long> sumBy(Dimension dimension, Measure measure) {
+      long[] values = column(measure);
+      long[] sums = new long[dictionary(dimension).size() + 1];
+      long[] counts = new long[sums.length];
+      for (int row = 0; row < size; row++) {
+        if (values[row] != NO_VALUE && matches(row)) {
+          int group = code(dimension, row) + 1;
+          sums[group] = Math.addExact(sums[group], values[row]);
+          counts[group]++;
+        }
+      }
+      return groups(dimension, sums, counts);
+    }
+
+    private Map<String, Long> groups(Dimension dimension, long[] values, long[] counts) {
+      Dictionary dictionary = dictionary(dimension);
+      Map<String, Long> groups = new LinkedHashMap<>();
+      for (int group = 0; group < values.length; group++) {
+        if (counts[group] > 0) {
+          groups.put(dictionary.decode(group - 1), values[group]);
+        }
+      }
+      return groups;
+    }
+  }
+
+  private long[] column(Measure measure) {
+    switch (measure) {
+      case ACQUIRER_AMOUNT_PRESENTED:
+        return acquirerAmountPresented;
+      case ACQUIRER_ESTIMATED_SETTLEMENT_VALUE:
+        return acquirerEstimatedSettlementValue;
+      case ACQUIRER_TRANSACTION_FEE:
+        return acquirerTransactionFee;
+      case ACQUIRER_COMMISSION:
+        return acquirerCommission;
+      default:
+        return amount;
+    }
+  }
+
+  private Dictionary dictionary(Dimension dimension) {
+    switch (dimension) {
+      case TYPE:
+        return types;
+      case CURRENCY:
+        return currencies;
+      case STATE:
+        return states;
+      case MERCHANT:
+        return merchants;
+      case ACQUIRER:
+        return acquirers;
+      default:
+        return authentications;
+    }
+  }
+
+  private int code(Dimension dimension, int row) {
+    switch (dimension) {
+      case TYPE:
+        return type[row];
+      case CURRENCY:
+        return currency[row];
+      case STATE:
+        return state[row];
+      case MERCHANT:
+        return merchant[row];
+      case ACQUIRER:
+        return settlementAcquirer[settlement[row]];
+      default:
+        return cardholderAuthentication[row];
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package io.paymenthighway.reconciliation;
+
+import java.util.Arrays;
+
+/**
+ * Distinct values of a low-cardinality column, each stored once and referred to by its code. Codes are assigned in
+ * the order values are first seen; null has the code -1. Values are looked up from the parser's character buffer,
+ * so a value already seen does not allocate.
+ */
+final class Dictionary {
+
+  static final int NULL = -1;
+
+  private String[] values = new String[8];
+  private int[] hashes = new int[8];
+  private int size;
+  private int[] slots = new int[16];
+
+  /**
+   * @return int the code of the value, assigned if it has none yet
+   */
+  int encode(char[] chars, int offset, int length) {
+    int hash = hash(chars, offset, length);
+    int slot = slot(hash, chars, offset, length);
+    if (slots[slot] != 0) {
+      return slots[slot] - 1;
+    }
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+      hashes = Arrays.copyOf(hashes, size * 2);
+    }
+    values[size] = new String(chars, offset, length);
+    hashes[size] = hash;
+    slots[slot] = ++size;
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return size - 1;
+  }
+
+  /**
+   * @return int the code of the value, -2 if it has none, which matches no row
+   */
+  int find(String value) {
+    if (value == null) {
+      return NULL;
+    }
+    char[] chars = value.toCharArray();
+    int slot = slot(hash(chars, 0, chars.length), chars, 0, chars.length);
+    return slots[slot] != 0 ? slots[slot] - 1 : -2;
+  }
+
+  String decode(int code) {
+    return code == NULL ? null : values[code];
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return int the slot holding the value, or the empty slot where it belongs
+   */
+  private int slot(int hash, char[] chars, int offset, int length) {
+    int mask = slots.length - 1;
+    for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+      int code = slots[slot] - 1;
+      if (code < 0 || (hashes[code] == hash && equal(values[code], chars, offset, length))) {
+        return slot;
+      }
+    }
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int code = 0; code < size; code++) {
+      int slot = hashes[code] & mask;
+      while (slots[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = code + 1;
+    }
+  }
+
+  private static int hash(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    return hash ^ hash >>> 16;
+  }
+
+  private static boolean equal(String value, char[] chars, int offset, int length) {
+    if (value.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
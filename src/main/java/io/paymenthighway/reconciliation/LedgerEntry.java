@@ -0,0 +1,43 @@
+package io.paymenthighway.reconciliation;
+
+import java.util.UUID;
+
+/**
+ * A transaction as recorded in the merchant's own ledger
+ */
+public final class LedgerEntry {
+
+  private final UUID transactionId;
+  private final long amount;
+  private final String currency;
+
+  /**
+   * Constructor
+   *
+   * @param transactionId Payment Highway transaction id
+   * @param amount in minor units, as in the reconciliation report
+   * @param currency
+   */
+  public LedgerEntry(UUID transactionId, long amount, String currency) {
+    this.transactionId = transactionId;
+    this.amount = amount;
+    this.currency = currency;
+  }
+
+  public UUID getTransactionId() {
+    return transactionId;
+  }
+
+  public long getAmount() {
+    return amount;
+  }
+
+  public String getCurrency() {
+    return currency;
+  }
+
+  @Override
+  public String toString() {
+    return "ledger " + transactionId + " " + amount + " " + currency;
+  }
+}
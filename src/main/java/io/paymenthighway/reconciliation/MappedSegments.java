@@ -0,0 +1,124 @@
+package io.paymenthighway.reconciliation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A file mapped as a small header followed by fixed-size segments, so that it can grow beyond the 2 GB one mapping
+ * can address. Callers place their items so that none straddles two segments.
+ *
+ * Reads go through absolute gets on the mappings and may run concurrently with an append; growing the mapping is
+ * synchronized and publishes the new segment array.
+ */
+final class MappedSegments implements Closeable {
+
+  static final int HEADER_SIZE = 64;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final int segmentSize;
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+  /**
+   * Opens or creates the file, mapping the segments it already has
+   *
+   * @param file
+   * @param segmentSize bytes per segment
+   * @throws IOException
+   */
+  MappedSegments(File file, int segmentSize) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    this.channel = this.file.getChannel();
+    this.segmentSize = segmentSize;
+    this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    long existing = Math.max(this.file.length() - HEADER_SIZE, 0);
+    ensure(existing);
+  }
+
+  MappedByteBuffer header() {
+    return header;
+  }
+
+  int segmentSize() {
+    return segmentSize;
+  }
+
+  /**
+   * @return long bytes mapped after the header
+   */
+  long capacity() {
+    return (long) segments.length * segmentSize;
+  }
+
+  /**
+   * @param position bytes after the header, within the mapped capacity
+   * @return MappedByteBuffer the segment holding the position
+   */
+  MappedByteBuffer segment(long position) {
+    return segments[(int) (position / segmentSize)];
+  }
+
+  /**
+   * @param position bytes after the header
+   * @return int the position within its segment
+   */
+  int offset(long position) {
+    return (int) (position % segmentSize);
+  }
+
+  /**
+   * Maps segments, growing the file, until the given number of bytes after the header is mapped
+   *
+   * @param size
+   * @throws IOException
+   */
+  synchronized void ensure(long size) throws IOException {
+    MappedByteBuffer[] mapped = segments;
+    if ((long) mapped.length * segmentSize >= size) {
+      return;
+    }
+    int count = (int) ((size + segmentSize - 1) / segmentSize);
+    MappedByteBuffer[] grown = Arrays.copyOf(mapped, count);
+    for (int i = mapped.length; i < count; i++) {
+      grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) i * segmentSize, segmentSize);
+    }
+    segments = grown;
+  }
+
+  /**
+   * Zeroes every mapped segment
+   */
+  synchronized void clear() {
+    for (MappedByteBuffer segment : segments) {
+      for (int i = 0; i + 8 <= segmentSize; i += 8) {
+        segment.putLong(i, 0);
+      }
+      for (int i = segmentSize & ~7; i < segmentSize; i++) {
+        segment.put(i, (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Forces the segments, then the header, to disk
+   */
+  void force() {
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+    header.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+    file.close();
+  }
+}
@@ -0,0 +1,182 @@
+package io.paymenthighway.reconciliation;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Append-only record of the reconciliation reports a ReconciliationSync has ingested, per account and merchant: the
+ * last date whose report was fully ingested, and the acquirer batch id and reference of every settlement handed to
+ * the sink. One file can be shared by the syncs of several merchants.
+ *
+ * Each line is "date" or "settlement" followed by the url-encoded account, merchant and value. Lines are written
+ * with a single write, and the file is forced to disk when a date is recorded and on close; a line cut short by a
+ * crash is dropped when the file is opened.
+ */
+public class ReconciliationCheckpoint implements Closeable {
+
+  private static final String DATE = "date";
+  private static final String SETTLEMENT = "settlement";
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final Map<String, LocalDate> lastDates = new HashMap<>();
+  private final Map<String, Set<String>> settlements = new HashMap<>();
+
+  /**
+   * Opens or creates a checkpoint file
+   *
+   * @param file
+   * @throws IOException
+   */
+  public ReconciliationCheckpoint(File file) throws IOException {
+    long validLength = file.exists() ? load(file) : 0;
+    this.file = new RandomAccessFile(file, "rw");
+    this.file.setLength(validLength);
+    this.channel = this.file.getChannel();
+    this.channel.position(validLength);
+  }
+
+  /**
+   * @return long the length of the file up to the end of the last complete line
+   */
+  private long load(File source) throws IOException {
+    long validLength = 0;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = reader.read()) != -1) {
+        if (c != '\n') {
+          line.append((char) c);
+          continue;
+        }
+        String[] fields = line.toString().split(" ");
+        if (fields.length != 4) {
+          break;
+        }
+        try {
+          String key = key(URLDecoder.decode(fields[1], "UTF-8"), URLDecoder.decode(fields[2], "UTF-8"));
+          String value = URLDecoder.decode(fields[3], "UTF-8");
+          if (fields[0].equals(DATE)) {
+            putDate(key, LocalDate.parse(value, DateTimeFormatter.BASIC_ISO_DATE));
+          } else if (fields[0].equals(SETTLEMENT)) {
+            putSettlement(key, value);
+          } else {
+            break;
+          }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+          break;
+        }
+        validLength += line.toString().getBytes(StandardCharsets.UTF_8).length + 1;
+        line.setLength(0);
+      }
+    }
+    return validLength;
+  }
+
+  private static String key(String account, String merchant) {
+    return account + "\n" + merchant;
+  }
+
+  private void putDate(String key, LocalDate date) {
+    LocalDate last = lastDates.get(key);
+    if (last == null || date.isAfter(last)) {
+      lastDates.put(key, date);
+    }
+  }
+
+  private void putSettlement(String key, String settlement) {
+    Set<String> keys = settlements.get(key);
+    if (keys == null) {
+      keys = new HashSet<>();
+      settlements.put(key, keys);
+    }
+    keys.add(settlement);
+  }
+
+  /**
+   * @param account
+   * @param merchant
+   * @return LocalDate the last date whose report was fully ingested, null if none
+   */
+  public synchronized LocalDate getLastDate(String account, String merchant) {
+    return lastDates.get(key(account, merchant));
+  }
+
+  /**
+   * @param account
+   * @param merchant
+   * @param settlement the key of a settlement, see ReconciliationSync.settlementKey
+   * @return boolean true if the settlement has been handed to the sink
+   */
+  public synchronized boolean containsSettlement(String account, String merchant, String settlement) {
+    Set<String> keys = settlements.get(key(account, merchant));
+    return keys != null && keys.contains(settlement);
+  }
+
+  /**
+   * Records a settlement as handed to the sink
+   *
+   * @param account
+   * @param merchant
+   * @param settlement
+   * @throws IOException
+   */
+  public synchronized void recordSettlement(String account, String merchant, String settlement) throws IOException {
+    write(SETTLEMENT, account, merchant, settlement);
+    putSettlement(key(account, merchant), settlement);
+  }
+
+  /**
+   * Records the report of a date as fully ingested and forces the file to disk
+   *
+   * @param account
+   * @param merchant
+   * @param date
+   * @throws IOException
+   */
+  public synchronized void recordDate(String account, String merchant, LocalDate date) throws IOException {
+    write(DATE, account, merchant, DateTimeFormatter.BASIC_ISO_DATE.format(date));
+    channel.force(false);
+    putDate(key(account, merchant), date);
+  }
+
+  private void write(String kind, String account, String merchant, String value) throws IOException {
+    ByteBuffer line = ByteBuffer.wrap((kind + " " + encode(account) + " " + encode(merchant) + " " + encode(value)
+        + "\n").getBytes(StandardCharsets.UTF_8));
+    while (line.hasRemaining()) {
+      channel.write(line);
+    }
+  }
+
+  private static String encode(String value) throws UnsupportedEncodingException {
+    return URLEncoder.encode(value, "UTF-8");
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      channel.force(false);
+    } finally {
+      file.close();
+    }
+  }
+}
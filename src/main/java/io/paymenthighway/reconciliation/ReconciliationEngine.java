@@ -0,0 +1,371 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.UnallocatedTransaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Matches the transactions of a reconciliation report against the merchant's ledger by transaction id, amount and
+ * currency.
+ *
+ * Both sides are hashed by transaction id into partitions, so that each partition can be matched on its own: a
+ * fork/join task builds an open addressing table of the partition's ledger entries and probes it with the
+ * partition's report transactions. A transaction id may appear several times on either side, e.g. a debit and a
+ * refund; each report transaction takes the first unused ledger entry with the same amount and currency, or else
+ * the first unused one as an amount mismatch.
+ *
+ * The buckets of the result keep the report and ledger order within a partition, not across partitions.
+ *
+ * <pre>
+ * ReconciliationResult result = new ReconciliationEngine().reconcile(report, ledger.stream());
+ * </pre>
+ */
+public class ReconciliationEngine {
+
+  private static final int NONE = -1;
+
+  private final ForkJoinPool pool;
+  private final int partitions;
+
+  /**
+   * Constructor that uses the common fork/join pool
+   */
+  public ReconciliationEngine() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pool runs the matching tasks
+   */
+  public ReconciliationEngine(ForkJoinPool pool) {
+    this.pool = pool;
+    this.partitions = Integer.highestOneBit(Math.max(pool.getParallelism(), 1) * 8 - 1) << 1;
+  }
+
+  /**
+   * @param report
+   * @param ledger
+   * @return ReconciliationResult
+   */
+  public ReconciliationResult reconcile(ReconciliationReportResponse report, Stream<LedgerEntry> ledger) {
+    Input input = new Input(report, ledger.toArray(LedgerEntry[]::new), partitions);
+    pool.invoke(new HashTask(input, 0, Math.max(input.remote.length, input.local.length)));
+    input.sortByPartition();
+
+    Buckets[] buckets = new Buckets[partitions];
+    pool.invoke(new MatchTask(input, buckets, 0, partitions));
+
+    int matched = 0;
+    int mismatched = 0;
+    int missingLocally = input.invalidIds.size();
+    int missingRemotely = 0;
+    for (Buckets partition : buckets) {
+      matched += partition.matched.size();
+      mismatched += partition.amountMismatches.size();
+      missingLocally += partition.missingLocally.size();
+      missingRemotely += partition.missingRemotely.size();
+    }
+    List<ReconciliationMatch> allMatched = new ArrayList<>(matched);
+    List<ReconciliationMatch> allMismatched = new ArrayList<>(mismatched);
+    List<ReconciliationTransaction> allMissingLocally = new ArrayList<>(missingLocally);
+    List<LedgerEntry> allMissingRemotely = new ArrayList<>(missingRemotely);
+    allMissingLocally.addAll(input.invalidIds);
+    for (Buckets partition : buckets) {
+      allMatched.addAll(partition.matched);
+      allMismatched.addAll(partition.amountMismatches);
+      allMissingLocally.addAll(partition.missingLocally);
+      allMissingRemotely.addAll(partition.missingRemotely);
+    }
+    return new ReconciliationResult(allMatched, allMismatched, allMissingLocally, allMissingRemotely,
+        input.unallocated);
+  }
+
+  private static long mix(long msb, long lsb) {
+    long h = msb ^ lsb;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static long parseAmount(String amount) {
+    try {
+      return amount != null ? Long.parseLong(amount) : Long.MIN_VALUE;
+    } catch (NumberFormatException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  /**
+   * Both sides flattened into arrays, with the transaction id hash of each row and, after sorting, the row indices
+   * grouped by partition
+   */
+  private static final class Input {
+
+    final int partitions;
+    final int shift;
+    final LedgerEntry[] local;
+    final ReconciliationTransaction[] remote;
+    final ReconciliationSettlement[] remoteSettlement;
+    final UUID[] remoteIds;
+    final long[] remoteHashes;
+    final long[] localHashes;
+    final List<UnallocatedTransaction> unallocated = new ArrayList<>();
+    final List<ReconciliationTransaction> invalidIds = Collections.synchronizedList(
+        new ArrayList<ReconciliationTransaction>());
+
+    int[] remoteOrder;
+    int[] remoteStart;
+    int[] localOrder;
+    int[] localStart;
+
+    Input(ReconciliationReportResponse report, LedgerEntry[] local, int partitions) {
+      this.partitions = partitions;
+      this.shift = 64 - Integer.numberOfTrailingZeros(partitions);
+      this.local = local;
+      List<ReconciliationTransaction> transactions = new ArrayList<>();
+      List<ReconciliationSettlement> settlements = new ArrayList<>();
+      if (report != null && report.getReconciliationSettlements() != null) {
+        for (ReconciliationSettlement settlement : report.getReconciliationSettlements()) {
+          if (settlement.getTransactions() != null) {
+            for (ReconciliationTransaction transaction : settlement.getTransactions()) {
+              transactions.add(transaction);
+              settlements.add(settlement);
+            }
+          }
+          if (settlement.getUnallocatedTransactions() != null) {
+            unallocated.addAll(Arrays.asList(settlement.getUnallocatedTransactions()));
+          }
+        }
+      }
+      this.remote = transactions.toArray(new ReconciliationTransaction[transactions.size()]);
+      this.remoteSettlement = settlements.toArray(new ReconciliationSettlement[settlements.size()]);
+      this.remoteIds = new UUID[remote.length];
+      this.remoteHashes = new long[remote.length];
+      this.localHashes = new long[local.length];
+    }
+
+    int partitionOf(long hash) {
+      return partitions == 1 ? 0 : (int) (hash >>> shift);
+    }
+
+    void hash(int from, int to) {
+      for (int i = from; i < Math.min(to, remote.length); i++) {
+        try {
+          UUID id = UUID.fromString(remote[i].getId());
+          remoteIds[i] = id;
+          remoteHashes[i] = mix(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        } catch (RuntimeException e) {
+          invalidIds.add(remote[i]);
+        }
+      }
+      for (int i = from; i < Math.min(to, local.length); i++) {
+        UUID id = local[i].getTransactionId();
+        localHashes[i] = mix(id.getMostSignificantBits(), id.getLeastSignificantBits());
+      }
+    }
+
+    /**
+     * Counting sort of the row indices by partition, stable so that each partition keeps the input order
+     */
+    void sortByPartition() {
+      remoteStart = new int[partitions + 1];
+      localStart = new int[partitions + 1];
+      for (int i = 0; i < remote.length; i++) {
+        if (remoteIds[i] != null) {
+          remoteStart[partitionOf(remoteHashes[i]) + 1]++;
+        }
+      }
+      for (int i = 0; i < local.length; i++) {
+        localStart[partitionOf(localHashes[i]) + 1]++;
+      }
+      for (int p = 0; p < partitions; p++) {
+        remoteStart[p + 1] += remoteStart[p];
+        localStart[p + 1] += localStart[p];
+      }
+      remoteOrder = new int[remoteStart[partitions]];
+      localOrder = new int[local.length];
+      int[] next = Arrays.copyOf(remoteStart, partitions);
+      for (int i = 0; i < remote.length; i++) {
+        if (remoteIds[i] != null) {
+          remoteOrder[next[partitionOf(remoteHashes[i])]++] = i;
+        }
+      }
+      next = Arrays.copyOf(localStart, partitions);
+      for (int i = 0; i < local.length; i++) {
+        localOrder[next[partitionOf(localHashes[i])]++] = i;
+      }
+    }
+  }
+
+  private static final class Buckets {
+    final List<ReconciliationMatch> matched = new ArrayList<>();
+    final List<ReconciliationMatch> amountMismatches = new ArrayList<>();
+    final List<ReconciliationTransaction> missingLocally = new ArrayList<>();
+    final List<LedgerEntry> missingRemotely = new ArrayList<>();
+  }
+
+  /**
+   * Parses and hashes the transaction ids of a range of rows
+   */
+  private static final class HashTask extends RecursiveAction {
+
+    private static final int THRESHOLD = 8192;
+
+    private final Input input;
+    private final int from;
+    private final int to;
+
+    HashTask(Input input, int from, int to) {
+      this.input = input;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        input.hash(from, to);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new HashTask(input, from, middle), new HashTask(input, middle, to));
+    }
+  }
+
+  /**
+   * Matches a range of partitions
+   */
+  private static final class MatchTask extends RecursiveAction {
+
+    private final Input input;
+    private final Buckets[] buckets;
+    private final int from;
+    private final int to;
+
+    MatchTask(Input input, Buckets[] buckets, int from, int to) {
+      this.input = input;
+      this.buckets = buckets;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        buckets[from] = match(from);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new MatchTask(input, buckets, from, middle), new MatchTask(input, buckets, middle, to));
+    }
+
+    private Buckets match(int partition) {
+      Buckets result = new Buckets();
+      int localFrom = input.localStart[partition];
+      int localTo = input.localStart[partition + 1];
+      int count = localTo - localFrom;
+
+      // Open addressing table of the first ledger entry of each id, later entries of the id chained behind it
+      int[] table = new int[Math.max(2, Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1)];
+      Arrays.fill(table, NONE);
+      int[] nextSameId = new int[count];
+      boolean[] used = new boolean[count];
+      int mask = table.length - 1;
+      for (int k = 0; k < count; k++) {
+        LedgerEntry entry = input.local[input.localOrder[localFrom + k]];
+        int slot = (int) input.localHashes[input.localOrder[localFrom + k]] & mask;
+        while (true) {
+          int head = table[slot];
+          if (head == NONE) {
+            table[slot] = k;
+            nextSameId[k] = NONE;
+            break;
+          }
+          if (input.local[input.localOrder[localFrom + head]].getTransactionId().equals(entry.getTransactionId())) {
+            int tail = head;
+            while (nextSameId[tail] != NONE) {
+              tail = nextSameId[tail];
+            }
+            nextSameId[tail] = k;
+            nextSameId[k] = NONE;
+            break;
+          }
+          slot = (slot + 1) & mask;
+        }
+      }
+
+      // Exact amounts are paired over all rows of an id first, so that a row with a mismatched amount cannot take
+      // the ledger entry of a later row that matches it exactly
+      int from = input.remoteStart[partition];
+      int rows = input.remoteStart[partition + 1] - from;
+      int[] heads = new int[rows];
+      boolean[] paired = new boolean[rows];
+      for (int i = 0; i < rows; i++) {
+        int row = input.remoteOrder[from + i];
+        ReconciliationTransaction transaction = input.remote[row];
+        UUID id = input.remoteIds[row];
+        int head = NONE;
+        for (int slot = (int) input.remoteHashes[row] & mask; table[slot] != NONE; slot = (slot + 1) & mask) {
+          if (input.local[input.localOrder[localFrom + table[slot]]].getTransactionId().equals(id)) {
+            head = table[slot];
+            break;
+          }
+        }
+        heads[i] = head;
+        long amount = parseAmount(transaction.getAmount());
+        for (int k = head; k != NONE; k = nextSameId[k]) {
+          LedgerEntry entry = input.local[input.localOrder[localFrom + k]];
+          if (!used[k] && entry.getAmount() == amount && entry.getCurrency() != null
+              && entry.getCurrency().equals(transaction.getCurrency())) {
+            used[k] = true;
+            paired[i] = true;
+            result.matched.add(new ReconciliationMatch(entry, transaction, input.remoteSettlement[row]));
+            break;
+          }
+        }
+      }
+
+      for (int i = 0; i < rows; i++) {
+        if (paired[i]) {
+          continue;
+        }
+        int row = input.remoteOrder[from + i];
+        ReconciliationTransaction transaction = input.remote[row];
+        int firstUnused = NONE;
+        for (int k = heads[i]; k != NONE; k = nextSameId[k]) {
+          if (!used[k]) {
+            firstUnused = k;
+            break;
+          }
+        }
+        if (firstUnused != NONE) {
+          used[firstUnused] = true;
+          result.amountMismatches.add(new ReconciliationMatch(input.local[input.localOrder[localFrom + firstUnused]],
+              transaction, input.remoteSettlement[row]));
+        } else {
+          result.missingLocally.add(transaction);
+        }
+      }
+
+      for (int k = 0; k < count; k++) {
+        if (!used[k]) {
+          result.missingRemotely.add(input.local[input.localOrder[localFrom + k]]);
+        }
+      }
+      return result;
+    }
+  }
+}
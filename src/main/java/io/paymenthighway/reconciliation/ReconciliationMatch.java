@@ -0,0 +1,40 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+
+/**
+ * A report transaction paired with a ledger entry of the same transaction id
+ */
+public final class ReconciliationMatch {
+
+  private final LedgerEntry ledgerEntry;
+  private final ReconciliationTransaction transaction;
+  private final ReconciliationSettlement settlement;
+
+  /**
+   * Constructor
+   *
+   * @param ledgerEntry
+   * @param transaction
+   * @param settlement the settlement the transaction was reported in
+   */
+  public ReconciliationMatch(LedgerEntry ledgerEntry, ReconciliationTransaction transaction,
+                             ReconciliationSettlement settlement) {
+    this.ledgerEntry = ledgerEntry;
+    this.transaction = transaction;
+    this.settlement = settlement;
+  }
+
+  public LedgerEntry getLedgerEntry() {
+    return ledgerEntry;
+  }
+
+  public ReconciliationTransaction getTransaction() {
+    return transaction;
+  }
+
+  public ReconciliationSettlement getSettlement() {
+    return settlement;
+  }
+}
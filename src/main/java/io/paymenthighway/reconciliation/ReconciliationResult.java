@@ -0,0 +1,88 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.UnallocatedTransaction;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of reconciling a report against a ledger, in buckets
+ */
+public final class ReconciliationResult {
+
+  private final List<ReconciliationMatch> matched;
+  private final List<ReconciliationMatch> amountMismatches;
+  private final List<ReconciliationTransaction> missingLocally;
+  private final List<LedgerEntry> missingRemotely;
+  private final List<UnallocatedTransaction> unallocated;
+
+  /**
+   * Constructor
+   *
+   * @param matched
+   * @param amountMismatches
+   * @param missingLocally
+   * @param missingRemotely
+   * @param unallocated
+   */
+  public ReconciliationResult(List<ReconciliationMatch> matched, List<ReconciliationMatch> amountMismatches,
+                              List<ReconciliationTransaction> missingLocally, List<LedgerEntry> missingRemotely,
+                              List<UnallocatedTransaction> unallocated) {
+    this.matched = Collections.unmodifiableList(matched);
+    this.amountMismatches = Collections.unmodifiableList(amountMismatches);
+    this.missingLocally = Collections.unmodifiableList(missingLocally);
+    this.missingRemotely = Collections.unmodifiableList(missingRemotely);
+    this.unallocated = Collections.unmodifiableList(unallocated);
+  }
+
+  /**
+   * @return List report transactions with a ledger entry of the same amount and currency
+   */
+  public List<ReconciliationMatch> getMatched() {
+    return matched;
+  }
+
+  /**
+   * @return List report transactions whose ledger entry has a different amount or currency
+   */
+  public List<ReconciliationMatch> getAmountMismatches() {
+    return amountMismatches;
+  }
+
+  /**
+   * @return List report transactions without a ledger entry
+   */
+  public List<ReconciliationTransaction> getMissingLocally() {
+    return missingLocally;
+  }
+
+  /**
+   * @return List ledger entries that are not in the report
+   */
+  public List<LedgerEntry> getMissingRemotely() {
+    return missingRemotely;
+  }
+
+  /**
+   * @return List settled transactions the acquirer could not allocate to a Payment Highway transaction
+   */
+  public List<UnallocatedTransaction> getUnallocated() {
+    return unallocated;
+  }
+
+  /**
+   * @return boolean true if every report transaction and ledger entry matched
+   */
+  public boolean isBalanced() {
+    return amountMismatches.isEmpty() && missingLocally.isEmpty() && missingRemotely.isEmpty()
+        && unallocated.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return matched.size() + " matched, " + amountMismatches.size() + " amount mismatches, "
+        + missingLocally.size() + " missing locally, " + missingRemotely.size() + " missing remotely, "
+        + unallocated.size() + " unallocated";
+  }
+}
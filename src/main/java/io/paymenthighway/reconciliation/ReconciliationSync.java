@@ -0,0 +1,114 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.Result;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Fetches the reconciliation reports of the days after the last one ingested and hands each settlement not seen
+ * before to a sink, so that a nightly job only transfers the new days.
+ *
+ * Progress is kept in a ReconciliationCheckpoint under the account and merchant of the PaymentAPI: a day is recorded
+ * once every settlement of its report has been handed over, and each settlement is recorded by its acquirer batch
+ * id and reference right after the sink accepts it. A sync interrupted in the middle of a day fetches that day again
+ * and skips the settlements already handed over. A crash between the sink returning and the settlement being
+ * recorded hands that one settlement over again, as does any settlement without a batch id or reference whose day
+ * is fetched again. Run one sync at a time per account and merchant.
+ *
+ * <pre>
+ * new ReconciliationSync(paymentApi, checkpoint, LocalDate.of(2016, 1, 1)).sync(sink);
+ * </pre>
+ */
+public class ReconciliationSync {
+
+  private static final String SUCCESS = "100";
+
+  private final PaymentAPI paymentApi;
+  private final ReconciliationCheckpoint checkpoint;
+  private final LocalDate firstDate;
+
+  /**
+   * Constructor
+   *
+   * @param paymentApi
+   * @param checkpoint
+   * @param firstDate the first date to fetch when the checkpoint has no date for the account and merchant
+   */
+  public ReconciliationSync(PaymentAPI paymentApi, ReconciliationCheckpoint checkpoint, LocalDate firstDate) {
+    this.paymentApi = paymentApi;
+    this.checkpoint = checkpoint;
+    this.firstDate = firstDate;
+  }
+
+  /**
+   * @param settlement
+   * @return String the acquirer batch id and reference the settlement is recognized by, null if it has neither
+   */
+  public static String settlementKey(ReconciliationSettlement settlement) {
+    if (settlement.getAcquirerBatchId() == null && settlement.getReference() == null) {
+      return null;
+    }
+    return settlement.getAcquirerBatchId() + "/" + settlement.getReference();
+  }
+
+  /**
+   * @return LocalDate the next date to fetch
+   */
+  public LocalDate getNextDate() {
+    LocalDate last = checkpoint.getLastDate(paymentApi.getAccount(), paymentApi.getMerchant());
+    return last != null ? last.plusDays(1) : firstDate;
+  }
+
+  /**
+   * Syncs up to yesterday in UTC, the latest report that is complete
+   *
+   * @param sink
+   * @return int the number of settlements handed to the sink
+   * @throws IOException if a report cannot be fetched or the sink fails; the days before it stay synced
+   */
+  public int sync(SettlementSink sink) throws IOException {
+    return sync(LocalDate.now(ZoneOffset.UTC).minusDays(1), sink);
+  }
+
+  /**
+   * @param lastDate the last date to fetch
+   * @param sink
+   * @return int the number of settlements handed to the sink
+   * @throws IOException if a report cannot be fetched or the sink fails; the days before it stay synced
+   */
+  public synchronized int sync(LocalDate lastDate, SettlementSink sink) throws IOException {
+    String account = paymentApi.getAccount();
+    String merchant = paymentApi.getMerchant();
+    int handed = 0;
+    for (LocalDate date = getNextDate(); !date.isAfter(lastDate); date = date.plusDays(1)) {
+      ReconciliationReportResponse report =
+          paymentApi.fetchReconciliationReport(DateTimeFormatter.BASIC_ISO_DATE.format(date));
+      Result result = report.getResult();
+      if (result == null || !SUCCESS.equals(result.getCode())) {
+        throw new IOException("Reconciliation report of " + date + " failed: "
+            + (result != null ? result.getCode() + " " + result.getMessage() : "no result"));
+      }
+      if (report.getReconciliationSettlements() != null) {
+        for (ReconciliationSettlement settlement : report.getReconciliationSettlements()) {
+          String key = settlement != null ? settlementKey(settlement) : null;
+          if (settlement == null || (key != null && checkpoint.containsSettlement(account, merchant, key))) {
+            continue;
+          }
+          sink.accept(date, settlement);
+          if (key != null) {
+            checkpoint.recordSettlement(account, merchant, key);
+          }
+          handed++;
+        }
+      }
+      checkpoint.recordDate(account, merchant, date);
+    }
+    return handed;
+  }
+}
@@ -0,0 +1,411 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.Acquirer;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Response;
+import io.paymenthighway.model.response.Settlement;
+import io.paymenthighway.model.response.Status;
+import io.paymenthighway.model.response.Transaction;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+/**
+ * Sums, counts and min/max of the amounts in daily and reconciliation reports, grouped by day, acquirer, currency,
+ * status, transaction type or merchant.
+ *
+ * The settlements or transactions of the reports are flattened into batches of rows as the stream is consumed. Each
+ * full batch is handed to fork/join tasks, which aggregate ranges of it into partial maps while the next batch is
+ * collected, and the partial maps are merged, so only about as many batches as the pool has threads are held at a
+ * time. Amounts are the minor-unit strings of the reports, parsed to
+ * longs and summed exactly; a row whose amount is missing or not an integer is counted as unparsed.
+ *
+ * <pre>
+ * Map&lt;List&lt;String&gt;, AmountAggregate&gt; byDayAndCurrency =
+ *     new ReportAggregator(ReportAggregator.Level.SETTLEMENT, ReportAggregator.Group.DAY,
+ *         ReportAggregator.Group.CURRENCY).aggregate(reports.stream());
+ * </pre>
+ */
+public class ReportAggregator {
+
+  /**
+   * The rows to aggregate: settlements by their net amount, or transactions by their amount
+   */
+  public enum Level {
+    SETTLEMENT,
+    TRANSACTION
+  }
+
+  /**
+   * A grouping of the rows. A transaction takes its day, currency and status from its own row and its acquirer from
+   * its settlement; a missing value groups as null.
+   */
+  public enum Group {
+    /**
+     * The yyyy-MM-dd date: date processed or timestamp for settlements, timestamp for transactions
+     */
+    DAY,
+    ACQUIRER,
+    CURRENCY,
+    /**
+     * The status state, e.g. ok
+     */
+    STATUS,
+    /**
+     * The transaction type, e.g. debit; null for settlements
+     */
+    TYPE,
+    /**
+     * The merchant id of daily report settlements and reconciliation report transactions
+     */
+    MERCHANT
+  }
+
+  private final ForkJoinPool pool;
+  private final Level level;
+  private final Group[] groups;
+
+  /**
+   * Constructor that uses the common fork/join pool
+   *
+   * @param level
+   * @param groups the key of the result, in this order
+   */
+  public ReportAggregator(Level level, Group... groups) {
+    this(ForkJoinPool.commonPool(), level, groups);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param pool runs the aggregation tasks
+   * @param level
+   * @param groups the key of the result, in this order
+   */
+  public ReportAggregator(ForkJoinPool pool, Level level, Group... groups) {
+    this.pool = pool;
+    this.level = level;
+    this.groups = groups.clone();
+  }
+
+  /**
+   * @param report a ReportResponse or ReconciliationReportResponse
+   * @return Map aggregates by the values of the groups, sorted by key with nulls first
+   */
+  public Map<List<String>, AmountAggregate> aggregate(Response report) {
+    return aggregate(Stream.of(report));
+  }
+
+  /**
+   * @param reports ReportResponses and ReconciliationReportResponses; other responses are ignored
+   * @return Map aggregates by the values of the groups, sorted by key with nulls first
+   */
+  public Map<List<String>, AmountAggregate> aggregate(Stream<? extends Response> reports) {
+    Batches batches = new Batches();
+    reports.sequential().forEach(batches::add);
+    Map<GroupKey, AmountAggregate> aggregates = batches.finish();
+
+    List<GroupKey> keys = new ArrayList<>(aggregates.keySet());
+    Collections.sort(keys, KEY_ORDER);
+    Map<List<String>, AmountAggregate> result = new LinkedHashMap<>();
+    for (GroupKey key : keys) {
+      result.put(Collections.unmodifiableList(Arrays.asList(key.values)), aggregates.get(key));
+    }
+    return result;
+  }
+
+  private static final Comparator<GroupKey> KEY_ORDER = new Comparator<GroupKey>() {
+    @Override
+    public int compare(GroupKey a, GroupKey b) {
+      for (int i = 0; i < a.values.length; i++) {
+        String x = a.values[i];
+        String y = b.values[i];
+        if (x == null || y == null) {
+          if (x != y) {
+            return x == null ? -1 : 1;
+          }
+        } else {
+          int order = x.compareTo(y);
+          if (order != 0) {
+            return order;
+          }
+        }
+      }
+      return 0;
+    }
+  };
+
+  private static void merge(Map<GroupKey, AmountAggregate> into, Map<GroupKey, AmountAggregate> from) {
+    for (Map.Entry<GroupKey, AmountAggregate> entry : from.entrySet()) {
+      AmountAggregate aggregate = into.get(entry.getKey());
+      if (aggregate == null) {
+        into.put(entry.getKey(), entry.getValue());
+      } else {
+        aggregate.merge(entry.getValue());
+      }
+    }
+  }
+
+  private static long parseAmount(String amount) {
+    try {
+      return amount != null ? Long.parseLong(amount) : ColumnarReport.NO_VALUE;
+    } catch (NumberFormatException e) {
+      return ColumnarReport.NO_VALUE;
+    }
+  }
+
+  private static String day(String timestamp) {
+    return timestamp != null && timestamp.length() >= 10 ? timestamp.substring(0, 10) : null;
+  }
+
+  private static String state(Status status) {
+    return status != null ? status.getState() : null;
+  }
+
+  private static String acquirer(Acquirer acquirer) {
+    return acquirer != null ? acquirer.getId() : null;
+  }
+
+  /**
+   * The settlements, or transactions with their settlements, of the reports flattened into arrays
+   */
+  private final class Rows {
+
+    private Object[] settlements = new Object[1024];
+    private Transaction[] transactions = level == Level.TRANSACTION ? new Transaction[1024] : null;
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    void add(Response report) {
+      if (report instanceof ReportResponse) {
+        Settlement[] reportSettlements = ((ReportResponse) report).getSettlements();
+        if (reportSettlements != null) {
+          for (Settlement settlement : reportSettlements) {
+            if (settlement != null) {
+              add(settlement, settlement.getTransactions());
+            }
+          }
+        }
+      } else if (report instanceof ReconciliationReportResponse) {
+        ReconciliationSettlement[] reportSettlements =
+            ((ReconciliationReportResponse) report).getReconciliationSettlements();
+        if (reportSettlements != null) {
+          for (ReconciliationSettlement settlement : reportSettlements) {
+            if (settlement != null) {
+              add(settlement, settlement.getTransactions());
+            }
+          }
+        }
+      }
+    }
+
+    private void add(Object settlement, Transaction[] settled) {
+      if (level == Level.SETTLEMENT) {
+        grow(1);
+        settlements[size++] = settlement;
+      } else if (settled != null) {
+        grow(settled.length);
+        for (Transaction transaction : settled) {
+          if (transaction != null) {
+            settlements[size] = settlement;
+            transactions[size++] = transaction;
+          }
+        }
+      }
+    }
+
+    private void grow(int rows) {
+      if (size + rows > settlements.length) {
+        int capacity = Math.max(settlements.length * 2, size + rows);
+        settlements = Arrays.copyOf(settlements, capacity);
+        if (transactions != null) {
+          transactions = Arrays.copyOf(transactions, capacity);
+        }
+      }
+    }
+
+    long amount(int row) {
+      if (level == Level.TRANSACTION) {
+        return parseAmount(transactions[row].getAmount());
+      }
+      Object settlement = settlements[row];
+      return parseAmount(settlement instanceof Settlement ? ((Settlement) settlement).getNetAmount()
+          : ((ReconciliationSettlement) settlement).getNetAmount());
+    }
+
+    String value(int row, Group group) {
+      Object settlement = settlements[row];
+      Transaction transaction = transactions != null ? transactions[row] : null;
+      Settlement daily = settlement instanceof Settlement ? (Settlement) settlement : null;
+      ReconciliationSettlement reconciliation = daily == null ? (ReconciliationSettlement) settlement : null;
+      switch (group) {
+        case DAY:
+          if (transaction != null) {
+            return day(transaction.getTimestamp());
+          }
+          return day(daily != null ? daily.getTimestamp() : reconciliation.getDateProcessed());
+        case ACQUIRER:
+          return acquirer(daily != null ? daily.getAcquirer() : reconciliation.getAcquirer());
+        case CURRENCY:
+          if (transaction != null) {
+            return transaction.getCurrency();
+          }
+          return daily != null ? daily.getCurrency() : reconciliation.getCurrency();
+        case STATUS:
+          if (transaction != null) {
+            return state(transaction.getStatus());
+          }
+          return state(daily != null ? daily.getStatus() : reconciliation.getStatus());
+        case TYPE:
+          return transaction != null ? transaction.getType() : null;
+        case MERCHANT:
+          if (transaction instanceof ReconciliationTransaction) {
+            ReconciliationTransaction reconciled = (ReconciliationTransaction) transaction;
+            return reconciled.getMerchant() != null ? reconciled.getMerchant().getId() : null;
+          }
+          return daily != null && daily.getMerchant() != null ? daily.getMerchant().getId() : null;
+        default:
+          throw new IllegalArgumentException(group.toString());
+      }
+    }
+  }
+
+  /**
+   * Collects the rows of the reports into batches and aggregates each full batch in the pool while the stream goes on
+   */
+  private final class Batches {
+
+    private static final int BATCH_ROWS = 65536;
+
+    private final Deque<ForkJoinTask<Map<GroupKey, AmountAggregate>>> pending = new ArrayDeque<>();
+    private final Map<GroupKey, AmountAggregate> merged = new HashMap<>();
+    private Rows batch = new Rows();
+
+    void add(Response report) {
+      batch.add(report);
+      if (batch.size() >= BATCH_ROWS) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      pending.add(pool.submit(new AggregateTask(batch, 0, batch.size())));
+      batch = new Rows();
+      while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > pool.getParallelism())) {
+        merge(merged, pending.poll().join());
+      }
+    }
+
+    Map<GroupKey, AmountAggregate> finish() {
+      if (batch.size() > 0) {
+        submit();
+      }
+      while (!pending.isEmpty()) {
+        merge(merged, pending.poll().join());
+      }
+      return merged;
+    }
+  }
+
+  /**
+   * The values of the groups of a row. One instance is reused to look up the aggregate of each row, and copied
+   * only when the group is new.
+   */
+  private static final class GroupKey {
+
+    final String[] values;
+    int hash;
+
+    GroupKey(String[] values) {
+      this.values = values;
+    }
+
+    void rehash() {
+      hash = Arrays.hashCode(values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof GroupKey && Arrays.equals(values, ((GroupKey) other).values);
+    }
+  }
+
+  /**
+   * Aggregates a range of rows, splitting it until it is small enough and merging the halves' maps
+   */
+  private final class AggregateTask extends RecursiveTask<Map<GroupKey, AmountAggregate>> {
+
+    private static final int THRESHOLD = 8192;
+
+    private final Rows rows;
+    private final int from;
+    private final int to;
+
+    AggregateTask(Rows rows, int from, int to) {
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Map<GroupKey, AmountAggregate> compute() {
+      if (to - from <= THRESHOLD) {
+        return aggregate();
+      }
+      int middle = (from + to) >>> 1;
+      AggregateTask right = new AggregateTask(rows, middle, to);
+      right.fork();
+      Map<GroupKey, AmountAggregate> merged = new AggregateTask(rows, from, middle).compute();
+      merge(merged, right.join());
+      return merged;
+    }
+
+    private Map<GroupKey, AmountAggregate> aggregate() {
+      Map<GroupKey, AmountAggregate> aggregates = new HashMap<>();
+      GroupKey probe = new GroupKey(new String[groups.length]);
+      for (int row = from; row < to; row++) {
+        for (int g = 0; g < groups.length; g++) {
+          probe.values[g] = rows.value(row, groups[g]);
+        }
+        probe.rehash();
+        AmountAggregate aggregate = aggregates.get(probe);
+        if (aggregate == null) {
+          GroupKey key = new GroupKey(probe.values.clone());
+          key.hash = probe.hash;
+          aggregate = new AmountAggregate();
+          aggregates.put(key, aggregate);
+        }
+        long amount = rows.amount(row);
+        if (amount == ColumnarReport.NO_VALUE) {
+          aggregate.addUnparsed();
+        } else {
+          aggregate.add(amount);
+        }
+      }
+      return aggregates;
+    }
+  }
+}
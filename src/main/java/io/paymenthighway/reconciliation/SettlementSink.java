@@ -0,0 +1,20 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.ReconciliationSettlement;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Receives each new settlement of a ReconciliationSync once. Called from the thread running the sync; a sink that
+ * throws stops the sync before the settlement is recorded, so it is handed over again by the next sync.
+ */
+public interface SettlementSink {
+
+  /**
+   * @param date the date of the report the settlement came in
+   * @param settlement
+   * @throws IOException
+   */
+  void accept(LocalDate date, ReconciliationSettlement settlement) throws IOException;
+}
@@ -0,0 +1,691 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.model.response.Acquirer;
+import io.paymenthighway.model.response.Merchant;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Settlement;
+import io.paymenthighway.model.response.Status;
+import io.paymenthighway.model.response.Transaction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Settlement history kept off the heap in memory-mapped files, so that months of daily and reconciliation report
+ * settlements can be kept for dispute handling without old-gen holding them as objects. Set it with
+ * PaymentAPI.setSettlementStore to keep every fetched report, or add reports directly.
+ *
+ * A directory holds four files: settlement and transaction records of fixed width (see SettlementView and
+ * TransactionView for the layouts), an arena of length-prefixed UTF-8 strings that the records refer to, and a hash
+ * index from transaction id to its latest record, each record linking to the previous one of the same id. The
+ * indexes by batch and date are built on the heap when the store is opened; there is one entry per settlement.
+ * Currencies, types, states and other repeating values are written to the arena once per session.
+ *
+ * A settlement already in the store, by settlement id or by acquirer batch id and reference, is not added again.
+ * Records are written before the counts in the file headers, so a settlement cut short by a crash is dropped when
+ * the store is opened again. The index header is marked as in progress before its slots are changed, and a marked
+ * or outdated index is rebuilt on opening. A settlement that fails to be added is rolled back. Queries return
+ * cursors that read the mapped files; they may run while reports are added.
+ */
+public class SettlementStore implements Closeable {
+
+  public static final long NO_VALUE = Long.MIN_VALUE;
+
+  private static final int MAGIC = 0x50485331; // "PHS1"
+  private static final int SETTLEMENTS = 1;
+  private static final int TRANSACTIONS = 2;
+  private static final int STRINGS = 3;
+  private static final int INDEX = 4;
+
+  private static final int SETTLEMENTS_PER_SEGMENT = 1 << 12;
+  private static final int TRANSACTIONS_PER_SEGMENT = 1 << 16;
+  private static final int STRING_SEGMENT_SIZE = 1 << 24;
+  private static final int INDEX_SEGMENT_SIZE = 1 << 20;
+  private static final int MIN_INDEX_CAPACITY = 1 << 14;
+  private static final int MAX_INTERNED = 4096;
+  private static final long INDEX_IN_PROGRESS = -1;
+
+  private final File directory;
+  private final MappedSegments settlements;
+  private final MappedSegments transactions;
+  private final MappedSegments strings;
+  private final MappedSegments index;
+
+  /* Heap indexes and counters, guarded by this */
+  private final Set<String> keys = new HashSet<>();
+  private final Map<String, List<Integer>> byBatch = new HashMap<>();
+  private final TreeMap<Long, List<Integer>> byDay = new TreeMap<>();
+  private final Map<String, Integer> interned = new HashMap<>();
+  private int pendingTransactions;
+  private long stringsEnd;
+  private int indexCapacity;
+  private int distinctIds;
+  private boolean closed;
+
+  /* Published after the records they count are written */
+  private volatile int settlementCount;
+  private volatile int transactionCount;
+
+  /**
+   * Opens or creates a store in a directory
+   *
+   * @param directory created if it does not exist
+   * @throws IOException if the directory cannot be created or holds files that are not a settlement store
+   */
+  public SettlementStore(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create settlement store directory: " + directory);
+    }
+    this.directory = directory;
+    List<MappedSegments> opened = new ArrayList<>();
+    try {
+      settlements = open("settlements.dat", SETTLEMENTS, SettlementView.SIZE * SETTLEMENTS_PER_SEGMENT, opened);
+      transactions = open("transactions.dat", TRANSACTIONS, TransactionView.SIZE * TRANSACTIONS_PER_SEGMENT,
+          opened);
+      strings = open("strings.dat", STRINGS, STRING_SEGMENT_SIZE, opened);
+      index = open("transactions.idx", INDEX, INDEX_SEGMENT_SIZE, opened);
+      load();
+    } catch (IOException | RuntimeException e) {
+      for (MappedSegments segments : opened) {
+        segments.close();
+      }
+      throw e;
+    }
+  }
+
+  private MappedSegments open(String name, int kind, int segmentSize, List<MappedSegments> opened)
+      throws IOException {
+    File file = new File(directory, name);
+    MappedSegments segments = new MappedSegments(file, segmentSize);
+    opened.add(segments);
+    ByteBuffer header = segments.header();
+    if (header.getInt(0) == 0) {
+      header.putInt(0, MAGIC);
+      header.putInt(4, kind);
+      header.putLong(8, 0);
+    } else if (header.getInt(0) != MAGIC || header.getInt(4) != kind) {
+      throw new IOException("Not a settlement store file: " + file);
+    }
+    return segments;
+  }
+
+  /**
+   * Reads the counts, builds the heap indexes and rebuilds the transaction index if it is behind
+   */
+  private void load() throws IOException {
+    int count = (int) settlements.header().getLong(8);
+    int transactionTotal = 0;
+    for (int number = 0; number < count; number++) {
+      MappedByteBuffer segment = settlementSegment(number);
+      int base = settlementOffset(number);
+      transactionTotal = segment.getInt(base + SettlementView.FIRST_TRANSACTION)
+          + segment.getInt(base + SettlementView.TRANSACTION_COUNT);
+      long most = segment.getLong(base + SettlementView.ID_MOST_SIGNIFICANT);
+      long least = segment.getLong(base + SettlementView.ID_LEAST_SIGNIFICANT);
+      String key = key(most == 0 && least == 0 ? null : new UUID(most, least),
+          string(segment.getInt(base + SettlementView.ACQUIRER_BATCH_ID)),
+          string(segment.getInt(base + SettlementView.REFERENCE)));
+      publish(number, key, string(segment.getInt(base + SettlementView.BATCH)),
+          segment.getLong(base + SettlementView.DATE));
+    }
+    stringsEnd = Math.max(strings.header().getLong(8), 8);
+    settlementCount = count;
+    transactionCount = transactionTotal;
+    pendingTransactions = transactionTotal;
+
+    ByteBuffer header = index.header();
+    indexCapacity = header.getInt(16);
+    distinctIds = header.getInt(20);
+    if (indexCapacity < MIN_INDEX_CAPACITY || header.getLong(8) != transactionTotal) {
+      rebuildIndex(Math.max(MIN_INDEX_CAPACITY, Integer.highestOneBit(Math.max(transactionTotal, 1)) * 4),
+          transactionTotal);
+      header.putLong(8, transactionTotal);
+    }
+  }
+
+  /**
+   * Adds the settlements of a daily report that are not in the store yet
+   *
+   * @param report
+   * @return int number of settlements added
+   * @throws IOException if the store is closed or full
+   */
+  public synchronized int add(ReportResponse report) throws IOException {
+    checkOpen();
+    if (report == null || report.getSettlements() == null) {
+      return 0;
+    }
+    int added = 0;
+    for (Settlement settlement : report.getSettlements()) {
+      String key = key(settlement.getId(), null, settlement.getReference());
+      if (keys.contains(key)) {
+        continue;
+      }
+      index.header().putLong(8, INDEX_IN_PROGRESS);
+      try {
+        int first = pendingTransactions;
+        if (settlement.getTransactions() != null) {
+          for (Transaction transaction : settlement.getTransactions()) {
+            appendTransaction(transaction, settlementCount);
+          }
+        }
+        int number = settlementCount;
+        MappedByteBuffer segment = beginSettlement(number);
+        int base = settlementOffset(number);
+        long date = epochSeconds(settlement.getTimestamp());
+        if (settlement.getId() != null) {
+          segment.putLong(base + SettlementView.ID_MOST_SIGNIFICANT, settlement.getId().getMostSignificantBits());
+          segment.putLong(base + SettlementView.ID_LEAST_SIGNIFICANT, settlement.getId().getLeastSignificantBits());
+        }
+        segment.putInt(base + SettlementView.KIND, SettlementView.DAILY_REPORT);
+        putSettlement(segment, base, settlement.getStatus(), settlement.getBatch(), settlement.getReference(), date,
+            settlement.getNetAmount(), settlement.getCurrency(), settlement.getAcquirer(), first);
+        Merchant merchant = settlement.getMerchant();
+        if (merchant != null) {
+          segment.putInt(base + SettlementView.MERCHANT_ID, intern(merchant.getId()));
+          segment.putInt(base + SettlementView.MERCHANT_NAME, intern(merchant.getName()));
+        }
+        commit(number, key, settlement.getBatch(), date);
+      } catch (IOException | RuntimeException e) {
+        rollback();
+        throw e;
+      }
+      added++;
+    }
+    return added;
+  }
+
+  /**
+   * Adds the settlements of a reconciliation report that are not in the store yet. Unallocated transactions and
+   * commission settlements are not kept.
+   *
+   * @param report
+   * @return int number of settlements added
+   * @throws IOException if the store is closed or full
+   */
+  public synchronized int add(ReconciliationReportResponse report) throws IOException {
+    checkOpen();
+    if (report == null || report.getReconciliationSettlements() == null) {
+      return 0;
+    }
+    int added = 0;
+    for (ReconciliationSettlement settlement : report.getReconciliationSettlements()) {
+      String key = key(null, settlement.getAcquirerBatchId(), settlement.getReference());
+      if (keys.contains(key)) {
+        continue;
+      }
+      index.header().putLong(8, INDEX_IN_PROGRESS);
+      try {
+        int first = pendingTransactions;
+        if (settlement.getTransactions() != null) {
+          for (ReconciliationTransaction transaction : settlement.getTransactions()) {
+            appendTransaction(transaction, settlementCount);
+          }
+        }
+        int number = settlementCount;
+        MappedByteBuffer segment = beginSettlement(number);
+        int base = settlementOffset(number);
+        long date = epochSeconds(settlement.getDateProcessed());
+        segment.putInt(base + SettlementView.KIND, SettlementView.RECONCILIATION_REPORT);
+        putSettlement(segment, base, settlement.getStatus(), settlement.getBatch(), settlement.getReference(), date,
+            settlement.getNetAmount(), settlement.getCurrency(), settlement.getAcquirer(), first);
+        segment.putInt(base + SettlementView.ACQUIRER_BATCH_ID, putString(settlement.getAcquirerBatchId()));
+        segment.putInt(base + SettlementView.MAIN_ACQUIRER_MERCHANT_ID,
+            intern(settlement.getMainAcquirerMerchantId()));
+        commit(number, key, settlement.getBatch(), date);
+      } catch (IOException | RuntimeException e) {
+        rollback();
+        throw e;
+      }
+      added++;
+    }
+    return added;
+  }
+
+  private static String key(UUID id, String acquirerBatchId, String reference) {
+    return id != null ? id.toString() : acquirerBatchId + "/" + reference;
+  }
+
+  private MappedByteBuffer beginSettlement(int number) throws IOException {
+    settlements.ensure((long) (number + 1) * SettlementView.SIZE);
+    MappedByteBuffer segment = settlementSegment(number);
+    int base = settlementOffset(number);
+    for (int i = 0; i < SettlementView.SIZE; i += 8) {
+      segment.putLong(base + i, 0);
+    }
+    return segment;
+  }
+
+  private void putSettlement(MappedByteBuffer segment, int base, Status status, String batch, String reference,
+                             long date, String netAmount, String currency, Acquirer acquirer, int first)
+      throws IOException {
+    segment.putLong(base + SettlementView.DATE, date);
+    segment.putLong(base + SettlementView.NET_AMOUNT, parseAmount(netAmount));
+    segment.putInt(base + SettlementView.FIRST_TRANSACTION, first);
+    segment.putInt(base + SettlementView.TRANSACTION_COUNT, pendingTransactions - first);
+    segment.putInt(base + SettlementView.STATUS_CODE, status != null ? parseCode(status.getCode()) : -1);
+    segment.putInt(base + SettlementView.STATE, intern(status != null ? status.getState() : null));
+    segment.putInt(base + SettlementView.BATCH, putString(batch));
+    segment.putInt(base + SettlementView.REFERENCE, putString(reference));
+    segment.putInt(base + SettlementView.CURRENCY, intern(currency));
+    if (acquirer != null) {
+      segment.putInt(base + SettlementView.ACQUIRER_ID, intern(acquirer.getId()));
+      segment.putInt(base + SettlementView.ACQUIRER_NAME, intern(acquirer.getName()));
+    }
+  }
+
+  private void appendTransaction(Transaction transaction, int settlement) throws IOException {
+    int record = pendingTransactions;
+    if (record == Integer.MAX_VALUE) {
+      throw new IOException("Settlement store is full");
+    }
+    transactions.ensure((long) (record + 1) * TransactionView.SIZE);
+    MappedByteBuffer segment = transactionSegment(record);
+    int base = transactionOffset(record);
+    UUID id = parseId(transaction.getId());
+    long most = id != null ? id.getMostSignificantBits() : 0;
+    long least = id != null ? id.getLeastSignificantBits() : 0;
+    Status status = transaction.getStatus();
+    segment.putLong(base + TransactionView.ID_MOST_SIGNIFICANT, most);
+    segment.putLong(base + TransactionView.ID_LEAST_SIGNIFICANT, least);
+    segment.putLong(base + TransactionView.TIMESTAMP, epochSeconds(transaction.getTimestamp()));
+    segment.putLong(base + TransactionView.AMOUNT, parseAmount(transaction.getAmount()));
+    segment.putInt(base + TransactionView.SETTLEMENT, settlement);
+    segment.putInt(base + TransactionView.STATUS_CODE, status != null ? parseCode(status.getCode()) : -1);
+    segment.putInt(base + TransactionView.TYPE, intern(transaction.getType()));
+    segment.putInt(base + TransactionView.PARTIAL_PAN, putString(transaction.getPartialPan()));
+    segment.putInt(base + TransactionView.CURRENCY, intern(transaction.getCurrency()));
+    segment.putInt(base + TransactionView.FILING_CODE, putString(transaction.getFilingCode()));
+    segment.putInt(base + TransactionView.AUTHORIZATION_CODE, putString(transaction.getAuthorizationCode()));
+    segment.putInt(base + TransactionView.STATE, intern(status != null ? status.getState() : null));
+    segment.putInt(base + TransactionView.CARDHOLDER_AUTHENTICATION,
+        intern(transaction.getCardholderAuthentication()));
+    segment.putInt(base + TransactionView.ORDER, putString(transaction.getOrder()));
+
+    ReconciliationTransaction reconciled = transaction instanceof ReconciliationTransaction
+        ? (ReconciliationTransaction) transaction : null;
+    segment.putLong(base + TransactionView.ACQUIRER_AMOUNT_PRESENTED,
+        parseAmount(reconciled != null ? reconciled.getAcquirerAmountPresented() : null));
+    segment.putLong(base + TransactionView.ACQUIRER_ESTIMATED_SETTLEMENT_VALUE,
+        parseAmount(reconciled != null ? reconciled.getAcquirerEstimatedSettlementValue() : null));
+    segment.putLong(base + TransactionView.ACQUIRER_TRANSACTION_FEE,
+        parseAmount(reconciled != null ? reconciled.getAcquirerTransactionFee() : null));
+    segment.putLong(base + TransactionView.ACQUIRER_COMMISSION,
+        parseAmount(reconciled != null ? reconciled.getAcquirerCommission() : null));
+    segment.putLong(base + TransactionView.ACQUIRER_EXCHANGE_RATE, Double.doubleToLongBits(
+        parseRate(reconciled != null ? reconciled.getAcquirerExchangeRate() : null)));
+    segment.putLong(base + TransactionView.ACQUIRER_DISCOUNT_RATE, Double.doubleToLongBits(
+        parseRate(reconciled != null ? reconciled.getAcquirerDiscountRate() : null)));
+    Merchant merchant = reconciled != null ? reconciled.getMerchant() : null;
+    segment.putInt(base + TransactionView.MERCHANT, intern(merchant != null ? merchant.getId() : null));
+    segment.putInt(base + TransactionView.ACQUIRER_AMOUNT_PRESENTED_CURRENCY,
+        intern(reconciled != null ? reconciled.getAcquirerAmountPresentedCurrency() : null));
+    segment.putInt(base + TransactionView.ACQUIRER_ESTIMATED_SETTLEMENT_VALUE_CURRENCY,
+        intern(reconciled != null ? reconciled.getAcquirerEstimatedSettlementValueCurrency() : null));
+    segment.putInt(base + TransactionView.ACQUIRER_TRANSACTION_FEE_CURRENCY,
+        intern(reconciled != null ? reconciled.getAcquirerTransactionFeeCurrency() : null));
+    segment.putInt(base + TransactionView.ACQUIRER_COMMISSION_CURRENCY,
+        intern(reconciled != null ? reconciled.getAcquirerCommissionCurrency() : null));
+
+    pendingTransactions++;
+    indexTransaction(record, most, least, true);
+  }
+
+  /**
+   * Publishes a settlement and its transactions: the headers are updated after the records, and the settlement
+   * count last
+   */
+  private void commit(int number, String key, String batch, long date) {
+    transactions.header().putLong(8, pendingTransactions);
+    strings.header().putLong(8, stringsEnd);
+    index.header().putInt(16, indexCapacity);
+    index.header().putInt(20, distinctIds);
+    index.header().putLong(8, pendingTransactions);
+    settlements.header().putLong(8, number + 1);
+    publish(number, key, batch, date);
+    transactionCount = pendingTransactions;
+    settlementCount = number + 1;
+  }
+
+  /**
+   * Drops the records, strings and index entries of a settlement that could not be added, so that the next
+   * settlement does not claim them
+   */
+  private void rollback() throws IOException {
+    pendingTransactions = transactionCount;
+    stringsEnd = Math.max(strings.header().getLong(8), 8);
+    interned.clear();
+    rebuildIndex(indexCapacity, transactionCount);
+    index.header().putLong(8, transactionCount);
+  }
+
+  private void publish(int number, String key, String batch, long date) {
+    keys.add(key);
+    if (batch != null) {
+      List<Integer> numbers = byBatch.get(batch);
+      if (numbers == null) {
+        numbers = new ArrayList<>(1);
+        byBatch.put(batch, numbers);
+      }
+      numbers.add(number);
+    }
+    if (date != NO_VALUE) {
+      long day = Math.floorDiv(date, 86400);
+      List<Integer> numbers = byDay.get(day);
+      if (numbers == null) {
+        numbers = new ArrayList<>(1);
+        byDay.put(day, numbers);
+      }
+      numbers.add(number);
+    }
+  }
+
+  private void indexTransaction(int record, long most, long least, boolean link) throws IOException {
+    if (most == 0 && least == 0) {
+      if (link) {
+        transactionSegment(record).putInt(transactionOffset(record) + TransactionView.PREVIOUS, -1);
+      }
+      return;
+    }
+    if ((distinctIds + 1) * 2L > indexCapacity) {
+      rebuildIndex(indexCapacity * 2, record);
+    }
+    long mask = indexCapacity - 1;
+    for (long slot = hash(most, least) & mask; ; slot = (slot + 1) & mask) {
+      MappedByteBuffer segment = index.segment(slot * 4);
+      int offset = index.offset(slot * 4);
+      int head = segment.getInt(offset) - 1;
+      if (head < 0 || sameId(head, most, least)) {
+        if (link) {
+          transactionSegment(record).putInt(transactionOffset(record) + TransactionView.PREVIOUS, head);
+        }
+        if (head < 0) {
+          distinctIds++;
+        }
+        segment.putInt(offset, record + 1);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the transaction index from the first records, keeping their links to previous records. The caller
+   * writes the record count to the index header once the index is consistent with it.
+   */
+  private void rebuildIndex(int capacity, int records) throws IOException {
+    if (capacity <= 0) {
+      throw new IOException("Settlement store index is full");
+    }
+    index.ensure((long) capacity * 4);
+    index.clear();
+    indexCapacity = capacity;
+    distinctIds = 0;
+    for (int record = 0; record < records; record++) {
+      MappedByteBuffer segment = transactionSegment(record);
+      int base = transactionOffset(record);
+      indexTransaction(record, segment.getLong(base + TransactionView.ID_MOST_SIGNIFICANT),
+          segment.getLong(base + TransactionView.ID_LEAST_SIGNIFICANT), false);
+    }
+    index.header().putInt(16, indexCapacity);
+    index.header().putInt(20, distinctIds);
+  }
+
+  private boolean sameId(int record, long most, long least) {
+    MappedByteBuffer segment = transactionSegment(record);
+    int base = transactionOffset(record);
+    return segment.getLong(base + TransactionView.ID_MOST_SIGNIFICANT) == most
+        && segment.getLong(base + TransactionView.ID_LEAST_SIGNIFICANT) == least;
+  }
+
+  private static long hash(long most, long least) {
+    long hash = most * 0x9E3779B97F4A7C15L ^ least;
+    hash ^= hash >>> 32;
+    return (hash * 0xC2B2AE3D27D4EB4FL) >>> 1;
+  }
+
+  /**
+   * @return int reference to the string in the arena, 0 for null
+   */
+  private int putString(String value) throws IOException {
+    if (value == null) {
+      return 0;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xFFFF) {
+      throw new IOException("String too long for the settlement store");
+    }
+    long position = stringsEnd;
+    int segmentSize = strings.segmentSize();
+    if (strings.offset(position) + 2 + bytes.length > segmentSize) {
+      position = (position / segmentSize + 1) * segmentSize;
+    }
+    if (position + 2 + bytes.length > 0xFFFFFFFFL) {
+      throw new IOException("Settlement store is full");
+    }
+    strings.ensure(position + 2 + bytes.length);
+    MappedByteBuffer segment = strings.segment(position);
+    int offset = strings.offset(position);
+    segment.putShort(offset, (short) bytes.length);
+    ByteBuffer target = segment.duplicate();
+    target.position(offset + 2);
+    target.put(bytes);
+    stringsEnd = position + 2 + bytes.length;
+    return (int) position;
+  }
+
+  /**
+   * Writes a repeating value once per session
+   */
+  private int intern(String value) throws IOException {
+    if (value == null) {
+      return 0;
+    }
+    Integer reference = interned.get(value);
+    if (reference == null) {
+      reference = putString(value);
+      if (interned.size() < MAX_INTERNED) {
+        interned.put(value, reference);
+      }
+    }
+    return reference;
+  }
+
+  String string(int reference) {
+    if (reference == 0) {
+      return null;
+    }
+    long position = reference & 0xFFFFFFFFL;
+    MappedByteBuffer segment = strings.segment(position);
+    int offset = strings.offset(position);
+    byte[] bytes = new byte[segment.getShort(offset) & 0xFFFF];
+    ByteBuffer source = segment.duplicate();
+    source.position(offset + 2);
+    source.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  MappedByteBuffer settlementSegment(int number) {
+    return settlements.segment((long) number * SettlementView.SIZE);
+  }
+
+  int settlementOffset(int number) {
+    return settlements.offset((long) number * SettlementView.SIZE);
+  }
+
+  MappedByteBuffer transactionSegment(int record) {
+    return transactions.segment((long) record * TransactionView.SIZE);
+  }
+
+  int transactionOffset(int record) {
+    return transactions.offset((long) record * TransactionView.SIZE);
+  }
+
+  /**
+   * @return int number of settlements stored
+   */
+  public int getSettlementCount() {
+    return settlementCount;
+  }
+
+  /**
+   * @return int number of transaction records stored
+   */
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  /**
+   * @return SettlementView over all settlements in the order they were added
+   */
+  public SettlementView settlements() {
+    return new SettlementView(this, null, settlementCount);
+  }
+
+  /**
+   * @param number
+   * @return SettlementView over the one settlement
+   */
+  public SettlementView settlement(int number) {
+    if (number < 0 || number >= settlementCount) {
+      throw new IndexOutOfBoundsException("Settlement " + number + " of " + settlementCount);
+    }
+    return new SettlementView(this, new int[]{number}, 0);
+  }
+
+  /**
+   * @param batch
+   * @return SettlementView over the settlements of the batch
+   */
+  public synchronized SettlementView settlementsByBatch(String batch) {
+    return new SettlementView(this, toArray(byBatch.get(batch)), 0);
+  }
+
+  /**
+   * @param from inclusive
+   * @param to exclusive
+   * @return SettlementView over the settlements processed, or for daily reports settled, in the UTC date range
+   */
+  public synchronized SettlementView settlementsBetween(LocalDate from, LocalDate to) {
+    List<Integer> numbers = new ArrayList<>();
+    for (List<Integer> day : byDay.subMap(from.toEpochDay(), to.toEpochDay()).values()) {
+      numbers.addAll(day);
+    }
+    return new SettlementView(this, toArray(numbers), 0);
+  }
+
+  /**
+   * @param transactionId
+   * @return TransactionView over the records of the transaction, latest first: a transaction is in a settlement
+   * for its debit and in later ones for its reverts
+   */
+  public synchronized TransactionView transactions(UUID transactionId) {
+    int head = -1;
+    long most = transactionId.getMostSignificantBits();
+    long least = transactionId.getLeastSignificantBits();
+    long mask = indexCapacity - 1;
+    for (long slot = hash(most, least) & mask; ; slot = (slot + 1) & mask) {
+      int record = index.segment(slot * 4).getInt(index.offset(slot * 4)) - 1;
+      if (record < 0 || sameId(record, most, least)) {
+        head = record;
+        break;
+      }
+    }
+    return new TransactionView(this, true, head, 0);
+  }
+
+  private static int[] toArray(List<Integer> numbers) {
+    if (numbers == null) {
+      return new int[0];
+    }
+    int[] array = new int[numbers.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = numbers.get(i);
+    }
+    return array;
+  }
+
+  private static UUID parseId(String id) {
+    try {
+      return id != null ? UUID.fromString(id) : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static long epochSeconds(String value) {
+    return value != null ? ColumnarReport.epochSeconds(value.toCharArray(), 0, value.length()) : NO_VALUE;
+  }
+
+  private static long parseAmount(String amount) {
+    try {
+      return amount != null ? Long.parseLong(amount) : NO_VALUE;
+    } catch (NumberFormatException e) {
+      return NO_VALUE;
+    }
+  }
+
+  private static double parseRate(String rate) {
+    try {
+      return rate != null ? Double.parseDouble(rate) : Double.NaN;
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static int parseCode(String code) {
+    try {
+      return code != null ? Integer.parseInt(code) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Settlement store is closed");
+    }
+  }
+
+  /**
+   * Forces the added settlements to disk
+   */
+  public synchronized void flush() {
+    strings.force();
+    transactions.force();
+    index.force();
+    settlements.force();
+  }
+
+  /**
+   * Flushes and closes the files. Cursors must not be used afterwards.
+   *
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    strings.close();
+    transactions.close();
+    index.close();
+    settlements.close();
+  }
+}
@@ -0,0 +1,168 @@
+package io.paymenthighway.reconciliation;
+
+import java.nio.MappedByteBuffer;
+import java.util.UUID;
+
+/**
+ * A cursor over settlement records of a SettlementStore, read from the mapped file like TransactionView.
+ *
+ * Record layout, 96 bytes: id, date and net amount as longs; then as ints the first transaction record, the number
+ * of transactions, the kind of report, the status code and string references for batch, reference, acquirer batch
+ * id, currency, state, acquirer id and name, merchant id and name and main acquirer merchant id.
+ */
+public final class SettlementView {
+
+  static final int SIZE = 96;
+
+  static final int ID_MOST_SIGNIFICANT = 0;
+  static final int ID_LEAST_SIGNIFICANT = 8;
+  static final int DATE = 16;
+  static final int NET_AMOUNT = 24;
+  static final int FIRST_TRANSACTION = 32;
+  static final int TRANSACTION_COUNT = 36;
+  static final int KIND = 40;
+  static final int STATUS_CODE = 44;
+  static final int BATCH = 48;
+  static final int REFERENCE = 52;
+  static final int ACQUIRER_BATCH_ID = 56;
+  static final int CURRENCY = 60;
+  static final int STATE = 64;
+  static final int ACQUIRER_ID = 68;
+  static final int ACQUIRER_NAME = 72;
+  static final int MERCHANT_ID = 76;
+  static final int MERCHANT_NAME = 80;
+  static final int MAIN_ACQUIRER_MERCHANT_ID = 84;
+
+  static final int DAILY_REPORT = 1;
+  static final int RECONCILIATION_REPORT = 2;
+
+  private final SettlementStore store;
+  private final int[] numbers;
+  private final int count;
+  private int index = -1;
+  private int number;
+  private MappedByteBuffer buffer;
+  private int base;
+
+  /**
+   * Constructor for the given settlements, or for the first count settlements if numbers is null
+   */
+  SettlementView(SettlementStore store, int[] numbers, int count) {
+    this.store = store;
+    this.numbers = numbers;
+    this.count = numbers != null ? numbers.length : count;
+  }
+
+  /**
+   * @return boolean false when there are no more settlements
+   */
+  public boolean next() {
+    if (index + 1 >= count) {
+      index = count;
+      return false;
+    }
+    index++;
+    number = numbers != null ? numbers[index] : index;
+    buffer = store.settlementSegment(number);
+    base = store.settlementOffset(number);
+    return true;
+  }
+
+  /**
+   * @return int the settlement number in the store
+   */
+  public int getNumber() {
+    return number;
+  }
+
+  /**
+   * @return boolean true if the settlement came from a reconciliation report, false for a daily report
+   */
+  public boolean isReconciliation() {
+    return buffer.getInt(base + KIND) == RECONCILIATION_REPORT;
+  }
+
+  /**
+   * @return UUID the settlement id of a daily report, null for reconciliation reports
+   */
+  public UUID getId() {
+    long most = buffer.getLong(base + ID_MOST_SIGNIFICANT);
+    long least = buffer.getLong(base + ID_LEAST_SIGNIFICANT);
+    return most == 0 && least == 0 ? null : new UUID(most, least);
+  }
+
+  /**
+   * @return long epoch seconds of the processing date of a reconciliation settlement, or the timestamp of a daily
+   * report settlement
+   */
+  public long getDate() {
+    return buffer.getLong(base + DATE);
+  }
+
+  public long getNetAmount() {
+    return buffer.getLong(base + NET_AMOUNT);
+  }
+
+  public int getTransactionCount() {
+    return buffer.getInt(base + TRANSACTION_COUNT);
+  }
+
+  public int getStatusCode() {
+    return buffer.getInt(base + STATUS_CODE);
+  }
+
+  public String getBatch() {
+    return string(BATCH);
+  }
+
+  public String getReference() {
+    return string(REFERENCE);
+  }
+
+  public String getAcquirerBatchId() {
+    return string(ACQUIRER_BATCH_ID);
+  }
+
+  public String getCurrency() {
+    return string(CURRENCY);
+  }
+
+  public String getState() {
+    return string(STATE);
+  }
+
+  public String getAcquirerId() {
+    return string(ACQUIRER_ID);
+  }
+
+  public String getAcquirerName() {
+    return string(ACQUIRER_NAME);
+  }
+
+  /**
+   * @return String the merchant id, daily reports only
+   */
+  public String getMerchantId() {
+    return string(MERCHANT_ID);
+  }
+
+  public String getMerchantName() {
+    return string(MERCHANT_NAME);
+  }
+
+  public String getMainAcquirerMerchantId() {
+    return string(MAIN_ACQUIRER_MERCHANT_ID);
+  }
+
+  /**
+   * @return TransactionView over the settlement's transactions
+   */
+  public TransactionView transactions() {
+    int first = buffer.getInt(base + FIRST_TRANSACTION);
+    return new TransactionView(store, false, first, first + getTransactionCount());
+  }
+
+  private String string(int field) {
+    return store.string(buffer.getInt(base + field));
+  }
+}
@@ -0,0 +1,76 @@
+package io.paymenthighway.reconciliation;
+
+import java.util.Arrays;
+
+/**
+ * A column of high-cardinality strings such as filing codes and order ids, kept as one char array and row offsets
+ * instead of a String per row. Missing and empty values are both read as null.
+ */
+final class StringColumn {
+
+  private char[] chars;
+  private int length;
+  private int[] ends;
+  private int rows;
+
+  StringColumn(int capacity) {
+    this.chars = new char[Math.max(capacity * 8, 16)];
+    this.ends = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Sets the value of a row. Rows are written in order, each once; rows skipped are empty.
+   */
+  void set(int row, char[] buffer, int offset, int count) {
+    fill(row);
+    if (length + count > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + count));
+    }
+    System.arraycopy(buffer, offset, chars, length, count);
+    length += count;
+    ends[row] = length;
+  }
+
+  /**
+   * Ends the column at the given number of rows and gives back the unused capacity
+   */
+  void trim(int size) {
+    fill(size - 1);
+    chars = Arrays.copyOf(chars, length);
+    ends = Arrays.copyOf(ends, size);
+  }
+
+  private void fill(int row) {
+    if (row >= ends.length) {
+      ends = Arrays.copyOf(ends, Math.max(ends.length * 2, row + 1));
+    }
+    while (rows <= row) {
+      ends[rows++] = length;
+    }
+  }
+
+  String get(int row) {
+    int start = row > 0 ? ends[row - 1] : 0;
+    return ends[row] > start ? new String(chars, start, ends[row] - start) : null;
+  }
+
+  /**
+   * @return boolean true if the row's value equals the given one
+   */
+  boolean matches(int row, String value) {
+    int start = row > 0 ? ends[row - 1] : 0;
+    int count = ends[row] - start;
+    if (value == null || value.isEmpty()) {
+      return count == 0;
+    }
+    if (count != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      if (chars[start + i] != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
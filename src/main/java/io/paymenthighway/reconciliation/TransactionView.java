@@ -0,0 +1,210 @@
+package io.paymenthighway.reconciliation;
+
+import java.nio.MappedByteBuffer;
+import java.util.UUID;
+
+/**
+ * A cursor over transaction records of a SettlementStore. next() moves it to the next record and the getters read
+ * that record from the mapped file on each call, so going through any number of transactions allocates only the
+ * strings and ids asked for. Amounts are minor units and timestamps epoch seconds; a value that was missing or
+ * could not be read is SettlementStore.NO_VALUE, NaN for rates, -1 for status codes and null otherwise.
+ *
+ * Record layout, 144 bytes: id, timestamp, amount, the four acquirer amounts and the two acquirer rates as longs;
+ * then as ints the settlement number, the previous record of the same transaction id or -1, the status code and
+ * string references for type, partial pan, currency, filing code, authorization code, state, cardholder
+ * authentication, order, merchant id and the four acquirer currencies.
+ */
+public final class TransactionView {
+
+  static final int SIZE = 144;
+
+  static final int ID_MOST_SIGNIFICANT = 0;
+  static final int ID_LEAST_SIGNIFICANT = 8;
+  static final int TIMESTAMP = 16;
+  static final int AMOUNT = 24;
+  static final int ACQUIRER_AMOUNT_PRESENTED = 32;
+  static final int ACQUIRER_ESTIMATED_SETTLEMENT_VALUE = 40;
+  static final int ACQUIRER_TRANSACTION_FEE = 48;
+  static final int ACQUIRER_COMMISSION = 56;
+  static final int ACQUIRER_EXCHANGE_RATE = 64;
+  static final int ACQUIRER_DISCOUNT_RATE = 72;
+  static final int SETTLEMENT = 80;
+  static final int PREVIOUS = 84;
+  static final int STATUS_CODE = 88;
+  static final int TYPE = 92;
+  static final int PARTIAL_PAN = 96;
+  static final int CURRENCY = 100;
+  static final int FILING_CODE = 104;
+  static final int AUTHORIZATION_CODE = 108;
+  static final int STATE = 112;
+  static final int CARDHOLDER_AUTHENTICATION = 116;
+  static final int ORDER = 120;
+  static final int MERCHANT = 124;
+  static final int ACQUIRER_AMOUNT_PRESENTED_CURRENCY = 128;
+  static final int ACQUIRER_ESTIMATED_SETTLEMENT_VALUE_CURRENCY = 132;
+  static final int ACQUIRER_TRANSACTION_FEE_CURRENCY = 136;
+  static final int ACQUIRER_COMMISSION_CURRENCY = 140;
+
+  private final SettlementStore store;
+  private final boolean chain;
+  private final int first;
+  private final int end;
+  private int record = -1;
+  private boolean done;
+  private MappedByteBuffer buffer;
+  private int base;
+
+  /**
+   * Constructor for the records from first to end, or for the chain of records of one id starting at first
+   */
+  TransactionView(SettlementStore store, boolean chain, int first, int end) {
+    this.store = store;
+    this.chain = chain;
+    this.first = first;
+    this.end = end;
+  }
+
+  /**
+   * Moves to the next record: in store order for a settlement's transactions, latest first for the records of a
+   * transaction id
+   *
+   * @return boolean false when there are no more records
+   */
+  public boolean next() {
+    if (done) {
+      return false;
+    }
+    int next;
+    if (chain) {
+      next = record < 0 ? first : buffer.getInt(base + PREVIOUS);
+    } else {
+      next = record < 0 ? first : record + 1;
+    }
+    if (next < 0 || (!chain && next >= end)) {
+      done = true;
+      return false;
+    }
+    record = next;
+    buffer = store.transactionSegment(record);
+    base = store.transactionOffset(record);
+    return true;
+  }
+
+  /**
+   * @return int the record number in the store
+   */
+  public int getRecord() {
+    return record;
+  }
+
+  /**
+   * @return int the number of the settlement, for SettlementStore.settlement
+   */
+  public int getSettlement() {
+    return buffer.getInt(base + SETTLEMENT);
+  }
+
+  /**
+   * @return UUID null if the transaction had no valid id
+   */
+  public UUID getTransactionId() {
+    long most = buffer.getLong(base + ID_MOST_SIGNIFICANT);
+    long least = buffer.getLong(base + ID_LEAST_SIGNIFICANT);
+    return most == 0 && least == 0 ? null : new UUID(most, least);
+  }
+
+  public long getTimestamp() {
+    return buffer.getLong(base + TIMESTAMP);
+  }
+
+  public String getType() {
+    return string(TYPE);
+  }
+
+  public String getPartialPan() {
+    return string(PARTIAL_PAN);
+  }
+
+  public long getAmount() {
+    return buffer.getLong(base + AMOUNT);
+  }
+
+  public String getCurrency() {
+    return string(CURRENCY);
+  }
+
+  public String getFilingCode() {
+    return string(FILING_CODE);
+  }
+
+  public String getAuthorizationCode() {
+    return string(AUTHORIZATION_CODE);
+  }
+
+  public String getState() {
+    return string(STATE);
+  }
+
+  public int getStatusCode() {
+    return buffer.getInt(base + STATUS_CODE);
+  }
+
+  public String getCardholderAuthentication() {
+    return string(CARDHOLDER_AUTHENTICATION);
+  }
+
+  public String getOrder() {
+    return string(ORDER);
+  }
+
+  /**
+   * @return String the merchant id, reconciliation reports only
+   */
+  public String getMerchantId() {
+    return string(MERCHANT);
+  }
+
+  public long getAcquirerAmountPresented() {
+    return buffer.getLong(base + ACQUIRER_AMOUNT_PRESENTED);
+  }
+
+  public String getAcquirerAmountPresentedCurrency() {
+    return string(ACQUIRER_AMOUNT_PRESENTED_CURRENCY);
+  }
+
+  public long getAcquirerEstimatedSettlementValue() {
+    return buffer.getLong(base + ACQUIRER_ESTIMATED_SETTLEMENT_VALUE);
+  }
+
+  public String getAcquirerEstimatedSettlementValueCurrency() {
+    return string(ACQUIRER_ESTIMATED_SETTLEMENT_VALUE_CURRENCY);
+  }
+
+  public double getAcquirerExchangeRate() {
+    return Double.longBitsToDouble(buffer.getLong(base + ACQUIRER_EXCHANGE_RATE));
+  }
+
+  public double getAcquirerDiscountRate() {
+    return Double.longBitsToDouble(buffer.getLong(base + ACQUIRER_DISCOUNT_RATE));
+  }
+
+  public long getAcquirerTransactionFee() {
+    return buffer.getLong(base + ACQUIRER_TRANSACTION_FEE);
+  }
+
+  public String getAcquirerTransactionFeeCurrency() {
+    return string(ACQUIRER_TRANSACTION_FEE_CURRENCY);
+  }
+
+  public long getAcquirerCommission() {
+    return buffer.getLong(base + ACQUIRER_COMMISSION);
+  }
+
+  public String getAcquirerCommissionCurrency() {
+    return string(ACQUIRER_COMMISSION_CURRENCY);
+  }
+
+  private String string(int field) {
+    return store.string(buffer.getInt(base + field));
+  }
+}
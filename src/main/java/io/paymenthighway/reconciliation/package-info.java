@@ -0,0 +1,5 @@
+/**
+ * Reconciliation of settlement reports against a local ledger, incremental syncing and aggregation of the reports,
+ * a columnar form of the reports for scans and an off-heap store of settlement history
+ */
+package io.paymenthighway.reconciliation;
@@ -0,0 +1,47 @@
+package io.paymenthighway.replay;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Masks card numbers and security codes in JSON request bodies before they are written to disk
+ */
+final class CardDataRedactor {
+
+  private static final Pattern PAN = Pattern.compile("(\"pan\"\\s*:\\s*\")([^\"]*)(\")");
+  private static final Pattern CVC = Pattern.compile("(\"cvc\"\\s*:\\s*\")([^\"]*)(\")");
+
+  private CardDataRedactor() {
+  }
+
+  /**
+   * @param body JSON body, may be null
+   * @return String body where only the last four digits of card numbers remain and security codes are masked
+   */
+  static String redact(String body) {
+    if (body == null || body.isEmpty()) {
+      return body;
+    }
+    return mask(mask(body, PAN, 4), CVC, 0);
+  }
+
+  private static String mask(String body, Pattern pattern, int keepLast) {
+    Matcher matcher = pattern.matcher(body);
+    if (!matcher.find()) {
+      return body;
+    }
+    StringBuffer redacted = new StringBuffer(body.length());
+    do {
+      String value = matcher.group(2);
+      int kept = Math.min(keepLast, value.length());
+      StringBuilder masked = new StringBuilder(value.length());
+      for (int i = 0; i < value.length() - kept; i++) {
+        masked.append('*');
+      }
+      masked.append(value, value.length() - kept, value.length());
+      matcher.appendReplacement(redacted, Matcher.quoteReplacement(matcher.group(1) + masked + matcher.group(3)));
+    } while (matcher.find());
+    matcher.appendTail(redacted);
+    return redacted.toString();
+  }
+}
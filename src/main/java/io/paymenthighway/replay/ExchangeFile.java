@@ -0,0 +1,237 @@
+package io.paymenthighway.replay;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of recorded exchanges.
+ *
+ * The file starts with a magic header, followed by one frame per exchange: the payload length, the payload and
+ * its CRC32. Strings are stored as variable length UTF-8. A frame cut short by a crash is ignored when reading,
+ * so recordings stay readable up to the last complete exchange.
+ */
+public class ExchangeFile implements Closeable {
+
+  private static final byte[] MAGIC = {'P', 'H', 'X', 1};
+
+  private final OutputStream out;
+
+  /**
+   * Opens the file for appending, creating it if needed
+   *
+   * @param file
+   * @throws IOException
+   */
+  public ExchangeFile(File file) throws IOException {
+    boolean empty = !file.exists() || file.length() == 0;
+    if (!empty) {
+      // Drop a frame left incomplete by a crash, otherwise everything appended after it would be unreadable
+      long validLength = scan(file, null);
+      if (validLength < file.length()) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+          raf.setLength(validLength);
+        }
+      }
+    }
+    this.out = new FileOutputStream(file, true);
+    if (empty) {
+      out.write(MAGIC);
+      out.flush();
+    }
+  }
+
+  /**
+   * Appends an exchange with a single write, so concurrent recorders never interleave frames
+   *
+   * @param exchange
+   * @throws IOException
+   */
+  public synchronized void append(RecordedExchange exchange) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(1024);
+    DataOutputStream data = new DataOutputStream(payload);
+    writeVarLong(data, exchange.getStartNanos());
+    writeVarLong(data, exchange.getDurationNanos());
+    writeString(data, exchange.getMethod());
+    writeString(data, exchange.getUri());
+    writeHeaders(data, exchange.getRequestHeaders());
+    writeString(data, exchange.getRequestBody());
+    writeVarLong(data, exchange.getStatus());
+    writeString(data, exchange.getReason());
+    writeHeaders(data, exchange.getResponseHeaders());
+    writeString(data, exchange.getResponseBody());
+    data.flush();
+
+    CRC32 crc = new CRC32();
+    crc.update(payload.toByteArray(), 0, payload.size());
+
+    ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + 8);
+    DataOutputStream frameData = new DataOutputStream(frame);
+    frameData.writeInt(payload.size());
+    payload.writeTo(frameData);
+    frameData.writeInt((int) crc.getValue());
+    frameData.flush();
+
+    frame.writeTo(out);
+    out.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Reads all complete exchanges of a recording in the order they were appended
+   *
+   * @param file
+   * @return List<RecordedExchange>
+   * @throws IOException if the file is not an exchange recording
+   */
+  public static List<RecordedExchange> read(File file) throws IOException {
+    List<RecordedExchange> exchanges = new ArrayList<>();
+    scan(file, exchanges);
+    return exchanges;
+  }
+
+  /**
+   * @return long the length of the file up to the end of the last complete frame
+   */
+  private static long scan(File file, List<RecordedExchange> exchanges) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      readMagic(in);
+      long validLength = MAGIC.length;
+      while (true) {
+        byte[] payload;
+        int storedCrc;
+        try {
+          int length = in.readInt();
+          if (length < 0 || length > file.length() - validLength) {
+            break;
+          }
+          payload = new byte[length];
+          in.readFully(payload);
+          storedCrc = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if ((int) crc.getValue() != storedCrc) {
+          break;
+        }
+        if (exchanges != null) {
+          exchanges.add(readExchange(new DataInputStream(new ByteArrayInputStream(payload))));
+        }
+        validLength += payload.length + 8;
+      }
+      return validLength;
+    }
+  }
+
+  private static RecordedExchange readExchange(DataInputStream in) throws IOException {
+    long startNanos = readVarLong(in);
+    long durationNanos = readVarLong(in);
+    String method = readString(in);
+    String uri = readString(in);
+    List<NameValuePair> requestHeaders = readHeaders(in);
+    String requestBody = readString(in);
+    int status = (int) readVarLong(in);
+    String reason = readString(in);
+    List<NameValuePair> responseHeaders = readHeaders(in);
+    String responseBody = readString(in);
+    return new RecordedExchange(startNanos, durationNanos, method, uri, requestHeaders, requestBody, status, reason,
+        responseHeaders, responseBody);
+  }
+
+  private static void readMagic(DataInputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    try {
+      in.readFully(magic);
+    } catch (EOFException e) {
+      throw new IOException("Not an exchange recording");
+    }
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not an exchange recording");
+    }
+  }
+
+  private static void writeHeaders(DataOutputStream out, List<NameValuePair> headers) throws IOException {
+    writeVarLong(out, headers.size());
+    for (NameValuePair header : headers) {
+      writeString(out, header.getName());
+      writeString(out, header.getValue());
+    }
+  }
+
+  private static List<NameValuePair> readHeaders(DataInputStream in) throws IOException {
+    int count = (int) readVarLong(in);
+    List<NameValuePair> headers = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      headers.add(new BasicNameValuePair(readString(in), readString(in)));
+    }
+    return headers;
+  }
+
+  /**
+   * Strings are written as length + 1, so that 0 stands for null
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      writeVarLong(out, 0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(out, bytes.length + 1L);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    long length = readVarLong(in);
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[(int) (length - 1)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length number");
+  }
+}
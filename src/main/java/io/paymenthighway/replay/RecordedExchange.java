@@ -0,0 +1,92 @@
+package io.paymenthighway.replay;
+
+import org.apache.http.NameValuePair;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One recorded HTTP request and its response, with card data already redacted from the request body
+ */
+public final class RecordedExchange {
+
+  private final long startNanos;
+  private final long durationNanos;
+  private final String method;
+  private final String uri;
+  private final List<NameValuePair> requestHeaders;
+  private final String requestBody;
+  private final int status;
+  private final String reason;
+  private final List<NameValuePair> responseHeaders;
+  private final String responseBody;
+
+  /**
+   * Constructor
+   *
+   * @param startNanos time from the start of the recording to the request
+   * @param durationNanos time from the request to the fully read response
+   * @param method HTTP method
+   * @param uri request URI relative to the service URL, including the query string
+   * @param requestHeaders
+   * @param requestBody
+   * @param status HTTP status code
+   * @param reason HTTP reason phrase
+   * @param responseHeaders
+   * @param responseBody
+   */
+  public RecordedExchange(long startNanos, long durationNanos, String method, String uri,
+                          List<NameValuePair> requestHeaders, String requestBody, int status, String reason,
+                          List<NameValuePair> responseHeaders, String responseBody) {
+    this.startNanos = startNanos;
+    this.durationNanos = durationNanos;
+    this.method = method;
+    this.uri = uri;
+    this.requestHeaders = Collections.unmodifiableList(requestHeaders);
+    this.requestBody = requestBody;
+    this.status = status;
+    this.reason = reason;
+    this.responseHeaders = Collections.unmodifiableList(responseHeaders);
+    this.responseBody = responseBody;
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getUri() {
+    return uri;
+  }
+
+  public List<NameValuePair> getRequestHeaders() {
+    return requestHeaders;
+  }
+
+  public String getRequestBody() {
+    return requestBody;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+  public List<NameValuePair> getResponseHeaders() {
+    return responseHeaders;
+  }
+
+  public String getResponseBody() {
+    return responseBody;
+  }
+}
@@ -0,0 +1,126 @@
+package io.paymenthighway.replay;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the HTTP client of a PaymentAPI and appends every completed exchange to an ExchangeFile.
+ *
+ * Only the sph-* and signature request headers are kept, and card numbers and security codes are masked in
+ * request bodies before they are written. Responses are read into memory so they can be recorded and still be
+ * handed to the caller. Exchanges that fail with an exception are not recorded.
+ */
+public class RecordingHttpClient extends CloseableHttpClient {
+
+  private final CloseableHttpClient delegate;
+  private final ExchangeFile file;
+  private final long origin = System.nanoTime();
+
+  /**
+   * Constructor
+   *
+   * @param delegate the client that executes the requests
+   * @param file the recording to append to, closed together with this client
+   */
+  public RecordingHttpClient(CloseableHttpClient delegate, ExchangeFile file) {
+    this.delegate = delegate;
+    this.file = file;
+  }
+
+  @Override
+  protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+      throws IOException, ClientProtocolException {
+
+    long start = System.nanoTime();
+    String requestBody = null;
+    if (request instanceof HttpEntityEnclosingRequest) {
+      HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+      if (entity != null && entity.isRepeatable()) {
+        requestBody = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+      }
+    }
+
+    CloseableHttpResponse response = delegate.execute(target, request, context);
+    String responseBody = null;
+    HttpEntity entity = response.getEntity();
+    if (entity != null) {
+      ContentType contentType = ContentType.get(entity);
+      byte[] bytes = EntityUtils.toByteArray(entity);
+      response.setEntity(new ByteArrayEntity(bytes, contentType));
+      Charset charset = contentType != null && contentType.getCharset() != null
+          ? contentType.getCharset()
+          : StandardCharsets.UTF_8;
+      responseBody = new String(bytes, charset);
+    }
+    long duration = System.nanoTime() - start;
+
+    List<NameValuePair> requestHeaders = new ArrayList<>();
+    for (Header header : request.getAllHeaders()) {
+      String name = header.getName().toLowerCase();
+      if (name.startsWith("sph-") || name.equals("signature")) {
+        requestHeaders.add(new BasicNameValuePair(header.getName(), header.getValue()));
+      }
+    }
+    List<NameValuePair> responseHeaders = new ArrayList<>();
+    for (Header header : response.getAllHeaders()) {
+      responseHeaders.add(new BasicNameValuePair(header.getName(), header.getValue()));
+    }
+
+    file.append(new RecordedExchange(start - origin, duration, request.getRequestLine().getMethod(),
+        relativeUri(request.getRequestLine().getUri()), requestHeaders, CardDataRedactor.redact(requestBody),
+        response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), responseHeaders,
+        responseBody));
+    return response;
+  }
+
+  /**
+   * @return String the path and query of the URI, the same form the request was signed with
+   */
+  static String relativeUri(String uri) {
+    URI parsed = URI.create(uri);
+    String path = parsed.getRawPath() == null || parsed.getRawPath().isEmpty() ? "/" : parsed.getRawPath();
+    return parsed.getRawQuery() == null ? path : path + "?" + parsed.getRawQuery();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      delegate.close();
+    } finally {
+      file.close();
+    }
+  }
+
+  @Override
+  @Deprecated
+  public HttpParams getParams() {
+    return delegate.getParams();
+  }
+
+  @Override
+  @Deprecated
+  public ClientConnectionManager getConnectionManager() {
+    return delegate.getConnectionManager();
+  }
+}
@@ -0,0 +1,182 @@
+package io.paymenthighway.replay;
+
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.BasicClientConnectionManager;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Serves recorded exchanges back to a PaymentAPI without any network traffic.
+ *
+ * A request is answered with the next recorded exchange of the same method and URI, or, when the URI differs only
+ * by ids, of the same method and URI shape. Exchanges of a key are served round robin, so a short recording can
+ * drive a long run. Each response is held back by its recorded duration multiplied by the time scale: 1.0 keeps
+ * the original timing, 0.5 halves it and 0 serves immediately.
+ */
+public class ReplayHttpClient extends CloseableHttpClient {
+
+  private static final Pattern ID = Pattern.compile(
+      "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+  private final Map<String, Replays> byUri = new HashMap<>();
+  private final Map<String, Replays> byShape = new HashMap<>();
+  private final double timeScale;
+  private final SecureSigner signer;
+  @SuppressWarnings("deprecation")
+  private final ClientConnectionManager connectionManager = new BasicClientConnectionManager();
+
+  /**
+   * Replays responses with their recorded signatures, which validate when the same key is used and the request
+   * URIs match the recording
+   *
+   * @param exchanges
+   * @param timeScale multiplier of the recorded response times
+   */
+  public ReplayHttpClient(List<RecordedExchange> exchanges, double timeScale) {
+    this(exchanges, timeScale, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param exchanges
+   * @param timeScale multiplier of the recorded response times
+   * @param signer re-signs every response for the actual request, null to keep the recorded signatures
+   */
+  public ReplayHttpClient(List<RecordedExchange> exchanges, double timeScale, SecureSigner signer) {
+    if (timeScale < 0) {
+      throw new IllegalArgumentException("timeScale must not be negative");
+    }
+    this.timeScale = timeScale;
+    this.signer = signer;
+    for (RecordedExchange exchange : exchanges) {
+      add(byUri, exchange.getMethod() + " " + exchange.getUri(), exchange);
+      add(byShape, exchange.getMethod() + " " + shape(exchange.getUri()), exchange);
+    }
+  }
+
+  private static void add(Map<String, Replays> index, String key, RecordedExchange exchange) {
+    Replays replays = index.get(key);
+    if (replays == null) {
+      replays = new Replays();
+      index.put(key, replays);
+    }
+    replays.exchanges.add(exchange);
+  }
+
+  private static String shape(String uri) {
+    return ID.matcher(uri).replaceAll("{id}");
+  }
+
+  @Override
+  protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+      throws IOException, ClientProtocolException {
+
+    String method = request.getRequestLine().getMethod();
+    String uri = RecordingHttpClient.relativeUri(request.getRequestLine().getUri());
+    Replays replays = byUri.get(method + " " + uri);
+    if (replays == null) {
+      replays = byShape.get(method + " " + shape(uri));
+    }
+    if (replays == null) {
+      throw new ClientProtocolException("No recorded exchange for " + method + " " + uri);
+    }
+    RecordedExchange exchange = replays.next();
+
+    long delay = (long) (exchange.getDurationNanos() * timeScale);
+    if (delay > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    ReplayedResponse response = new ReplayedResponse(exchange);
+    if (signer != null) {
+      List<NameValuePair> signed = new ArrayList<>();
+      for (NameValuePair header : exchange.getResponseHeaders()) {
+        if (header.getName().toLowerCase().startsWith("sph-")) {
+          signed.add(new BasicNameValuePair(header.getName(), header.getValue()));
+        }
+      }
+      String body = exchange.getResponseBody() == null ? "" : exchange.getResponseBody();
+      response.setHeader("signature", signer.createSignature(method, uri, signed, body));
+    }
+    return response;
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public void close() {
+    connectionManager.shutdown();
+  }
+
+  @Override
+  @Deprecated
+  public HttpParams getParams() {
+    return new BasicHttpParams();
+  }
+
+  @Override
+  @Deprecated
+  /**
+   * @return ClientConnectionManager a manager that never opens a connection, as every response is replayed
+   */
+  public ClientConnectionManager getConnectionManager() {
+    return connectionManager;
+  }
+
+  /**
+   * Recorded exchanges of one key, served round robin
+   */
+  private static class Replays {
+    final List<RecordedExchange> exchanges = new ArrayList<>();
+    final AtomicLong cursor = new AtomicLong();
+
+    RecordedExchange next() {
+      return exchanges.get((int) (cursor.getAndIncrement() % exchanges.size()));
+    }
+  }
+
+  private static class ReplayedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+    ReplayedResponse(RecordedExchange exchange) {
+      super(HttpVersion.HTTP_1_1, exchange.getStatus(), exchange.getReason());
+      for (NameValuePair header : exchange.getResponseHeaders()) {
+        addHeader(header.getName(), header.getValue());
+      }
+      if (exchange.getResponseBody() != null) {
+        setEntity(new StringEntity(exchange.getResponseBody(), ContentType.APPLICATION_JSON));
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * Recording of Payment API exchanges and their deterministic replay
+ */
+package io.paymenthighway.replay;
@@ -4,6 +4,8 @@
 package io.paymenthighway.security;
 
 import io.paymenthighway.PaymentHighwayUtility;
+import io.paymenthighway.jfr.JfrSupport;
+import io.paymenthighway.jfr.SignatureRecording;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -12,7 +14,6 @@ import org.apache.http.message.BasicNameValuePair;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
-import javax.xml.bind.DatatypeConverter;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -25,11 +26,13 @@ public class SecureSigner {
 
   private static final String SignatureScheme = "SPH1";
   private static final String Algorithm = "HmacSHA256";
+  private static final char[] HexDigits = "0123456789abcdef".toCharArray();
 
   private String secretKeyId = null;
   private String secretKey = null;
 
   private SecretKeySpec secretKeySpec = null;
+  private Mac prototype = null;
 
   /**
    * Constructor
@@ -41,6 +44,7 @@ public class SecureSigner {
     this.secretKeyId = id;
     this.secretKey = key;
     this.secretKeySpec = initSecretKeySpec();
+    this.prototype = initSigner();
   }
 
   private SecretKeySpec initSecretKeySpec() {
@@ -74,6 +78,21 @@ public class SecureSigner {
     return signer;
   }
 
+  /**
+   * A keyed Mac is cloned from one that is never used itself, which is much cheaper than looking up and keying a new
+   * one, and safe from any thread
+   */
+  private Mac newSigner() {
+    if (prototype != null) {
+      try {
+        return (Mac) prototype.clone();
+      } catch (CloneNotSupportedException e) {
+        // the provider's Mac cannot be cloned
+      }
+    }
+    return initSigner();
+  }
+
   /**
    * Create signature
    *
@@ -98,6 +117,13 @@ public class SecureSigner {
    * "SPH1 testKey 51dcbaf5a9323daed24c0cdc5bb5d344f321aa84435b64e5da3d8f6c49370532"
    */
   public String createSignature(String method, String uri, List<NameValuePair> keyValues, String body) {
+    SignatureRecording recording = JfrSupport.beginSignature(SignatureRecording.CREATE, method, uri);
+    String signature = formatSignature(method, uri, keyValues, body);
+    recording.end(true);
+    return signature;
+  }
+
+  private String formatSignature(String method, String uri, List<NameValuePair> keyValues, String body) {
     return String.format("%s %s %s", SignatureScheme, secretKeyId, sign(method, uri, keyValues, body));
   }
 
@@ -111,16 +137,53 @@ public class SecureSigner {
    */
   private String sign(String method, String uri, List<NameValuePair> keyValues, String body) {
     List<NameValuePair> sphKeyValues = sortParameters(parseSphParameters(new ArrayList<>(keyValues)));
-    String stringToSign = String.format("%s\n%s\n%s\n%s", method, uri, concatenateKeyValues(sphKeyValues), body.trim());
+    return signConcatenated(method, uri, concatenateKeyValues(sphKeyValues), body);
+  }
+
+  /**
+   * Create signature from key values that are already filtered to the "sph-" parameters, sorted and concatenated
+   * into key:value lines
+   *
+   * @param method
+   * @param uri
+   * @param sortedKeyValues
+   * @param body
+   * @return String eg:
+   * "SPH1 testKey 51dcbaf5a9323daed24c0cdc5bb5d344f321aa84435b64e5da3d8f6c49370532"
+   */
+  public String createPresortedSignature(String method, String uri, String sortedKeyValues, String body) {
+    SignatureRecording recording = JfrSupport.beginSignature(SignatureRecording.CREATE, method, uri);
+    String signature = SignatureScheme + " " + secretKeyId + " " + signConcatenated(method, uri, sortedKeyValues, body);
+    recording.end(true);
+    return signature;
+  }
+
+  private String signConcatenated(String method, String uri, String sortedKeyValues, String body) {
+    String stringToSign = method + "\n" + uri + "\n" + sortedKeyValues + "\n" + body.trim();
 
     byte[] signature = null;
     try {
-      signature = initSigner().doFinal(stringToSign.getBytes("UTF-8"));
+      signature = newSigner().doFinal(stringToSign.getBytes("UTF-8"));
     } catch (IllegalStateException | UnsupportedEncodingException e) {
       e.printStackTrace();
     }
 
-    return DatatypeConverter.printHexBinary(signature).toLowerCase();
+    return toHex(signature);
+  }
+
+  /**
+   * Lower case hex encoding of the signature bytes
+   *
+   * @param bytes
+   * @return String hex
+   */
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HexDigits[(bytes[i] >> 4) & 0x0f];
+      hex[i * 2 + 1] = HexDigits[bytes[i] & 0x0f];
+    }
+    return new String(hex);
   }
 
   /**
@@ -237,14 +300,16 @@ public class SecureSigner {
    */
   public boolean validateSignature(String method, String uri, List<NameValuePair> keyValues, String content) {
 
+    SignatureRecording recording = JfrSupport.beginSignature(SignatureRecording.VALIDATE, method, uri);
     String receivedSignature = findSignature(keyValues);
 
-    if (receivedSignature.isEmpty()) {
-      return false;
-    } else {
-      String createdSignature = this.createSignature(method, uri, keyValues, content);
-      return receivedSignature.equals(createdSignature);
+    boolean valid = false;
+    if (!receivedSignature.isEmpty()) {
+      String createdSignature = this.formatSignature(method, uri, keyValues, content);
+      valid = receivedSignature.equals(createdSignature);
     }
+    recording.end(valid);
+    return valid;
   }
 
   private String findSignature(List<NameValuePair> nameValuePairs) {
@@ -0,0 +1,239 @@
+package io.paymenthighway.state;
+
+import io.paymenthighway.json.JsonGenerator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.OrderSearchResponse;
+import io.paymenthighway.model.response.Response;
+import io.paymenthighway.model.response.TransactionStatus;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The transactions of orders, so that PaymentAPI.searchOrders can be answered without a request. Set it with
+ * PaymentAPI.setOrderIndex.
+ *
+ * An order is indexed from the complete transaction list of a search, and stays fresh for the maximum age: other
+ * clients may add transactions to the same order meanwhile. Debits this client makes with the order id are added
+ * to a fresh order; they do not index an order on their own, since its earlier transactions would be missing.
+ * The latest status of each transaction is kept from status and search responses, and forgotten when this client
+ * commits or reverts it.
+ * A search is answered locally only while the order is fresh and the status of every transaction is known.
+ */
+public class OrderIndex {
+
+  private static final String RESULT_OK = "100";
+
+  private final StripedLruMap<String, OrderEntry> orders;
+  private final StripedLruMap<UUID, String> orderOfTransaction;
+  private final long maxAgeMillis;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param maxOrders maximum number of orders kept, the least recently used are evicted
+   * @param maxAge time an order is trusted after it was debited or searched
+   * @param unit
+   */
+  public OrderIndex(int maxOrders, long maxAge, TimeUnit unit) {
+    this.orders = new StripedLruMap<>(maxOrders, 16);
+    this.orderOfTransaction = new StripedLruMap<>(maxOrders, 16);
+    this.maxAgeMillis = unit.toMillis(maxAge);
+  }
+
+  /**
+   * @param order
+   * @return List the order's transaction ids, null if the order is not indexed or no longer fresh
+   */
+  public List<UUID> getTransactionIds(String order) {
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      OrderEntry entry = freshEntry(stripe, order);
+      if (entry == null) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      return Collections.unmodifiableList(new ArrayList<>(entry.transactions.keySet()));
+    }
+  }
+
+  /**
+   * @param order
+   * @return OrderSearchResponse built from the known statuses, null if the order is not fresh or a status is not
+   * known
+   */
+  public OrderSearchResponse getSearchResponse(String order) {
+    List<TransactionStatus> statuses;
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      OrderEntry entry = freshEntry(stripe, order);
+      if (entry == null || entry.transactions.containsValue(null)) {
+        misses.increment();
+        return null;
+      }
+      hits.increment();
+      statuses = new ArrayList<>(entry.transactions.values());
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("code", RESULT_OK);
+    result.put("message", "OK");
+    Map<String, Object> response = new LinkedHashMap<>();
+    response.put("result", result);
+    response.put("transactions", statuses);
+    return new JsonParser().mapResponse(new JsonGenerator().createTransactionJson(response),
+        OrderSearchResponse.class);
+  }
+
+  private OrderEntry freshEntry(Map<String, OrderEntry> stripe, String order) {
+    OrderEntry entry = stripe.get(order);
+    if (entry != null && System.currentTimeMillis() - entry.refreshedMillis > maxAgeMillis) {
+      stripe.remove(order);
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * @return int number of orders kept
+   */
+  public int size() {
+    return orders.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Records a debit made with an order id, if the order is indexed and fresh. The transaction's status is not known
+   * until it is requested.
+   *
+   * @param transactionId
+   * @param order
+   * @param response
+   */
+  public void recordDebit(UUID transactionId, String order, Response response) {
+    if (order == null || response == null || response.getResult() == null) {
+      return;
+    }
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      OrderEntry entry = freshEntry(stripe, order);
+      if (entry == null) {
+        return;
+      }
+      entry.transactions.put(transactionId, null);
+    }
+    link(transactionId, order);
+  }
+
+  /**
+   * Forgets the status of a transaction that was committed or reverted
+   *
+   * @param transactionId
+   */
+  public void recordChange(UUID transactionId) {
+    String order = orderOf(transactionId);
+    if (order == null) {
+      return;
+    }
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      OrderEntry entry = stripe.get(order);
+      if (entry != null && entry.transactions.containsKey(transactionId)) {
+        entry.transactions.put(transactionId, null);
+      }
+    }
+  }
+
+  /**
+   * Keeps the status of a transaction of an indexed order
+   *
+   * @param response
+   */
+  public void recordStatus(TransactionStatusResponse response) {
+    if (response == null || response.getResult() == null || !RESULT_OK.equals(response.getResult().getCode())
+        || response.getTransaction() == null || response.getTransaction().getId() == null) {
+      return;
+    }
+    TransactionStatus transaction = response.getTransaction();
+    String order = transaction.getOrder() != null ? transaction.getOrder() : orderOf(transaction.getId());
+    if (order == null) {
+      return;
+    }
+    boolean indexed;
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      OrderEntry entry = stripe.get(order);
+      indexed = entry != null;
+      if (indexed) {
+        entry.transactions.put(transaction.getId(), transaction);
+      }
+    }
+    if (indexed) {
+      link(transaction.getId(), order);
+    }
+  }
+
+  /**
+   * Replaces an order with the transactions of a search response
+   *
+   * @param order
+   * @param response
+   */
+  public void recordSearch(String order, OrderSearchResponse response) {
+    if (response == null || response.getResult() == null || !RESULT_OK.equals(response.getResult().getCode())) {
+      return;
+    }
+    OrderEntry entry = new OrderEntry();
+    if (response.getTransactions() != null) {
+      for (TransactionStatus transaction : response.getTransactions()) {
+        if (transaction.getId() != null) {
+          entry.transactions.put(transaction.getId(), transaction);
+          link(transaction.getId(), order);
+        }
+      }
+    }
+    Map<String, OrderEntry> stripe = orders.stripeFor(order);
+    synchronized (stripe) {
+      stripe.put(order, entry);
+    }
+  }
+
+  private void link(UUID transactionId, String order) {
+    Map<UUID, String> stripe = orderOfTransaction.stripeFor(transactionId);
+    synchronized (stripe) {
+      stripe.put(transactionId, order);
+    }
+  }
+
+  private String orderOf(UUID transactionId) {
+    Map<UUID, String> stripe = orderOfTransaction.stripeFor(transactionId);
+    synchronized (stripe) {
+      return stripe.get(transactionId);
+    }
+  }
+
+  /**
+   * An order's transactions in the order they were seen, with their statuses or null where not known. Guarded by
+   * its stripe.
+   */
+  private static final class OrderEntry {
+    final long refreshedMillis = System.currentTimeMillis();
+    final Map<UUID, TransactionStatus> transactions = new LinkedHashMap<>();
+  }
+}
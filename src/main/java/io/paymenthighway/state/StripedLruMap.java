@@ -0,0 +1,74 @@
+package io.paymenthighway.state;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded map split into lock stripes. Each stripe is a least recently used map holding its share of the maximum
+ * size; callers synchronize on the stripe returned by stripeFor for every access.
+ *
+ * @param <K>
+ * @param <V>
+ */
+final class StripedLruMap<K, V> {
+
+  private final Stripe<K, V>[] stripes;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  StripedLruMap(int maxSize, int stripes) {
+    if (maxSize < 1 || stripes < 1) {
+      throw new IllegalArgumentException("maxSize and stripes must be positive");
+    }
+    stripes = Math.min(stripes, maxSize);
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe<>(maxSize / stripes + (i < maxSize % stripes ? 1 : 0));
+    }
+  }
+
+  Map<K, V> stripeFor(K key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return stripes[(h & Integer.MAX_VALUE) % stripes.length];
+  }
+
+  int size() {
+    int size = 0;
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return List of all values, one stripe locked at a time
+   */
+  List<V> values() {
+    List<V> values = new ArrayList<>();
+    for (Stripe<K, V> stripe : stripes) {
+      synchronized (stripe) {
+        values.addAll(stripe.values());
+      }
+    }
+    return values;
+  }
+
+  private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+    private final int capacity;
+
+    Stripe(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > capacity;
+    }
+  }
+}
@@ -0,0 +1,345 @@
+package io.paymenthighway.state;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.Result;
+import io.paymenthighway.model.response.TokenizationResponse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tokenization results by tokenization id and card token, so that PaymentAPI.tokenize and masked card data lookups
+ * do not need a request. A tokenization's result never changes, so it is kept until the card expires at the end of
+ * its expiry month, or until it is evicted as the least recently used. Set it with PaymentAPI.setTokenizationCache.
+ *
+ * With a file the cache is loaded on creation and saved on close, so that a restart does not request every
+ * tokenization again. The file holds one binary record per tokenization with only what the cache serves: the id,
+ * the expiry time, the result, the card token, the masked card data and the cardholder authentication. The customer
+ * is not saved, so a response loaded from the file has none. The card tokens can be charged with the merchant's
+ * credentials, so the file is created readable by its owner only where the file system allows it and should be
+ * protected like them. It is replaced atomically on save; a record cut short is dropped when loading.
+ */
+public class TokenizationCache implements Closeable {
+
+  private static final int MAGIC = 0x50485432; // "PHT2"
+  private static final int MAGIC_JSON = 0x50485431; // "PHT1", responses as JSON, no longer read
+  private static final String RESULT_OK = "100";
+
+  private final StripedLruMap<UUID, Entry> byTokenizationId;
+  private final StripedLruMap<UUID, UUID> tokenizationIdByCardToken;
+  private final File file;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructor for a cache kept in memory only
+   *
+   * @param maxSize maximum number of tokenizations kept
+   */
+  public TokenizationCache(int maxSize) {
+    this.byTokenizationId = new StripedLruMap<>(maxSize, 16);
+    this.tokenizationIdByCardToken = new StripedLruMap<>(maxSize, 16);
+    this.file = null;
+  }
+
+  /**
+   * Constructor for a cache persisted to a file
+   *
+   * @param maxSize maximum number of tokenizations kept
+   * @param file loaded if it exists, written on save and close
+   * @throws IOException if the file cannot be read or is not a cache file
+   */
+  public TokenizationCache(int maxSize, File file) throws IOException {
+    this.byTokenizationId = new StripedLruMap<>(maxSize, 16);
+    this.tokenizationIdByCardToken = new StripedLruMap<>(maxSize, 16);
+    this.file = file;
+    if (file.exists()) {
+      load();
+    }
+  }
+
+  /**
+   * @param tokenizationId
+   * @return TokenizationResponse null if not cached or the card has expired
+   */
+  public TokenizationResponse get(UUID tokenizationId) {
+    Entry entry = entry(tokenizationId);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.response;
+  }
+
+  /**
+   * @param cardToken
+   * @return TokenizationResponse of the tokenization that created the card token, null if not cached or the card
+   * has expired
+   */
+  public TokenizationResponse getByCardToken(UUID cardToken) {
+    UUID tokenizationId;
+    Map<UUID, UUID> stripe = tokenizationIdByCardToken.stripeFor(cardToken);
+    synchronized (stripe) {
+      tokenizationId = stripe.get(cardToken);
+    }
+    if (tokenizationId == null) {
+      misses.increment();
+      return null;
+    }
+    return get(tokenizationId);
+  }
+
+  private Entry entry(UUID tokenizationId) {
+    Map<UUID, Entry> stripe = byTokenizationId.stripeFor(tokenizationId);
+    synchronized (stripe) {
+      Entry entry = stripe.get(tokenizationId);
+      if (entry != null && entry.expiresMillis <= System.currentTimeMillis()) {
+        stripe.remove(tokenizationId);
+        return null;
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Caches a successful tokenization of a card that has not expired
+   *
+   * @param tokenizationId
+   * @param response
+   */
+  public void put(UUID tokenizationId, TokenizationResponse response) {
+    if (response == null || response.getResult() == null || !RESULT_OK.equals(response.getResult().getCode())
+        || response.getCardToken() == null) {
+      return;
+    }
+    long expiresMillis = expiresMillis(response.getCard());
+    if (expiresMillis <= System.currentTimeMillis()) {
+      return;
+    }
+    put(new Entry(tokenizationId, expiresMillis, response));
+  }
+
+  private void put(Entry entry) {
+    Map<UUID, Entry> stripe = byTokenizationId.stripeFor(entry.tokenizationId);
+    synchronized (stripe) {
+      stripe.put(entry.tokenizationId, entry);
+    }
+    UUID cardToken = entry.response.getCardToken();
+    Map<UUID, UUID> tokenStripe = tokenizationIdByCardToken.stripeFor(cardToken);
+    synchronized (tokenStripe) {
+      tokenStripe.put(cardToken, entry.tokenizationId);
+    }
+  }
+
+  /**
+   * @return long the end of the card's expiry month, MAX_VALUE if the card has no valid expiry
+   */
+  static long expiresMillis(TokenizationResponse.Card card) {
+    if (card == null) {
+      return Long.MAX_VALUE;
+    }
+    try {
+      int year = Integer.parseInt(card.getExpireYear());
+      int month = Integer.parseInt(card.getExpireMonth());
+      if (year < 100) {
+        year += 2000;
+      }
+      return YearMonth.of(year, month).plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant()
+          .toEpochMilli();
+    } catch (RuntimeException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * @return int number of tokenizations kept, expired ones included until they are looked up or purged
+   */
+  public int size() {
+    return byTokenizationId.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Removes the tokenizations of expired cards
+   *
+   * @return int number of tokenizations removed
+   */
+  public int purgeExpired() {
+    int purged = 0;
+    for (Entry entry : byTokenizationId.values()) {
+      if (entry.expiresMillis <= System.currentTimeMillis() && entry(entry.tokenizationId) == null) {
+        purged++;
+      }
+    }
+    return purged;
+  }
+
+  private void load() throws IOException {
+    JsonParser parser = new JsonParser();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int magic = in.readInt();
+      if (magic == MAGIC_JSON) {
+        return;
+      }
+      if (magic != MAGIC) {
+        throw new IOException("Not a tokenization cache file: " + file);
+      }
+      long now = System.currentTimeMillis();
+      while (true) {
+        UUID tokenizationId = readUuid(in);
+        long expiresMillis = in.readLong();
+        TokenizationResponse response = parser.mapResponse(readResponse(in), TokenizationResponse.class);
+        if (expiresMillis > now) {
+          put(new Entry(tokenizationId, expiresMillis, response));
+        }
+      }
+    } catch (EOFException e) {
+      // End of file, or a record cut short
+    }
+  }
+
+  private static ObjectNode readResponse(DataInputStream in) throws IOException {
+    ObjectNode response = JsonNodeFactory.instance.objectNode();
+    ObjectNode result = response.putObject("result");
+    result.put("code", readString(in));
+    result.put("message", readString(in));
+    response.put("card_token", readUuid(in).toString());
+    response.put("cardholder_authentication", readString(in));
+    if (in.readBoolean()) {
+      ObjectNode card = response.putObject("card");
+      card.put("type", readString(in));
+      card.put("partial_pan", readString(in));
+      card.put("expire_year", readString(in));
+      card.put("expire_month", readString(in));
+      card.put("cvc_required", readString(in));
+      card.put("bin", readString(in));
+      card.put("funding", readString(in));
+      card.put("category", readString(in));
+      card.put("country_code", readString(in));
+    }
+    return response;
+  }
+
+  private static void writeResponse(DataOutputStream out, TokenizationResponse response) throws IOException {
+    Result result = response.getResult();
+    writeString(out, result.getCode());
+    writeString(out, result.getMessage());
+    writeUuid(out, response.getCardToken());
+    writeString(out, response.getCardholderAuthentication());
+    TokenizationResponse.Card card = response.getCard();
+    out.writeBoolean(card != null);
+    if (card != null) {
+      writeString(out, card.getType());
+      writeString(out, card.getPartialPan());
+      writeString(out, card.getExpireYear());
+      writeString(out, card.getExpireMonth());
+      writeString(out, card.getCvcRequired());
+      writeString(out, card.getBin());
+      writeString(out, card.getFunding());
+      writeString(out, card.getCategory());
+      writeString(out, card.getCountryCode());
+    }
+  }
+
+  private static UUID readUuid(DataInputStream in) throws IOException {
+    return new UUID(in.readLong(), in.readLong());
+  }
+
+  private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * Writes the unexpired tokenizations to the file, replacing it
+   *
+   * @throws IOException
+   */
+  public void save() throws IOException {
+    if (file == null) {
+      return;
+    }
+    File temporary = new File(file.getPath() + ".tmp");
+    Files.deleteIfExists(temporary.toPath());
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      Files.createFile(temporary.toPath(),
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    }
+    long now = System.currentTimeMillis();
+    try (FileOutputStream stream = new FileOutputStream(temporary);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+      out.writeInt(MAGIC);
+      for (Entry entry : byTokenizationId.values()) {
+        if (entry.expiresMillis > now) {
+          writeUuid(out, entry.tokenizationId);
+          out.writeLong(entry.expiresMillis);
+          writeResponse(out, entry.response);
+        }
+      }
+      out.flush();
+      stream.getFD().sync();
+    }
+    Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Saves the cache if it has a file
+   *
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException {
+    save();
+  }
+
+  private static final class Entry {
+    final UUID tokenizationId;
+    final long expiresMillis;
+    final TokenizationResponse response;
+
+    Entry(UUID tokenizationId, long expiresMillis, TokenizationResponse response) {
+      this.tokenizationId = tokenizationId;
+      this.expiresMillis = expiresMillis;
+      this.response = response;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.paymenthighway.state;
+
+import java.util.UUID;
+
+/**
+ * The locally known state of a transaction. Immutable, every change replaces it.
+ */
+public final class TransactionState {
+
+  /**
+   * Lifecycle of a transaction: initialized, then debited or failed. A debited transaction is committed, and
+   * reverted once its whole amount has been reverted.
+   */
+  public enum Stage {
+    INITIALIZED,
+    DEBITED,
+    COMMITTED,
+    REVERTED,
+    FAILED
+  }
+
+  private final UUID transactionId;
+  private final Stage stage;
+  private final long amount;
+  private final long currentAmount;
+  private final String currency;
+  private final boolean fromStatus;
+  private final long updatedMillis;
+
+  /**
+   * Constructor
+   *
+   * @param transactionId
+   * @param stage
+   * @param amount debited amount in minor units, zero before the debit
+   * @param currentAmount amount left after reverts
+   * @param currency null before the debit
+   * @param fromStatus true if the state comes from a transaction status response
+   */
+  public TransactionState(UUID transactionId, Stage stage, long amount, long currentAmount, String currency,
+                          boolean fromStatus) {
+    this.transactionId = transactionId;
+    this.stage = stage;
+    this.amount = amount;
+    this.currentAmount = currentAmount;
+    this.currency = currency;
+    this.fromStatus = fromStatus;
+    this.updatedMillis = System.currentTimeMillis();
+  }
+
+  public UUID getTransactionId() {
+    return transactionId;
+  }
+
+  public Stage getStage() {
+    return stage;
+  }
+
+  public long getAmount() {
+    return amount;
+  }
+
+  public long getCurrentAmount() {
+    return currentAmount;
+  }
+
+  public String getCurrency() {
+    return currency;
+  }
+
+  /**
+   * @return boolean true if the state was last set by a transaction status response rather than derived locally
+   */
+  public boolean isFromStatus() {
+    return fromStatus;
+  }
+
+  public long getUpdatedMillis() {
+    return updatedMillis;
+  }
+
+  TransactionState withStage(Stage stage, long currentAmount) {
+    return new TransactionState(transactionId, stage, amount, currentAmount, currency, false);
+  }
+
+  @Override
+  public String toString() {
+    return "transaction " + transactionId + " " + stage + " " + currentAmount + "/" + amount
+        + (currency != null ? " " + currency : "");
+  }
+}
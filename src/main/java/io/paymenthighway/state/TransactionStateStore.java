@@ -0,0 +1,264 @@
+package io.paymenthighway.state;
+
+import io.paymenthighway.model.response.Response;
+import io.paymenthighway.model.response.Revert;
+import io.paymenthighway.model.response.Status;
+import io.paymenthighway.model.response.TransactionStatus;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transaction states as seen in the responses of a PaymentAPI, so that callers can look them up without a
+ * transaction status request. Set it with PaymentAPI.setStateStore.
+ *
+ * Local responses move a transaction along its lifecycle: init, debit, commit and reverts, which lower the current
+ * amount. A response that does not fit the known state, e.g. a commit of a reverted transaction, means the local
+ * state is stale; the transaction is dropped and counted as a violation, so the next lookup goes to Payment
+ * Highway. Transaction status responses are authoritative and replace the state.
+ *
+ * The map is split into lock stripes by transaction id, each holding its share of the maximum size and evicting
+ * the least recently used transaction when full.
+ */
+public class TransactionStateStore {
+
+  private static final String RESULT_OK = "100";
+  private static final String RESULT_REJECTED = "200";
+
+  private final StripedLruMap<UUID, TransactionState> states;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder violations = new LongAdder();
+
+  /**
+   * Constructor
+   *
+   * @param maxSize maximum number of transactions kept
+   */
+  public TransactionStateStore(int maxSize) {
+    this(maxSize, 16);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maxSize maximum number of transactions kept
+   * @param stripes number of independently locked parts
+   */
+  public TransactionStateStore(int maxSize, int stripes) {
+    this.states = new StripedLruMap<>(maxSize, stripes);
+  }
+
+  /**
+   * @param transactionId
+   * @return TransactionState the locally known state, null if the transaction is not known
+   */
+  public TransactionState get(UUID transactionId) {
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    TransactionState state;
+    synchronized (stripe) {
+      state = stripe.get(transactionId);
+    }
+    if (state != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return state;
+  }
+
+  /**
+   * @param transactionId
+   */
+  public void remove(UUID transactionId) {
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    synchronized (stripe) {
+      stripe.remove(transactionId);
+    }
+  }
+
+  /**
+   * @return int number of transactions kept
+   */
+  public int size() {
+    return states.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return long responses that did not fit the known state and dropped it
+   */
+  public long getViolations() {
+    return violations.sum();
+  }
+
+  /**
+   * Records a new transaction
+   *
+   * @param transactionId
+   */
+  public void recordInit(UUID transactionId) {
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    synchronized (stripe) {
+      if (!stripe.containsKey(transactionId)) {
+        stripe.put(transactionId,
+            new TransactionState(transactionId, TransactionState.Stage.INITIALIZED, 0, 0, null, false));
+      }
+    }
+  }
+
+  /**
+   * Records a debit response. Approved debits are debited, or committed if the request committed them; rejected
+   * ones failed.
+   *
+   * @param transactionId
+   * @param amount requested amount
+   * @param currency
+   * @param commit true if the debit request also committed, which Payment Highway does unless commit is false
+   * @param response
+   */
+  public void recordDebit(UUID transactionId, String amount, String currency, boolean commit, Response response) {
+    String result = resultOf(response);
+    long debited = parseAmount(amount);
+    TransactionState.Stage stage;
+    if (RESULT_OK.equals(result) && debited >= 0) {
+      stage = commit ? TransactionState.Stage.COMMITTED : TransactionState.Stage.DEBITED;
+    } else if (RESULT_REJECTED.equals(result)) {
+      stage = TransactionState.Stage.FAILED;
+    } else {
+      return;
+    }
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    synchronized (stripe) {
+      TransactionState known = stripe.get(transactionId);
+      if (known != null && known.getStage() != TransactionState.Stage.INITIALIZED) {
+        violation(stripe, transactionId);
+        return;
+      }
+      stripe.put(transactionId, new TransactionState(transactionId, stage,
+          stage == TransactionState.Stage.FAILED ? 0 : debited,
+          stage == TransactionState.Stage.FAILED ? 0 : debited, currency, false));
+    }
+  }
+
+  /**
+   * Records a commit response. A commit of an unknown transaction is recorded with the committed amount.
+   *
+   * @param transactionId
+   * @param amount committed amount
+   * @param currency
+   * @param response
+   */
+  public void recordCommit(UUID transactionId, String amount, String currency, Response response) {
+    long committed = parseAmount(amount);
+    if (!RESULT_OK.equals(resultOf(response)) || committed < 0) {
+      return;
+    }
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    synchronized (stripe) {
+      TransactionState known = stripe.get(transactionId);
+      if (known == null) {
+        stripe.put(transactionId, new TransactionState(transactionId, TransactionState.Stage.COMMITTED,
+            committed, committed, currency, false));
+      } else if (known.getStage() == TransactionState.Stage.DEBITED
+          || known.getStage() == TransactionState.Stage.COMMITTED) {
+        stripe.put(transactionId, known.withStage(TransactionState.Stage.COMMITTED, known.getCurrentAmount()));
+      } else {
+        violation(stripe, transactionId);
+      }
+    }
+  }
+
+  /**
+   * Records a revert response. Reverts of unknown transactions are not recorded, their current amount is unknown.
+   *
+   * @param transactionId
+   * @param amount reverted amount, null for the whole current amount
+   * @param response
+   */
+  public void recordRevert(UUID transactionId, String amount, Response response) {
+    long reverted = amount != null ? parseAmount(amount) : Long.MAX_VALUE;
+    if (!RESULT_OK.equals(resultOf(response)) || reverted < 0) {
+      return;
+    }
+    Map<UUID, TransactionState> stripe = states.stripeFor(transactionId);
+    synchronized (stripe) {
+      TransactionState known = stripe.get(transactionId);
+      if (known == null) {
+        return;
+      }
+      if ((known.getStage() != TransactionState.Stage.DEBITED && known.getStage() != TransactionState.Stage.COMMITTED)
+          || (amount != null && reverted > known.getCurrentAmount())) {
+        violation(stripe, transactionId);
+        return;
+      }
+      long current = amount != null ? known.getCurrentAmount() - reverted : 0;
+      stripe.put(transactionId, known.withStage(
+          current == 0 ? TransactionState.Stage.REVERTED : known.getStage(), current));
+    }
+  }
+
+  /**
+   * Replaces the local state with the one in a transaction status response
+   *
+   * @param response
+   */
+  public void recordStatus(TransactionStatusResponse response) {
+    if (!RESULT_OK.equals(resultOf(response)) || response.getTransaction() == null
+        || response.getTransaction().getId() == null) {
+      return;
+    }
+    TransactionStatus transaction = response.getTransaction();
+    long amount = Math.max(parseAmount(transaction.getAmount()), 0);
+    long current = Math.max(parseAmount(transaction.getCurrentAmount()), 0);
+    TransactionState state = new TransactionState(transaction.getId(), stageOf(transaction), amount, current,
+        transaction.getCurrency(), true);
+    Map<UUID, TransactionState> stripe = states.stripeFor(transaction.getId());
+    synchronized (stripe) {
+      stripe.put(transaction.getId(), state);
+    }
+  }
+
+  private static TransactionState.Stage stageOf(TransactionStatus transaction) {
+    Status status = transaction.getStatus();
+    String state = status != null ? status.getState() : null;
+    if (state == null || "initialized".equals(transaction.getType())) {
+      return TransactionState.Stage.INITIALIZED;
+    }
+    if (!"ok".equals(state)) {
+      return TransactionState.Stage.FAILED;
+    }
+    Revert[] reverts = transaction.getReverts();
+    if (reverts != null && reverts.length > 0 && parseAmount(transaction.getCurrentAmount()) == 0) {
+      return TransactionState.Stage.REVERTED;
+    }
+    return Boolean.TRUE.equals(transaction.getCommitted())
+        ? TransactionState.Stage.COMMITTED : TransactionState.Stage.DEBITED;
+  }
+
+  private void violation(Map<UUID, TransactionState> stripe, UUID transactionId) {
+    stripe.remove(transactionId);
+    violations.increment();
+  }
+
+  private static String resultOf(Response response) {
+    return response != null && response.getResult() != null ? response.getResult().getCode() : null;
+  }
+
+  private static long parseAmount(String amount) {
+    try {
+      return amount != null ? Long.parseLong(amount) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,4 @@
+/**
+ * Local state kept from the responses PaymentAPI has seen: transactions, orders and tokenizations
+ */
+package io.paymenthighway.state;
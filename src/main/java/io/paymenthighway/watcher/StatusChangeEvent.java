@@ -0,0 +1,61 @@
+package io.paymenthighway.watcher;
+
+import io.paymenthighway.model.response.TransactionStatus;
+
+import java.util.UUID;
+
+/**
+ * A change in a watched transaction's status
+ */
+public final class StatusChangeEvent {
+
+  private final UUID transactionId;
+  private final String previousState;
+  private final String previousCode;
+  private final TransactionStatus transaction;
+  private final boolean settled;
+
+  /**
+   * Constructor
+   *
+   * @param transactionId
+   * @param previousState state of the previous poll, null if this was the first one
+   * @param previousCode status code of the previous poll, null if this was the first one
+   * @param transaction status of this poll
+   * @param settled true if the state is final and the transaction is no longer watched
+   */
+  public StatusChangeEvent(UUID transactionId, String previousState, String previousCode,
+                           TransactionStatus transaction, boolean settled) {
+    this.transactionId = transactionId;
+    this.previousState = previousState;
+    this.previousCode = previousCode;
+    this.transaction = transaction;
+    this.settled = settled;
+  }
+
+  public UUID getTransactionId() {
+    return transactionId;
+  }
+
+  public String getPreviousState() {
+    return previousState;
+  }
+
+  public String getPreviousCode() {
+    return previousCode;
+  }
+
+  public TransactionStatus getTransaction() {
+    return transaction;
+  }
+
+  public boolean isSettled() {
+    return settled;
+  }
+
+  @Override
+  public String toString() {
+    return "transaction " + transactionId + " " + previousState + "/" + previousCode + " -> "
+        + transaction.getStatus().getState() + "/" + transaction.getStatus().getCode();
+  }
+}
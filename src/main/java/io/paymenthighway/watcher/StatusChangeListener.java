@@ -0,0 +1,22 @@
+package io.paymenthighway.watcher;
+
+import java.util.UUID;
+
+/**
+ * Receives the status changes of watched transactions. Called from the polling threads, so implementations must
+ * be thread safe and should return quickly.
+ */
+public interface StatusChangeListener {
+
+  /**
+   * @param event
+   */
+  void statusChanged(StatusChangeEvent event);
+
+  /**
+   * The transaction did not settle within the maximum watch time and is no longer watched
+   *
+   * @param transactionId
+   */
+  void expired(UUID transactionId);
+}
@@ -0,0 +1,460 @@
+package io.paymenthighway.watcher;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.response.Status;
+import io.paymenthighway.model.response.TransactionStatus;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Polls the status of pending transactions, e.g. after 3-D Secure or a timed out request, until they settle.
+ *
+ * Watched transactions are kept on a hashed timing wheel in primitive arrays, so millions of them cost tens of
+ * bytes each. On every tick the due transactions of the tick's bucket are handed to a fixed pool of polling
+ * threads, at most a bounded number at a time; the rest wait for the next tick. A poll that sees no change doubles
+ * the transaction's polling interval up to the maximum, a change resets it. The listener gets an event for every
+ * status change, and the transaction is dropped once its state is settled or its maximum watch time has passed.
+ *
+ * <pre>
+ * try (TransactionStatusWatcher watcher = new TransactionStatusWatcher.Builder(paymentApi)
+ *     .setListener(listener)
+ *     .setBackoff(2, 300, TimeUnit.SECONDS)
+ *     .build()) {
+ *   watcher.watch(transactionId);
+ *   ...
+ * }
+ * </pre>
+ */
+public class TransactionStatusWatcher implements Closeable {
+
+  /* State ids: the transaction has not been polled yet, or its status had no state */
+  private static final byte UNPOLLED = 0;
+  private static final byte NO_STATE = 1;
+  private static final int NO_CODE = Integer.MIN_VALUE;
+
+  private final PaymentAPI paymentApi;
+  private final StatusChangeListener listener;
+  private final Set<String> settledStates;
+  private final long tickNanos;
+  private final long initialDelayTicks;
+  private final long maxDelayTicks;
+  private final long maxAgeTicks;
+  private final int maxInFlight;
+  private final long startNanos = System.nanoTime();
+
+  private final Object lock = new Object();
+  private final ThreadPoolExecutor pollers;
+  private final Thread ticker;
+  private final LongAdder polls = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  /* Guarded by lock */
+  private final WatchTable table;
+  private final List<String> states = new ArrayList<>(Arrays.asList(null, null));
+  private final int[] due;
+  private long processedTick = 0;
+  private int inFlight = 0;
+  private boolean closed = false;
+
+  private TransactionStatusWatcher(Builder builder) {
+    this.paymentApi = builder.paymentApi;
+    this.listener = builder.listener;
+    this.settledStates = builder.settledStates;
+    this.tickNanos = builder.tickNanos;
+    this.initialDelayTicks = toTicks(builder.initialDelayNanos);
+    this.maxDelayTicks = Math.max(initialDelayTicks, toTicks(builder.maxDelayNanos));
+    this.maxAgeTicks = toTicks(builder.maxAgeNanos);
+    this.maxInFlight = builder.maxInFlight;
+    this.table = new WatchTable(builder.wheelSize, builder.initialCapacity);
+    this.due = new int[maxInFlight];
+
+    ThreadFactory threads = new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "TransactionStatusWatcher-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+    // The ticker never queues more than maxInFlight polls
+    this.pollers = new ThreadPoolExecutor(builder.concurrency, builder.concurrency, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), threads);
+    this.ticker = threads.newThread(new Runnable() {
+      @Override
+      public void run() {
+        tick();
+      }
+    });
+    ticker.setName("TransactionStatusWatcher-ticker");
+    ticker.start();
+  }
+
+  private long toTicks(long nanos) {
+    return Math.max(1, (nanos + tickNanos - 1) / tickNanos);
+  }
+
+  private long currentTick() {
+    return (System.nanoTime() - startNanos) / tickNanos;
+  }
+
+  /**
+   * Starts watching a transaction. The first poll is after the initial delay.
+   *
+   * @param transactionId
+   * @return boolean false if the transaction is already watched
+   * @throws IllegalStateException if the watcher is closed
+   */
+  public boolean watch(UUID transactionId) {
+    synchronized (lock) {
+      if (closed) {
+        throw new IllegalStateException("Watcher is closed");
+      }
+      long now = currentTick();
+      return table.add(transactionId, now + initialDelayTicks, now + maxAgeTicks) != WatchTable.NONE;
+    }
+  }
+
+  /**
+   * Stops watching a transaction. A poll already running completes without an event.
+   *
+   * @param transactionId
+   * @return boolean false if the transaction was not watched
+   */
+  public boolean unwatch(UUID transactionId) {
+    synchronized (lock) {
+      return table.cancel(transactionId);
+    }
+  }
+
+  /**
+   * @param transactionId
+   * @return boolean true if the transaction is watched
+   */
+  public boolean isWatched(UUID transactionId) {
+    synchronized (lock) {
+      return table.find(transactionId) != WatchTable.NONE;
+    }
+  }
+
+  /**
+   * @return int number of watched transactions
+   */
+  public int size() {
+    synchronized (lock) {
+      return table.size();
+    }
+  }
+
+  /**
+   * @return long status requests made
+   */
+  public long getPollCount() {
+    return polls.sum();
+  }
+
+  /**
+   * @return long status requests that failed and were retried later
+   */
+  public long getErrorCount() {
+    return errors.sum();
+  }
+
+  /**
+   * Stops polling. Transactions still watched are dropped without events.
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      lock.notifyAll();
+    }
+    pollers.shutdown();
+    try {
+      ticker.join();
+      pollers.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the wheel: advances one tick at a time, catching up when late, and waits while the polls in flight are
+   * at the limit
+   */
+  private void tick() {
+    synchronized (lock) {
+      try {
+        while (!closed) {
+          long waitNanos = startNanos + (processedTick + 1) * tickNanos - System.nanoTime();
+          if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+            continue;
+          }
+          int limit = maxInFlight - inFlight;
+          if (limit == 0) {
+            lock.wait();
+            continue;
+          }
+          processedTick++;
+          int taken = table.takeDue(processedTick, due, limit);
+          inFlight += taken;
+          for (int i = 0; i < taken; i++) {
+            pollers.execute(new Poll(due[i], table.transactionId(due[i])));
+          }
+        }
+      } catch (InterruptedException e) {
+        // Closed
+      }
+    }
+  }
+
+  private byte stateId(String state) {
+    if (state == null) {
+      return NO_STATE;
+    }
+    int id = states.indexOf(state);
+    if (id < 0) {
+      // States beyond the byte range share the last id; the status code still tells them apart
+      if (states.size() > Byte.MAX_VALUE) {
+        return Byte.MAX_VALUE;
+      }
+      id = states.size();
+      states.add(state);
+    }
+    return (byte) id;
+  }
+
+  private static int codeOf(String code) {
+    try {
+      return code != null ? Integer.parseInt(code) : NO_CODE;
+    } catch (NumberFormatException e) {
+      return NO_CODE;
+    }
+  }
+
+  private long delayTicks(int level) {
+    return level >= 62 || initialDelayTicks << level > maxDelayTicks || initialDelayTicks << level <= 0
+        ? maxDelayTicks : initialDelayTicks << level;
+  }
+
+  private void completed(int slot, UUID transactionId, TransactionStatus transaction) {
+    StatusChangeEvent event = null;
+    boolean expired = false;
+    synchronized (lock) {
+      if (inFlight-- == maxInFlight) {
+        lock.notifyAll();
+      }
+      if (table.releaseIfCancelled(slot) || closed) {
+        return;
+      }
+      long now = currentTick();
+      int level = table.level(slot) + 1;
+      boolean removed = false;
+      if (transaction != null && transaction.getStatus() != null) {
+        Status status = transaction.getStatus();
+        byte stateId = stateId(status.getState());
+        int code = codeOf(status.getCode());
+        byte previousStateId = table.state(slot);
+        int previousCode = table.code(slot);
+        boolean settled = status.getState() != null && settledStates.contains(status.getState());
+        if (previousStateId != stateId || previousCode != code) {
+          table.setStatus(slot, stateId, code);
+          level = 0;
+          // The first poll is only an event if it already settles the transaction
+          if (previousStateId != UNPOLLED || settled) {
+            event = new StatusChangeEvent(transactionId,
+                previousStateId == UNPOLLED ? null : states.get(previousStateId),
+                previousStateId == UNPOLLED || previousCode == NO_CODE ? null : String.valueOf(previousCode),
+                transaction, settled);
+          }
+        }
+        if (settled) {
+          table.remove(slot);
+          removed = true;
+        }
+      }
+      if (!removed) {
+        if (now >= table.expires(slot)) {
+          table.remove(slot);
+          expired = true;
+        } else {
+          table.setLevel(slot, level);
+          table.schedule(slot, Math.max(now, processedTick) + delayTicks(table.level(slot)));
+        }
+      }
+    }
+    if (listener == null) {
+      return;
+    }
+    try {
+      if (event != null) {
+        listener.statusChanged(event);
+      }
+      if (expired) {
+        listener.expired(transactionId);
+      }
+    } catch (RuntimeException e) {
+      // A failing listener must not stop the polling
+    }
+  }
+
+  private final class Poll implements Runnable {
+
+    private final int slot;
+    private final UUID transactionId;
+
+    Poll(int slot, UUID transactionId) {
+      this.slot = slot;
+      this.transactionId = transactionId;
+    }
+
+    @Override
+    public void run() {
+      TransactionStatus transaction = null;
+      try {
+        TransactionStatusResponse response = paymentApi.transactionStatus(transactionId);
+        if (response != null && response.getResult() != null && "100".equals(response.getResult().getCode())) {
+          transaction = response.getTransaction();
+        }
+      } catch (IOException e) {
+        errors.increment();
+      } catch (RuntimeException e) {
+        errors.increment();
+      } finally {
+        polls.increment();
+        completed(slot, transactionId, transaction);
+      }
+    }
+  }
+
+  public static class Builder {
+
+    private final PaymentAPI paymentApi;
+    private StatusChangeListener listener;
+    private Set<String> settledStates = new HashSet<>(Arrays.asList("ok", "fail", "failed"));
+    private long tickNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private int wheelSize = 512;
+    private int initialCapacity = 1024;
+    private int concurrency = 8;
+    private int maxInFlight = 32;
+    private long initialDelayNanos = TimeUnit.SECONDS.toNanos(1);
+    private long maxDelayNanos = TimeUnit.MINUTES.toNanos(5);
+    private long maxAgeNanos = TimeUnit.DAYS.toNanos(1);
+
+    /**
+     * @param paymentApi the API to poll with, not closed by the watcher
+     */
+    public Builder(PaymentAPI paymentApi) {
+      this.paymentApi = paymentApi;
+    }
+
+    /**
+     * @param listener receives status changes and expirations
+     * @return Builder
+     */
+    public Builder setListener(StatusChangeListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * @param states states after which a transaction is no longer polled, "ok", "fail" and "failed" by default
+     * @return Builder
+     */
+    public Builder setSettledStates(String... states) {
+      this.settledStates = new HashSet<>(Arrays.asList(states));
+      return this;
+    }
+
+    /**
+     * @param tickDuration resolution of the polling schedule, 100 ms by default
+     * @param unit
+     * @param wheelSize buckets in the wheel, rounded up to a power of two, 512 by default
+     * @return Builder
+     */
+    public Builder setTimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+      if (tickDuration <= 0 || wheelSize < 1 || wheelSize > 1 << 30) {
+        throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+      }
+      this.tickNanos = unit.toNanos(tickDuration);
+      this.wheelSize = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+      return this;
+    }
+
+    /**
+     * @param initialCapacity transactions the arrays are first sized for, 1024 by default. They grow as needed.
+     * @return Builder
+     */
+    public Builder setInitialCapacity(int initialCapacity) {
+      this.initialCapacity = initialCapacity;
+      return this;
+    }
+
+    /**
+     * @param concurrency polling threads, 8 by default
+     * @param maxInFlight maximum polls running or queued for the threads, 32 by default
+     * @return Builder
+     */
+    public Builder setConcurrency(int concurrency, int maxInFlight) {
+      if (concurrency < 1 || maxInFlight < concurrency) {
+        throw new IllegalArgumentException("concurrency must be positive and at most maxInFlight");
+      }
+      this.concurrency = concurrency;
+      this.maxInFlight = maxInFlight;
+      return this;
+    }
+
+    /**
+     * @param initialDelay delay before the first poll and after a change, 1 second by default
+     * @param maxDelay the interval doubles after every unchanged poll up to this, 5 minutes by default
+     * @param unit
+     * @return Builder
+     */
+    public Builder setBackoff(long initialDelay, long maxDelay, TimeUnit unit) {
+      if (initialDelay <= 0 || maxDelay < initialDelay) {
+        throw new IllegalArgumentException("initialDelay must be positive and at most maxDelay");
+      }
+      this.initialDelayNanos = unit.toNanos(initialDelay);
+      this.maxDelayNanos = unit.toNanos(maxDelay);
+      return this;
+    }
+
+    /**
+     * @param maxAge time after which an unsettled transaction expires, 1 day by default
+     * @param unit
+     * @return Builder
+     */
+    public Builder setMaxAge(long maxAge, TimeUnit unit) {
+      this.maxAgeNanos = unit.toNanos(maxAge);
+      return this;
+    }
+
+    /**
+     * Starts the ticker and polling threads
+     *
+     * @return TransactionStatusWatcher
+     */
+    public TransactionStatusWatcher build() {
+      return new TransactionStatusWatcher(this);
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package io.paymenthighway.watcher;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Watched transactions in parallel primitive arrays, indexed by slot, scheduled on a hashed timing wheel.
+ *
+ * An entry costs about 50 bytes and no objects: the transaction id, deadline and expiry ticks, the last observed
+ * status, the backoff level, the link to the next entry of its wheel bucket and its open addressing index cell.
+ * A wheel bucket is a linked list of the entries whose deadline tick maps to it; entries due in a later rotation
+ * stay in the bucket until their tick comes. Not thread safe, the watcher guards it with its lock.
+ */
+final class WatchTable {
+
+  static final int NONE = -1;
+
+  static final byte FREE = 0;
+  static final byte SCHEDULED = 1;
+  static final byte POLLING = 2;
+  static final byte CANCELLED = 3;
+
+  private long[] msb;
+  private long[] lsb;
+  private long[] deadline;
+  private long[] expires;
+  private int[] next;
+  private int[] code;
+  private byte[] state;
+  private byte[] level;
+  private byte[] flags;
+
+  private int freeHead = NONE;
+  private int used = 0;
+  private int size = 0;
+
+  /* Open addressing with linear probing, holds slot + 1, zero for empty */
+  private int[] index;
+
+  private final int[] buckets;
+  private final int mask;
+
+  WatchTable(int wheelSize, int initialCapacity) {
+    this.buckets = new int[wheelSize];
+    this.mask = wheelSize - 1;
+    Arrays.fill(buckets, NONE);
+    allocate(Math.max(initialCapacity, 16));
+    index = new int[Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 2];
+  }
+
+  private void allocate(int capacity) {
+    msb = msb == null ? new long[capacity] : Arrays.copyOf(msb, capacity);
+    lsb = lsb == null ? new long[capacity] : Arrays.copyOf(lsb, capacity);
+    deadline = deadline == null ? new long[capacity] : Arrays.copyOf(deadline, capacity);
+    expires = expires == null ? new long[capacity] : Arrays.copyOf(expires, capacity);
+    next = next == null ? new int[capacity] : Arrays.copyOf(next, capacity);
+    code = code == null ? new int[capacity] : Arrays.copyOf(code, capacity);
+    state = state == null ? new byte[capacity] : Arrays.copyOf(state, capacity);
+    level = level == null ? new byte[capacity] : Arrays.copyOf(level, capacity);
+    flags = flags == null ? new byte[capacity] : Arrays.copyOf(flags, capacity);
+  }
+
+  /**
+   * @return int watched transactions, including the ones being polled
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Adds a transaction and schedules its first poll
+   *
+   * @return int the slot, NONE if the transaction is already watched
+   */
+  int add(UUID transactionId, long deadlineTick, long expiresTick) {
+    if (find(transactionId) != NONE) {
+      return NONE;
+    }
+    int slot;
+    if (freeHead != NONE) {
+      slot = freeHead;
+      freeHead = next[slot];
+    } else {
+      if (used == msb.length) {
+        allocate(msb.length * 2);
+      }
+      slot = used++;
+    }
+    msb[slot] = transactionId.getMostSignificantBits();
+    lsb[slot] = transactionId.getLeastSignificantBits();
+    expires[slot] = expiresTick;
+    code[slot] = 0;
+    state[slot] = 0;
+    level[slot] = 0;
+    size++;
+    insertIndex(slot);
+    schedule(slot, deadlineTick);
+    return slot;
+  }
+
+  /**
+   * @return int the slot of the transaction, NONE if not watched
+   */
+  int find(UUID transactionId) {
+    long high = transactionId.getMostSignificantBits();
+    long low = transactionId.getLeastSignificantBits();
+    int indexMask = index.length - 1;
+    for (int cell = hash(high, low) & indexMask; ; cell = (cell + 1) & indexMask) {
+      int entry = index[cell];
+      if (entry == 0) {
+        return NONE;
+      }
+      if (msb[entry - 1] == high && lsb[entry - 1] == low) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Stops watching a transaction. A scheduled entry is freed when its bucket is next visited, one being polled
+   * when the poll completes.
+   *
+   * @return boolean false if the transaction was not watched
+   */
+  boolean cancel(UUID transactionId) {
+    int slot = find(transactionId);
+    if (slot == NONE) {
+      return false;
+    }
+    removeIndex(slot);
+    flags[slot] = CANCELLED;
+    size--;
+    return true;
+  }
+
+  /**
+   * Removes an entry that is being polled
+   */
+  void remove(int slot) {
+    removeIndex(slot);
+    size--;
+    free(slot);
+  }
+
+  private void free(int slot) {
+    flags[slot] = FREE;
+    next[slot] = freeHead;
+    freeHead = slot;
+  }
+
+  void schedule(int slot, long deadlineTick) {
+    int bucket = (int) (deadlineTick & mask);
+    deadline[slot] = deadlineTick;
+    flags[slot] = SCHEDULED;
+    next[slot] = buckets[bucket];
+    buckets[bucket] = slot;
+  }
+
+  /**
+   * Takes the entries of the tick's bucket that are due, marking them as being polled. Entries of later rotations
+   * stay, due entries beyond the limit are moved to the next tick.
+   *
+   * @param tick
+   * @param due receives the due slots
+   * @param limit maximum number of slots to take
+   * @return int the number of slots taken
+   */
+  int takeDue(long tick, int[] due, int limit) {
+    int bucket = (int) (tick & mask);
+    int slot = buckets[bucket];
+    buckets[bucket] = NONE;
+    int taken = 0;
+    int deferred = NONE;
+    while (slot != NONE) {
+      int following = next[slot];
+      if (flags[slot] == CANCELLED) {
+        free(slot);
+      } else if (deadline[slot] > tick) {
+        next[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+      } else if (taken < limit) {
+        flags[slot] = POLLING;
+        due[taken++] = slot;
+      } else {
+        next[slot] = deferred;
+        deferred = slot;
+      }
+      slot = following;
+    }
+    while (deferred != NONE) {
+      int following = next[deferred];
+      schedule(deferred, tick + 1);
+      deferred = following;
+    }
+    return taken;
+  }
+
+  /**
+   * Completes a poll of a cancelled entry
+   *
+   * @return boolean true if the entry was cancelled while being polled and has now been freed
+   */
+  boolean releaseIfCancelled(int slot) {
+    if (flags[slot] == CANCELLED) {
+      free(slot);
+      return true;
+    }
+    return false;
+  }
+
+  UUID transactionId(int slot) {
+    return new UUID(msb[slot], lsb[slot]);
+  }
+
+  long expires(int slot) {
+    return expires[slot];
+  }
+
+  int code(int slot) {
+    return code[slot];
+  }
+
+  byte state(int slot) {
+    return state[slot];
+  }
+
+  void setStatus(int slot, byte stateId, int statusCode) {
+    state[slot] = stateId;
+    code[slot] = statusCode;
+  }
+
+  int level(int slot) {
+    return level[slot];
+  }
+
+  void setLevel(int slot, int backoffLevel) {
+    level[slot] = (byte) Math.min(backoffLevel, Byte.MAX_VALUE);
+  }
+
+  private static int hash(long high, long low) {
+    long h = high ^ low;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+
+  private void insertIndex(int slot) {
+    if (size * 2 > index.length) {
+      int[] old = index;
+      index = new int[old.length * 2];
+      for (int entry : old) {
+        if (entry != 0) {
+          place(entry - 1);
+        }
+      }
+    }
+    place(slot);
+  }
+
+  private void place(int slot) {
+    int indexMask = index.length - 1;
+    int cell = hash(msb[slot], lsb[slot]) & indexMask;
+    while (index[cell] != 0) {
+      cell = (cell + 1) & indexMask;
+    }
+    index[cell] = slot + 1;
+  }
+
+  /**
+   * Deletes with backward shifting, so lookups never need tombstones
+   */
+  private void removeIndex(int slot) {
+    int indexMask = index.length - 1;
+    int cell = hash(msb[slot], lsb[slot]) & indexMask;
+    while (index[cell] != slot + 1) {
+      cell = (cell + 1) & indexMask;
+    }
+    int hole = cell;
+    for (int probe = (hole + 1) & indexMask; index[probe] != 0; probe = (probe + 1) & indexMask) {
+      int entry = index[probe] - 1;
+      int home = hash(msb[entry], lsb[entry]) & indexMask;
+      // Move the entry into the hole unless its home lies cyclically between the hole and the probe
+      if (((probe - home) & indexMask) >= ((probe - hole) & indexMask)) {
+        index[hole] = index[probe];
+        hole = probe;
+      }
+    }
+    index[hole] = 0;
+  }
+}
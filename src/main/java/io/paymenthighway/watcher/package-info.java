@@ -0,0 +1,4 @@
+/**
+ * Polling of pending transactions until their status settles
+ */
+package io.paymenthighway.watcher;
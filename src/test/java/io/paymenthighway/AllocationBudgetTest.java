@@ -0,0 +1,165 @@
+package io.paymenthighway;
+
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated per call on the hot request paths, checked against the budgets in allocation-budgets.properties.
+ *
+ * Only allocations of the calling thread are counted, so the emulator serving the requests does not affect the
+ * numbers. When a change legitimately needs more, raise the budget in the same commit and explain why.
+ */
+public class AllocationBudgetTest {
+
+  private static final int WARMUP = 300;
+  private static final int MEASURED = 200;
+
+  private static com.sun.management.ThreadMXBean threadBean;
+  private static Properties budgets;
+  private static PaymentHighwayEmulator emulator;
+  private static PaymentAPI paymentApi;
+
+  /**
+   * A call whose allocations are measured
+   */
+  private interface Call {
+    void run() throws Exception;
+  }
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+      threadBean = (com.sun.management.ThreadMXBean) bean;
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    budgets = new Properties();
+    try (InputStream in = AllocationBudgetTest.class.getClassLoader().getResourceAsStream("allocation-budgets.properties")) {
+      budgets.load(in);
+    }
+
+    emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+    paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+  }
+
+  @AfterClass
+  public static void tearDown() throws IOException {
+    if (paymentApi != null) {
+      paymentApi.close();
+    }
+    if (emulator != null) {
+      emulator.close();
+    }
+  }
+
+  private static void assertWithinBudget(String name, Call call) throws Exception {
+    assumeTrue("Thread allocation counters are not supported by this JVM", threadBean != null);
+    long budget = Long.parseLong(budgets.getProperty(name).trim());
+
+    for (int i = 0; i < WARMUP; i++) {
+      call.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = threadBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED; i++) {
+      call.run();
+    }
+    long perCall = (threadBean.getThreadAllocatedBytes(threadId) - before) / MEASURED;
+
+    assertTrue(name + " allocated " + perCall + " bytes per call, over its budget of " + budget, perCall <= budget);
+  }
+
+  @Test
+  public void testDebitTransaction() throws Exception {
+    final UUID transactionId = paymentApi.initTransaction().getId();
+    final TransactionRequest request =
+        new TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 9999, "EUR")
+            .setOrder("1000123A")
+            .build();
+    assertWithinBudget("debitTransaction", new Call() {
+      @Override
+      public void run() throws Exception {
+        paymentApi.debitTransaction(transactionId, request);
+      }
+    });
+  }
+
+  @Test
+  public void testTransactionStatus() throws Exception {
+    final UUID transactionId = paymentApi.initTransaction().getId();
+    paymentApi.debitTransaction(transactionId,
+        new TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 9999, "EUR").build());
+    assertWithinBudget("transactionStatus", new Call() {
+      @Override
+      public void run() throws Exception {
+        paymentApi.transactionStatus(transactionId);
+      }
+    });
+  }
+
+  @Test
+  public void testCreateSignature() throws Exception {
+    final SecureSigner signer = new SecureSigner("testKey", "testSecret");
+    final List<NameValuePair> headers = new ArrayList<>();
+    headers.add(new BasicNameValuePair("sph-account", "test"));
+    headers.add(new BasicNameValuePair("sph-merchant", "test_merchantId"));
+    headers.add(new BasicNameValuePair("sph-timestamp", "2015-03-20T13:09:36Z"));
+    headers.add(new BasicNameValuePair("sph-request-id", "f47ac10b-58cc-4372-a567-0e02b2c3d479"));
+    final String body = "{\"amount\":9999,\"currency\":\"EUR\",\"blocking\":true,"
+        + "\"token\":{\"id\":\"71435029-fbb6-4506-aa86-8529efb640b0\"}}";
+    assertWithinBudget("createSignature", new Call() {
+      @Override
+      public void run() {
+        signer.createSignature("POST", "/transaction/f9a48e02-4301-49ff-a4f1-65749435924a/debit", headers, body);
+      }
+    });
+  }
+
+  @Test
+  public void testGeneratePaymentParameters() throws Exception {
+    final FormBuilder formBuilder = new FormBuilder("POST", "testKey", "testSecret", "test", "test_merchantId",
+        "https://v1-hub-staging.sph-test-solinor.com");
+    assertWithinBudget("generatePaymentParameters", new Call() {
+      @Override
+      public void run() {
+        formBuilder.generatePaymentParameters("https://example.com/success", "https://example.com/failure",
+            "https://example.com/cancel", "EN", "1990", "EUR", "1000123A", "A Box of Dreams. 19,90€");
+      }
+    });
+  }
+
+  @Test
+  public void testRenderPaymentTemplate() throws Exception {
+    final FormTemplate template = new FormTemplate.Builder(new FormBuilder("POST", "testKey", "testSecret", "test",
+        "test_merchantId", "https://v1-hub-staging.sph-test-solinor.com"), FormTemplate.Type.PAYMENT,
+        "https://example.com/success", "https://example.com/failure", "https://example.com/cancel", "EN")
+        .setCurrency("EUR")
+        .build();
+    assertWithinBudget("renderPaymentTemplate", new Call() {
+      @Override
+      public void run() {
+        template.render("1990", "1000123A", "A Box of Dreams. 19,90€");
+      }
+    });
+  }
+}
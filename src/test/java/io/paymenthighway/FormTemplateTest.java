@@ -0,0 +1,189 @@
+package io.paymenthighway;
+
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.NameValuePair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class FormTemplateTest {
+
+  private static final String SUCCESS_URL = "https://example.com/success";
+  private static final String FAILURE_URL = "https://example.com/failure";
+  private static final String CANCEL_URL = "https://example.com/cancel";
+  private static final UUID TOKEN = UUID.fromString("71435029-fbb6-4506-aa86-8529efb640b0");
+
+  private final FormBuilder formBuilder = new FormBuilder("POST", "testKey", "testSecret", "test", "test_merchantId",
+      "https://v1-hub-staging.sph-test-solinor.com");
+
+  private static List<String> names(FormContainer container) {
+    List<String> names = new ArrayList<>();
+    for (NameValuePair field : container.getFields()) {
+      names.add(field.getName());
+    }
+    return names;
+  }
+
+  private static String field(FormContainer container, String name) {
+    for (NameValuePair field : container.getFields()) {
+      if (field.getName().equals(name)) {
+        return field.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static void assertSigned(FormContainer container) {
+    List<NameValuePair> fields = new ArrayList<>(container.getFields());
+    NameValuePair signature = fields.remove(fields.size() - 1);
+    assertEquals("signature", signature.getName());
+    String action = container.getAction();
+    String uri = action.substring(action.indexOf("/form/"));
+    assertEquals(new SecureSigner("testKey", "testSecret").createSignature("POST", uri, fields, ""),
+        signature.getValue());
+  }
+
+  private static void assertMatches(FormContainer generated, FormContainer rendered) {
+    assertEquals(names(generated), names(rendered));
+    for (String name : names(generated)) {
+      if (!name.equals("sph-timestamp") && !name.equals("sph-request-id") && !name.equals("signature")) {
+        assertEquals(name, field(generated, name), field(rendered, name));
+      }
+    }
+    assertEquals(generated.getAction(), rendered.getAction());
+    assertEquals(generated.getMethod(), rendered.getMethod());
+    assertEquals(rendered.getRequestId(), field(rendered, "sph-request-id"));
+    assertTrue(field(rendered, "sph-timestamp").matches("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\dZ"));
+    assertSigned(rendered);
+  }
+
+  private FormTemplate.Builder builder(FormTemplate.Type type) {
+    return new FormTemplate.Builder(formBuilder, type, SUCCESS_URL, FAILURE_URL, CANCEL_URL, "EN");
+  }
+
+  @Test
+  public void testPaymentMatchesFormBuilder() {
+    FormTemplate template = builder(FormTemplate.Type.PAYMENT)
+        .setCurrency("EUR")
+        .setSkipFormNotifications(true)
+        .setUse3ds(false)
+        .build();
+    FormContainer rendered = template.render("1990", "1000123A", "A Box of Dreams. 19,90€");
+    FormContainer generated = formBuilder.generatePaymentParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL, "EN",
+        "1990", "EUR", "1000123A", "A Box of Dreams. 19,90€", true, null, null, false);
+
+    assertMatches(generated, rendered);
+    assertEquals("POST", rendered.getMethod());
+  }
+
+  @Test
+  public void testAddCardMatchesFormBuilder() {
+    FormContainer rendered = builder(FormTemplate.Type.ADD_CARD)
+        .setAcceptCvcRequired(true)
+        .setExitIframeOnResult(false)
+        .build()
+        .render();
+    FormContainer generated = formBuilder.generateAddCardParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL, "EN", true,
+        null, false, null, null);
+
+    assertMatches(generated, rendered);
+  }
+
+  @Test
+  public void testAddCardAndPaymentMatchesFormBuilder() {
+    FormTemplate template = builder(FormTemplate.Type.ADD_CARD_AND_PAYMENT)
+        .setCurrency("EUR")
+        .setExitIframeOnResult(true)
+        .setExitIframeOn3ds(true)
+        .build();
+    FormContainer rendered = template.render("1990", "1000123A", "Dreams");
+    FormContainer generated = formBuilder.generateAddCardAndPaymentParameters(SUCCESS_URL, FAILURE_URL, CANCEL_URL,
+        "EN", "1990", "EUR", "1000123A", "Dreams", null, true, true, null);
+
+    assertMatches(generated, rendered);
+
+    FormContainer withoutOrder = template.render("1990", null, "Dreams");
+    assertNull(field(withoutOrder, "sph-order"));
+    assertSigned(withoutOrder);
+  }
+
+  @Test
+  public void testPayWithTokenAndCvcMatchesFormBuilder() {
+    FormContainer rendered = builder(FormTemplate.Type.PAY_WITH_TOKEN_AND_CVC)
+        .setCurrency("EUR")
+        .setSkipFormNotifications(false)
+        .build()
+        .render(TOKEN, "1990", "1000123A", "Dreams");
+    FormContainer generated = formBuilder.generatePayWithTokenAndCvcParameters(TOKEN, SUCCESS_URL, FAILURE_URL,
+        CANCEL_URL, "EN", "1990", "EUR", "1000123A", "Dreams", false, null, null, null);
+
+    assertMatches(generated, rendered);
+    assertEquals(TOKEN.toString(), field(rendered, "sph-token"));
+  }
+
+  @Test
+  public void testRendersAreIndependent() throws Exception {
+    final FormTemplate template = builder(FormTemplate.Type.PAYMENT).setCurrency("EUR").build();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<FormContainer>> futures = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        final String order = "order-" + i;
+        futures.add(executor.submit(new Callable<FormContainer>() {
+          @Override
+          public FormContainer call() {
+            return template.render("1990", order, order);
+          }
+        }));
+      }
+      Set<String> requestIds = new HashSet<>();
+      for (int i = 0; i < futures.size(); i++) {
+        FormContainer container = futures.get(i).get();
+        assertEquals("order-" + i, field(container, "sph-order"));
+        assertSigned(container);
+        requestIds.add(container.getRequestId());
+      }
+      assertEquals(futures.size(), requestIds.size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testInvalidTemplates() {
+    try {
+      builder(FormTemplate.Type.PAYMENT).build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("currency"));
+    }
+    try {
+      builder(FormTemplate.Type.PAYMENT).setCurrency("EUR").setAcceptCvcRequired(true).build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("CVC"));
+    }
+    try {
+      builder(FormTemplate.Type.ADD_CARD).build().render("1990", "1000123A", "Dreams");
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("ADD_CARD"));
+    }
+    try {
+      builder(FormTemplate.Type.PAYMENT).setCurrency("EUR").build().render(TOKEN, "1990", "1000123A", "Dreams");
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().contains("PAY_WITH_TOKEN_AND_CVC"));
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.LatencyDistribution;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.fault.Fault;
+import io.paymenthighway.fault.FaultInjectingHttpClient;
+import io.paymenthighway.fault.FaultSchedule;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.CommitTransactionResponse;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommitEngineTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  private static List<UUID> authorize(PaymentAPI paymentApi, int count) throws IOException {
+    Card card = new Card("4153013999700024", "2023", "11", "024");
+    TransactionRequest request = new TransactionRequest.Builder(card, 1990, "EUR").setCommit(false).build();
+    List<UUID> transactionIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      UUID transactionId = paymentApi.initTransaction().getId();
+      assertEquals("100", paymentApi.debitTransaction(transactionId, request).getResult().getCode());
+      transactionIds.add(transactionId);
+    }
+    return transactionIds;
+  }
+
+  @Test
+  public void testCommitsAreStreamedAndCounted() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      List<UUID> transactionIds = authorize(paymentApi, 10);
+      final ConcurrentLinkedQueue<BatchResult<CommitEngine.Commit, CommitTransactionResponse>> results =
+          new ConcurrentLinkedQueue<>();
+
+      CommitEngine engine = new CommitEngine.Builder(paymentApi)
+          .setListener(new BatchListener<CommitEngine.Commit, CommitTransactionResponse>() {
+            @Override
+            public void completed(BatchResult<CommitEngine.Commit, CommitTransactionResponse> result) {
+              results.add(result);
+            }
+          })
+          .build();
+      for (UUID transactionId : transactionIds) {
+        assertTrue(engine.submit(transactionId, "1990", "EUR"));
+      }
+      engine.submit(UUID.randomUUID(), "1990", "EUR");
+      assertTrue(engine.awaitCompletion(10, TimeUnit.SECONDS));
+      engine.close();
+
+      assertEquals(11, results.size());
+      BatchStatistics statistics = engine.getStatistics();
+      assertEquals(11, statistics.getSubmitted());
+      assertEquals(10, statistics.getSucceeded());
+      assertEquals(1, statistics.getRejected());
+      assertEquals(0, statistics.getPending());
+      assertTrue(statistics.getThroughput() > 0);
+      for (BatchResult<CommitEngine.Commit, CommitTransactionResponse> result : results) {
+        if (result.getOutcome() == BatchResult.Outcome.SUCCEEDED) {
+          assertTrue(transactionIds.contains(result.getItem().getTransactionId()));
+          assertEquals("0024", result.getResponse().getCard().getPartialPan());
+        } else {
+          assertEquals("920", result.getResponse().getResult().getCode());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFailedAttemptsAreRetried() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator);
+         PaymentAPI faultyApi = paymentApi(emulator)) {
+
+      UUID transactionId = authorize(paymentApi, 1).get(0);
+      faultyApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+          FaultSchedule.scripted(false, Fault.status(503), Fault.dropBeforeSend(), Fault.dropAfterSend())));
+
+      final List<BatchResult<CommitEngine.Commit, CommitTransactionResponse>> results = new ArrayList<>();
+      try (CommitEngine engine = new CommitEngine.Builder(faultyApi)
+          .setRetryPolicy(new RetryPolicy(5, 10, 50, TimeUnit.MILLISECONDS))
+          .setListener(new BatchListener<CommitEngine.Commit, CommitTransactionResponse>() {
+            @Override
+            public void completed(BatchResult<CommitEngine.Commit, CommitTransactionResponse> result) {
+              synchronized (results) {
+                results.add(result);
+              }
+            }
+          })
+          .build()) {
+        engine.submit(transactionId, "1990", "EUR");
+      }
+
+      assertEquals(1, results.size());
+      assertEquals(BatchResult.Outcome.SUCCEEDED, results.get(0).getOutcome());
+      assertEquals(4, results.get(0).getAttempts());
+    }
+  }
+
+  @Test
+  public void testCheckpointSkipsFinishedCommits() throws IOException {
+    File checkpoint = folder.newFile();
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      List<UUID> transactionIds = authorize(paymentApi, 5);
+      try (CommitEngine engine = new CommitEngine.Builder(paymentApi).setCheckpoint(checkpoint).build()) {
+        for (UUID transactionId : transactionIds.subList(0, 3)) {
+          engine.submit(transactionId, "1990", "EUR");
+        }
+      }
+
+      long before = emulator.getRequestCount();
+      CommitEngine engine = new CommitEngine.Builder(paymentApi).setCheckpoint(checkpoint).build();
+      for (UUID transactionId : transactionIds) {
+        engine.submit(transactionId, "1990", "EUR");
+      }
+      engine.close();
+
+      assertEquals(3, engine.getStatistics().getSkipped());
+      assertEquals(2, engine.getStatistics().getSucceeded());
+      assertEquals(before + 2, emulator.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testThroughputScalesWithConcurrency() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setLatency(LatencyDistribution.fixed(100, TimeUnit.MILLISECONDS))
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      paymentApi.setMaxConnections(8);
+      List<UUID> transactionIds = authorize(paymentApi, 24);
+      double serial = commitAll(paymentApi, transactionIds.subList(0, 8), 1);
+      double parallel = commitAll(paymentApi, transactionIds.subList(8, 24), 8);
+      assertTrue("serial " + serial + "/s, parallel " + parallel + "/s", parallel > 3 * serial);
+    }
+  }
+
+  @Test
+  public void testRateLimitIsApplied() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      List<UUID> transactionIds = authorize(paymentApi, 6);
+      long start = System.nanoTime();
+      try (CommitEngine engine = new CommitEngine.Builder(paymentApi).setConcurrency(4).setRateLimit(20).build()) {
+        for (UUID transactionId : transactionIds) {
+          engine.submit(transactionId, "1990", "EUR");
+        }
+      }
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+  }
+
+  private static double commitAll(PaymentAPI paymentApi, List<UUID> transactionIds, int concurrency)
+      throws IOException {
+    CommitEngine engine = new CommitEngine.Builder(paymentApi).setConcurrency(concurrency).build();
+    for (UUID transactionId : transactionIds) {
+      engine.submit(transactionId, "1990", "EUR");
+    }
+    engine.close();
+    assertEquals(transactionIds.size(), engine.getStatistics().getSucceeded());
+    return engine.getStatistics().getThroughput();
+  }
+}
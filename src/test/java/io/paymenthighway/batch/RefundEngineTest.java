@@ -0,0 +1,240 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.fault.Fault;
+import io.paymenthighway.fault.FaultInjectingHttpClient;
+import io.paymenthighway.fault.FaultSchedule;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.TransactionStatus;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RefundEngineTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private PaymentHighwayEmulator emulator;
+  private PaymentAPI paymentApi;
+
+  @Before
+  public void setUp() throws IOException {
+    emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+    paymentApi = paymentApi();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    paymentApi.close();
+    emulator.close();
+  }
+
+  private PaymentAPI paymentApi() {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  private List<UUID> debit(int count) throws IOException {
+    Card card = new Card("4153013999700024", "2023", "11", "024");
+    TransactionRequest request = new TransactionRequest.Builder(card, 1000, "EUR").build();
+    List<UUID> transactionIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      UUID transactionId = paymentApi.initTransaction().getId();
+      assertEquals("100", paymentApi.debitTransaction(transactionId, request).getResult().getCode());
+      transactionIds.add(transactionId);
+    }
+    return transactionIds;
+  }
+
+  private String currentAmount(UUID transactionId) throws IOException {
+    return paymentApi.transactionStatus(transactionId).getTransaction().getCurrentAmount();
+  }
+
+  @Test
+  public void testCreditTransaction() throws IOException {
+    UUID transactionId = paymentApi.initTransaction().getId();
+    Card card = new Card("4153013999700024", "2023", "11", "024");
+    TransactionResponse response = paymentApi.creditTransaction(transactionId,
+        new TransactionRequest.Builder(card, 500, "EUR").build());
+    assertEquals("100", response.getResult().getCode());
+    assertEquals("credit", paymentApi.transactionStatus(transactionId).getTransaction().getType());
+  }
+
+  @Test
+  public void testPartialAndFullRevertsAreStreamed() throws IOException {
+    List<UUID> transactionIds = debit(6);
+    List<RefundEngine.Refund> refunds = new ArrayList<>();
+    for (int i = 0; i < transactionIds.size(); i++) {
+      refunds.add(new RefundEngine.Refund(transactionIds.get(i), i % 2 == 0 ? "400" : null));
+    }
+    refunds.add(new RefundEngine.Refund(UUID.randomUUID(), null));
+
+    final Map<UUID, BatchResult.Outcome> outcomes = new ConcurrentHashMap<>();
+    try (RefundEngine engine = new RefundEngine.Builder(paymentApi)
+        .setConcurrency(3)
+        .setListener(new BatchListener<RefundEngine.Refund, TransactionResponse>() {
+          @Override
+          public void completed(BatchResult<RefundEngine.Refund, TransactionResponse> result) {
+            outcomes.put(result.getItem().getTransactionId(), result.getOutcome());
+          }
+        })
+        .build()) {
+      assertEquals(7, engine.submitAll(refunds));
+    }
+
+    assertEquals(7, outcomes.size());
+    for (int i = 0; i < transactionIds.size(); i++) {
+      assertEquals(BatchResult.Outcome.SUCCEEDED, outcomes.get(transactionIds.get(i)));
+      assertEquals(i % 2 == 0 ? "600" : "0", currentAmount(transactionIds.get(i)));
+    }
+    assertEquals(BatchResult.Outcome.REJECTED, outcomes.get(refunds.get(6).getTransactionId()));
+  }
+
+  @Test
+  public void testRevertWithLostResponseIsNotRepeated() throws IOException {
+    UUID transactionId = debit(1).get(0);
+    try (PaymentAPI faultyApi = paymentApi()) {
+      faultyApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+          FaultSchedule.scripted(false, Fault.dropAfterSend())));
+
+      final List<BatchResult<RefundEngine.Refund, TransactionResponse>> results = new ArrayList<>();
+      try (RefundEngine engine = new RefundEngine.Builder(faultyApi)
+          .setRetryPolicy(new RetryPolicy(3, 10, 10, TimeUnit.MILLISECONDS))
+          .setListener(new BatchListener<RefundEngine.Refund, TransactionResponse>() {
+            @Override
+            public void completed(BatchResult<RefundEngine.Refund, TransactionResponse> result) {
+              synchronized (results) {
+                results.add(result);
+              }
+            }
+          })
+          .build()) {
+        engine.submit(transactionId, "300");
+      }
+
+      assertEquals(BatchResult.Outcome.SUCCEEDED, results.get(0).getOutcome());
+      assertEquals(2, results.get(0).getAttempts());
+      TransactionStatus status = paymentApi.transactionStatus(transactionId).getTransaction();
+      assertEquals("700", status.getCurrentAmount());
+      assertEquals(1, status.getReverts().length);
+    }
+  }
+
+  @Test
+  public void testRevertAnsweredWithServerErrorIsNotRepeated() throws IOException {
+    UUID transactionId = debit(1).get(0);
+    try (PaymentAPI faultyApi = paymentApi()) {
+      faultyApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+          FaultSchedule.scripted(false, Fault.statusAfterSend(502))));
+
+      try (RefundEngine engine = new RefundEngine.Builder(faultyApi)
+          .setRetryPolicy(new RetryPolicy(3, 10, 10, TimeUnit.MILLISECONDS))
+          .build()) {
+        engine.submit(transactionId, "300");
+        engine.close();
+        assertEquals(1, engine.getStatistics().getSucceeded());
+      }
+
+      TransactionStatus status = paymentApi.transactionStatus(transactionId).getTransaction();
+      assertEquals("700", status.getCurrentAmount());
+      assertEquals(1, status.getReverts().length);
+    }
+  }
+
+  @Test
+  public void testPartialRefundsOfOneTransactionAreAllApplied() throws IOException {
+    File checkpoint = folder.newFile();
+    UUID transactionId = debit(1).get(0);
+
+    try (RefundEngine engine = new RefundEngine.Builder(paymentApi).setCheckpoint(checkpoint).build()) {
+      engine.submit(transactionId, "100");
+      engine.submit(transactionId, "100");
+      engine.submit(transactionId, "250");
+      engine.close();
+      assertEquals(3, engine.getStatistics().getSucceeded());
+    }
+    assertEquals("550", currentAmount(transactionId));
+
+    // The same stream again is skipped as a whole, one more refund of the same amount is not
+    RefundEngine engine = new RefundEngine.Builder(paymentApi).setCheckpoint(checkpoint).build();
+    engine.submit(transactionId, "100");
+    engine.submit(transactionId, "100");
+    engine.submit(transactionId, "250");
+    engine.submit(transactionId, "100");
+    engine.submit(new RefundEngine.Refund(UUID.randomUUID(), transactionId, "100"));
+    engine.close();
+
+    assertEquals(3, engine.getStatistics().getSkipped());
+    assertEquals(2, engine.getStatistics().getSucceeded());
+    assertEquals("350", currentAmount(transactionId));
+  }
+
+  @Test
+  public void testRevertOfAnotherRefundIsNotTakenForOwn() throws IOException {
+    UUID transactionId = debit(1).get(0);
+    try (PaymentAPI faultyApi = paymentApi()) {
+      // The first refund goes through, the second one is answered with 503 without reaching the emulator
+      faultyApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+          FaultSchedule.scripted(false, Fault.none(), Fault.status(503))));
+
+      try (RefundEngine engine = new RefundEngine.Builder(faultyApi)
+          .setConcurrency(1)
+          .setRetryPolicy(new RetryPolicy(3, 10, 10, TimeUnit.MILLISECONDS))
+          .build()) {
+        engine.submit(transactionId, "300");
+        engine.awaitCompletion(10, TimeUnit.SECONDS);
+        engine.submit(transactionId, "300");
+        engine.close();
+        assertEquals(2, engine.getStatistics().getSucceeded());
+      }
+
+      TransactionStatus status = paymentApi.transactionStatus(transactionId).getTransaction();
+      assertEquals("400", status.getCurrentAmount());
+      assertEquals(2, status.getReverts().length);
+    }
+  }
+
+  @Test
+  public void testInterruptedBatchResumesFromCheckpoint() throws IOException {
+    File checkpoint = folder.newFile();
+    List<UUID> transactionIds = debit(5);
+
+    try (RefundEngine engine = new RefundEngine.Builder(paymentApi).setCheckpoint(checkpoint).build()) {
+      for (UUID transactionId : transactionIds.subList(0, 2)) {
+        engine.submit(transactionId, "100");
+      }
+    }
+
+    RefundEngine engine = new RefundEngine.Builder(paymentApi).setCheckpoint(checkpoint).build();
+    for (UUID transactionId : transactionIds) {
+      engine.submit(transactionId, "100");
+    }
+    engine.close();
+
+    assertEquals(2, engine.getStatistics().getSkipped());
+    assertEquals(3, engine.getStatistics().getSucceeded());
+    for (UUID transactionId : transactionIds) {
+      assertEquals("900", currentAmount(transactionId));
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package io.paymenthighway.batch;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.LatencyDistribution;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.response.TransactionResponse;
+import io.paymenthighway.model.response.TransactionStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenChargeEngineTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator, String merchant) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", merchant);
+  }
+
+  private static Token token(PaymentHighwayEmulator emulator, PaymentAPI paymentApi) throws IOException {
+    return new Token(paymentApi.tokenize(emulator.tokenize(new Card("4153013999700024", "2023", "11", "024")))
+        .getCardToken());
+  }
+
+  private static List<TokenChargeEngine.Charge> charges(String merchant, Token token, int count) {
+    List<TokenChargeEngine.Charge> charges = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      charges.add(new TokenChargeEngine.Charge(merchant, "subscription-" + i + "-201602", token, 990, "EUR"));
+    }
+    return charges;
+  }
+
+  private static BatchListener<TokenChargeEngine.Charge, TransactionResponse> collect(
+      final ConcurrentLinkedQueue<BatchResult<TokenChargeEngine.Charge, TransactionResponse>> results) {
+    return new BatchListener<TokenChargeEngine.Charge, TransactionResponse>() {
+      @Override
+      public void completed(BatchResult<TokenChargeEngine.Charge, TransactionResponse> result) {
+        results.add(result);
+      }
+    };
+  }
+
+  @Test
+  public void testInitOverlapsWithDebit() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setLatency(LatencyDistribution.fixed(100, TimeUnit.MILLISECONDS))
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator, "test_merchantId")) {
+
+      paymentApi.setMaxConnections(4);
+      Token token = token(emulator, paymentApi);
+      ConcurrentLinkedQueue<BatchResult<TokenChargeEngine.Charge, TransactionResponse>> results =
+          new ConcurrentLinkedQueue<>();
+
+      long start = System.nanoTime();
+      try (TokenChargeEngine engine = new TokenChargeEngine.Builder()
+          .addMerchant("shop", paymentApi, 0)
+          .setConcurrency(1)
+          .setListener(collect(results))
+          .build()) {
+        engine.submitAll(charges("shop", token, 20));
+        engine.awaitCompletion(30, TimeUnit.SECONDS);
+        assertEquals(1.0, engine.getStatistics().getApprovalRate(), 0.0);
+      }
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      // Sequential init and debit would take at least 20 * 2 * 100 ms
+      assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 3200);
+      assertEquals(20, results.size());
+      for (BatchResult<TokenChargeEngine.Charge, TransactionResponse> result : results) {
+        TransactionStatus status = paymentApi.transactionStatus(result.getItem().getTransactionId()).getTransaction();
+        assertEquals("990", status.getCurrentAmount());
+        assertEquals(result.getItem().getOrder(), status.getOrder());
+      }
+    }
+  }
+
+  @Test
+  public void testSoftDeclinesAreRetriedOnSchedule() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setDeclineRate(1.0)
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator, "test_merchantId")) {
+
+      Token token = token(emulator, paymentApi);
+      ConcurrentLinkedQueue<BatchResult<TokenChargeEngine.Charge, TransactionResponse>> results =
+          new ConcurrentLinkedQueue<>();
+      TokenChargeEngine engine = new TokenChargeEngine.Builder()
+          .addMerchant("shop", paymentApi, 0)
+          .setSoftDeclineSchedule(TimeUnit.MILLISECONDS, 10, 20)
+          .setListener(collect(results))
+          .build();
+      engine.submitAll(charges("shop", token, 3));
+      engine.close();
+
+      assertEquals(3, results.size());
+      for (BatchResult<TokenChargeEngine.Charge, TransactionResponse> result : results) {
+        assertEquals(BatchResult.Outcome.REJECTED, result.getOutcome());
+        assertEquals("200", result.getResponse().getResult().getCode());
+        assertEquals(3, result.getAttempts());
+        assertEquals(2, result.getItem().getSoftDeclines());
+      }
+      BatchStatistics statistics = engine.getStatistics();
+      assertEquals(0.0, statistics.getApprovalRate(), 0.0);
+      assertEquals(6, statistics.getRetries());
+    }
+  }
+
+  @Test
+  public void testMerchantRateLimitsAreSeparate() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI slowApi = paymentApi(emulator, "slow_merchant");
+         PaymentAPI fastApi = paymentApi(emulator, "fast_merchant")) {
+
+      Token token = token(emulator, slowApi);
+      List<TokenChargeEngine.Charge> charges = charges("slow", token, 4);
+      charges.addAll(charges("fast", token, 4));
+
+      final ConcurrentLinkedQueue<String> completed = new ConcurrentLinkedQueue<>();
+      long start = System.nanoTime();
+      try (TokenChargeEngine engine = new TokenChargeEngine.Builder()
+          .addMerchant("slow", slowApi, 10)
+          .addMerchant("fast", fastApi, 0)
+          .setConcurrency(4)
+          .setListener(new BatchListener<TokenChargeEngine.Charge, TransactionResponse>() {
+            @Override
+            public void completed(BatchResult<TokenChargeEngine.Charge, TransactionResponse> result) {
+              assertEquals(BatchResult.Outcome.SUCCEEDED, result.getOutcome());
+              completed.add(result.getItem().getMerchant());
+            }
+          })
+          .build()) {
+        engine.submitAll(charges);
+      }
+
+      // Four debits and at least four inits at 10 requests per second
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(700));
+      assertEquals(8, completed.size());
+      List<String> order = new ArrayList<>(completed);
+      assertEquals("slow", order.get(order.size() - 1));
+    }
+  }
+
+  @Test
+  public void testProgressIsReported() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setLatency(LatencyDistribution.fixed(50, TimeUnit.MILLISECONDS))
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator, "test_merchantId")) {
+
+      Token token = token(emulator, paymentApi);
+      final ConcurrentLinkedQueue<BatchStatistics> reports = new ConcurrentLinkedQueue<>();
+      try (TokenChargeEngine engine = new TokenChargeEngine.Builder()
+          .addMerchant("shop", paymentApi, 0)
+          .setConcurrency(2)
+          .setProgressListener(new BatchProgressListener() {
+            @Override
+            public void progress(BatchStatistics statistics) {
+              reports.add(statistics);
+            }
+          }, 50, TimeUnit.MILLISECONDS)
+          .build()) {
+        engine.submitAll(charges("shop", token, 10));
+      }
+      assertFalse(reports.isEmpty());
+    }
+  }
+
+  @Test
+  public void testInitFailuresDoNotEndPrefetching() throws Exception {
+    final ConcurrentLinkedQueue<Throwable> uncaught = new ConcurrentLinkedQueue<>();
+    Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+    Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+      @Override
+      public void uncaughtException(Thread thread, Throwable e) {
+        uncaught.add(e);
+      }
+    });
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build()) {
+      PaymentAPI paymentApi = paymentApi(emulator, "test_merchantId");
+      // Inits fail with IllegalStateException once the connection pool is shut down
+      paymentApi.initTransaction();
+      paymentApi.close();
+      TokenChargeEngine engine = new TokenChargeEngine.Builder().addMerchant("shop", paymentApi, 0).build();
+      Thread.sleep(300);
+      assertTrue(initThreadAlive());
+      engine.close();
+      for (int i = 0; i < 100 && initThreadAlive(); i++) {
+        Thread.sleep(10);
+      }
+      assertFalse(initThreadAlive());
+      assertTrue(uncaught.toString(), uncaught.isEmpty());
+    } finally {
+      Thread.setDefaultUncaughtExceptionHandler(handler);
+    }
+  }
+
+  private static boolean initThreadAlive() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("TokenChargeEngine-init-shop-") && thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownMerchantIsRejected() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator, "test_merchantId");
+         TokenChargeEngine engine = new TokenChargeEngine.Builder().addMerchant("shop", paymentApi, 0).build()) {
+      engine.submit(new TokenChargeEngine.Charge("other", "1", new Token("card-token"), 100, "EUR"));
+    }
+  }
+}
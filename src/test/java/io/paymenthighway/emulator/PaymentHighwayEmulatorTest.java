@@ -0,0 +1,154 @@
+package io.paymenthighway.emulator;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.model.Token;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.*;
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.SimpleTimeZone;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PaymentHighwayEmulatorTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  @Test
+  public void testTransactionLifecycle() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      TransactionRequest request = new TransactionRequest.Builder(card, 9999, "EUR")
+          .setOrder("1000123A")
+          .setCommit(false)
+          .build();
+
+      TransactionResponse debit = paymentApi.debitTransaction(transactionId, request);
+      assertEquals("100", debit.getResult().getCode());
+
+      CommitTransactionResponse commit = paymentApi.commitTransaction(transactionId, "9000", "EUR");
+      assertEquals("100", commit.getResult().getCode());
+      assertEquals("0024", commit.getCard().getPartialPan());
+
+      assertEquals("100", paymentApi.revertTransaction(transactionId, "1000").getResult().getCode());
+      assertEquals("211", paymentApi.revertTransaction(transactionId, "9000").getResult().getCode());
+
+      TransactionStatus status = paymentApi.transactionStatus(transactionId).getTransaction();
+      assertEquals("debit", status.getType());
+      assertEquals("9000", status.getAmount());
+      assertEquals("8000", status.getCurrentAmount());
+      assertEquals("ok", status.getStatus().getState());
+      assertEquals(1, status.getReverts().length);
+
+      OrderSearchResponse search = paymentApi.searchOrders("1000123A");
+      assertEquals(1, search.getTransactions().length);
+      assertEquals(transactionId, search.getTransactions()[0].getId());
+
+      SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+      format.setTimeZone(new SimpleTimeZone(SimpleTimeZone.UTC_TIME, "UTC"));
+      String today = format.format(new Date());
+      Settlement[] settlements = paymentApi.fetchDailyReport(today).getSettlements();
+      assertEquals(1, settlements.length);
+      assertEquals("8000", settlements[0].getNetAmount());
+      assertEquals(1, paymentApi.fetchReconciliationReport(today).getReconciliationSettlements().length);
+    }
+  }
+
+  @Test
+  public void testTokenizedCardCanBeDebitedAgain() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID tokenizationId = emulator.tokenize(new Card("5413000000000000", "2024", "02", "123"));
+      TokenizationResponse tokenization = paymentApi.tokenize(tokenizationId);
+      assertEquals("100", tokenization.getResult().getCode());
+      assertEquals("MasterCard", tokenization.getCard().getType());
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      TransactionRequest request = new TransactionRequest.Builder(new Token(tokenization.getCardToken()), 500, "EUR")
+          .build();
+      TransactionResponse first = paymentApi.debitTransaction(transactionId, request);
+      TransactionResponse repeated = paymentApi.debitTransaction(transactionId, request);
+      assertEquals("100", first.getResult().getCode());
+      assertEquals("100", repeated.getResult().getCode());
+      assertEquals("500", paymentApi.transactionStatus(transactionId).getTransaction().getCurrentAmount());
+    }
+  }
+
+  @Test
+  public void testWrongSecretIsRejected() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), KEY_ID, "wrong", "test", "test_merchantId")) {
+      paymentApi.initTransaction();
+      fail("Expected HttpResponseException");
+    } catch (HttpResponseException e) {
+      assertEquals(401, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testRequestsShareAKeptAliveConnection() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         Socket socket = new Socket("127.0.0.1", emulator.getPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(("POST /transaction HTTP/1.1\r\nHost: localhost\r\nContent-Length: 2\r\n\r\n{}"
+          + "GET /transaction/" + UUID.randomUUID() + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      InputStream in = socket.getInputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        received.write(buffer, 0, read);
+      }
+      String responses = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+      int second = responses.indexOf("\r\n\r\n") + 4;
+      assertTrue(responses.startsWith("HTTP/1.1 401 Unauthorized\r\n"));
+      assertTrue(responses.startsWith("HTTP/1.1 401 Unauthorized\r\n", second));
+      assertTrue(responses.endsWith("Content-Length: 0\r\nConnection: close\r\n\r\n"));
+      assertEquals(2, emulator.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testErrorsAndLatencyAreInjected() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setErrorRate(1.0)
+        .setErrorStatus(502)
+        .setLatency(LatencyDistribution.fixed(50, TimeUnit.MILLISECONDS))
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+      long start = System.nanoTime();
+      try {
+        paymentApi.initTransaction();
+        fail("Expected HttpResponseException");
+      } catch (HttpResponseException e) {
+        assertEquals(502, e.getStatusCode());
+      }
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+      assertEquals(1, emulator.getRequestCount());
+    }
+  }
+}
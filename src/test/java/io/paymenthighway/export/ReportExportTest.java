@@ -0,0 +1,110 @@
+package io.paymenthighway.export;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ReportExportTest {
+
+  private static final String DAILY_REPORT = "{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":["
+      + "{\"id\":\"11d22268-cc71-4894-bf41-e13a9039c327\",\"batch\":\"000016\",\"timestamp\":\"2016-03-03T22:00:09Z\","
+      + "\"merchant\":{\"id\":\"test_merchantId\",\"name\":\"Test, \\\"user\\\"\"},\"net_amount\":320,"
+      + "\"currency\":\"EUR\",\"transactions\":["
+      + "{\"id\":\"f9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-03T13:09:36Z\",\"type\":\"debit\","
+      + "\"amount\":\"320\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\",\"code\":\"4000\"},"
+      + "\"extra\":{\"nested\":[1,2]}},"
+      + "{\"id\":\"e9a48e02-4301-49ff-a4f1-65749435924a\",\"type\":\"revert\",\"amount\":\"-20\","
+      + "\"currency\":\"EUR\",\"order\":\"line\\nbreak € 😀\"}],"
+      + "\"reference\":\"11503201000000162\"},"
+      + "{\"batch\":\"000017\",\"net_amount\":0,\"reference\":\"11503201000000163\"}]}";
+
+  private static String export(ReportExport export, String json) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    export.write(json, Channels.newChannel(out));
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testTransactionsAreWrittenAsCsv() throws IOException {
+    ReportExport export = new ReportExport.Builder(ReportExport.Format.CSV, ReportExport.Rows.TRANSACTIONS)
+        .setColumns("settlement.reference", "settlement.merchant.name", "id", "amount", "status.state", "order")
+        .setBufferSize(16)
+        .build();
+    assertEquals("settlement.reference,settlement.merchant.name,id,amount,status.state,order\r\n"
+        + "11503201000000162,\"Test, \"\"user\"\"\",f9a48e02-4301-49ff-a4f1-65749435924a,320,ok,\r\n"
+        + "11503201000000162,\"Test, \"\"user\"\"\",e9a48e02-4301-49ff-a4f1-65749435924a,-20,,"
+        + "\"line\nbreak € 😀\"\r\n", export(export, DAILY_REPORT));
+  }
+
+  @Test
+  public void testSettlementsAreWrittenAsNdjson() throws IOException {
+    ReportExport export = new ReportExport.Builder(ReportExport.Format.NDJSON, ReportExport.Rows.SETTLEMENTS)
+        .setColumns("batch", "net_amount", "merchant.name", "reference")
+        .build();
+    assertEquals("{\"batch\":\"000016\",\"net_amount\":320,\"merchant.name\":\"Test, \\\"user\\\"\","
+        + "\"reference\":\"11503201000000162\"}\n"
+        + "{\"batch\":\"000017\",\"net_amount\":0,\"merchant.name\":null,\"reference\":\"11503201000000163\"}\n",
+        export(export, DAILY_REPORT));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(2, export.write(DAILY_REPORT, Channels.newChannel(out)));
+  }
+
+  @Test
+  public void testFailedReportIsAnError() throws IOException {
+    ReportExport export = new ReportExport.Builder(ReportExport.Format.CSV, ReportExport.Rows.SETTLEMENTS)
+        .setHeader(false)
+        .build();
+    assertEquals("", export(export, "{\"result\":{\"code\":\"100\"},\"settlements\":[]}"));
+    try {
+      export(export, "{\"result\":{\"code\":\"900\",\"message\":\"ERROR\"}}");
+      fail();
+    } catch (IOException e) {
+      assertEquals("Report failed: 900 ERROR", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDeeplyNestedColumnIsRejected() {
+    new ReportExport.Builder(ReportExport.Format.CSV, ReportExport.Rows.TRANSACTIONS)
+        .setColumns("a.b.c")
+        .build();
+  }
+
+  @Test
+  public void testEmulatedReportIsExported() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId")) {
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setCommit(true)
+          .build());
+      String today = DateTimeFormatter.BASIC_ISO_DATE.format(LocalDate.now(ZoneOffset.UTC));
+      ReportExport export = new ReportExport.Builder(ReportExport.Format.CSV, ReportExport.Rows.TRANSACTIONS)
+          .setColumns("id", "amount", "acquirer_amount_presented")
+          .build();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(1, paymentApi.exportReconciliationReport(today, export, Channels.newChannel(out)));
+      assertEquals("id,amount,acquirer_amount_presented\r\n" + transactionId + ",9999,9999\r\n",
+          new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+      out.reset();
+      assertEquals(1, paymentApi.exportDailyReport(today, export, Channels.newChannel(out)));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package io.paymenthighway.fault;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.exception.AuthenticationException;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FaultInjectingHttpClientTest {
+
+  private PaymentHighwayEmulator emulator;
+  private PaymentAPI paymentApi;
+
+  @Before
+  public void setUp() throws IOException {
+    emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+    paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    paymentApi.close();
+    emulator.close();
+  }
+
+  private FaultInjectingHttpClient inject(FaultSchedule schedule) {
+    FaultInjectingHttpClient client = new FaultInjectingHttpClient(HttpClients.createDefault(), schedule);
+    paymentApi.setHttpClient(client);
+    return client;
+  }
+
+  @Test
+  public void testScriptedFaults() throws IOException {
+    FaultInjectingHttpClient client = inject(FaultSchedule.scripted(false,
+        Fault.dropBeforeSend(),
+        Fault.dropAfterSend(),
+        Fault.truncatedBody(),
+        Fault.wrongSignature(),
+        Fault.status(401),
+        Fault.status(503)));
+
+    try {
+      paymentApi.initTransaction();
+      fail("Expected ConnectException");
+    } catch (ConnectException e) {
+      assertEquals(0, emulator.getRequestCount());
+    }
+    try {
+      paymentApi.initTransaction();
+      fail("Expected NoHttpResponseException");
+    } catch (NoHttpResponseException e) {
+      assertEquals(1, emulator.getRequestCount());
+    }
+    try {
+      paymentApi.initTransaction();
+      fail("Expected ConnectionClosedException");
+    } catch (ConnectionClosedException e) {
+      // expected
+    }
+    try {
+      paymentApi.initTransaction();
+      fail("Expected AuthenticationException");
+    } catch (AuthenticationException e) {
+      // expected
+    }
+    try {
+      paymentApi.initTransaction();
+      fail("Expected HttpResponseException");
+    } catch (HttpResponseException e) {
+      assertEquals(401, e.getStatusCode());
+    }
+    try {
+      paymentApi.initTransaction();
+      fail("Expected HttpResponseException");
+    } catch (HttpResponseException e) {
+      assertEquals(503, e.getStatusCode());
+    }
+
+    assertEquals("100", paymentApi.initTransaction().getResult().getCode());
+    assertEquals(2, client.getInjected(Fault.Type.STATUS));
+    assertEquals(1, client.getInjected(Fault.Type.NONE));
+  }
+
+  @Test
+  public void testBurstAndProbabilisticSchedules() {
+    FaultSchedule burst = FaultSchedule.burst(Fault.status(503), 10, 3);
+    int faults = 0;
+    for (int i = 0; i < 100; i++) {
+      if (burst.next(null).getType() == Fault.Type.STATUS) {
+        faults++;
+      }
+    }
+    assertEquals(30, faults);
+
+    FaultSchedule random = FaultSchedule.probabilistic(42).with(Fault.dropAfterSend(), 0.1);
+    faults = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (random.next(null).getType() == Fault.Type.DROP_AFTER_SEND) {
+        faults++;
+      }
+    }
+    assertTrue(faults > 800 && faults < 1200);
+  }
+
+  @Test
+  public void testSlowReadTimesOut() throws IOException {
+    try (FaultInjectingHttpClient client = new FaultInjectingHttpClient(HttpClients.createDefault(),
+        FaultSchedule.scripted(true, Fault.slowRead(30, TimeUnit.MILLISECONDS)))) {
+
+      HttpGet slow = new HttpGet(emulator.getServiceUrl() + "/transaction");
+      long start = System.nanoTime();
+      EntityUtils.toString(client.execute(slow).getEntity());
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+
+      HttpGet timingOut = new HttpGet(emulator.getServiceUrl() + "/transaction");
+      timingOut.setConfig(RequestConfig.custom().setSocketTimeout(10).build());
+      try {
+        EntityUtils.toString(client.execute(timingOut).getEntity());
+        fail("Expected SocketTimeoutException");
+      } catch (SocketTimeoutException e) {
+        // expected
+      }
+    }
+  }
+}
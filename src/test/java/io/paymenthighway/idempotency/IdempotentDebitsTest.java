@@ -0,0 +1,135 @@
+package io.paymenthighway.idempotency;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.LatencyDistribution;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.transaction.DebitTransactionResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IdempotentDebitsTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  private static TransactionRequest request(String order) {
+    Card card = new Card("4153013999700024", "2023", "11", "024");
+    return new TransactionRequest.Builder(card, 9999, "EUR").setOrder(order).build();
+  }
+
+  @Test
+  public void testConcurrentDuplicatesAreSentOnce() throws Exception {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setLatency(LatencyDistribution.fixed(200, TimeUnit.MILLISECONDS))
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator);
+         IdempotencyStore store = new IdempotencyStore(folder.newFile(), 1024, 1, TimeUnit.HOURS)) {
+
+      final IdempotentDebits debits = new IdempotentDebits(paymentApi, store);
+      final UUID transactionId = paymentApi.initTransaction().getId();
+      long before = emulator.getRequestCount();
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<DebitTransactionResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+          futures.add(executor.submit(new Callable<DebitTransactionResponse>() {
+            @Override
+            public DebitTransactionResponse call() throws IOException {
+              return debits.debit("checkout-1", transactionId, request("1000123A"));
+            }
+          }));
+        }
+        for (Future<DebitTransactionResponse> future : futures) {
+          assertEquals("100", future.get().getResult().getCode());
+        }
+      } finally {
+        executor.shutdown();
+      }
+
+      assertEquals(before + 1, emulator.getRequestCount());
+      assertEquals("9999", paymentApi.transactionStatus(transactionId).getTransaction().getCurrentAmount());
+    }
+  }
+
+  @Test
+  public void testCompletedKeysSurviveReopening() throws IOException {
+    File file = folder.newFile();
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      DebitTransactionResponse first;
+      try (IdempotencyStore store = new IdempotencyStore(file, 1024, 1, TimeUnit.HOURS)) {
+        first = new IdempotentDebits(paymentApi, store).debitOrder(transactionId, request("1000123B"));
+      }
+
+      long before = emulator.getRequestCount();
+      try (IdempotencyStore store = new IdempotencyStore(file, 1024, 1, TimeUnit.HOURS)) {
+        DebitTransactionResponse repeated = new IdempotentDebits(paymentApi, store)
+            .debitOrder(paymentApi.initTransaction().getId(), request("1000123B"));
+        assertEquals(first.getResult().getCode(), repeated.getResult().getCode());
+        assertEquals(first.getResult().getMessage(), repeated.getResult().getMessage());
+        assertEquals(first.getFilingCode(), repeated.getFilingCode());
+      }
+      // Only the second initTransaction reached the emulator
+      assertEquals(before + 1, emulator.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testExpiredKeysAreForgotten() throws Exception {
+    try (IdempotencyStore store = new IdempotencyStore(folder.newFile(), 1024, 50, TimeUnit.MILLISECONDS)) {
+      IdempotencyKey key = IdempotencyKey.of("checkout-2");
+      assertNull(store.claim(key, UUID.randomUUID()));
+      store.complete(key, 100, "OK", null);
+      assertTrue(store.contains(key));
+      Thread.sleep(100);
+      assertFalse(store.contains(key));
+      assertNull(store.claim(key, UUID.randomUUID()));
+    }
+  }
+
+  @Test
+  public void testFullWindowEvictsCompletedEntries() throws IOException {
+    try (IdempotencyStore store = new IdempotencyStore(folder.newFile(), 64, 1, TimeUnit.HOURS)) {
+      assertEquals(64, store.getCapacity());
+      for (int i = 0; i < 1000; i++) {
+        IdempotencyKey key = IdempotencyKey.of("key-" + i);
+        assertNull(store.claim(key, UUID.randomUUID()));
+        store.complete(key, 100, "OK", null);
+        assertTrue(store.contains(key));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testCapacityMismatchIsRejected() throws IOException {
+    File file = folder.newFile();
+    new IdempotencyStore(file, 1024, 1, TimeUnit.HOURS).close();
+    new IdempotencyStore(file, 2048, 1, TimeUnit.HOURS).close();
+  }
+}
@@ -0,0 +1,67 @@
+package io.paymenthighway.jfr;
+
+import io.paymenthighway.security.SecureSigner;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JfrSupportTest {
+
+  @Test
+  public void testNoopWhenNotRecording() {
+    assertTrue(JfrSupport.isAvailable());
+    assertSame(ApiCallRecording.NOOP, JfrSupport.beginApiCall("GET", "/transaction"));
+    assertSame(SignatureRecording.NOOP, JfrSupport.beginSignature(SignatureRecording.CREATE, "GET", "/transaction"));
+  }
+
+  @Test
+  public void testSignatureEvents() throws Exception {
+    SecureSigner ss = new SecureSigner("testKey", "testSecret");
+
+    List<NameValuePair> nameValuePairs = new ArrayList<>();
+    nameValuePairs.add(new BasicNameValuePair("sph-account", "test"));
+
+    File file = File.createTempFile("paymenthighway", ".jfr");
+    file.deleteOnExit();
+
+    try (Recording recording = new Recording()) {
+      recording.enable("io.paymenthighway.Signature");
+      recording.start();
+      String signature = ss.createSignature("POST", "/transaction", nameValuePairs, "");
+      nameValuePairs.add(new BasicNameValuePair("signature", signature));
+      assertTrue(ss.validateSignature("POST", "/transaction", nameValuePairs, ""));
+      recording.stop();
+      recording.dump(file.toPath());
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+    List<String> operations = new ArrayList<>();
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().equals("io.paymenthighway.Signature")) {
+        operations.add(event.getString("operation"));
+        assertEquals("/transaction", event.getString("uri"));
+        assertTrue(event.getBoolean("valid"));
+      }
+    }
+    assertEquals(2, operations.size());
+    assertEquals(SignatureRecording.CREATE, operations.get(0));
+    assertEquals(SignatureRecording.VALIDATE, operations.get(1));
+  }
+
+  @Test
+  public void testUtf8Length() {
+    assertEquals(0, JfrEvents.utf8Length(null));
+    assertEquals(3, JfrEvents.utf8Length("abc"));
+    assertEquals(3, JfrEvents.utf8Length("€"));
+    assertEquals("19,90€".getBytes(java.nio.charset.StandardCharsets.UTF_8).length, JfrEvents.utf8Length("19,90€"));
+  }
+}
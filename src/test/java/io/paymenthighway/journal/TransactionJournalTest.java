@@ -0,0 +1,210 @@
+package io.paymenthighway.journal;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.connect.ApiOperation;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.fault.Fault;
+import io.paymenthighway.fault.FaultInjectingHttpClient;
+import io.paymenthighway.fault.FaultSchedule;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TransactionJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private PaymentHighwayEmulator emulator;
+  private PaymentAPI paymentApi;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+    paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId");
+    file = new File(folder.getRoot(), "payments.journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    paymentApi.close();
+    emulator.close();
+  }
+
+  private TransactionRequest debitRequest() {
+    return new TransactionRequest.Builder(new Card("4153013999700024", "2023", "11", "024"), 9999, "EUR").build();
+  }
+
+  @Test
+  public void testCompletedOperationsLeaveNothingInDoubt() throws IOException {
+    try (TransactionJournal journal = new TransactionJournal(file)) {
+      paymentApi.setJournal(journal);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      paymentApi.debitTransaction(transactionId, debitRequest());
+      paymentApi.revertTransaction(transactionId, "1000");
+      assertTrue(journal.getInDoubt().isEmpty());
+      assertEquals(2, journal.getSyncCount());
+    }
+    try (TransactionJournal journal = new TransactionJournal(file)) {
+      assertTrue(journal.getInDoubt().isEmpty());
+    }
+  }
+
+  @Test
+  public void testInterruptedDebitIsRecovered() throws IOException {
+    UUID transactionId = paymentApi.initTransaction().getId();
+
+    // The first journal is never closed, as if the JVM died
+    TransactionJournal crashed = new TransactionJournal(file);
+    paymentApi.setJournal(crashed);
+    paymentApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+        FaultSchedule.scripted(false, Fault.dropAfterSend())));
+    try {
+      paymentApi.debitTransaction(transactionId, debitRequest());
+      fail("Expected NoHttpResponseException");
+    } catch (NoHttpResponseException e) {
+      assertEquals(1, crashed.getInDoubt().size());
+    }
+
+    try (TransactionJournal journal = new TransactionJournal(file)) {
+      List<JournalEntry> inDoubt = journal.getInDoubt();
+      assertEquals(1, inDoubt.size());
+      assertEquals(ApiOperation.DEBIT, inDoubt.get(0).getOperation());
+      assertEquals(transactionId, inDoubt.get(0).getTransactionId());
+      assertEquals("9999", inDoubt.get(0).getAmount());
+      assertNotNull(inDoubt.get(0).getRequestId());
+
+      List<RecoveredEntry> recovered = journal.recover(paymentApi);
+      assertEquals(1, recovered.size());
+      assertEquals("ok", recovered.get(0).getStatus().getStatus().getState());
+      assertEquals("9999", recovered.get(0).getStatus().getCurrentAmount());
+      assertTrue(journal.getInDoubt().isEmpty());
+    }
+    try (TransactionJournal journal = new TransactionJournal(file)) {
+      assertTrue(journal.getInDoubt().isEmpty());
+    }
+  }
+
+  @Test
+  public void testRejectedRequestIsNotInDoubt() throws IOException {
+    try (TransactionJournal journal = new TransactionJournal(file)) {
+      paymentApi.setJournal(journal);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      paymentApi.setHttpClient(new FaultInjectingHttpClient(HttpClients.createDefault(),
+          FaultSchedule.scripted(false, Fault.status(400), Fault.status(503))));
+      try {
+        paymentApi.debitTransaction(transactionId, debitRequest());
+        fail("Expected HttpResponseException");
+      } catch (HttpResponseException e) {
+        assertTrue(journal.getInDoubt().isEmpty());
+      }
+      try {
+        paymentApi.debitTransaction(transactionId, debitRequest());
+        fail("Expected HttpResponseException");
+      } catch (HttpResponseException e) {
+        assertEquals(1, journal.getInDoubt().size());
+      }
+    }
+  }
+
+  @Test
+  public void testFailedOutcomeLeavesDebitInDoubtButReturnsItsResult() throws IOException {
+    try (TransactionJournal journal = new TransactionJournal(file) {
+      @Override
+      public void appendOutcome(long sequence, String outcome) throws IOException {
+        throw new IOException("disk full");
+      }
+    }) {
+      paymentApi.setJournal(journal);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      assertEquals("100", paymentApi.debitTransaction(transactionId, debitRequest()).getResult().getCode());
+      assertEquals(1, journal.getInDoubt().size());
+      assertEquals(transactionId, journal.getInDoubt().get(0).getTransactionId());
+    }
+  }
+
+  @Test
+  public void testRunningJournalStartsOverInsteadOfGrowing() throws IOException {
+    List<UUID> left = new ArrayList<>();
+    TransactionJournal journal = new TransactionJournal(file, 4096);
+    for (int i = 0; i < 5000; i++) {
+      UUID transactionId = UUID.randomUUID();
+      long intent = journal.appendIntent(ApiOperation.DEBIT, transactionId, "100", UUID.randomUUID().toString());
+      if (i % 1000 == 999) {
+        left.add(transactionId);
+      } else {
+        journal.appendOutcome(intent, "result:100");
+      }
+    }
+    assertEquals(4096, file.length());
+    assertEquals(0, journal.getOutcomeFailureCount());
+    // Not closed, as if the JVM died
+    List<UUID> found = new ArrayList<>();
+    try (TransactionJournal reopened = new TransactionJournal(file)) {
+      for (JournalEntry entry : reopened.getInDoubt()) {
+        found.add(entry.getTransactionId());
+        assertEquals("100", entry.getAmount());
+      }
+    }
+    assertEquals(left, found);
+  }
+
+  @Test
+  public void testConcurrentIntentsShareSyncsAndSurviveGrowth() throws Exception {
+    final int threads = 8;
+    final int perThread = 100;
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final TransactionJournal journal = new TransactionJournal(file, 4096);
+
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < perThread; i++) {
+              long intent = journal.appendIntent(ApiOperation.COMMIT, UUID.randomUUID(), "100",
+                  UUID.randomUUID().toString());
+              // Every other operation is left in doubt
+              if (i % 2 == 0) {
+                journal.appendOutcome(intent, "result:100");
+              }
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      };
+      workers.add(worker);
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertNull(failure.get());
+    assertTrue(journal.getSyncCount() <= threads * perThread);
+    assertTrue(file.length() > 4096);
+    journal.close();
+
+    try (TransactionJournal reopened = new TransactionJournal(file)) {
+      assertEquals(threads * perThread / 2, reopened.getInDoubt().size());
+    }
+  }
+}
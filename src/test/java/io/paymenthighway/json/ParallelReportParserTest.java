@@ -0,0 +1,147 @@
+package io.paymenthighway.json;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelReportParserTest {
+
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  private final ParallelReportParser parser = new ParallelReportParser(POOL, 0, 300);
+
+  @AfterClass
+  public static void shutDown() {
+    POOL.shutdown();
+  }
+
+  private static String reconciliationReport() {
+    StringBuilder builder = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":[");
+    for (int s = 0; s < 4; s++) {
+      builder.append("{\"batch\":\"00000").append(s).append("\",\"status\":{\"state\":\"ok\",\"code\":4000},")
+          .append("\"transactions\": [ ");
+      for (int t = 0; t < 25 * s; t++) {
+        builder.append(t > 0 ? " ,\n" : "").append(t == 7 ? "null" : "{\"id\":\"" + s + "-" + t
+            + "\",\"amount\":\"" + (t * 100) + "\",\"currency\":\"EUR\",\"order\":\"{[\\\"]}\\\\\","
+            + "\"nested\":{\"a\":[{}]},"
+            + "\"merchant\":{\"id\":\"m\",\"name\":\"Merchant\"},\"status\":{\"state\":\"ok\",\"code\":4000}}");
+      }
+      builder.append(" ],\"reference\":\"ref").append(s).append("\",\"unallocated_transactions\":[{\"filing_code\":")
+          .append("\"1\"}]},");
+    }
+    return builder.append("null,{\"batch\":\"000009\",\"transactions\":null}],\"commission_settlements\":[],")
+        .append("\"trailing\":{\"a\":[1,2]}}").toString();
+  }
+
+  private static String serialize(Object response) throws IOException {
+    return JsonParser.MAPPER.writeValueAsString(response);
+  }
+
+  @Test
+  public void testReconciliationReportMatchesSequentialParsing() throws IOException {
+    String json = reconciliationReport();
+    ReconciliationReportResponse parallel = parser.mapReconciliationReport(json);
+    ReconciliationReportResponse sequential = new JsonParser().mapResponse(json, ReconciliationReportResponse.class);
+
+    assertEquals(serialize(sequential), serialize(parallel));
+    assertEquals(6, parallel.getReconciliationSettlements().length);
+    ReconciliationTransaction[] transactions = parallel.getReconciliationSettlements()[3].getTransactions();
+    assertEquals(75, transactions.length);
+    assertNull(transactions[7]);
+    for (int t = 8; t < transactions.length; t++) {
+      assertEquals("3-" + t, transactions[t].getId());
+    }
+    assertEquals("ref3", parallel.getReconciliationSettlements()[3].getReference());
+    assertNull(parallel.getReconciliationSettlements()[4]);
+    assertNull(parallel.getReconciliationSettlements()[5].getTransactions());
+  }
+
+  @Test
+  public void testDailyReportMatchesSequentialParsing() throws IOException {
+    String json = reconciliationReport();
+    ReportResponse parallel = parser.mapReport(json);
+    assertEquals(serialize(new JsonParser().mapResponse(json, ReportResponse.class)), serialize(parallel));
+    assertEquals("2-49", parallel.getSettlements()[2].getTransactions()[49].getId());
+  }
+
+  @Test
+  public void testOtherShapesAreParsedSequentially() throws IOException {
+    assertEquals("100", parser.mapReport("{\"result\":{\"code\":\"100\"},\"settlements\":null}").getResult().getCode());
+    assertNull(parser.mapReport("{\"result\":{\"code\":\"900\"}}").getSettlements());
+    assertEquals(0, parser.mapReport("{\"settlements\":[]}").getSettlements().length);
+  }
+
+  @Test
+  public void testPoolOfOneThreadIsNotUsed() throws IOException {
+    ForkJoinPool single = new ForkJoinPool(1);
+    try {
+      String json = reconciliationReport();
+      ReconciliationReportResponse report = new ParallelReportParser(single, 0, 300).mapReconciliationReport(json);
+      ReconciliationReportResponse sequential = new JsonParser().mapResponse(json, ReconciliationReportResponse.class);
+      assertEquals(serialize(sequential), serialize(report));
+      assertEquals(0, single.getPoolSize());
+    } finally {
+      single.shutdown();
+    }
+  }
+
+  @Test
+  public void testEscapedNamesMatchSequentialParsing() throws IOException {
+    String json = "{\"settlements\":[{\"\\u0074ransactions\":[{\"id\":\"a\"}]},{\"transactions\":[{\"id\":\"b\"}]}]}";
+    assertEquals(serialize(new JsonParser().mapResponse(json, ReportResponse.class)),
+        serialize(parser.mapReport(json)));
+    json = "{\"settlements\":[{\"\\u0074ransactions\":[]},{\"transactions\":[{\"id\":\"b\"}]}]}";
+    assertEquals("b", parser.mapReport(json).getSettlements()[1].getTransactions()[0].getId());
+  }
+
+  @Test
+  public void testInvalidTransactionIsAnError() {
+    try {
+      parser.mapReconciliationReport("{\"settlements\":[{\"transactions\":[{\"id\":\"a\"},{\"merchant\":\"m\"}]}]}");
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Merchant"));
+    }
+    try {
+      parser.mapReport("{\"settlements\":[{\"transactions\":[{\"id\":\"a\"},]}]}");
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Unexpected character"));
+    }
+  }
+
+  @Test
+  public void testEmulatedReportIsParsedInParallel() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId")) {
+      paymentApi.setReportParser(parser);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setCommit(true)
+          .build());
+      String today = DateTimeFormatter.BASIC_ISO_DATE.format(LocalDate.now(ZoneOffset.UTC));
+
+      ReconciliationReportResponse report = paymentApi.fetchReconciliationReport(today);
+      assertEquals(transactionId.toString(), report.getReconciliationSettlements()[0].getTransactions()[0].getId());
+      assertEquals(transactionId.toString(), paymentApi.fetchDailyReport(today).getSettlements()[0]
+          .getTransactions()[0].getId());
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package io.paymenthighway.json;
+
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Transaction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PooledDeserializationTest {
+
+  private static final String RECONCILIATION = "{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":["
+      + "{\"reference\":\"1\",\"currency\":\"EUR\",\"acquirer\":{\"id\":\"nets\",\"name\":\"Nets\"},"
+      + "\"status\":{\"state\":\"ok\",\"code\":4000},\"transactions\":["
+      + "{\"id\":\"a\",\"type\":\"debit\",\"amount\":\"1\",\"currency\":\"EUR\",\"merchant\":{\"id\":\"m\","
+      + "\"name\":\"Merchant\"},\"acquirer_commission_currency\":\"EUR\",\"status\":{\"state\":\"ok\",\"code\":4000}},"
+      + "{\"id\":\"b\",\"type\":\"debit\",\"amount\":\"2\",\"currency\":\"EUR\",\"merchant\":{\"id\":\"m\","
+      + "\"name\":\"Merchant\"},\"status\":{\"code\":\"4000\",\"state\":\"ok\",\"extra\":[1]}},"
+      + "{\"id\":\"c\",\"type\":\"revert\",\"amount\":\"-1\",\"currency\":\"SEK\",\"status\":{\"state\":\"failure\","
+      + "\"code\":7000,\"message\":\"Declined\"}}]}]}";
+
+  @Test
+  public void testRepeatedValuesAreShared() {
+    JsonParser parser = new JsonParser();
+    ReconciliationReportResponse response = parser.mapResponse(RECONCILIATION, ReconciliationReportResponse.class);
+    ReconciliationSettlement settlement = response.getReconciliationSettlements()[0];
+    ReconciliationTransaction[] transactions = settlement.getTransactions();
+
+    assertEquals("EUR", transactions[0].getCurrency());
+    assertSame(settlement.getCurrency(), transactions[0].getCurrency());
+    assertSame(transactions[0].getCurrency(), transactions[1].getCurrency());
+    assertSame(transactions[0].getCurrency(), transactions[0].getAcquirerCommissionCurrency());
+    assertSame(transactions[0].getType(), transactions[1].getType());
+    assertSame(transactions[0].getMerchant().getName(), transactions[1].getMerchant().getName());
+
+    assertEquals("4000", transactions[0].getStatus().getCode());
+    assertSame(settlement.getStatus(), transactions[0].getStatus());
+    assertSame(transactions[0].getStatus(), transactions[1].getStatus());
+
+    ReconciliationReportResponse again = parser.mapResponse(RECONCILIATION, ReconciliationReportResponse.class);
+    assertSame(response.getResult(), again.getResult());
+    assertSame(settlement.getAcquirer().getName(), again.getReconciliationSettlements()[0].getAcquirer().getName());
+  }
+
+  @Test
+  public void testDistinctValuesAreKept() {
+    ReconciliationReportResponse response = new JsonParser().mapResponse(RECONCILIATION,
+        ReconciliationReportResponse.class);
+    assertEquals("100", response.getResult().getCode());
+    assertEquals("OK", response.getResult().getMessage());
+    Transaction revert = response.getReconciliationSettlements()[0].getTransactions()[2];
+    assertEquals("revert", revert.getType());
+    assertEquals("SEK", revert.getCurrency());
+    assertEquals("failure", revert.getStatus().getState());
+    assertEquals("7000", revert.getStatus().getCode());
+    assertEquals("Declined", revert.getStatus().getMessage());
+    assertNull(response.getReconciliationSettlements()[0].getTransactions()[0].getStatus().getMessage());
+  }
+
+  @Test
+  public void testLongAndMissingValues() {
+    StringBuilder name = new StringBuilder();
+    for (int i = 0; i <= StringPool.MAX_LENGTH; i++) {
+      name.append((char) ('a' + i % 26));
+    }
+    ReportResponse response = new JsonParser().mapResponse("{\"result\":{\"code\":100},\"settlements\":[{"
+        + "\"acquirer\":{\"id\":null,\"name\":\"" + name + "\"},\"currency\":true}]}", ReportResponse.class);
+    assertEquals("100", response.getResult().getCode());
+    assertNull(response.getResult().getMessage());
+    assertNull(response.getSettlements()[0].getAcquirer().getId());
+    assertEquals(name.toString(), response.getSettlements()[0].getAcquirer().getName());
+    assertEquals("true", response.getSettlements()[0].getCurrency());
+  }
+
+  @Test
+  public void testMisplacedObjectIsAnError() {
+    assertNull(new JsonParser().mapResponse("{\"result\":[\"100\"]}", ReportResponse.class));
+    assertNull(new JsonParser().mapResponse("{\"settlements\":[{\"currency\":{\"a\":1}}]}", ReportResponse.class));
+  }
+}
@@ -0,0 +1,82 @@
+package io.paymenthighway.json;
+
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Settlement;
+import io.paymenthighway.model.response.Transaction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProjectionTest {
+
+  private static final String REPORT = "{\"settlements\":[{\"id\":\"11d22268-cc71-4894-bf41-e13a9039c327\","
+      + "\"batch\":\"000016\",\"timestamp\":\"2015-03-20T22:00:09Z\",\"merchant\":{\"id\":\"test_merchantId\","
+      + "\"name\":\"Test user\"},\"transaction_count\":1,\"net_amount\":320,\"currency\":\"EUR\",\"acquirer\":{\"id\":"
+      + "\"nets\",\"name\":\"Nets\"},\"transactions\":[{\"id\":\"f9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":"
+      + "\"2015-03-20T13:09:36Z\",\"type\":\"debit\",\"partial_pan\":\"0024\",\"amount\":320,\"unknown\":{\"a\":[1,"
+      + "{\"b\":2}]},\"currency\":\"EUR\",\"filing_code\":\"150320000263\",\"status\":{\"state\":\"ok\",\"code\":4000},"
+      + "\"authorization_code\":\"894463\"},{\"id\":\"e9a48e02-4301-49ff-a4f1-65749435924a\",\"amount\":\"-20\","
+      + "\"status\":{\"state\":\"ok\",\"code\":4000}}],\"status\":{\"state\":\"ok\",\"code\":4000},"
+      + "\"reference\":\"11503201000000162\"}],\"result\":{\"code\":100,\"message\":\"OK\"}}";
+
+  @Test
+  public void testOnlyProjectedFieldsAreMapped() {
+    Projection projection = Projection.of("result.code", "settlements.transactions.id",
+        "settlements.transactions.amount", "settlements.transactions.status.code", "settlements.acquirer");
+    ReportResponse response = new JsonParser().mapResponse(REPORT, ReportResponse.class, projection);
+
+    assertEquals("100", response.getResult().getCode());
+    assertNull(response.getResult().getMessage());
+    Settlement settlement = response.getSettlements()[0];
+    assertNull(settlement.getId());
+    assertNull(settlement.getBatch());
+    assertNull(settlement.getMerchant());
+    assertNull(settlement.getStatus());
+    assertNull(settlement.getReference());
+    assertEquals("nets", settlement.getAcquirer().getId());
+    assertEquals("Nets", settlement.getAcquirer().getName());
+
+    Transaction[] transactions = settlement.getTransactions();
+    assertEquals(2, transactions.length);
+    assertEquals("f9a48e02-4301-49ff-a4f1-65749435924a", transactions[0].getId());
+    assertEquals("320", transactions[0].getAmount());
+    assertEquals("4000", transactions[0].getStatus().getCode());
+    assertNull(transactions[0].getStatus().getState());
+    assertNull(transactions[0].getCurrency());
+    assertNull(transactions[0].getType());
+    assertEquals("-20", transactions[1].getAmount());
+  }
+
+  @Test
+  public void testWholeProjectionMapsEverything() {
+    JsonParser parser = new JsonParser();
+    ReportResponse projected = parser.mapResponse(REPORT, ReportResponse.class, Projection.of("settlements",
+        "settlements.transactions.id", "result"));
+    Settlement settlement = projected.getSettlements()[0];
+    assertEquals("11503201000000162", settlement.getReference());
+    assertEquals("debit", settlement.getTransactions()[0].getType());
+    assertEquals("OK", projected.getResult().getMessage());
+  }
+
+  @Test
+  public void testReconciliationReportIsProjected() {
+    String json = "{\"result\":{\"code\":\"100\"},\"settlements\":[{\"reference\":\"1\",\"transactions\":["
+        + "{\"id\":\"a\",\"amount\":\"1\",\"merchant\":{\"id\":\"m\"},\"acquirer_commission\":\"2\"}]}]}";
+    ReconciliationReportResponse response = new JsonParser().mapResponse(json, ReconciliationReportResponse.class,
+        Projection.of("settlements.transactions.amount", "settlements.transactions.acquirer_commission"));
+    assertNull(response.getResult());
+    ReconciliationTransaction transaction = response.getReconciliationSettlements()[0].getTransactions()[0];
+    assertNull(response.getReconciliationSettlements()[0].getReference());
+    assertNull(transaction.getId());
+    assertNull(transaction.getMerchant());
+    assertEquals("1", transaction.getAmount());
+    assertEquals("2", transaction.getAcquirerCommission());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyFieldIsRejected() {
+    Projection.of("settlements..amount");
+  }
+}
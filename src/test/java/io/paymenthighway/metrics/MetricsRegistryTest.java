@@ -0,0 +1,139 @@
+package io.paymenthighway.metrics;
+
+import io.paymenthighway.connect.ApiOperation;
+import io.paymenthighway.exception.AuthenticationException;
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+  @Test
+  public void testCountersAndHistogram() {
+    MetricsRegistry registry = new MetricsRegistry();
+    ConnectionMetrics metrics = new ConnectionMetrics("test", "test_merchantId");
+    registry.register(metrics);
+
+    metrics.requestStarted();
+    metrics.requestCompleted(ApiOperation.DEBIT, 3000000L);
+    metrics.requestStarted();
+    metrics.requestFailed(ApiOperation.DEBIT, 200000000L, new HttpResponseException(503, "unavailable"));
+    metrics.requestStarted();
+    metrics.requestFailed(ApiOperation.STATUS, 1000000L, new AuthenticationException("mismatch"));
+    metrics.requestStarted();
+
+    String labels = "account=\"test\",merchant=\"test_merchantId\"";
+    String text = registry.scrape();
+
+    assertTrue(text.contains("# TYPE paymenthighway_requests_total counter\n"));
+    assertTrue(text.contains("paymenthighway_connections{" + labels + "} 1\n"));
+    assertTrue(text.contains("paymenthighway_requests_in_flight{" + labels + "} 1\n"));
+    assertTrue(text.contains("paymenthighway_requests_total{" + labels + ",operation=\"debit\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_request_errors_total{" + labels + ",operation=\"debit\",type=\"http_server\"} 1\n"));
+    assertTrue(text.contains("paymenthighway_request_errors_total{" + labels + ",operation=\"status\",type=\"authentication\"} 1\n"));
+    assertTrue(text.contains("paymenthighway_request_duration_seconds_bucket{" + labels + ",operation=\"debit\",le=\"0.005\"} 1\n"));
+    assertTrue(text.contains("paymenthighway_request_duration_seconds_bucket{" + labels + ",operation=\"debit\",le=\"0.25\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_request_duration_seconds_bucket{" + labels + ",operation=\"debit\",le=\"+Inf\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_request_duration_seconds_count{" + labels + ",operation=\"debit\"} 2\n"));
+    assertFalse(text.contains("paymenthighway_pool_leased_connections{"));
+  }
+
+  @Test
+  public void testConnectionsOfSameMerchantAreSummed() {
+    MetricsRegistry registry = new MetricsRegistry();
+    ConnectionMetrics first = new ConnectionMetrics("test", "merchant");
+    ConnectionMetrics second = new ConnectionMetrics("test", "merchant");
+    ConnectionMetrics other = new ConnectionMetrics("test", "other \"merchant\"");
+    registry.register(first);
+    registry.register(second);
+    registry.register(other);
+
+    first.requestStarted();
+    first.requestCompleted(ApiOperation.INIT, 1000L);
+    second.requestStarted();
+    second.requestCompleted(ApiOperation.INIT, 1000L);
+
+    String text = registry.scrape();
+    assertTrue(text.contains("paymenthighway_connections{account=\"test\",merchant=\"merchant\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_requests_total{account=\"test\",merchant=\"merchant\",operation=\"init\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_connections{account=\"test\",merchant=\"other \\\"merchant\\\"\"} 1\n"));
+
+    registry.unregister(second);
+    registry.unregister(other);
+    assertEquals(1, registry.getConnections().size());
+  }
+
+  @Test
+  public void testRegisteringTwiceCountsOnce() {
+    MetricsRegistry registry = new MetricsRegistry();
+    ConnectionMetrics metrics = new ConnectionMetrics("test", "test_merchantId");
+    registry.register(metrics);
+    registry.register(metrics);
+    metrics.requestStarted();
+    metrics.requestCompleted(ApiOperation.INIT, 1000L);
+
+    String labels = "account=\"test\",merchant=\"test_merchantId\"";
+    String text = registry.scrape();
+    assertEquals(1, registry.getConnections().size());
+    assertTrue(text.contains("paymenthighway_connections{" + labels + "} 1\n"));
+    assertTrue(text.contains("paymenthighway_requests_total{" + labels + ",operation=\"init\"} 1\n"));
+  }
+
+  @Test
+  public void testTotalsOutliveUnregisteredConnections() {
+    MetricsRegistry registry = new MetricsRegistry();
+    ConnectionMetrics first = new ConnectionMetrics("test", "test_merchantId");
+    ConnectionMetrics second = new ConnectionMetrics("test", "test_merchantId");
+    registry.register(first);
+    registry.register(second);
+    first.requestStarted();
+    first.requestCompleted(ApiOperation.DEBIT, 3000000L);
+    second.requestStarted();
+    second.requestFailed(ApiOperation.DEBIT, 3000000L, new HttpResponseException(503, "unavailable"));
+
+    registry.unregister(first);
+    registry.unregister(second);
+    registry.unregister(second);
+
+    String labels = "account=\"test\",merchant=\"test_merchantId\"";
+    String text = registry.scrape();
+    assertTrue(registry.getConnections().isEmpty());
+    assertTrue(text.contains("paymenthighway_connections{" + labels + "} 0\n"));
+    assertTrue(text.contains("paymenthighway_requests_total{" + labels + ",operation=\"debit\"} 2\n"));
+    assertTrue(text.contains("paymenthighway_request_errors_total{" + labels + ",operation=\"debit\",type=\"http_server\"} 1\n"));
+    assertTrue(text.contains("paymenthighway_request_duration_seconds_count{" + labels + ",operation=\"debit\"} 2\n"));
+  }
+
+  @Test
+  public void testHttpEndpoint() throws IOException {
+    MetricsRegistry registry = new MetricsRegistry();
+    ConnectionMetrics metrics = new ConnectionMetrics("test", "test_merchantId");
+    registry.register(metrics);
+
+    try (MetricsHttpServer server = new MetricsHttpServer(new InetSocketAddress("127.0.0.1", 0), registry)) {
+      URL url = new URL("http://127.0.0.1:" + server.getPort() + "/metrics");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      assertEquals(200, connection.getResponseCode());
+      assertEquals(MetricsRegistry.CONTENT_TYPE, connection.getContentType());
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try (InputStream in = connection.getInputStream()) {
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+          body.write(buffer, 0, n);
+        }
+      }
+      assertEquals(registry.scrape(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ColumnarReportTest {
+
+  private static final String REPORT = "{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":["
+      + "{\"acquirer_batch_id\":\"0000000001\",\"status\":{\"state\":\"ok\",\"code\":4000},\"batch\":\"000001\","
+      + "\"date_processed\":\"2016-03-01\",\"reference\":\"20160301000001\",\"acquirer\":{\"id\":\"nets\","
+      + "\"name\":\"Nets\"},\"transaction_count\":2,\"net_amount\":\"1490\",\"currency\":\"EUR\","
+      + "\"main_acquirer_merchant_id\":\"12345\",\"transactions\":["
+      + transaction("f9a48e02-4301-49ff-a4f1-65749435924a", "2016-03-01T10:11:12Z", "debit", "\"990\"", "EUR",
+      "ok", "1000123A")
+      + "," + transaction("5c9a2cde-8a7e-4c4b-9a1d-1f2b3c4d5e6f", "2016-03-01T12:00:00Z", "debit", "500", "EUR",
+      "ok", null)
+      + "],\"unallocated_transactions\":[{\"filing_code\":\"160301000001\",\"acquirer_amount_presented\":\"150\"}]},"
+      + "{\"acquirer_batch_id\":\"0000000002\",\"status\":{\"state\":\"ok\",\"code\":\"4000\"},\"batch\":\"000002\","
+      + "\"date_processed\":\"2016-03-02\",\"reference\":\"20160302000002\",\"acquirer\":{\"id\":\"handelsbanken\"},"
+      + "\"net_amount\":-300,\"currency\":\"SEK\",\"extra\":{\"nested\":[1,2,3]},\"transactions\":["
+      + transaction("0e2c5a4b-3d1f-4e6a-8b7c-9d0e1f2a3b4c", "2016-03-02T08:00:00.123+02:00", "revert", "\"-300\"",
+      "SEK", "ok", null)
+      + "," + transaction("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0", "2016-03-02T09:30:00Z", "debit", "700", "SEK",
+      "failed", null)
+      + "]}],\"commission_settlements\":[{\"batch\":\"000003\",\"amount\":\"25\",\"currency\":\"EUR\"}]}";
+
+  private static String transaction(String id, String timestamp, String type, String amount, String currency,
+                                    String state, String order) {
+    return "{\"id\":\"" + id + "\",\"timestamp\":\"" + timestamp + "\",\"type\":\"" + type + "\","
+        + "\"partial_pan\":\"0024\",\"amount\":" + amount + ",\"currency\":\"" + currency + "\","
+        + "\"filing_code\":\"1603010000" + id.substring(0, 2) + "\",\"authorization_code\":\"894463\","
+        + "\"status\":{\"state\":\"" + state + "\",\"code\":" + ("ok".equals(state) ? 4000 : 7000) + "},"
+        + "\"cardholder_authentication\":\"no\"," + (order != null ? "\"order\":\"" + order + "\"," : "")
+        + "\"merchant\":{\"id\":\"test_merchantId\",\"name\":\"Test user\"},"
+        + "\"acquirer_amount_presented\":" + amount + ",\"acquirer_amount_presented_currency\":\"" + currency + "\","
+        + "\"acquirer_estimated_settlement_value\":" + amount + ","
+        + "\"acquirer_estimated_settlement_value_currency\":\"" + currency + "\","
+        + "\"acquirer_exchange_rate\":\"1.0\",\"acquirer_discount_rate\":0.5,"
+        + "\"acquirer_transaction_fee\":\"3\",\"acquirer_transaction_fee_currency\":\"" + currency + "\","
+        + "\"acquirer_commission\":2,\"acquirer_commission_currency\":\"" + currency + "\"}";
+  }
+
+  @Test
+  public void testColumnsMatchResponseObjects() throws IOException {
+    ColumnarReport report = ColumnarReport.parse(REPORT);
+    ReconciliationReportResponse response = new JsonParser().mapResponse(REPORT, ReconciliationReportResponse.class);
+
+    assertEquals("100", report.getResultCode());
+    assertEquals("OK", report.getResultMessage());
+    assertEquals(2, report.getSettlementCount());
+    assertEquals(4, report.size());
+    int row = 0;
+    for (int index = 0; index < report.getSettlementCount(); index++) {
+      ReconciliationSettlement settlement = response.getReconciliationSettlements()[index];
+      assertEquals(settlement.getAcquirerBatchId(), report.getSettlementAcquirerBatchId(index));
+      assertEquals(settlement.getBatch(), report.getSettlementBatch(index));
+      assertEquals(settlement.getReference(), report.getSettlementReference(index));
+      assertEquals(settlement.getMainAcquirerMerchantId(), report.getSettlementMainAcquirerMerchantId(index));
+      assertEquals(LocalDate.parse(settlement.getDateProcessed()).atStartOfDay(ZoneOffset.UTC).toEpochSecond(),
+          report.getSettlementDateProcessed(index));
+      assertEquals(Long.parseLong(settlement.getNetAmount()), report.getSettlementNetAmount(index));
+      assertEquals(settlement.getCurrency(), report.getSettlementCurrency(index));
+      assertEquals(settlement.getAcquirer().getId(), report.getSettlementAcquirer(index));
+      assertEquals(settlement.getStatus().getState(), report.getSettlementState(index));
+      assertEquals(Integer.parseInt(settlement.getStatus().getCode()), report.getSettlementStatusCode(index));
+      for (ReconciliationTransaction transaction : settlement.getTransactions()) {
+        assertEquals(index, report.getSettlement(row));
+        assertEquals(UUID.fromString(transaction.getId()), report.getTransactionId(row));
+        assertEquals(OffsetDateTime.parse(transaction.getTimestamp()).toEpochSecond(), report.getTimestamp(row));
+        assertEquals(transaction.getType(), report.getType(row));
+        assertEquals(transaction.getPartialPan(), report.getPartialPan(row));
+        assertEquals(Long.parseLong(transaction.getAmount()), report.getAmount(row));
+        assertEquals(transaction.getCurrency(), report.getCurrency(row));
+        assertEquals(transaction.getFilingCode(), report.getFilingCode(row));
+        assertEquals(transaction.getAuthorizationCode(), report.getAuthorizationCode(row));
+        assertEquals(transaction.getStatus().getState(), report.getState(row));
+        assertEquals(Integer.parseInt(transaction.getStatus().getCode()), report.getStatusCode(row));
+        assertEquals(transaction.getCardholderAuthentication(), report.getCardholderAuthentication(row));
+        assertEquals(transaction.getOrder(), report.getOrder(row));
+        assertEquals(transaction.getMerchant().getId(), report.getMerchant(row));
+        assertEquals(Long.parseLong(transaction.getAcquirerAmountPresented()), report.getAcquirerAmountPresented(row));
+        assertEquals(transaction.getAcquirerAmountPresentedCurrency(), report.getAcquirerAmountPresentedCurrency(row));
+        assertEquals(Long.parseLong(transaction.getAcquirerEstimatedSettlementValue()),
+            report.getAcquirerEstimatedSettlementValue(row));
+        assertEquals(transaction.getAcquirerEstimatedSettlementValueCurrency(),
+            report.getAcquirerEstimatedSettlementValueCurrency(row));
+        assertEquals(Double.parseDouble(transaction.getAcquirerExchangeRate()), report.getAcquirerExchangeRate(row),
+            0);
+        assertEquals(Double.parseDouble(transaction.getAcquirerDiscountRate()), report.getAcquirerDiscountRate(row),
+            0);
+        assertEquals(Long.parseLong(transaction.getAcquirerTransactionFee()), report.getAcquirerTransactionFee(row));
+        assertEquals(transaction.getAcquirerTransactionFeeCurrency(), report.getAcquirerTransactionFeeCurrency(row));
+        assertEquals(Long.parseLong(transaction.getAcquirerCommission()), report.getAcquirerCommission(row));
+        assertEquals(transaction.getAcquirerCommissionCurrency(), report.getAcquirerCommissionCurrency(row));
+        row++;
+      }
+    }
+    assertEquals(1, report.getUnallocatedTransactions().size());
+    assertEquals("160301000001", report.getUnallocatedTransactions().get(0).getFilingCode());
+    assertEquals(1, report.getCommissionSettlements().size());
+    assertEquals("25", report.getCommissionSettlements().get(0).getAmount());
+  }
+
+  @Test
+  public void testScansAndAggregations() throws IOException {
+    ColumnarReport report = ColumnarReport.parse(
+        new ByteArrayInputStream(REPORT.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(4, report.scan().count());
+    assertEquals(1490, report.scan().currency("EUR").sum(ColumnarReport.Measure.AMOUNT));
+    assertEquals(0, report.scan().currency("USD").count());
+    assertArrayEquals(new int[]{3}, report.scan().state("failed").rows());
+    assertArrayEquals(new int[]{2, 3}, report.scan().acquirer("handelsbanken").rows());
+    assertArrayEquals(new int[]{0}, report.scan().order("1000123A").rows());
+    assertArrayEquals(new int[]{1}, report.scan().filingCode("16030100005c").rows());
+
+    long from = Instant.parse("2016-03-01T11:00:00Z").getEpochSecond();
+    long to = Instant.parse("2016-03-02T09:00:00Z").getEpochSecond();
+    assertArrayEquals(new int[]{1, 2}, report.scan().between(from, to).rows());
+    assertArrayEquals(new int[]{2}, report.scan().amountBetween(-1000, 0).rows());
+
+    Map<String, Long> sums = report.scan().state("ok").sumBy(ColumnarReport.Dimension.CURRENCY,
+        ColumnarReport.Measure.AMOUNT);
+    assertEquals(2, sums.size());
+    assertEquals(Long.valueOf(1490), sums.get("EUR"));
+    assertEquals(Long.valueOf(-300), sums.get("SEK"));
+
+    Map<String, Long> counts = report.scan().countBy(ColumnarReport.Dimension.TYPE);
+    assertEquals(Long.valueOf(3), counts.get("debit"));
+    assertEquals(Long.valueOf(1), counts.get("revert"));
+    assertEquals(Long.valueOf(6), report.scan().sumBy(ColumnarReport.Dimension.ACQUIRER,
+        ColumnarReport.Measure.ACQUIRER_TRANSACTION_FEE).get("nets"));
+  }
+
+  @Test
+  public void testMissingAndInvalidValues() throws IOException {
+    ColumnarReport report = ColumnarReport.parse("{\"settlements\":[{\"transactions\":["
+        + "{\"id\":\"not-a-uuid\",\"amount\":\"9.90\",\"timestamp\":\"2016-02-30T10:00:00Z\",\"currency\":null,"
+        + "\"status\":\"ok\",\"acquirer_exchange_rate\":\"n/a\",\"merchant\":\"test_merchantId\"},"
+        + "{\"id\":\"1-2-3-4-5\",\"order\":\"\",\"amount\":\"99999999999999999999\"}, 42]},null]}");
+
+    assertNull(report.getResultCode());
+    assertEquals(1, report.getSettlementCount());
+    assertEquals(2, report.size());
+    assertNull(report.getTransactionId(0));
+    assertEquals(ColumnarReport.NO_VALUE, report.getAmount(0));
+    assertEquals(ColumnarReport.NO_VALUE, report.getTimestamp(0));
+    assertNull(report.getCurrency(0));
+    assertNull(report.getState(0));
+    assertEquals(-1, report.getStatusCode(0));
+    assertTrue(Double.isNaN(report.getAcquirerExchangeRate(0)));
+    assertNull(report.getMerchant(0));
+    assertNull(report.getPartialPan(0));
+    assertEquals(UUID.fromString("1-2-3-4-5"), report.getTransactionId(1));
+    assertNull(report.getOrder(1));
+    assertEquals(ColumnarReport.NO_VALUE, report.getAmount(1));
+    assertEquals(0, report.scan().sum(ColumnarReport.Measure.AMOUNT));
+    assertEquals(Long.valueOf(2), report.scan().countBy(ColumnarReport.Dimension.CURRENCY).get(null));
+
+    try {
+      report.getAmount(2);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+    try {
+      ColumnarReport.parse("[]");
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testTimestamps() {
+    String[] valid = {"2016-03-01T10:11:12Z", "1969-12-31T23:59:59Z", "2016-02-29T00:00:00.5Z",
+        "2016-03-01T10:11:12+02:00", "2016-03-01T10:11:12-0530", "2400-12-31T23:59:59Z"};
+    for (String value : valid) {
+      assertEquals(value, OffsetDateTime.parse(value.replace("-0530", "-05:30")).toEpochSecond(),
+          ColumnarReport.epochSeconds(value.toCharArray(), 0, value.length()));
+    }
+    assertEquals(LocalDate.of(2016, 3, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond(),
+        ColumnarReport.epochSeconds("2016-03-01".toCharArray(), 0, 10));
+    assertEquals(OffsetDateTime.parse("2016-03-01T10:11:12Z").toEpochSecond(),
+        ColumnarReport.epochSeconds("2016-03-01 10:11:12".toCharArray(), 0, 19));
+    String[] invalid = {"2015-02-29", "2016-13-01", "2016-03-01T24:00:00Z", "2016-03-01T10:11:12X", "20160301",
+        "2016-03-01T10:11"};
+    for (String value : invalid) {
+      assertEquals(value, ColumnarReport.NO_VALUE, ColumnarReport.epochSeconds(value.toCharArray(), 0,
+          value.length()));
+    }
+  }
+
+  @Test
+  public void testFetchFromEmulator() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId")) {
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setOrder("1000123A")
+          .setCommit(true)
+          .build());
+      String today = DateTimeFormatter.BASIC_ISO_DATE.format(LocalDate.now(ZoneOffset.UTC));
+
+      ColumnarReport report = paymentApi.fetchColumnarReconciliationReport(today);
+
+      assertEquals("100", report.getResultCode());
+      assertEquals(1, report.size());
+      assertEquals(transactionId, report.getTransactionId(0));
+      assertEquals(9999, report.getAmount(0));
+      assertEquals("EUR", report.getCurrency(0));
+      assertEquals(9999, report.getAcquirerAmountPresented(0));
+    }
+  }
+}
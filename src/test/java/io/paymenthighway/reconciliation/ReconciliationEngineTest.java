@@ -0,0 +1,165 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ReconciliationEngineTest {
+
+  private static String transaction(Object id, long amount, String currency) {
+    return "{\"id\":\"" + id + "\",\"type\":\"debit\",\"amount\":\"" + amount + "\",\"currency\":\"" + currency
+        + "\",\"status\":{\"state\":\"ok\",\"code\":\"4000\"}}";
+  }
+
+  private static ReconciliationReportResponse report(List<String> transactions, String unallocated) {
+    StringBuilder json = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":[");
+    json.append("{\"batch\":\"000001\",\"currency\":\"EUR\",\"transactions\":[");
+    for (int i = 0; i < transactions.size(); i++) {
+      json.append(i > 0 ? "," : "").append(transactions.get(i));
+    }
+    json.append("],\"unallocated_transactions\":[").append(unallocated).append("]}],\"commission_settlements\":[]}");
+    return new JsonParser().mapResponse(json.toString(), ReconciliationReportResponse.class);
+  }
+
+  @Test
+  public void testTransactionsAreBucketed() {
+    UUID matched = UUID.randomUUID();
+    UUID wrongAmount = UUID.randomUUID();
+    UUID wrongCurrency = UUID.randomUUID();
+    UUID onlyRemote = UUID.randomUUID();
+    UUID onlyLocal = UUID.randomUUID();
+    ReconciliationReportResponse report = report(Arrays.asList(
+        transaction(matched, 990, "EUR"),
+        transaction(wrongAmount, 1000, "EUR"),
+        transaction(wrongCurrency, 500, "SEK"),
+        transaction(onlyRemote, 100, "EUR"),
+        transaction("not-a-uuid", 100, "EUR")),
+        "{\"filing_code\":\"123456789012\",\"acquirer_amount_presented\":\"150\"}");
+    List<LedgerEntry> ledger = Arrays.asList(
+        new LedgerEntry(matched, 990, "EUR"),
+        new LedgerEntry(wrongAmount, 999, "EUR"),
+        new LedgerEntry(wrongCurrency, 500, "EUR"),
+        new LedgerEntry(onlyLocal, 100, "EUR"));
+
+    ReconciliationResult result = new ReconciliationEngine().reconcile(report, ledger.stream());
+
+    assertEquals(1, result.getMatched().size());
+    assertEquals(matched, result.getMatched().get(0).getLedgerEntry().getTransactionId());
+    assertEquals("000001", result.getMatched().get(0).getSettlement().getBatch());
+    assertEquals(2, result.getAmountMismatches().size());
+    Set<UUID> mismatched = new HashSet<>();
+    for (ReconciliationMatch match : result.getAmountMismatches()) {
+      mismatched.add(match.getLedgerEntry().getTransactionId());
+    }
+    assertEquals(new HashSet<>(Arrays.asList(wrongAmount, wrongCurrency)), mismatched);
+    assertEquals(2, result.getMissingLocally().size());
+    assertEquals(1, result.getMissingRemotely().size());
+    assertEquals(onlyLocal, result.getMissingRemotely().get(0).getTransactionId());
+    assertEquals(1, result.getUnallocated().size());
+    assertEquals("123456789012", result.getUnallocated().get(0).getFilingCode());
+    assertFalse(result.isBalanced());
+  }
+
+  @Test
+  public void testRepeatedIdsPairByAmount() {
+    UUID transactionId = UUID.randomUUID();
+    ReconciliationReportResponse report = report(Arrays.asList(
+        transaction(transactionId, -300, "EUR"),
+        transaction(transactionId, 990, "EUR")), "");
+    List<LedgerEntry> ledger = Arrays.asList(
+        new LedgerEntry(transactionId, 990, "EUR"),
+        new LedgerEntry(transactionId, -300, "EUR"),
+        new LedgerEntry(transactionId, -100, "EUR"));
+
+    ReconciliationResult result = new ReconciliationEngine().reconcile(report, ledger.stream());
+
+    assertEquals(2, result.getMatched().size());
+    assertTrue(result.getAmountMismatches().isEmpty());
+    assertEquals(1, result.getMissingRemotely().size());
+    assertEquals(-100, result.getMissingRemotely().get(0).getAmount());
+  }
+
+  @Test
+  public void testMismatchedRowBeforeExactRowDoesNotTakeItsEntry() {
+    UUID transactionId = UUID.randomUUID();
+    ReconciliationReportResponse report = report(Arrays.asList(
+        transaction(transactionId, -250, "EUR"),
+        transaction(transactionId, 990, "EUR")), "");
+    List<LedgerEntry> ledger = Arrays.asList(
+        new LedgerEntry(transactionId, 990, "EUR"),
+        new LedgerEntry(transactionId, -300, "EUR"));
+
+    ReconciliationResult result = new ReconciliationEngine().reconcile(report, ledger.stream());
+
+    assertEquals(1, result.getMatched().size());
+    assertEquals(990, result.getMatched().get(0).getLedgerEntry().getAmount());
+    assertEquals(1, result.getAmountMismatches().size());
+    assertEquals(-300, result.getAmountMismatches().get(0).getLedgerEntry().getAmount());
+    assertEquals("-250", result.getAmountMismatches().get(0).getTransaction().getAmount());
+    assertTrue(result.getMissingLocally().isEmpty());
+    assertTrue(result.getMissingRemotely().isEmpty());
+  }
+
+  @Test
+  public void testEmptyReportBalancesEmptyLedger() {
+    ReconciliationResult result = new ReconciliationEngine().reconcile(
+        new JsonParser().mapResponse("{\"result\":{\"code\":\"100\",\"message\":\"OK\"}}",
+            ReconciliationReportResponse.class), new ArrayList<LedgerEntry>().stream());
+    assertTrue(result.isBalanced());
+    assertTrue(result.getMatched().isEmpty());
+  }
+
+  @Test
+  public void testLargeMonthMatchesInParallel() {
+    Random random = new Random(42);
+    List<String> transactions = new ArrayList<>();
+    List<LedgerEntry> ledger = new ArrayList<>();
+    int expectedMatched = 0;
+    int expectedMismatched = 0;
+    int expectedMissingLocally = 0;
+    int expectedMissingRemotely = 0;
+    for (int i = 0; i < 200000; i++) {
+      UUID id = new UUID(random.nextLong(), random.nextLong());
+      long amount = 100 + random.nextInt(100000);
+      int kind = random.nextInt(20);
+      if (kind == 0) {
+        transactions.add(transaction(id, amount, "EUR"));
+        expectedMissingLocally++;
+      } else if (kind == 1) {
+        ledger.add(new LedgerEntry(id, amount, "EUR"));
+        expectedMissingRemotely++;
+      } else if (kind == 2) {
+        transactions.add(transaction(id, amount, "EUR"));
+        ledger.add(new LedgerEntry(id, amount + 1, "EUR"));
+        expectedMismatched++;
+      } else {
+        transactions.add(transaction(id, amount, "EUR"));
+        ledger.add(new LedgerEntry(id, amount, "EUR"));
+        expectedMatched++;
+      }
+    }
+    ReconciliationReportResponse report = report(transactions, "");
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      ReconciliationResult result = new ReconciliationEngine(pool).reconcile(report, ledger.stream());
+      assertEquals(expectedMatched, result.getMatched().size());
+      assertEquals(expectedMismatched, result.getAmountMismatches().size());
+      assertEquals(expectedMissingLocally, result.getMissingLocally().size());
+      assertEquals(expectedMissingRemotely, result.getMissingRemotely().size());
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationSettlement;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ReconciliationSyncTest {
+
+  private static final LocalDate FIRST = LocalDate.of(2016, 3, 1);
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Answers every date with a report of the given references, "{date}" replaced by the date
+   */
+  private static class FakePaymentAPI extends PaymentAPI {
+
+    final List<String> fetched = new ArrayList<>();
+    String resultCode = "100";
+    String[] references = {"{date}01", "{date}02"};
+
+    FakePaymentAPI(String merchant) {
+      super("http://127.0.0.1:1", "testKey", "testSecret", "test", merchant);
+    }
+
+    @Override
+    public ReconciliationReportResponse fetchReconciliationReport(String date) throws IOException {
+      fetched.add(date);
+      StringBuilder json = new StringBuilder("{\"result\":{\"code\":\"" + resultCode + "\",\"message\":\"OK\"},"
+          + "\"settlements\":[");
+      for (int i = 0; i < references.length; i++) {
+        json.append(i > 0 ? "," : "").append("{\"acquirer_batch_id\":\"000000000").append(i)
+            .append("\",\"reference\":\"").append(references[i].replace("{date}", date)).append("\"}");
+      }
+      return new JsonParser().mapResponse(json.append("]}").toString(), ReconciliationReportResponse.class);
+    }
+  }
+
+  private static class ListSink implements SettlementSink {
+
+    final List<String> references = new ArrayList<>();
+    int failAt = -1;
+
+    @Override
+    public void accept(LocalDate date, ReconciliationSettlement settlement) throws IOException {
+      if (references.size() == failAt) {
+        throw new IOException("Sink failed");
+      }
+      references.add(settlement.getReference());
+    }
+  }
+
+  @Test
+  public void testOnlyNewDaysAreFetched() throws IOException {
+    File file = new File(folder.getRoot(), "checkpoint");
+    FakePaymentAPI paymentApi = new FakePaymentAPI("test_merchantId");
+    ListSink sink = new ListSink();
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(file)) {
+      ReconciliationSync sync = new ReconciliationSync(paymentApi, checkpoint, FIRST);
+      assertEquals(4, sync.sync(FIRST.plusDays(1), sink));
+      assertEquals(0, sync.sync(FIRST.plusDays(1), sink));
+      assertEquals(2, sync.sync(FIRST.plusDays(2), sink));
+    }
+    assertEquals(Arrays.asList("20160301", "20160302", "20160303"), paymentApi.fetched);
+    assertEquals(Arrays.asList("2016030101", "2016030102", "2016030201", "2016030202", "2016030301", "2016030302"),
+        sink.references);
+
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(file)) {
+      assertEquals(FIRST.plusDays(2), checkpoint.getLastDate("test", "test_merchantId"));
+      assertNull(checkpoint.getLastDate("test", "other"));
+      assertEquals(FIRST.plusDays(3), new ReconciliationSync(paymentApi, checkpoint, FIRST).getNextDate());
+      assertEquals(FIRST, new ReconciliationSync(new FakePaymentAPI("other"), checkpoint, FIRST).getNextDate());
+    }
+  }
+
+  @Test
+  public void testRepeatedSettlementsAreHandedOverOnce() throws IOException {
+    FakePaymentAPI paymentApi = new FakePaymentAPI("test_merchantId");
+    paymentApi.references = new String[]{"same", "{date}"};
+    ListSink sink = new ListSink();
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(folder.newFile())) {
+      assertEquals(4, new ReconciliationSync(paymentApi, checkpoint, FIRST).sync(FIRST.plusDays(2), sink));
+    }
+    assertEquals(Arrays.asList("same", "20160301", "20160302", "20160303"), sink.references);
+  }
+
+  @Test
+  public void testInterruptedDayIsResumed() throws IOException {
+    File file = new File(folder.getRoot(), "checkpoint");
+    FakePaymentAPI paymentApi = new FakePaymentAPI("test_merchantId");
+    ListSink sink = new ListSink();
+    sink.failAt = 3;
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(file)) {
+      new ReconciliationSync(paymentApi, checkpoint, FIRST).sync(FIRST.plusDays(2), sink);
+      fail();
+    } catch (IOException e) {
+      assertEquals("Sink failed", e.getMessage());
+    }
+    sink.failAt = -1;
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(file)) {
+      assertEquals(FIRST, checkpoint.getLastDate("test", "test_merchantId"));
+      assertEquals(3, new ReconciliationSync(paymentApi, checkpoint, FIRST).sync(FIRST.plusDays(2), sink));
+    }
+    assertEquals(Arrays.asList("20160301", "20160302", "20160302", "20160303"), paymentApi.fetched);
+    assertEquals(Arrays.asList("2016030101", "2016030102", "2016030201", "2016030202", "2016030301", "2016030302"),
+        sink.references);
+  }
+
+  @Test
+  public void testFailedReportStopsTheSync() throws IOException {
+    FakePaymentAPI paymentApi = new FakePaymentAPI("test_merchantId");
+    paymentApi.resultCode = "900";
+    try (ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(folder.newFile())) {
+      ReconciliationSync sync = new ReconciliationSync(paymentApi, checkpoint, FIRST);
+      try {
+        sync.sync(FIRST.plusDays(2), new ListSink());
+        fail();
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("900"));
+      }
+      assertEquals(FIRST, sync.getNextDate());
+    }
+  }
+
+  @Test
+  public void testEmulatedReportIsSynced() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId");
+         ReconciliationCheckpoint checkpoint = new ReconciliationCheckpoint(folder.newFile())) {
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setCommit(true)
+          .build());
+      LocalDate today = LocalDate.now(ZoneOffset.UTC);
+      ListSink sink = new ListSink();
+      ReconciliationSync sync = new ReconciliationSync(paymentApi, checkpoint, today.minusDays(2));
+
+      assertEquals(1, sync.sync(today, sink));
+      assertEquals(0, sync.sync(today, sink));
+      assertEquals(today.plusDays(1), sync.getNextDate());
+    }
+  }
+}
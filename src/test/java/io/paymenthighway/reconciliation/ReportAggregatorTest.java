@@ -0,0 +1,155 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReportResponse;
+import io.paymenthighway.model.response.Response;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class ReportAggregatorTest {
+
+  private static final String DAILY_REPORT = "{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":["
+      + "{\"id\":\"11d22268-cc71-4894-bf41-e13a9039c327\",\"batch\":\"000016\",\"timestamp\":\"2016-03-01T22:00:09Z\","
+      + "\"merchant\":{\"id\":\"test_merchantId\"},\"acquirer\":{\"id\":\"nets\"},\"net_amount\":\"1490\","
+      + "\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"},\"transactions\":["
+      + "{\"id\":\"f9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-01T13:09:36Z\",\"type\":\"debit\","
+      + "\"amount\":\"990\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"}},"
+      + "{\"id\":\"e9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-01T14:00:00Z\",\"type\":\"debit\","
+      + "\"amount\":\"500\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"}}]}]}";
+
+  private static final String RECONCILIATION_REPORT = "{\"result\":{\"code\":\"100\",\"message\":\"OK\"},"
+      + "\"settlements\":[{\"batch\":\"000001\",\"date_processed\":\"2016-03-02\",\"acquirer\":{\"id\":\"nets\"},"
+      + "\"net_amount\":\"-300\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"},\"transactions\":["
+      + "{\"id\":\"f9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-02T08:00:00Z\",\"type\":\"revert\","
+      + "\"amount\":\"-300\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"},\"merchant\":{\"id\":\"other\"}},"
+      + "{\"id\":\"d9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-02T09:00:00Z\",\"type\":\"debit\","
+      + "\"amount\":\"x\",\"currency\":\"SEK\",\"status\":{\"state\":\"failed\"}}]},"
+      + "{\"batch\":\"000002\",\"date_processed\":\"2016-03-02\",\"acquirer\":{\"id\":\"other\"},"
+      + "\"net_amount\":\"700\",\"currency\":\"EUR\",\"status\":{\"state\":\"ok\"}}]}";
+
+  private static List<Response> reports() {
+    JsonParser parser = new JsonParser();
+    return Arrays.<Response>asList(parser.mapResponse(DAILY_REPORT, ReportResponse.class),
+        parser.mapResponse(RECONCILIATION_REPORT, ReconciliationReportResponse.class));
+  }
+
+  @Test
+  public void testSettlementsAreGroupedByDayAndAcquirer() {
+    Map<List<String>, AmountAggregate> result = new ReportAggregator(ReportAggregator.Level.SETTLEMENT,
+        ReportAggregator.Group.DAY, ReportAggregator.Group.ACQUIRER).aggregate(reports().stream());
+
+    assertEquals(Arrays.asList(Arrays.asList("2016-03-01", "nets"), Arrays.asList("2016-03-02", "nets"),
+        Arrays.asList("2016-03-02", "other")), new ArrayList<>(result.keySet()));
+    AmountAggregate first = result.get(Arrays.asList("2016-03-01", "nets"));
+    assertEquals(1, first.getCount());
+    assertEquals(1490, first.getSum());
+    assertEquals(-300, result.get(Arrays.asList("2016-03-02", "nets")).getSum());
+
+    Map<List<String>, AmountAggregate> total = new ReportAggregator(ReportAggregator.Level.SETTLEMENT)
+        .aggregate(reports().stream());
+    AmountAggregate all = total.get(new ArrayList<String>());
+    assertEquals(3, all.getCount());
+    assertEquals(1890, all.getSum());
+    assertEquals(-300, all.getMin());
+    assertEquals(1490, all.getMax());
+  }
+
+  @Test
+  public void testTransactionsAreGroupedWithNullsFirst() {
+    Map<List<String>, AmountAggregate> result = new ReportAggregator(ReportAggregator.Level.TRANSACTION,
+        ReportAggregator.Group.MERCHANT, ReportAggregator.Group.TYPE, ReportAggregator.Group.STATUS,
+        ReportAggregator.Group.CURRENCY).aggregate(reports().stream());
+
+    assertEquals(Arrays.asList(Arrays.asList(null, "debit", "failed", "SEK"),
+        Arrays.asList("other", "revert", "ok", "EUR"), Arrays.asList("test_merchantId", "debit", "ok", "EUR")),
+        new ArrayList<>(result.keySet()));
+    AmountAggregate failed = result.get(Arrays.asList(null, "debit", "failed", "SEK"));
+    assertEquals(0, failed.getCount());
+    assertEquals(1, failed.getUnparsed());
+    assertEquals(ColumnarReport.NO_VALUE, failed.getMin());
+    AmountAggregate debits = result.get(Arrays.asList("test_merchantId", "debit", "ok", "EUR"));
+    assertEquals(2, debits.getCount());
+    assertEquals(1490, debits.getSum());
+    assertEquals(500, debits.getMin());
+    assertEquals(990, debits.getMax());
+  }
+
+  @Test
+  public void testPartialAggregatesAreMerged() {
+    JsonParser parser = new JsonParser();
+    List<ReconciliationReportResponse> year = new ArrayList<>();
+    long expectedSum = 0;
+    for (int day = 0; day < 60; day++) {
+      StringBuilder json = new StringBuilder("{\"settlements\":[{\"date_processed\":\"2016-01-01\","
+          + "\"transactions\":[");
+      for (int i = 0; i < 1000; i++) {
+        long amount = day * 1000 + i;
+        expectedSum += amount;
+        json.append(i > 0 ? "," : "").append("{\"amount\":\"").append(amount).append("\",\"currency\":\"")
+            .append(i % 2 == 0 ? "EUR" : "SEK").append("\"}");
+      }
+      year.add(parser.mapResponse(json.append("]}]}").toString(), ReconciliationReportResponse.class));
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Map<List<String>, AmountAggregate> result = new ReportAggregator(pool, ReportAggregator.Level.TRANSACTION,
+          ReportAggregator.Group.CURRENCY).aggregate(year.stream());
+      AmountAggregate eur = result.get(Arrays.asList("EUR"));
+      AmountAggregate sek = result.get(Arrays.asList("SEK"));
+      assertEquals(30000, eur.getCount());
+      assertEquals(30000, sek.getCount());
+      assertEquals(expectedSum, eur.getSum() + sek.getSum());
+      assertEquals(0, eur.getMin());
+      assertEquals(59999, sek.getMax());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchesAreAggregatedWhileTheStreamIsConsumed() {
+    final JsonParser parser = new JsonParser();
+    StringBuilder json = new StringBuilder("{\"settlements\":[{\"transactions\":[");
+    for (int i = 0; i < 10000; i++) {
+      json.append(i > 0 ? "," : "").append("{\"amount\":\"1\",\"currency\":\"EUR\"}");
+    }
+    final String report = json.append("]}]}").toString();
+
+    final ForkJoinPool pool = new ForkJoinPool(2);
+    final int[] workersBeforeLastReport = new int[1];
+    try {
+      Map<List<String>, AmountAggregate> result = new ReportAggregator(pool, ReportAggregator.Level.TRANSACTION,
+          ReportAggregator.Group.CURRENCY).aggregate(IntStream.range(0, 20).mapToObj(new IntFunction<Response>() {
+            @Override
+            public Response apply(int day) {
+              if (day == 19) {
+                workersBeforeLastReport[0] = pool.getPoolSize();
+              }
+              return parser.mapResponse(report, ReconciliationReportResponse.class);
+            }
+          }));
+      assertTrue(workersBeforeLastReport[0] > 0);
+      assertEquals(200000, result.get(Arrays.asList("EUR")).getSum());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void testOverflowingSumFails() {
+    String json = "{\"settlements\":[{\"net_amount\":\"" + Long.MAX_VALUE + "\"},{\"net_amount\":\"1\"}]}";
+    new ReportAggregator(ReportAggregator.Level.SETTLEMENT)
+        .aggregate(new JsonParser().mapResponse(json, ReconciliationReportResponse.class));
+  }
+}
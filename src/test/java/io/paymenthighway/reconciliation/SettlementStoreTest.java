@@ -0,0 +1,333 @@
+package io.paymenthighway.reconciliation;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.ReconciliationReportResponse;
+import io.paymenthighway.model.response.ReconciliationTransaction;
+import io.paymenthighway.model.response.ReportResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SettlementStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static String transaction(Object id, String timestamp, String type, long amount) {
+    return "{\"id\":\"" + id + "\",\"timestamp\":\"" + timestamp + "\",\"type\":\"" + type + "\","
+        + "\"partial_pan\":\"0024\",\"amount\":\"" + amount + "\",\"currency\":\"EUR\","
+        + "\"filing_code\":\"160301000263\",\"authorization_code\":\"894463\","
+        + "\"status\":{\"state\":\"ok\",\"code\":\"4000\"},\"merchant\":{\"id\":\"test_merchantId\"},"
+        + "\"acquirer_amount_presented\":\"" + amount + "\",\"acquirer_amount_presented_currency\":\"EUR\","
+        + "\"acquirer_exchange_rate\":\"1.0\",\"acquirer_commission\":\"2\",\"acquirer_commission_currency\":\"EUR\"}";
+  }
+
+  private static String settlement(String batch, String dateProcessed, long netAmount, String... transactions) {
+    StringBuilder json = new StringBuilder("{\"acquirer_batch_id\":\"00000" + batch + "\",\"status\":{\"state\":\"ok\","
+        + "\"code\":\"4000\"},\"batch\":\"" + batch + "\",\"date_processed\":\"" + dateProcessed + "\",\"reference\":\""
+        + dateProcessed.replace("-", "") + batch + "\",\"acquirer\":{\"id\":\"nets\",\"name\":\"Nets\"},"
+        + "\"net_amount\":\"" + netAmount + "\",\"currency\":\"EUR\",\"main_acquirer_merchant_id\":\"12345\","
+        + "\"transactions\":[");
+    for (int i = 0; i < transactions.length; i++) {
+      json.append(i > 0 ? "," : "").append(transactions[i]);
+    }
+    return json.append("]}").toString();
+  }
+
+  private static ReconciliationReportResponse reconciliationReport(String... settlements) {
+    StringBuilder json = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"settlements\":[");
+    for (int i = 0; i < settlements.length; i++) {
+      json.append(i > 0 ? "," : "").append(settlements[i]);
+    }
+    return new JsonParser().mapResponse(json.append("]}").toString(), ReconciliationReportResponse.class);
+  }
+
+  @Test
+  public void testSettlementsAreQueriedByIdBatchAndDate() throws IOException {
+    UUID reverted = UUID.randomUUID();
+    UUID debited = UUID.randomUUID();
+    try (SettlementStore store = new SettlementStore(folder.newFolder())) {
+      assertEquals(2, store.add(reconciliationReport(
+          settlement("000001", "2016-03-01", 1490,
+              transaction(reverted, "2016-03-01T10:11:12Z", "debit", 990),
+              transaction(debited, "2016-03-01T12:00:00Z", "debit", 500)),
+          settlement("000002", "2016-03-02", -300,
+              transaction(reverted, "2016-03-02T08:00:00Z", "revert", -300)))));
+      ReportResponse daily = new JsonParser().mapResponse("{\"settlements\":[{\"id\":\"11d22268-cc71-4894-bf41-"
+          + "e13a9039c327\",\"batch\":\"000016\",\"timestamp\":\"2016-03-03T22:00:09Z\",\"merchant\":{\"id\":"
+          + "\"test_merchantId\",\"name\":\"Test user\"},\"net_amount\":320,\"currency\":\"EUR\",\"transactions\":["
+          + "{\"id\":\"f9a48e02-4301-49ff-a4f1-65749435924a\",\"timestamp\":\"2016-03-03T13:09:36Z\",\"type\":"
+          + "\"debit\",\"amount\":320,\"currency\":\"EUR\"}],\"reference\":\"11503201000000162\"}]}",
+          ReportResponse.class);
+      assertEquals(1, store.add(daily));
+      assertEquals(3, store.getSettlementCount());
+      assertEquals(4, store.getTransactionCount());
+
+      TransactionView transactions = store.transactions(reverted);
+      assertTrue(transactions.next());
+      assertEquals("revert", transactions.getType());
+      assertEquals(-300, transactions.getAmount());
+      assertEquals(1, transactions.getSettlement());
+      assertTrue(transactions.next());
+      assertEquals("debit", transactions.getType());
+      assertEquals(reverted, transactions.getTransactionId());
+      assertEquals(990, transactions.getAmount());
+      assertEquals("EUR", transactions.getCurrency());
+      assertEquals(OffsetDateTime.parse("2016-03-01T10:11:12Z").toEpochSecond(), transactions.getTimestamp());
+      assertEquals("0024", transactions.getPartialPan());
+      assertEquals("160301000263", transactions.getFilingCode());
+      assertEquals("894463", transactions.getAuthorizationCode());
+      assertEquals("ok", transactions.getState());
+      assertEquals(4000, transactions.getStatusCode());
+      assertEquals("test_merchantId", transactions.getMerchantId());
+      assertEquals(990, transactions.getAcquirerAmountPresented());
+      assertEquals(1.0, transactions.getAcquirerExchangeRate(), 0);
+      assertTrue(Double.isNaN(transactions.getAcquirerDiscountRate()));
+      assertEquals(SettlementStore.NO_VALUE, transactions.getAcquirerTransactionFee());
+      assertEquals(2, transactions.getAcquirerCommission());
+      assertNull(transactions.getOrder());
+      assertFalse(transactions.next());
+      assertFalse(store.transactions(UUID.randomUUID()).next());
+
+      SettlementView settlement = store.settlement(transactions.getSettlement());
+      assertTrue(settlement.next());
+      assertTrue(settlement.isReconciliation());
+      assertNull(settlement.getId());
+      assertEquals("000001", settlement.getBatch());
+      assertEquals("00000000001", settlement.getAcquirerBatchId());
+      assertEquals("20160301000001", settlement.getReference());
+      assertEquals(LocalDate.of(2016, 3, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond(), settlement.getDate());
+      assertEquals(1490, settlement.getNetAmount());
+      assertEquals("nets", settlement.getAcquirerId());
+      assertEquals("Nets", settlement.getAcquirerName());
+      assertEquals("12345", settlement.getMainAcquirerMerchantId());
+      assertEquals(2, settlement.getTransactionCount());
+      TransactionView settled = settlement.transactions();
+      assertTrue(settled.next());
+      assertTrue(settled.next());
+      assertEquals(debited, settled.getTransactionId());
+      assertFalse(settled.next());
+      assertFalse(settlement.next());
+
+      SettlementView batch = store.settlementsByBatch("000016");
+      assertTrue(batch.next());
+      assertFalse(batch.isReconciliation());
+      assertEquals(UUID.fromString("11d22268-cc71-4894-bf41-e13a9039c327"), batch.getId());
+      assertEquals("test_merchantId", batch.getMerchantId());
+      assertEquals("Test user", batch.getMerchantName());
+      assertFalse(batch.next());
+      assertFalse(store.settlementsByBatch("999999").next());
+
+      SettlementView dates = store.settlementsBetween(LocalDate.of(2016, 3, 2), LocalDate.of(2016, 3, 4));
+      assertTrue(dates.next());
+      assertEquals("000002", dates.getBatch());
+      assertTrue(dates.next());
+      assertEquals("000016", dates.getBatch());
+      assertFalse(dates.next());
+    }
+  }
+
+  @Test
+  public void testSettlementsAreAddedOnce() throws IOException {
+    ReconciliationReportResponse report = reconciliationReport(
+        settlement("000001", "2016-03-01", 990, transaction(UUID.randomUUID(), "2016-03-01T10:11:12Z", "debit", 990)));
+    File directory = folder.newFolder();
+    try (SettlementStore store = new SettlementStore(directory)) {
+      assertEquals(1, store.add(report));
+      assertEquals(0, store.add(report));
+    }
+    try (SettlementStore store = new SettlementStore(directory)) {
+      assertEquals(0, store.add(report));
+      assertEquals(1, store.add(reconciliationReport(settlement("000002", "2016-03-02", 0))));
+      assertEquals(2, store.getSettlementCount());
+      assertEquals(1, store.getTransactionCount());
+    }
+  }
+
+  @Test
+  public void testStoreIsReopenedAfterGrowingAndCrashing() throws IOException {
+    File directory = folder.newFolder();
+    UUID[] ids = new UUID[40000];
+    try (SettlementStore store = new SettlementStore(directory)) {
+      for (int batch = 0; batch < 4; batch++) {
+        String[] transactions = new String[ids.length / 4];
+        for (int i = 0; i < transactions.length; i++) {
+          ids[batch * transactions.length + i] = UUID.randomUUID();
+          transactions[i] = transaction(ids[batch * transactions.length + i], "2016-03-01T10:00:00Z", "debit", i);
+        }
+        store.add(reconciliationReport(settlement("00000" + batch, "2016-03-0" + (batch + 1), 0, transactions)));
+      }
+    }
+    // The settlement count of the last settlement was not written
+    try (RandomAccessFile settlements = new RandomAccessFile(new File(directory, "settlements.dat"), "rw")) {
+      settlements.seek(8);
+      settlements.writeLong(3);
+    }
+    try (SettlementStore store = new SettlementStore(directory)) {
+      assertEquals(3, store.getSettlementCount());
+      assertEquals(30000, store.getTransactionCount());
+      for (int i = 0; i < ids.length; i++) {
+        TransactionView transaction = store.transactions(ids[i]);
+        assertEquals(i < 30000, transaction.next());
+      }
+      TransactionView transaction = store.transactions(ids[29999]);
+      assertTrue(transaction.next());
+      assertEquals(9999, transaction.getAmount());
+      assertEquals(2, transaction.getSettlement());
+    }
+  }
+
+  /**
+   * Stands for the process dying while a settlement is added
+   */
+  private static class Crash extends Error {
+  }
+
+  @Test
+  public void testIndexIsRebuiltAfterCrashingMidSettlement() throws IOException {
+    File directory = folder.newFolder();
+    UUID debited = UUID.randomUUID();
+    SettlementStore crashed = new SettlementStore(directory);
+    crashed.add(reconciliationReport(settlement("000001", "2016-03-01", 990,
+        transaction(debited, "2016-03-01T10:11:12Z", "debit", 990))));
+    ReconciliationReportResponse report = reconciliationReport(settlement("000002", "2016-03-02", -990,
+        transaction(debited, "2016-03-02T08:00:00Z", "revert", -990),
+        transaction(UUID.randomUUID(), "2016-03-02T09:00:00Z", "debit", 100)));
+    // The revert is indexed before the process dies on the next transaction
+    report.getReconciliationSettlements()[0].getTransactions()[1] = new ReconciliationTransaction() {
+      @Override
+      public String getId() {
+        throw new Crash();
+      }
+    };
+    try {
+      crashed.add(report);
+      fail();
+    } catch (Crash e) {
+      // The store is left as it is, without closing it
+    }
+
+    try (SettlementStore store = new SettlementStore(directory)) {
+      assertEquals(1, store.getTransactionCount());
+      assertEquals(1, store.add(reconciliationReport(settlement("000003", "2016-03-03", 500,
+          transaction(UUID.randomUUID(), "2016-03-03T08:00:00Z", "debit", 500)))));
+      TransactionView transactions = store.transactions(debited);
+      assertTrue(transactions.next());
+      assertEquals(990, transactions.getAmount());
+      assertEquals(0, transactions.getSettlement());
+      assertFalse(transactions.next());
+    }
+  }
+
+  @Test
+  public void testFailedSettlementIsRolledBack() throws IOException {
+    UUID orphaned = UUID.randomUUID();
+    UUID settled = UUID.randomUUID();
+    char[] batch = new char[0x10000];
+    Arrays.fill(batch, '1');
+    File directory = folder.newFolder();
+    try (SettlementStore store = new SettlementStore(directory)) {
+      try {
+        store.add(reconciliationReport(settlement(new String(batch), "2016-03-01", 990,
+            transaction(orphaned, "2016-03-01T10:11:12Z", "debit", 990))));
+        fail();
+      } catch (IOException e) {
+        assertTrue(e.getMessage().contains("too long"));
+      }
+      assertEquals(1, store.add(reconciliationReport(settlement("000002", "2016-03-02", 500,
+          transaction(settled, "2016-03-02T08:00:00Z", "debit", 500)))));
+      assertEquals(1, store.getTransactionCount());
+      assertFalse(store.transactions(orphaned).next());
+    }
+    try (SettlementStore store = new SettlementStore(directory)) {
+      assertFalse(store.transactions(orphaned).next());
+      TransactionView transactions = store.transactions(settled);
+      assertTrue(transactions.next());
+      assertEquals(0, transactions.getSettlement());
+      assertEquals("debit", transactions.getType());
+      assertEquals("EUR", transactions.getCurrency());
+      SettlementView settlement = store.settlement(0);
+      assertTrue(settlement.next());
+      assertEquals("000002", settlement.getBatch());
+    }
+  }
+
+  @Test
+  public void testOtherFilesAreRejected() throws IOException {
+    File directory = folder.newFolder();
+    try (RandomAccessFile file = new RandomAccessFile(new File(directory, "strings.dat"), "rw")) {
+      file.writeInt(0x12345678);
+    }
+    try {
+      new SettlementStore(directory).close();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("strings.dat"));
+    }
+  }
+
+  @Test
+  public void testFetchedReportsAreKept() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId");
+         SettlementStore store = new SettlementStore(folder.newFolder())) {
+      paymentApi.setSettlementStore(store);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setCommit(true)
+          .build());
+      String today = DateTimeFormatter.BASIC_ISO_DATE.format(LocalDate.now(ZoneOffset.UTC));
+
+      paymentApi.fetchDailyReport(today);
+      paymentApi.fetchReconciliationReport(today);
+      paymentApi.fetchReconciliationReport(today);
+
+      assertEquals(2, store.getSettlementCount());
+      TransactionView transactions = store.transactions(transactionId);
+      assertTrue(transactions.next());
+      assertEquals(9999, transactions.getAcquirerAmountPresented());
+      assertTrue(transactions.next());
+      assertEquals(9999, transactions.getAmount());
+      assertFalse(transactions.next());
+    }
+  }
+
+  @Test
+  public void testReportIsReturnedWhenTheStoreFails() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test",
+             "test_merchantId")) {
+      SettlementStore store = new SettlementStore(folder.newFolder());
+      store.close();
+      paymentApi.setSettlementStore(store);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      Card card = new Card("4153013999700024", "2023", "11", "024");
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(card, 9999, "EUR")
+          .setCommit(true)
+          .build());
+      String today = DateTimeFormatter.BASIC_ISO_DATE.format(LocalDate.now(ZoneOffset.UTC));
+
+      assertEquals(1, paymentApi.fetchDailyReport(today).getSettlements().length);
+      assertEquals(1, paymentApi.fetchReconciliationReport(today).getReconciliationSettlements().length);
+      assertEquals(2, paymentApi.getSettlementStoreFailureCount());
+    }
+  }
+}
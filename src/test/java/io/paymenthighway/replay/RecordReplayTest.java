@@ -0,0 +1,118 @@
+package io.paymenthighway.replay;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.TransactionStatusResponse;
+import io.paymenthighway.security.SecureSigner;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class RecordReplayTest {
+
+  private static final String PAN = "4153013999700024";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private UUID record(File file) throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder("testKey", "testSecret").build();
+         PaymentAPI paymentApi = new PaymentAPI(emulator.getServiceUrl(), "testKey", "testSecret", "test", "test_merchantId")) {
+      paymentApi.setHttpClient(new RecordingHttpClient(HttpClients.createDefault(), new ExchangeFile(file)));
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      TransactionRequest request = new TransactionRequest.Builder(new Card(PAN, "2023", "11", "024"), 9999, "EUR")
+          .setOrder("1000123A")
+          .build();
+      assertEquals("100", paymentApi.debitTransaction(transactionId, request).getResult().getCode());
+      assertEquals("9999", paymentApi.transactionStatus(transactionId).getTransaction().getAmount());
+      return transactionId;
+    }
+  }
+
+  @Test
+  public void testRecordingRedactsCardData() throws IOException {
+    File file = folder.newFile("exchanges.phx");
+    record(file);
+
+    List<RecordedExchange> exchanges = ExchangeFile.read(file);
+    assertEquals(3, exchanges.size());
+    assertEquals("POST", exchanges.get(1).getMethod());
+    assertTrue(exchanges.get(1).getUri().endsWith("/debit"));
+    assertTrue(exchanges.get(1).getRequestBody().contains("\"pan\":\"************0024\""));
+    assertTrue(exchanges.get(1).getRequestBody().contains("\"cvc\":\"***\""));
+    assertEquals(200, exchanges.get(2).getStatus());
+    assertTrue(exchanges.get(2).getDurationNanos() > 0);
+    assertTrue(exchanges.get(2).getStartNanos() > exchanges.get(1).getStartNanos());
+
+    String raw = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    assertFalse(raw.contains(PAN));
+  }
+
+  @Test
+  public void testReplayServesRecordedResponses() throws IOException {
+    File file = folder.newFile("exchanges.phx");
+    UUID transactionId = record(file);
+
+    try (PaymentAPI paymentApi = new PaymentAPI("http://127.0.0.1:1", "testKey", "testSecret", "test", "test_merchantId")) {
+      paymentApi.setHttpClient(new ReplayHttpClient(ExchangeFile.read(file), 0));
+
+      assertEquals(transactionId, paymentApi.initTransaction().getId());
+      for (int i = 0; i < 3; i++) {
+        TransactionStatusResponse status = paymentApi.transactionStatus(transactionId);
+        assertEquals("9999", status.getTransaction().getCurrentAmount());
+      }
+    }
+  }
+
+  @Test
+  public void testReplayMatchesOtherIdsWhenResigning() throws IOException {
+    File file = folder.newFile("exchanges.phx");
+    record(file);
+
+    try (PaymentAPI paymentApi = new PaymentAPI("http://127.0.0.1:1", "testKey", "testSecret", "test", "test_merchantId")) {
+      paymentApi.setHttpClient(new ReplayHttpClient(ExchangeFile.read(file), 0, new SecureSigner("testKey", "testSecret")));
+      assertEquals("100", paymentApi.transactionStatus(UUID.randomUUID()).getResult().getCode());
+    }
+  }
+
+  @Test
+  public void testTornFrameIsDroppedOnAppend() throws IOException {
+    File file = folder.newFile("exchanges.phx");
+    record(file);
+    long complete = file.length();
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[]{0, 0, 1, 0, 42});
+    }
+    assertEquals(3, ExchangeFile.read(file).size());
+
+    new ExchangeFile(file).close();
+    assertEquals(complete, file.length());
+    record(file);
+    assertEquals(6, ExchangeFile.read(file).size());
+  }
+
+  @Test
+  public void testReplayClientHasConnectionManager() throws IOException {
+    File file = folder.newFile("exchanges.phx");
+    record(file);
+    try (RecordingHttpClient client = new RecordingHttpClient(new ReplayHttpClient(ExchangeFile.read(file), 0),
+        new ExchangeFile(folder.newFile("rerecorded.phx")))) {
+      assertNotNull(client.getConnectionManager());
+      assertNotNull(client.getConnectionManager().getSchemeRegistry());
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package io.paymenthighway.state;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.OrderSearchResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OrderIndexTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  private static final Card CARD = new Card("4153013999700024", "2023", "11", "024");
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  private static UUID debit(PaymentAPI paymentApi, String order) throws IOException {
+    UUID transactionId = paymentApi.initTransaction().getId();
+    paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(CARD, 990, "EUR")
+        .setOrder(order)
+        .build());
+    return transactionId;
+  }
+
+  private static OrderSearchResponse searchResponse(UUID... transactionIds) {
+    StringBuilder json = new StringBuilder("{\"result\":{\"code\":\"100\",\"message\":\"OK\"},\"transactions\":[");
+    for (int i = 0; i < transactionIds.length; i++) {
+      json.append(i > 0 ? "," : "").append("{\"id\":\"").append(transactionIds[i]).append("\"}");
+    }
+    return new JsonParser().mapResponse(json.append("]}").toString(), OrderSearchResponse.class);
+  }
+
+  @Test
+  public void testDebitsAreAddedToSearchedOrder() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      paymentApi.setOrderIndex(new OrderIndex(1000, 1, TimeUnit.MINUTES));
+      UUID first = debit(paymentApi, "order-1");
+      assertEquals(Collections.singletonList(first), paymentApi.findOrderTransactionIds("order-1"));
+      UUID second = debit(paymentApi, "order-1");
+
+      long requests = emulator.getRequestCount();
+      assertEquals(Arrays.asList(first, second), paymentApi.findOrderTransactionIds("order-1"));
+      assertEquals(requests, emulator.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testDebitDoesNotIndexOrderAlone() throws InterruptedException {
+    OrderIndex index = new OrderIndex(1000, 20, TimeUnit.MILLISECONDS);
+    UUID earlier = UUID.randomUUID();
+    index.recordDebit(UUID.randomUUID(), "order-5", TransactionStateStoreTest.response("100"));
+    assertNull(index.getTransactionIds("order-5"));
+
+    index.recordSearch("order-5", searchResponse(earlier));
+    Thread.sleep(50);
+    // The order is no longer fresh, so the debit would be its only known transaction
+    index.recordDebit(UUID.randomUUID(), "order-5", TransactionStateStoreTest.response("100"));
+    assertNull(index.getTransactionIds("order-5"));
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testSearchIsAnsweredLocallyOnceStatusesAreKnown() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      OrderIndex index = new OrderIndex(1000, 1, TimeUnit.MINUTES);
+      paymentApi.setOrderIndex(index);
+      UUID transactionId = debit(paymentApi, "order-2");
+
+      // The debit response has no status, so the first search goes to Payment Highway and fills the index
+      long requests = emulator.getRequestCount();
+      OrderSearchResponse remote = paymentApi.searchOrders("order-2");
+      assertEquals(requests + 1, emulator.getRequestCount());
+
+      OrderSearchResponse local = paymentApi.searchOrders("order-2");
+      assertEquals(requests + 1, emulator.getRequestCount());
+      assertEquals("100", local.getResult().getCode());
+      assertEquals(1, local.getTransactions().length);
+      assertEquals(transactionId, local.getTransactions()[0].getId());
+      assertEquals(remote.getTransactions()[0].getCurrentAmount(), local.getTransactions()[0].getCurrentAmount());
+      assertEquals("order-2", local.getTransactions()[0].getOrder());
+      assertEquals(remote.getTransactions()[0].getStatus().getState(),
+          local.getTransactions()[0].getStatus().getState());
+
+      // A revert makes the known status stale
+      paymentApi.revertTransaction(transactionId);
+      paymentApi.searchOrders("order-2");
+      assertEquals(requests + 3, emulator.getRequestCount());
+
+      paymentApi.transactionStatus(transactionId);
+      assertEquals("0", paymentApi.searchOrders("order-2").getTransactions()[0].getCurrentAmount());
+      assertEquals(requests + 4, emulator.getRequestCount());
+    }
+  }
+
+  @Test
+  public void testUnknownOrderReadsThrough() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID transactionId = debit(paymentApi, "order-3");
+      OrderIndex index = new OrderIndex(1000, 1, TimeUnit.MINUTES);
+      paymentApi.setOrderIndex(index);
+
+      assertNull(index.getTransactionIds("order-3"));
+      assertEquals(Collections.singletonList(transactionId), paymentApi.findOrderTransactionIds("order-3"));
+      assertEquals(Collections.singletonList(transactionId), index.getTransactionIds("order-3"));
+      assertTrue(paymentApi.findOrderTransactionIds("no-such-order").isEmpty());
+    }
+  }
+
+  @Test
+  public void testOrdersExpire() throws InterruptedException {
+    OrderIndex index = new OrderIndex(1000, 20, TimeUnit.MILLISECONDS);
+    UUID transactionId = UUID.randomUUID();
+    index.recordSearch("order-4", searchResponse(transactionId));
+    List<UUID> found = index.getTransactionIds("order-4");
+    assertEquals(Collections.singletonList(transactionId), found);
+    Thread.sleep(50);
+    assertNull(index.getTransactionIds("order-4"));
+    assertEquals(0, index.size());
+  }
+}
@@ -0,0 +1,152 @@
+package io.paymenthighway.state;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.response.TokenizationResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TokenizationCacheTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  @Test
+  public void testTokenizationIsRequestedOnce() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      TokenizationCache cache = new TokenizationCache(100);
+      paymentApi.setTokenizationCache(cache);
+      UUID tokenizationId = emulator.tokenize(new Card("4153013999700024", "2099", "11", "024"));
+
+      TokenizationResponse first = paymentApi.tokenize(tokenizationId);
+      long requests = emulator.getRequestCount();
+      TokenizationResponse second = paymentApi.tokenize(tokenizationId);
+      assertEquals(requests, emulator.getRequestCount());
+      assertSame(first, second);
+      assertSame(first, cache.getByCardToken(first.getCardToken()));
+      assertEquals(2, cache.getHits());
+      assertEquals(1, cache.getMisses());
+    }
+  }
+
+  @Test
+  public void testExpiredCardIsNotCached() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      TokenizationCache cache = new TokenizationCache(100);
+      paymentApi.setTokenizationCache(cache);
+      UUID tokenizationId = emulator.tokenize(new Card("4153013999700024", "2023", "11", "024"));
+
+      paymentApi.tokenize(tokenizationId);
+      assertEquals(0, cache.size());
+      assertNull(cache.get(tokenizationId));
+    }
+  }
+
+  @Test
+  public void testExpiryIsTheEndOfTheMonth() {
+    TokenizationCache cache = new TokenizationCache(100);
+    assertEquals(1322697600000L, TokenizationCache.expiresMillis(card("2011", "11")));
+    assertEquals(1325376000000L, TokenizationCache.expiresMillis(card("11", "12")));
+    assertEquals(Long.MAX_VALUE, TokenizationCache.expiresMillis(null));
+    assertEquals(0, cache.purgeExpired());
+  }
+
+  private static TokenizationResponse.Card card(String year, String month) {
+    return new JsonParser().mapResponse(
+        "{\"expire_year\":\"" + year + "\",\"expire_month\":\"" + month + "\"}", TokenizationResponse.Card.class);
+  }
+
+  @Test
+  public void testCacheSurvivesRestart() throws IOException {
+    File file = new File(folder.getRoot(), "tokenizations.bin");
+    UUID tokenizationId;
+    UUID cardToken;
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator);
+         TokenizationCache cache = new TokenizationCache(100, file)) {
+
+      paymentApi.setTokenizationCache(cache);
+      tokenizationId = emulator.tokenize(new Card("4153013999700024", "2099", "11", "024"));
+      cardToken = paymentApi.tokenize(tokenizationId).getCardToken();
+    }
+
+    try (TokenizationCache cache = new TokenizationCache(100, file)) {
+      TokenizationResponse response = cache.get(tokenizationId);
+      assertNotNull(response);
+      assertEquals(cardToken, response.getCardToken());
+      assertEquals("0024", response.getCard().getPartialPan());
+      assertEquals("2099", response.getCard().getExpireYear());
+      assertEquals("100", response.getResult().getCode());
+      assertNotNull(cache.getByCardToken(cardToken));
+      assertNull(response.getCustomer());
+    }
+    assertFalse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).contains("card_token"));
+    if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+    }
+  }
+
+  @Test
+  public void testJsonFileOfEarlierVersionIsNotLoaded() throws IOException {
+    File file = folder.newFile("tokenizations.bin");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+      out.writeInt(0x50485431);
+      out.writeLong(1);
+      out.writeLong(2);
+      out.writeLong(Long.MAX_VALUE);
+      out.writeUTF("{\"result\":{\"code\":\"100\"},\"card_token\":\"" + UUID.randomUUID() + "\"}");
+    }
+    try (TokenizationCache cache = new TokenizationCache(100, file)) {
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  public void testRecordCutShortIsDropped() throws IOException {
+    File file = new File(folder.getRoot(), "tokenizations.bin");
+    try (TokenizationCache cache = new TokenizationCache(100, file)) {
+      assertEquals(0, cache.size());
+    }
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[]{1, 2, 3});
+    }
+    try (TokenizationCache cache = new TokenizationCache(100, file)) {
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testOtherFileIsRejected() throws IOException {
+    File file = folder.newFile("other.bin");
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("not a cache".getBytes("UTF-8"));
+    }
+    new TokenizationCache(100, file);
+  }
+}
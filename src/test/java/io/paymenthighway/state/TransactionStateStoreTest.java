@@ -0,0 +1,172 @@
+package io.paymenthighway.state;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.json.JsonParser;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import io.paymenthighway.model.response.CommitTransactionResponse;
+import io.paymenthighway.model.response.TransactionResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TransactionStateStoreTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  private static final Card CARD = new Card("4153013999700024", "2023", "11", "024");
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  static TransactionResponse response(String code) {
+    return new JsonParser().mapResponse("{\"result\":{\"code\":" + code + ",\"message\":\"\"}}",
+        TransactionResponse.class);
+  }
+
+  @Test
+  public void testLifecycleIsTrackedFromResponses() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      TransactionStateStore store = new TransactionStateStore(1000);
+      paymentApi.setStateStore(store);
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      assertEquals(TransactionState.Stage.INITIALIZED, store.get(transactionId).getStage());
+
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(CARD, 990, "EUR")
+          .setCommit(false)
+          .build());
+      TransactionState state = store.get(transactionId);
+      assertEquals(TransactionState.Stage.DEBITED, state.getStage());
+      assertEquals(990, state.getCurrentAmount());
+      assertEquals("EUR", state.getCurrency());
+
+      paymentApi.commitTransaction(transactionId, "990", "EUR");
+      assertEquals(TransactionState.Stage.COMMITTED, store.get(transactionId).getStage());
+
+      paymentApi.revertTransaction(transactionId, "490");
+      state = store.get(transactionId);
+      assertEquals(TransactionState.Stage.COMMITTED, state.getStage());
+      assertEquals(500, state.getCurrentAmount());
+      assertEquals(990, state.getAmount());
+
+      long requests = emulator.getRequestCount();
+      paymentApi.revertTransaction(transactionId);
+      assertEquals(TransactionState.Stage.REVERTED, store.get(transactionId).getStage());
+      assertEquals(0, store.get(transactionId).getCurrentAmount());
+      assertEquals(requests + 1, emulator.getRequestCount());
+      assertFalse(store.get(transactionId).isFromStatus());
+      assertEquals(0, store.getViolations());
+    }
+  }
+
+  @Test
+  public void testDebitIsCommittedByDefault() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      TransactionStateStore store = new TransactionStateStore(1000);
+      paymentApi.setStateStore(store);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      paymentApi.debitTransaction(transactionId, new TransactionRequest.Builder(CARD, 990, "EUR").build());
+      assertEquals(TransactionState.Stage.COMMITTED, store.get(transactionId).getStage());
+
+      paymentApi.transactionStatus(transactionId);
+      assertEquals(TransactionState.Stage.COMMITTED, store.get(transactionId).getStage());
+      assertEquals(0, store.getViolations());
+    }
+  }
+
+  @Test
+  public void testStatusResponseReplacesState() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      paymentApi.debitTransaction(transactionId, new TransactionRequest(CARD, "990", "EUR"));
+      CommitTransactionResponse commit = paymentApi.commitTransaction(transactionId, "990", "EUR");
+      assertEquals("100", commit.getResult().getCode());
+
+      // Set after the fact: only the status tells the store about the transaction
+      TransactionStateStore store = new TransactionStateStore(1000);
+      paymentApi.setStateStore(store);
+      assertNull(store.get(transactionId));
+
+      paymentApi.transactionStatus(transactionId);
+      TransactionState state = store.get(transactionId);
+      assertEquals(TransactionState.Stage.COMMITTED, state.getStage());
+      assertEquals(990, state.getAmount());
+      assertTrue(state.isFromStatus());
+      assertEquals(1, store.getHits());
+      assertEquals(1, store.getMisses());
+    }
+  }
+
+  @Test
+  public void testRejectedDebitFails() throws IOException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET)
+        .setDeclineRate(1.0)
+        .build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      TransactionStateStore store = new TransactionStateStore(1000);
+      paymentApi.setStateStore(store);
+      UUID transactionId = paymentApi.initTransaction().getId();
+      paymentApi.debitTransaction(transactionId, new TransactionRequest(CARD, "990", "EUR"));
+      assertEquals(TransactionState.Stage.FAILED, store.get(transactionId).getStage());
+
+      paymentApi.transactionStatus(transactionId);
+      assertEquals(TransactionState.Stage.FAILED, store.get(transactionId).getStage());
+    }
+  }
+
+  @Test
+  public void testResponseOutOfLifecycleDropsState() {
+    TransactionStateStore store = new TransactionStateStore(1000);
+    UUID transactionId = UUID.randomUUID();
+    store.recordInit(transactionId);
+    store.recordDebit(transactionId, "990", "EUR", false, response("100"));
+    store.recordRevert(transactionId, null, response("100"));
+    assertEquals(TransactionState.Stage.REVERTED, store.get(transactionId).getStage());
+
+    store.recordCommit(transactionId, "990", "EUR", response("100"));
+    assertNull(store.get(transactionId));
+    assertEquals(1, store.getViolations());
+
+    UUID overReverted = UUID.randomUUID();
+    store.recordDebit(overReverted, "100", "EUR", true, response("100"));
+    assertEquals(TransactionState.Stage.COMMITTED, store.get(overReverted).getStage());
+    store.recordRevert(overReverted, "200", response("100"));
+    assertNull(store.get(overReverted));
+    assertEquals(2, store.getViolations());
+  }
+
+  @Test
+  public void testSizeIsBounded() {
+    TransactionStateStore store = new TransactionStateStore(100, 4);
+    UUID first = UUID.randomUUID();
+    store.recordInit(first);
+    for (int i = 0; i < 1000; i++) {
+      store.recordInit(UUID.randomUUID());
+    }
+    assertTrue(store.size() <= 100);
+    assertNull(store.get(first));
+  }
+
+  @Test
+  public void testFailedResultIsNotRecorded() {
+    TransactionStateStore store = new TransactionStateStore(10);
+    UUID transactionId = UUID.randomUUID();
+    store.recordInit(transactionId);
+    store.recordDebit(transactionId, "990", "EUR", false, response("900"));
+    assertEquals(TransactionState.Stage.INITIALIZED, store.get(transactionId).getStage());
+  }
+}
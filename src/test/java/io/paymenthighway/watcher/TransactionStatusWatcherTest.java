@@ -0,0 +1,139 @@
+package io.paymenthighway.watcher;
+
+import io.paymenthighway.PaymentAPI;
+import io.paymenthighway.emulator.PaymentHighwayEmulator;
+import io.paymenthighway.model.request.Card;
+import io.paymenthighway.model.request.TransactionRequest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TransactionStatusWatcherTest {
+
+  private static final String KEY_ID = "testKey";
+  private static final String SECRET = "testSecret";
+
+  private static PaymentAPI paymentApi(PaymentHighwayEmulator emulator) {
+    return new PaymentAPI(emulator.getServiceUrl(), KEY_ID, SECRET, "test", "test_merchantId");
+  }
+
+  private static TransactionStatusWatcher.Builder builder(PaymentAPI paymentApi) {
+    return new TransactionStatusWatcher.Builder(paymentApi)
+        .setTimingWheel(5, TimeUnit.MILLISECONDS, 64)
+        .setBackoff(20, 80, TimeUnit.MILLISECONDS);
+  }
+
+  private static StatusChangeListener collect(final BlockingQueue<StatusChangeEvent> events,
+                                              final BlockingQueue<UUID> expired) {
+    return new StatusChangeListener() {
+      @Override
+      public void statusChanged(StatusChangeEvent event) {
+        events.add(event);
+      }
+
+      @Override
+      public void expired(UUID transactionId) {
+        expired.add(transactionId);
+      }
+    };
+  }
+
+  @Test
+  public void testSettledTransactionIsReported() throws IOException, InterruptedException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      BlockingQueue<StatusChangeEvent> events = new ArrayBlockingQueue<>(10);
+      BlockingQueue<UUID> expired = new ArrayBlockingQueue<>(10);
+      UUID transactionId = paymentApi.initTransaction().getId();
+
+      try (TransactionStatusWatcher watcher = builder(paymentApi).setListener(collect(events, expired)).build()) {
+        assertTrue(watcher.watch(transactionId));
+        assertFalse(watcher.watch(transactionId));
+
+        Thread.sleep(100);
+        assertTrue(events.isEmpty());
+        assertTrue(watcher.getPollCount() > 0);
+
+        Card card = new Card("4153013999700024", "2023", "11", "024");
+        paymentApi.debitTransaction(transactionId, new TransactionRequest(card, "990", "EUR"));
+
+        StatusChangeEvent event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(transactionId, event.getTransactionId());
+        assertNull(event.getPreviousState());
+        assertEquals("ok", event.getTransaction().getStatus().getState());
+        assertTrue(event.isSettled());
+        assertFalse(watcher.isWatched(transactionId));
+        assertEquals(0, watcher.size());
+      }
+      assertTrue(expired.isEmpty());
+    }
+  }
+
+  @Test
+  public void testUnchangedTransactionBacksOff() throws IOException, InterruptedException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      try (TransactionStatusWatcher watcher = builder(paymentApi).build()) {
+        long start = System.nanoTime();
+        watcher.watch(transactionId);
+        long deadline = start + TimeUnit.SECONDS.toNanos(10);
+        while (watcher.getPollCount() < 5 && System.nanoTime() < deadline) {
+          Thread.sleep(5);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Five polls 20 ms apart take about 100 ms, backing off through 20, 40 and 80 ms takes at least 220 ms.
+        // A slow machine only makes it longer.
+        assertTrue(watcher.getPollCount() >= 5);
+        assertTrue("5 polls in " + elapsedMillis + " ms", elapsedMillis >= 200);
+        assertTrue(watcher.isWatched(transactionId));
+      }
+    }
+  }
+
+  @Test
+  public void testUnsettledTransactionExpires() throws IOException, InterruptedException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator)) {
+
+      BlockingQueue<StatusChangeEvent> events = new ArrayBlockingQueue<>(10);
+      BlockingQueue<UUID> expired = new ArrayBlockingQueue<>(10);
+      UUID transactionId = paymentApi.initTransaction().getId();
+
+      try (TransactionStatusWatcher watcher = builder(paymentApi)
+          .setMaxAge(100, TimeUnit.MILLISECONDS)
+          .setListener(collect(events, expired))
+          .build()) {
+        watcher.watch(transactionId);
+        assertEquals(transactionId, expired.poll(5, TimeUnit.SECONDS));
+        assertFalse(watcher.isWatched(transactionId));
+      }
+      assertTrue(events.isEmpty());
+    }
+  }
+
+  @Test
+  public void testUnwatchedTransactionIsNotPolled() throws IOException, InterruptedException {
+    try (PaymentHighwayEmulator emulator = new PaymentHighwayEmulator.Builder(KEY_ID, SECRET).build();
+         PaymentAPI paymentApi = paymentApi(emulator);
+         TransactionStatusWatcher watcher = builder(paymentApi).build()) {
+
+      UUID transactionId = paymentApi.initTransaction().getId();
+      watcher.watch(transactionId);
+      assertTrue(watcher.unwatch(transactionId));
+      assertFalse(watcher.unwatch(transactionId));
+      Thread.sleep(100);
+      assertEquals(0, watcher.getPollCount());
+      assertEquals(0, watcher.size());
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package io.paymenthighway.watcher;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class WatchTableTest {
+
+  @Test
+  public void testIndexSurvivesGrowthAndRemoval() {
+    WatchTable table = new WatchTable(64, 16);
+    List<UUID> ids = new ArrayList<>();
+    for (int i = 0; i < 100000; i++) {
+      UUID id = UUID.randomUUID();
+      ids.add(id);
+      assertNotEquals(WatchTable.NONE, table.add(id, 1 + i % 1000, Long.MAX_VALUE));
+    }
+    assertEquals(WatchTable.NONE, table.add(ids.get(0), 1, Long.MAX_VALUE));
+    for (int i = 0; i < ids.size(); i += 2) {
+      assertTrue(table.cancel(ids.get(i)));
+    }
+    assertEquals(50000, table.size());
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(i % 2 == 1, table.find(ids.get(i)) != WatchTable.NONE);
+    }
+  }
+
+  @Test
+  public void testEntriesAreDueOnTheirTick() {
+    WatchTable table = new WatchTable(8, 16);
+    UUID soon = UUID.randomUUID();
+    UUID nextRotation = UUID.randomUUID();
+    table.add(soon, 3, Long.MAX_VALUE);
+    table.add(nextRotation, 11, Long.MAX_VALUE);
+
+    int[] due = new int[4];
+    assertEquals(0, table.takeDue(2, due, 4));
+    assertEquals(1, table.takeDue(3, due, 4));
+    assertEquals(soon, table.transactionId(due[0]));
+    table.remove(due[0]);
+    assertEquals(1, table.size());
+
+    // Same bucket, next rotation
+    assertEquals(1, table.takeDue(11, due, 4));
+    assertEquals(nextRotation, table.transactionId(due[0]));
+  }
+
+  @Test
+  public void testDueEntriesBeyondTheLimitMoveToTheNextTick() {
+    WatchTable table = new WatchTable(8, 16);
+    Set<UUID> ids = new HashSet<>();
+    for (int i = 0; i < 5; i++) {
+      UUID id = UUID.randomUUID();
+      ids.add(id);
+      table.add(id, 1, Long.MAX_VALUE);
+    }
+    int[] due = new int[5];
+    assertEquals(2, table.takeDue(1, due, 2));
+    assertEquals(3, table.takeDue(2, due, 5));
+    for (int i = 0; i < 3; i++) {
+      assertTrue(ids.contains(table.transactionId(due[i])));
+    }
+  }
+
+  @Test
+  public void testCancelledSlotIsReused() {
+    WatchTable table = new WatchTable(8, 16);
+    UUID first = UUID.randomUUID();
+    int slot = table.add(first, 1, Long.MAX_VALUE);
+    table.cancel(first);
+    int[] due = new int[1];
+    assertEquals(0, table.takeDue(1, due, 1));
+    assertEquals(slot, table.add(UUID.randomUUID(), 2, Long.MAX_VALUE));
+  }
+}